@@ -24,8 +24,10 @@
 package se.kth.id2203.client;
 
 import org.apache.commons.cli.*;
+import se.kth.id2203.kvstore.KVSerializer;
 import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.networking.NetAddressConverter;
+import se.kth.id2203.networking.NetSerializer;
 import se.sics.kompics.Kompics;
 import se.sics.kompics.config.Config;
 import se.sics.kompics.config.ConfigUpdate;
@@ -45,10 +47,25 @@ import java.util.UUID;
 public class Main {
 
     static final NetAddressConverter NAC = new NetAddressConverter();
-    
+    private static boolean registered = false;
+
     static {
+        register();
+    }
+
+    /**
+     * Register the conversions and serializers of the client, must run before the kompics runtime is created. Both
+     * the console and the embedded KVClient start through here.
+     */
+    public static synchronized void register() {
+        if (registered)
+            return;
+        registered = true;
         // conversions
         Conversions.register(NAC);
+        // serializers, events without one of their own fall back to Java serialization
+        NetSerializer.register();
+        KVSerializer.register();
     }
 
     /**
@@ -23,12 +23,13 @@
  */
 package se.kth.id2203.client;
 
+import com.google.common.util.concurrent.SettableFuture;
 import se.kth.id2203.kvstore.ClientService;
+import se.kth.id2203.kvstore.KVClient;
 import se.kth.id2203.networking.NetAddress;
 import se.sics.kompics.Channel;
 import se.sics.kompics.Component;
 import se.sics.kompics.ComponentDefinition;
-import se.sics.kompics.Init;
 import se.sics.kompics.network.Network;
 import se.sics.kompics.network.netty.NettyInit;
 import se.sics.kompics.network.netty.NettyNetwork;
@@ -36,18 +37,41 @@ import se.sics.kompics.timer.Timer;
 import se.sics.kompics.timer.java.JavaTimer;
 
 /**
- * Parent component which connects subcomponents for the client: ClientService, JavaTimer and NettyNetwork
+ * Parent component which connects subcomponents for the client: ClientService, JavaTimer and NettyNetwork.
+ * Created with an Init the client is embedded in an application instead of running the console.
  */
 public class ParentComponent
         extends ComponentDefinition {
 
     final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
-    protected final Component timer = create(JavaTimer.class, Init.NONE);
+    protected final Component timer = create(JavaTimer.class, se.sics.kompics.Init.NONE);
     protected final Component net = create(NettyNetwork.class, new NettyInit(self));
-    protected final Component client = create(ClientService.class, Init.NONE);
+    protected final Component client;
 
-    {
+    public ParentComponent() {
+        client = create(ClientService.class, se.sics.kompics.Init.NONE);
+        connectClient();
+    }
+
+    public ParentComponent(Init init) {
+        client = create(ClientService.class, new ClientService.Init(init.client));
+        connectClient();
+    }
+
+    private void connectClient() {
         connect(timer.getPositive(Timer.class), client.getNegative(Timer.class), Channel.TWO_WAY);
         connect(net.getPositive(Network.class), client.getNegative(Network.class), Channel.TWO_WAY);
     }
+
+    /**
+     * Init of an embedded client, holds the future of the KVClient
+     */
+    public static class Init extends se.sics.kompics.Init<ParentComponent> {
+
+        public final SettableFuture<KVClient> client;
+
+        public Init(SettableFuture<KVClient> client) {
+            this.client = client;
+        }
+    }
 }
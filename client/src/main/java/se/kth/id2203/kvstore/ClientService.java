@@ -24,27 +24,38 @@
 package se.kth.id2203.kvstore;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.LoggerFactory;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.overlay.Connect;
+import se.kth.id2203.overlay.GetRoutingTable;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.Redirect;
 import se.kth.id2203.overlay.RouteMsg;
+import se.kth.id2203.overlay.RoutingTable;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.CancelTimeout;
 import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timeout;
 import se.sics.kompics.timer.Timer;
 
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 
 /**
  * ClientService component, receives Operation-commands from Console-thread and sends, connects to and sends requests to
  * Bootstrap server.
  *
+ * Once connected the client fetches the routing table and sends operations straight to the leader of the partition
+ * responsible for the key. Servers that receive an operation they do not lead forward it and redirect the client
+ * with a fresh routing table.
+ *
+ * Any number of operations can be outstanding, each one has a timeout after which its future fails. The service either
+ * runs the console or, when it is created with an Init, hands a KVClient to the application that embeds it.
+ *
  * @author Lars Kroll <lkroll@kth.se>
  */
 public class ClientService extends ComponentDefinition {
@@ -57,7 +68,24 @@ public class ClientService extends ComponentDefinition {
     private final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
     private final NetAddress server = config().getValue("id2203.project.bootstrap-address", NetAddress.class);
     private Optional<Connect.Ack> connected = Optional.absent();
-    private final Map<UUID, SettableFuture<OpResponse>> pending = new TreeMap<>();
+    private RoutingTable routingTable;
+    final long timeout = config().getValue("id2203.project.client.timeout", Long.class);
+    private final Optional<SettableFuture<KVClient>> client;
+    private final PendingOps pending = new PendingOps();
+
+    /**
+     * Client with console
+     */
+    public ClientService() {
+        client = Optional.absent();
+    }
+
+    /**
+     * Embedded client, the KVClient is set once connected
+     */
+    public ClientService(Init init) {
+        client = Optional.of(init.client);
+    }
 
     //******* Handlers ******
     /**
@@ -76,7 +104,8 @@ public class ClientService extends ComponentDefinition {
         }
     };
     /**
-     * Connected successfully, start console thread to receive commands from user
+     * Connected successfully, hand the KVClient to the application or start console thread to receive commands from
+     * user
      */
     protected final ClassMatchedHandler<Connect.Ack, Message> connectHandler = new ClassMatchedHandler<Connect.Ack, Message>() {
         
@@ -84,9 +113,14 @@ public class ClientService extends ComponentDefinition {
         public void handle(Connect.Ack content, Message context) {
             LOG.info("Client connected to {}, cluster size is {}", server, content.clusterSize);
             connected = Optional.of(content);
-            Console c = new Console(ClientService.this);
-            Thread tc = new Thread(c);
-            tc.start();
+            trigger(new Message(self, server, new GetRoutingTable()), net);
+            if (client.isPresent()) {
+                client.get().set(new KVClient(ClientService.this));
+            } else {
+                Console c = new Console(ClientService.this);
+                Thread tc = new Thread(c);
+                tc.start();
+            }
         }
     };
     /**
@@ -98,6 +132,8 @@ public class ClientService extends ComponentDefinition {
         public void handle(ConnectTimeout event) {
             if (!connected.isPresent()) {
                 LOG.error("Connection to server {} did not succeed. Shutting down...", server);
+                if (client.isPresent())
+                    client.get().setException(new TimeoutException("Connection to server " + server + " did not succeed"));
                 Kompics.asyncShutdown();
             } else {
                 Connect.Ack cack = connected.get();
@@ -108,18 +144,64 @@ public class ClientService extends ComponentDefinition {
             }
         }
     };
+    /**
+     * Operation-timeout, fail the future of the operation if it is still pending. The leader of the partition may have
+     * failed without anyone redirecting the client, so forget it and fetch a fresh routing table, until then
+     * operations on the partition go through the bootstrap server.
+     */
+    protected final Handler<OpTimeout> opTimeoutHandler = new Handler<OpTimeout>() {
+
+        @Override
+        public void handle(OpTimeout event) {
+            if (pending.expire(event.opId)) {
+                LOG.debug("Operation {} timed out, refreshing routing table", event.opId);
+                if (routingTable != null)
+                    routingTable = routingTable.withoutLeader(event.key);
+                trigger(new Message(self, server, new GetRoutingTable()), net);
+            }
+        }
+    };
 
     /**
-     * Send operation-request to server, the operation is wrapped in a RouteMsg which is route in a network message.
-     * Add operation to pending-set.
+     * Send operation-request to the leader of the partition, the operation is wrapped in a RouteMsg which is route in
+     * a network message. Add operation to pending-set and schedule its timeout.
      */
     protected final Handler<OpWithFuture> opHandler = new Handler<OpWithFuture>() {
         
         @Override
         public void handle(OpWithFuture event) {
-            RouteMsg rm = new RouteMsg(event.op.key, event.op); // don't know which partition is responsible, so ask the bootstrap server to forward it
-            trigger(new Message(self, server, rm), net);
-            pending.put(event.op.id, event.f);
+            RouteMsg rm = new RouteMsg(event.op.key, event.op);
+            NetAddress target = server; // don't know the leader of the partition, so ask the bootstrap server to forward it
+            PID leader = routingTable != null ? routingTable.target(event.op.key) : null;
+            if (leader != null)
+                target = leader.netAddress;
+            trigger(new Message(self, target, rm), net);
+            ScheduleTimeout st = new ScheduleTimeout(event.timeout);
+            st.setTimeoutEvent(new OpTimeout(st, event.op.id, event.op.key));
+            trigger(st, timer);
+            pending.add(event.op.id, event.f, st.getTimeoutEvent().getTimeoutId());
+        }
+    };
+    /**
+     * Received routing table, cache it
+     */
+    protected final ClassMatchedHandler<RoutingTable, Message> routingTableHandler = new ClassMatchedHandler<RoutingTable, Message>() {
+        
+        @Override
+        public void handle(RoutingTable content, Message context) {
+            LOG.debug("Got routing table: {}", content);
+            routingTable = content;
+        }
+    };
+    /**
+     * Operation was sent to a server that does not lead the partition, the cached routing table is stale
+     */
+    protected final ClassMatchedHandler<Redirect, Message> redirectHandler = new ClassMatchedHandler<Redirect, Message>() {
+        
+        @Override
+        public void handle(Redirect content, Message context) {
+            LOG.debug("Redirected by {} for key {}, refreshing routing table", context.getSource(), content.key);
+            routingTable = content.routingTable;
         }
     };
     /**
@@ -129,10 +211,10 @@ public class ClientService extends ComponentDefinition {
         
         @Override
         public void handle(OpResponse content, Message context) {
-            LOG.info("Got OpResponse: {}", content);
-            SettableFuture<OpResponse> sf = pending.remove(content.id);
-            if (sf != null) {
-                sf.set(content);
+            LOG.debug("Got OpResponse: {}", content);
+            UUID timeoutId = pending.respond(content);
+            if (timeoutId != null) {
+                trigger(new CancelTimeout(timeoutId), timer);
             } else {
                 LOG.warn("ID {} was not pending! Ignoring response.", content.id);
             }
@@ -145,9 +227,12 @@ public class ClientService extends ComponentDefinition {
     {
         subscribe(startHandler, control);
         subscribe(timeoutHandler, timer);
+        subscribe(opTimeoutHandler, timer);
         subscribe(connectHandler, net);
         subscribe(opHandler, loopback);
         subscribe(responseHandler, net);
+        subscribe(routingTableHandler, net);
+        subscribe(redirectHandler, net);
     }
 
     /**
@@ -156,9 +241,16 @@ public class ClientService extends ComponentDefinition {
      * @param key
      * @return
      */
-    Future<OpResponse> op(String key, String value, String referenceValue, Operation.OperationCode operationCode) {
+    ListenableFuture<OpResponse> op(String key, String value, String referenceValue, Operation.OperationCode operationCode) {
+        return op(key, value, referenceValue, operationCode, timeout);
+    }
+
+    /**
+     * Send operation that times out after timeout ms, may be called from any thread
+     */
+    ListenableFuture<OpResponse> op(String key, String value, String referenceValue, Operation.OperationCode operationCode, long timeout) {
         Operation op = new Operation(key, value, referenceValue,operationCode);
-        OpWithFuture owf = new OpWithFuture(op);
+        OpWithFuture owf = new OpWithFuture(op, timeout);
         trigger(owf, onSelf);
         return owf.f;
     }
@@ -167,10 +259,24 @@ public class ClientService extends ComponentDefinition {
         
         public final Operation op;
         public final SettableFuture<OpResponse> f;
+        public final long timeout;
         
-        public OpWithFuture(Operation op) {
+        public OpWithFuture(Operation op, long timeout) {
             this.op = op;
             this.f = SettableFuture.create();
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * Init of an embedded client, holds the future of the KVClient
+     */
+    public static class Init extends se.sics.kompics.Init<ClientService> {
+
+        public final SettableFuture<KVClient> client;
+
+        public Init(SettableFuture<KVClient> client) {
+            this.client = client;
         }
     }
     
@@ -180,4 +286,16 @@ public class ClientService extends ComponentDefinition {
             super(st);
         }
     }
+
+    public static class OpTimeout extends Timeout {
+
+        public final UUID opId;
+        public final String key;
+
+        OpTimeout(ScheduleTimeout st, UUID opId, String key) {
+            super(st);
+            this.opId = opId;
+            this.key = key;
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package se.kth.id2203.kvstore;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import se.kth.id2203.client.Main;
+import se.kth.id2203.client.ParentComponent;
+import se.sics.kompics.Kompics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous client library for the key-value store, for applications that embed the client instead of using the
+ * console.
+ *
+ * Every operation returns at once with a ListenableFuture of the response, callbacks can be added to it and any number
+ * of operations can be outstanding at the same time. The operations are pipelined to the leaders of the partitions over
+ * the connections of the client. The future fails with a TimeoutException if no response arrives within the timeout of
+ * the operation. The methods are thread-safe and may be called from any application thread.
+ */
+public class KVClient {
+
+    private final ClientService service;
+
+    KVClient(ClientService service) {
+        this.service = service;
+    }
+
+    /**
+     * Start the client with the address and bootstrap-address of the kompics config
+     *
+     * @return future that is set once the client has connected to the cluster, fails if the connection times out
+     */
+    public static ListenableFuture<KVClient> start() {
+        Main.register();
+        SettableFuture<KVClient> client = SettableFuture.create();
+        Kompics.createAndStart(ParentComponent.class, new ParentComponent.Init(client));
+        return client;
+    }
+
+    public ListenableFuture<OpResponse> get(String key) {
+        return service.op(key, "", "", Operation.OperationCode.GET, service.timeout);
+    }
+
+    public ListenableFuture<OpResponse> put(String key, String value) {
+        return service.op(key, value, "", Operation.OperationCode.PUT, service.timeout);
+    }
+
+    public ListenableFuture<OpResponse> cas(String key, String referenceValue, String value) {
+        return service.op(key, value, referenceValue, Operation.OperationCode.CAS, service.timeout);
+    }
+
+    /**
+     * Send operation with its own timeout
+     */
+    public ListenableFuture<OpResponse> op(String key, String value, String referenceValue,
+                                           Operation.OperationCode operationCode, long timeout, TimeUnit unit) {
+        return service.op(key, value, referenceValue, operationCode, unit.toMillis(timeout));
+    }
+
+    /**
+     * Send operation and call the callback with the response or failure, the callback runs on the thread of the
+     * client component and should not block
+     */
+    public void op(String key, String value, String referenceValue, Operation.OperationCode operationCode,
+                   FutureCallback<OpResponse> callback) {
+        Futures.addCallback(service.op(key, value, referenceValue, operationCode, service.timeout), callback,
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Stop the client, pending operations are not completed
+     */
+    public void shutdown() {
+        Kompics.asyncShutdown();
+    }
+}
@@ -0,0 +1,55 @@
+package se.kth.id2203.kvstore;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Outstanding operations of the client, each with the future of its response and the id of its timeout. An operation
+ * is completed at most once, either by its response or by its timeout, whichever comes first.
+ */
+class PendingOps {
+
+    private final Map<UUID, SettableFuture<OpResponse>> futures = new HashMap<>();
+    private final Map<UUID, UUID> timeouts = new HashMap<>();
+
+    void add(UUID opId, SettableFuture<OpResponse> future, UUID timeoutId) {
+        futures.put(opId, future);
+        timeouts.put(opId, timeoutId);
+    }
+
+    /**
+     * Complete the operation with its response
+     *
+     * @return id of the timeout to cancel, null if the operation was not pending
+     */
+    UUID respond(OpResponse response) {
+        SettableFuture<OpResponse> future = futures.remove(response.id);
+        UUID timeoutId = timeouts.remove(response.id);
+        if (future == null)
+            return null;
+        future.set(response);
+        return timeoutId;
+    }
+
+    /**
+     * Fail the operation with a TimeoutException
+     *
+     * @return true if the operation was pending
+     */
+    boolean expire(UUID opId) {
+        timeouts.remove(opId);
+        SettableFuture<OpResponse> future = futures.remove(opId);
+        if (future == null)
+            return false;
+        future.setException(new TimeoutException("No response to operation " + opId + " within timeout"));
+        return true;
+    }
+
+    int size() {
+        return futures.size();
+    }
+}
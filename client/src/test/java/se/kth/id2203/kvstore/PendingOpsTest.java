@@ -0,0 +1,73 @@
+package se.kth.id2203.kvstore;
+
+import com.google.common.util.concurrent.SettableFuture;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Unit tests for PendingOps, the response and timeout paths of the client operations
+ */
+public class PendingOpsTest {
+
+    /**
+     * A response completes the future and returns the timeout to cancel, a later timeout of the operation is ignored
+     */
+    @Test
+    public void responseTest() throws Exception {
+        PendingOps pending = new PendingOps();
+        UUID opId = UUID.randomUUID();
+        UUID timeoutId = UUID.randomUUID();
+        SettableFuture<OpResponse> future = SettableFuture.create();
+        pending.add(opId, future, timeoutId);
+        Assert.assertEquals(timeoutId, pending.respond(new OpResponse(opId, OpResponse.Code.OK, "value")));
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals("value", future.get().value);
+        Assert.assertFalse(pending.expire(opId));
+        Assert.assertEquals(0, pending.size());
+    }
+
+    /**
+     * A timeout fails the future with a TimeoutException, a late response is not pending anymore
+     */
+    @Test
+    public void timeoutTest() throws Exception {
+        PendingOps pending = new PendingOps();
+        UUID opId = UUID.randomUUID();
+        SettableFuture<OpResponse> future = SettableFuture.create();
+        pending.add(opId, future, UUID.randomUUID());
+        Assert.assertTrue(pending.expire(opId));
+        Assert.assertTrue(future.isDone());
+        try {
+            future.get();
+            Assert.fail("Timed out operation should fail");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        Assert.assertNull(pending.respond(new OpResponse(opId, OpResponse.Code.OK, "value")));
+        Assert.assertEquals(0, pending.size());
+    }
+
+    /**
+     * Operations are completed independently of each other
+     */
+    @Test
+    public void outstandingTest() throws Exception {
+        PendingOps pending = new PendingOps();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        SettableFuture<OpResponse> firstFuture = SettableFuture.create();
+        SettableFuture<OpResponse> secondFuture = SettableFuture.create();
+        pending.add(first, firstFuture, UUID.randomUUID());
+        pending.add(second, secondFuture, UUID.randomUUID());
+        Assert.assertEquals(2, pending.size());
+        pending.expire(second);
+        Assert.assertFalse(firstFuture.isDone());
+        Assert.assertNotNull(pending.respond(new OpResponse(first, OpResponse.Code.NOT_FOUND)));
+        Assert.assertEquals(OpResponse.Code.NOT_FOUND, firstFuture.get().status);
+        Assert.assertTrue(secondFuture.isDone());
+    }
+}
@@ -0,0 +1,76 @@
+package se.kth.id2203.kvstore;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+import java.util.UUID;
+
+import static se.kth.id2203.networking.NetSerializer.*;
+
+/**
+ * Compact binary serializer for the operations of the clients and their responses
+ */
+public class KVSerializer implements Serializer {
+
+    public static final String NAME = "kvS";
+    private static final byte OPERATION = 1;
+    private static final byte OP_RESPONSE = 2;
+
+    /**
+     * Register the serializer and the classes it serializes
+     */
+    public static void register() {
+        Serializers.register(new KVSerializer(), NAME);
+        Serializers.register(Operation.class, NAME);
+        Serializers.register(OpResponse.class, NAME);
+    }
+
+    @Override
+    public int identifier() {
+        return 101;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+        if (o instanceof Operation) {
+            Operation operation = (Operation) o;
+            buf.writeByte(OPERATION);
+            writeId(buf, operation.id);
+            buf.writeByte(operation.operationCode.ordinal());
+            writeString(buf, operation.key);
+            writeString(buf, operation.value);
+            writeString(buf, operation.referenceValue);
+        } else if (o instanceof OpResponse) {
+            OpResponse response = (OpResponse) o;
+            buf.writeByte(OP_RESPONSE);
+            writeId(buf, response.id);
+            buf.writeByte(response.status.ordinal());
+            writeString(buf, response.value);
+        } else {
+            throw new IllegalArgumentException("KVSerializer can not serialize " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+        byte type = buf.readByte();
+        switch (type) {
+            case OPERATION: {
+                UUID id = readId(buf);
+                Operation.OperationCode code = Operation.OperationCode.values()[buf.readByte()];
+                String key = readString(buf);
+                String value = readString(buf);
+                return new Operation(id, key, value, readString(buf), code);
+            }
+            case OP_RESPONSE: {
+                UUID id = readId(buf);
+                OpResponse.Code status = OpResponse.Code.values()[buf.readByte()];
+                return new OpResponse(id, status, readString(buf));
+            }
+            default:
+                throw new IllegalArgumentException("KVSerializer got unknown type " + type);
+        }
+    }
+}
@@ -44,11 +44,15 @@ public class Operation implements KompicsEvent, Serializable {
     public final OperationCode operationCode;
 
     public Operation(String key, String value,String referenceValue, OperationCode operationCode) {
+        this(UUID.randomUUID(), key, value, referenceValue, operationCode);
+    }
+
+    public Operation(UUID id, String key, String value,String referenceValue, OperationCode operationCode) {
         this.key = key;
         this.value = value;
         this.referenceValue = referenceValue;
         this.operationCode = operationCode;
-        this.id = UUID.randomUUID();
+        this.id = id;
     }
 
     @Override
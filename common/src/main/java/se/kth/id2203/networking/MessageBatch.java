@@ -0,0 +1,19 @@
+package se.kth.id2203.networking;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Payloads of several messages with the same source and destination that are sent in a single frame,
+ * in the order they were sent.
+ */
+public class MessageBatch implements KompicsEvent, Serializable {
+
+    public final List<KompicsEvent> payloads;
+
+    public MessageBatch(List<KompicsEvent> payloads) {
+        this.payloads = payloads;
+    }
+}
@@ -0,0 +1,215 @@
+package se.kth.id2203.networking;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.RouteMsg;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compact binary serializer for addresses and the messages that wrap the events sent over the network.
+ * Addresses, PIDs and UUIDs are written as fixed-width fields, payloads are written with the serializer that is
+ * registered for their class, events without a serializer of their own fall back to Java serialization. A
+ * SerializedEvent payload is written as the bytes it already holds.
+ *
+ * The static read/write methods are shared with the serializers of the other events.
+ */
+public class NetSerializer implements Serializer {
+
+    public static final String NAME = "netS";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte ADDRESS = 1;
+    private static final byte PROCESS_ID = 2;
+    private static final byte MESSAGE = 3;
+    private static final byte UDP_MESSAGE = 4;
+    private static final byte ROUTE_MSG = 5;
+    private static final byte MESSAGE_BATCH = 6;
+
+    /**
+     * Register the serializer and the classes it serializes
+     */
+    public static void register() {
+        Serializers.register(new NetSerializer(), NAME);
+        Serializers.register(NetAddress.class, NAME);
+        Serializers.register(PID.class, NAME);
+        Serializers.register(Message.class, NAME);
+        Serializers.register(UDPMessage.class, NAME);
+        Serializers.register(RouteMsg.class, NAME);
+        Serializers.register(MessageBatch.class, NAME);
+    }
+
+    @Override
+    public int identifier() {
+        return 100;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+        if (o instanceof NetAddress) {
+            buf.writeByte(ADDRESS);
+            writeAddress(buf, (NetAddress) o);
+        } else if (o instanceof PID) {
+            buf.writeByte(PROCESS_ID);
+            writePID(buf, (PID) o);
+        } else if (o instanceof Message) {
+            Message message = (Message) o;
+            buf.writeByte(MESSAGE);
+            writeAddress(buf, message.getSource());
+            writeAddress(buf, message.getDestination());
+            writePayload(buf, message.payload);
+        } else if (o instanceof UDPMessage) {
+            UDPMessage message = (UDPMessage) o;
+            buf.writeByte(UDP_MESSAGE);
+            writeAddress(buf, message.getSource());
+            writeAddress(buf, message.getDestination());
+            writePayload(buf, message.payload);
+        } else if (o instanceof RouteMsg) {
+            RouteMsg routeMsg = (RouteMsg) o;
+            buf.writeByte(ROUTE_MSG);
+            writeString(buf, routeMsg.key);
+            writePayload(buf, routeMsg.msg);
+        } else if (o instanceof MessageBatch) {
+            MessageBatch batch = (MessageBatch) o;
+            buf.writeByte(MESSAGE_BATCH);
+            buf.writeInt(batch.payloads.size());
+            for (KompicsEvent payload : batch.payloads) {
+                writePayload(buf, payload);
+            }
+        } else {
+            throw new IllegalArgumentException("NetSerializer can not serialize " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+        byte type = buf.readByte();
+        switch (type) {
+            case ADDRESS:
+                return readAddress(buf);
+            case PROCESS_ID:
+                return readPID(buf);
+            case MESSAGE: {
+                NetAddress src = readAddress(buf);
+                NetAddress dst = readAddress(buf);
+                return new Message(src, dst, (KompicsEvent) Serializers.fromBinary(buf, Optional.absent()));
+            }
+            case UDP_MESSAGE: {
+                NetAddress src = readAddress(buf);
+                NetAddress dst = readAddress(buf);
+                return new UDPMessage(src, dst, (KompicsEvent) Serializers.fromBinary(buf, Optional.absent()));
+            }
+            case ROUTE_MSG: {
+                String key = readString(buf);
+                return new RouteMsg(key, (KompicsEvent) Serializers.fromBinary(buf, Optional.absent()));
+            }
+            case MESSAGE_BATCH: {
+                int size = buf.readInt();
+                List<KompicsEvent> payloads = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    payloads.add((KompicsEvent) Serializers.fromBinary(buf, Optional.absent()));
+                }
+                return new MessageBatch(payloads);
+            }
+            default:
+                throw new IllegalArgumentException("NetSerializer got unknown type " + type);
+        }
+    }
+
+    /**
+     * Write a payload with the serializer registered for its class, a SerializedEvent is written as its bytes
+     */
+    public static void writePayload(ByteBuf buf, KompicsEvent payload) {
+        if (payload instanceof SerializedEvent) {
+            ByteBuf bytes = ((SerializedEvent) payload).bytes;
+            buf.writeBytes(bytes, bytes.readerIndex(), bytes.readableBytes());
+        } else {
+            Serializers.toBinary(payload, buf);
+        }
+    }
+
+    /**
+     * Length of the IP address (4 or 16) followed by the address and the port
+     */
+    public static void writeAddress(ByteBuf buf, NetAddress address) {
+        byte[] ip = address.getIp().getAddress();
+        buf.writeByte(ip.length);
+        buf.writeBytes(ip);
+        buf.writeShort(address.getPort());
+    }
+
+    public static NetAddress readAddress(ByteBuf buf) {
+        byte[] ip = new byte[buf.readUnsignedByte()];
+        buf.readBytes(ip);
+        int port = buf.readUnsignedShort();
+        try {
+            return new NetAddress(InetAddress.getByAddress(ip), port);
+        } catch (UnknownHostException ex) {
+            throw new IllegalArgumentException("Invalid IP address of length " + ip.length, ex);
+        }
+    }
+
+    public static void writePID(ByteBuf buf, PID pid) {
+        writeAddress(buf, pid.netAddress);
+        buf.writeLong(pid.pid);
+    }
+
+    public static PID readPID(ByteBuf buf) {
+        NetAddress address = readAddress(buf);
+        return new PID(address, buf.readLong());
+    }
+
+    /**
+     * PID that may be null, e.g the leader of a partition before it has installed a view
+     */
+    public static void writeNullablePID(ByteBuf buf, PID pid) {
+        buf.writeBoolean(pid != null);
+        if (pid != null)
+            writePID(buf, pid);
+    }
+
+    public static PID readNullablePID(ByteBuf buf) {
+        return buf.readBoolean() ? readPID(buf) : null;
+    }
+
+    public static void writeId(ByteBuf buf, UUID id) {
+        buf.writeLong(id.getMostSignificantBits());
+        buf.writeLong(id.getLeastSignificantBits());
+    }
+
+    public static UUID readId(ByteBuf buf) {
+        long msb = buf.readLong();
+        long lsb = buf.readLong();
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * UTF-8 bytes prefixed with their length, -1 for null
+     */
+    public static void writeString(ByteBuf buf, String s) {
+        if (s == null) {
+            buf.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(UTF8);
+            buf.writeInt(bytes.length);
+            buf.writeBytes(bytes);
+        }
+    }
+
+    public static String readString(ByteBuf buf) {
+        int length = buf.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buf.readBytes(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,122 @@
+package se.kth.id2203.networking;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Round-trip time estimator that gives per-peer retransmission timeouts, following RFC 6298: a smoothed RTT and its
+ * mean deviation are kept for every peer and the timeout is srtt + 4 * rttvar within configured bounds. Each
+ * retransmission to a peer doubles its timeout until a new sample arrives.
+ *
+ * Callers must only sample messages that were not retransmitted (Karn's algorithm) since the response to a
+ * retransmitted message can not be matched to a transmission.
+ *
+ * @param <K> peer type
+ */
+public class RttEstimator<K> {
+
+    private static final int MAX_BACKOFF = 16;
+    private final long initial;
+    private final long min;
+    private final long max;
+    private final Map<K, Estimate> estimates = new HashMap<>();
+
+    /**
+     * @param initial timeout before the first sample of a peer
+     * @param min     lower bound of the timeout
+     * @param max     upper bound of the timeout, also with backoff
+     */
+    public RttEstimator(long initial, long min, long max) {
+        this.initial = initial;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Add a round-trip time sample for peer and reset its backoff
+     *
+     * @param peer peer
+     * @param rtt  time from sending a message that was not retransmitted until the response arrived
+     */
+    public void sample(K peer, long rtt) {
+        Estimate estimate = estimate(peer);
+        if (estimate.srtt < 0) {
+            estimate.srtt = rtt;
+            estimate.rttvar = rtt / 2;
+        } else {
+            estimate.rttvar = (3 * estimate.rttvar + Math.abs(estimate.srtt - rtt)) / 4;
+            estimate.srtt = (7 * estimate.srtt + rtt) / 8;
+        }
+        estimate.backoff = 0;
+    }
+
+    /**
+     * A message to peer timed out, double its timeout
+     *
+     * @param peer peer
+     */
+    public void backoff(K peer) {
+        Estimate estimate = estimate(peer);
+        if (estimate.backoff < MAX_BACKOFF)
+            estimate.backoff++;
+    }
+
+    /**
+     * @param peer peer
+     * @return retransmission timeout of peer
+     */
+    public long timeout(K peer) {
+        Estimate estimate = estimates.get(peer);
+        if (estimate == null)
+            return initial;
+        long timeout = estimate.srtt < 0 ? initial : estimate.srtt + Math.max(1, 4 * estimate.rttvar);
+        timeout = Math.max(min, Math.min(timeout, max));
+        return Math.min(timeout << estimate.backoff, max);
+    }
+
+    /**
+     * @param peers peers
+     * @return largest retransmission timeout of the peers, i.e how long to wait for all of them to respond
+     */
+    public long timeout(Collection<K> peers) {
+        long timeout = min;
+        for (K peer : peers) {
+            timeout = Math.max(timeout, timeout(peer));
+        }
+        return timeout;
+    }
+
+    /**
+     * @param peer peer
+     * @return smoothed round-trip time of peer or -1 if it has not been sampled
+     */
+    public long smoothedRtt(K peer) {
+        Estimate estimate = estimates.get(peer);
+        return estimate == null ? -1 : estimate.srtt;
+    }
+
+    /**
+     * Forget peer, e.g when it leaves the group
+     *
+     * @param peer peer
+     */
+    public void remove(K peer) {
+        estimates.remove(peer);
+    }
+
+    private Estimate estimate(K peer) {
+        Estimate estimate = estimates.get(peer);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimates.put(peer, estimate);
+        }
+        return estimate;
+    }
+
+    private static class Estimate {
+        long srtt = -1;
+        long rttvar;
+        int backoff;
+    }
+}
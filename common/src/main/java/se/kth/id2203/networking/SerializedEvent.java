@@ -0,0 +1,34 @@
+package se.kth.id2203.networking;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+/**
+ * Event that has already been serialized, used to send the same event to many nodes while serializing it once.
+ * Every message gets its own read-only view of the shared buffer. NetSerializer writes the bytes in place of the
+ * event, so the receiver deserializes the original event. The bytes are not consumed or released, so the event can be
+ * serialized any number of times.
+ */
+public class SerializedEvent implements KompicsEvent {
+
+    public final ByteBuf bytes;
+
+    /**
+     * @param bytes the event written with Serializers.toBinary, an unpooled buffer that is not modified after
+     */
+    public SerializedEvent(ByteBuf bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Deserialize the event, for when the message was delivered without passing through the serializers, e.g when it
+     * was sent to this node or in the simulator.
+     *
+     * @return the original event
+     */
+    public KompicsEvent deserialize() {
+        return (KompicsEvent) Serializers.fromBinary(bytes.duplicate(), Optional.absent());
+    }
+}
@@ -0,0 +1,11 @@
+package se.kth.id2203.overlay;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+
+/**
+ * Client request for the current RoutingTable
+ */
+public class GetRoutingTable implements KompicsEvent, Serializable {
+}
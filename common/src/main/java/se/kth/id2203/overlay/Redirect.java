@@ -0,0 +1,20 @@
+package se.kth.id2203.overlay;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+
+/**
+ * Sent to a client that routed an operation to a server that does not lead the partition of the key. The operation
+ * has been forwarded, the client should replace its stale routing table.
+ */
+public class Redirect implements KompicsEvent, Serializable {
+
+    public final String key;
+    public final RoutingTable routingTable;
+
+    public Redirect(String key, RoutingTable routingTable) {
+        this.key = key;
+        this.routingTable = routingTable;
+    }
+}
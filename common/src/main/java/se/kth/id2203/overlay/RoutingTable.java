@@ -0,0 +1,61 @@
+package se.kth.id2203.overlay;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot of the partitions, their members and leaders that clients cache to send operations straight to the
+ * leader of the responsible partition.
+ */
+public class RoutingTable implements KompicsEvent, Serializable {
+
+    public final Map<Integer, Set<PID>> partitions;
+    public final Map<Integer, PID> leaders;
+    public final int vnodes;
+    private transient TokenRing ring;
+
+    public RoutingTable(Map<Integer, Set<PID>> partitions, Map<Integer, PID> leaders, int vnodes) {
+        this.partitions = partitions;
+        this.leaders = leaders;
+        this.vnodes = vnodes;
+    }
+
+    /**
+     * @param key key
+     * @return leader of the partition responsible for key, or null if the leader is not known
+     */
+    public PID target(String key) {
+        return leaders.get(partition(key));
+    }
+
+    /**
+     * Copy of the table that no longer knows the leader of the partition responsible for key, used when the leader
+     * stopped responding
+     *
+     * @param key key
+     * @return routing table without the leader of the partition of key
+     */
+    public RoutingTable withoutLeader(String key) {
+        Map<Integer, PID> remaining = new HashMap<>(leaders);
+        remaining.remove(partition(key));
+        return new RoutingTable(partitions, remaining, vnodes);
+    }
+
+    private int partition(String key) {
+        if (ring == null)
+            ring = new TokenRing(partitions.keySet(), vnodes);
+        return ring.owner(key);
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingTable{" +
+                "partitions=" + partitions +
+                ", leaders=" + leaders +
+                '}';
+    }
+}
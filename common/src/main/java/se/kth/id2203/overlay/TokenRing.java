@@ -0,0 +1,65 @@
+package se.kth.id2203.overlay;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * 64-bit token ring shared by servers and clients: every partition owns vnodes tokens derived from its id with
+ * murmur3 and a key belongs to the partition of the first token at or after the murmur3 token of the key. The tokens
+ * of a partition do not depend on the other partitions, so when a partition is created or removed only the key
+ * ranges next to its own tokens move.
+ */
+public class TokenRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private final TreeMap<Long, Integer> tokens = new TreeMap<>();
+
+    /**
+     * @param partitions partition ids
+     * @param vnodes     number of tokens of each partition
+     */
+    public TokenRing(Collection<Integer> partitions, int vnodes) {
+        for (int partition : partitions) {
+            for (int i = 0; i < vnodes; i++) {
+                tokens.put(token(partition, i), partition);
+            }
+        }
+    }
+
+    /**
+     * @param key key
+     * @return id of the partition responsible for key
+     */
+    public int owner(String key) {
+        if (tokens.isEmpty())
+            throw new NoSuchElementException("No partitions on the ring");
+        Map.Entry<Long, Integer> owner = tokens.ceilingEntry(token(key));
+        if (owner == null) {
+            owner = tokens.firstEntry();
+        }
+        return owner.getValue();
+    }
+
+    /**
+     * @param key key
+     * @return position of key on the ring
+     */
+    public static long token(String key) {
+        return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * @param partition partition id
+     * @param vnode     index of the virtual node
+     * @return position of the virtual node on the ring
+     */
+    public static long token(int partition, int vnode) {
+        return HASH.newHasher().putInt(partition).putInt(vnode).hash().asLong();
+    }
+}
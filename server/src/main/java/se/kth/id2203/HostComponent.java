@@ -25,6 +25,7 @@ package se.kth.id2203;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.kth.id2203.networking.Coalescer;
 import se.kth.id2203.networking.NetAddress;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
@@ -34,7 +35,8 @@ import se.sics.kompics.timer.Timer;
 import se.sics.kompics.timer.java.JavaTimer;
 
 /**
- * Main component of the server, creates and connects Timer, Network and parent
+ * Main component of the server, creates and connects Timer, Network and parent. The parent uses the Network through
+ * a Coalescer that batches messages to the same node.
  *
  * @author Lars Kroll <lkroll@kth.se>
  */
@@ -45,11 +47,14 @@ public class HostComponent extends ComponentDefinition {
     /* Children */
     protected final Component timer = create(JavaTimer.class, Init.NONE);
     protected final Component net = create(NettyNetwork.class, new NettyInit(self));
+    protected final Component coalescer = create(Coalescer.class, Init.NONE);
     protected final Component parent = create(ParentComponent.class, Init.NONE);
 
     {
         LOG.debug("Host: " + id());
         connect(timer.getPositive(Timer.class), parent.getNegative(Timer.class), Channel.TWO_WAY);
-        connect(net.getPositive(Network.class), parent.getNegative(Network.class), Channel.TWO_WAY);
+        connect(timer.getPositive(Timer.class), coalescer.getNegative(Timer.class), Channel.TWO_WAY);
+        connect(net.getPositive(Network.class), coalescer.getNegative(Network.class), Channel.TWO_WAY);
+        connect(coalescer.getPositive(Network.class), parent.getNegative(Network.class), Channel.TWO_WAY);
     }
 }
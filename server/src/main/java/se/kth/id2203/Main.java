@@ -24,8 +24,14 @@
 package se.kth.id2203;
 
 import org.apache.commons.cli.*;
+import se.kth.id2203.broadcast.beb.BEBSerializer;
+import se.kth.id2203.kvstore.KVSerializer;
 import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.networking.NetAddressConverter;
+import se.kth.id2203.networking.NetSerializer;
+import se.kth.id2203.overlay.service.OverlaySerializer;
+import se.kth.id2203.swim.SWIMSerializer;
+import se.kth.id2203.vsync.VSyncSerializer;
 import se.sics.kompics.Kompics;
 import se.sics.kompics.config.Config;
 import se.sics.kompics.config.ConfigUpdate;
@@ -48,6 +54,13 @@ public class Main {
     static {
         // conversions
         Conversions.register(NAC);
+        // serializers, events without one of their own fall back to Java serialization
+        NetSerializer.register();
+        KVSerializer.register();
+        OverlaySerializer.register();
+        VSyncSerializer.register();
+        SWIMSerializer.register();
+        BEBSerializer.register();
     }
 
     /**
@@ -24,6 +24,7 @@
 package se.kth.id2203.bootstrapping;
 
 import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timeout;
 
 /**
@@ -35,4 +36,8 @@ public class BSTimeout extends Timeout {
     BSTimeout(SchedulePeriodicTimeout spt) {
         super(spt);
     }
+
+    BSTimeout(ScheduleTimeout st) {
+        super(st);
+    }
 }
@@ -29,15 +29,18 @@ import se.kth.id2203.bootstrapping.events.Booted;
 import se.kth.id2203.bootstrapping.events.CheckIn;
 import se.kth.id2203.bootstrapping.events.Ready;
 import se.kth.id2203.bootstrapping.ports.Bootstrapping;
+import se.kth.id2203.kvstore.wal.WriteAheadLog;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.networking.RttEstimator;
 import se.kth.id2203.overlay.service.events.JoinPending;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
-import se.sics.kompics.timer.CancelPeriodicTimeout;
-import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.CancelTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timer;
 
+import java.io.File;
 import java.util.UUID;
 
 /**
@@ -58,41 +61,73 @@ public class BootstrapClient extends ComponentDefinition {
     private final NetAddress server = config().getValue("id2203.project.bootstrap-address", NetAddress.class);
     private State state = State.WAITING;
     private UUID timeoutId;
+    private int recoverablePartition = -1;
+    private final RttEstimator<NetAddress> rtt = new RttEstimator<>(
+            config().getValue("id2203.project.bootstrap.retransmit.min", Long.class),
+            config().getValue("id2203.project.bootstrap.retransmit.min", Long.class),
+            config().getValue("id2203.project.keepAlivePeriod", Long.class) * 2);
+    private long checkInTime = -1;
 
 
     /**
-     * Startup, start timer for periodically sending check-in messages to bootstrap-server until asked to boot.
+     * Startup, check in at the bootstrap-server. The check-in is re-sent with an RTT-based timeout that backs off
+     * until we are asked to boot.
      */
     protected final Handler<Start> startHandler = new Handler<Start>() {
 
         @Override
         public void handle(Start event) {
             LOG.debug("Starting bootstrap client on {}", self);
-            long timeout = (config().getValue("id2203.project.keepAlivePeriod", Long.class) * 2);
-            SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(timeout, timeout);
-            spt.setTimeoutEvent(new BSTimeout(spt));
-            trigger(spt, timer);
-            timeoutId = spt.getTimeoutEvent().getTimeoutId();
+            if (config().getValue("id2203.project.wal.enabled", Boolean.class)) {
+                File walDirectory = WriteAheadLog.directory(config().getValue("id2203.project.wal.dir", String.class), self);
+                recoverablePartition = new WriteAheadLog(walDirectory, 0).recoverPartition();
+            }
+            checkInTime = System.currentTimeMillis();
+            trigger(new Message(self, server, new CheckIn(self, recoverablePartition)), net);
+            scheduleTimeout();
         }
     };
     /**
-     * CheckIn at server or notify server that we have already booted successfully
+     * Re-send CheckIn at server or notify server that we have already booted successfully
      */
     protected final Handler<BSTimeout> timeoutHandler = new Handler<BSTimeout>() {
 
         @Override
         public void handle(BSTimeout e) {
+            if (!e.getTimeoutId().equals(timeoutId))
+                return;
+            timeoutId = null;
             if (state == State.WAITING) {
-                trigger(new Message(self, server, new CheckIn(self)), net);
+                rtt.backoff(server);
+                checkInTime = -1;
+                trigger(new Message(self, server, new CheckIn(self, recoverablePartition)), net);
+                scheduleTimeout();
             } else if (state == State.STARTED) {
                 trigger(new Message(self, server, Ready.event), net);
                 suicide();
             } else if (state == State.PENDING){
                 LOG.debug("My join request is pending.. awaiting enough nodes to create new partition");
+                scheduleTimeout();
             }
         }
     };
 
+    private void scheduleTimeout() {
+        ScheduleTimeout st = new ScheduleTimeout(rtt.timeout(server));
+        st.setTimeoutEvent(new BSTimeout(st));
+        trigger(st, timer);
+        timeoutId = st.getTimeoutEvent().getTimeoutId();
+    }
+
+    /**
+     * Response to a check-in that was not re-sent, sample the round-trip time
+     */
+    private void sampleCheckIn() {
+        if (checkInTime >= 0)
+            rtt.sample(server, System.currentTimeMillis() - checkInTime);
+        checkInTime = -1;
+    }
+
     /**
      * BoostrapServer gives a initial partition assignment and asks us to boot.
      */
@@ -102,10 +137,13 @@ public class BootstrapClient extends ComponentDefinition {
         public void handle(Boot content, Message context) {
             if (state == State.WAITING || state == State.PENDING) {
                 LOG.info("{} Booting up.", self);
+                sampleCheckIn();
                 trigger(new Booted(content.assignment, content.keyValues), bootstrap);
                 //trigger(new CancelPeriodicTimeout(timeoutId), timer);
                 trigger(new Message(self, server, Ready.event), net);
                 state = State.STARTED;
+                if (timeoutId == null)
+                    scheduleTimeout();
             }
         }
     };
@@ -117,6 +155,7 @@ public class BootstrapClient extends ComponentDefinition {
 
         @Override
         public void handle(JoinPending content, Message context) {
+            sampleCheckIn();
             state = State.PENDING;
         }
     };
@@ -126,7 +165,8 @@ public class BootstrapClient extends ComponentDefinition {
      */
     @Override
     public void tearDown() {
-        trigger(new CancelPeriodicTimeout(timeoutId), timer);
+        if (timeoutId != null)
+            trigger(new CancelTimeout(timeoutId), timer);
         LOG.debug("Bootstrap complete");
     }
 
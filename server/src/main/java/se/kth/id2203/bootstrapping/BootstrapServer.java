@@ -34,6 +34,7 @@ import se.kth.id2203.bootstrapping.events.GetInitialAssignments;
 import se.kth.id2203.bootstrapping.events.InitialAssignments;
 import se.kth.id2203.bootstrapping.events.Ready;
 import se.kth.id2203.bootstrapping.ports.Bootstrapping;
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
 import se.sics.kompics.*;
@@ -42,7 +43,6 @@ import se.sics.kompics.timer.CancelPeriodicTimeout;
 import se.sics.kompics.timer.SchedulePeriodicTimeout;
 import se.sics.kompics.timer.Timer;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
@@ -65,6 +65,7 @@ public class BootstrapServer extends ComponentDefinition {
     final int bootThreshold = config().getValue("id2203.project.bootThreshold", Integer.class);
     final int replicationDegree = config().getValue("id2203.project.replicationDegree", Integer.class);
     final int keySpace = config().getValue("id2203.project.keySpace", Integer.class);
+    final int vnodes = config().getValue("id2203.project.vnodes", Integer.class);
     private State state = State.COLLECTING;
     private UUID timeoutId;
     private final Set<NetAddress> active = new HashSet<>();
@@ -102,7 +103,7 @@ public class BootstrapServer extends ComponentDefinition {
                 LOG.info("{} hosts in ready set.", ready.size());
                 if (ready.size() >= bootThreshold) {
                     LOG.info("Finished seeding. Bootstrapping complete.");
-                    trigger(new Booted(initialAssignment, new HashMap<Integer, String>()), boot);
+                    trigger(new Booted(initialAssignment, PersistentKeyValueMap.empty()), boot);
                     state = State.DONE;
                 }
             } else if (state == State.DONE) {
@@ -119,7 +120,7 @@ public class BootstrapServer extends ComponentDefinition {
             LOG.info("Seeding assignments...");
             initialAssignment = e.assignment;
             for (NetAddress node : active) {
-                trigger(new Message(self, node, new Boot(initialAssignment, new HashMap<Integer, String>())), net);
+                trigger(new Message(self, node, new Boot(initialAssignment, PersistentKeyValueMap.empty())), net);
             }
             ready.add(self);
         }
@@ -172,7 +173,7 @@ public class BootstrapServer extends ComponentDefinition {
     private void bootUp() {
         LOG.info("Threshold reached. Generating assignments...");
         state = State.SEEDING;
-        trigger(new GetInitialAssignments(ImmutableSet.copyOf(active), replicationDegree, keySpace), boot);
+        trigger(new GetInitialAssignments(ImmutableSet.copyOf(active), replicationDegree, keySpace, vnodes), boot);
     }
 
     static enum State {
@@ -27,7 +27,7 @@ import se.kth.id2203.bootstrapping.NodeAssignment;
 import se.sics.kompics.KompicsEvent;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Message sent by bootstrap server to bootstrap-client with the initial partition assignments,
@@ -38,9 +38,9 @@ public class Boot implements KompicsEvent, Serializable {
     private static final long serialVersionUID = -4700507659951599133L;
 
     public final NodeAssignment assignment;
-    public final HashMap<Integer, String> keyValues;
+    public final Map<String, String> keyValues;
 
-    public Boot(NodeAssignment assignment, HashMap<Integer, String> keyValues) {
+    public Boot(NodeAssignment assignment, Map<String, String> keyValues) {
         this.assignment = assignment;
         this.keyValues = keyValues;
     }
@@ -26,7 +26,7 @@ package se.kth.id2203.bootstrapping.events;
 import se.kth.id2203.bootstrapping.NodeAssignment;
 import se.sics.kompics.KompicsEvent;
 
-import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Sent locally between from bootstrap-client to VSOverlayManager, contains the node-assignment for partitions.
@@ -34,9 +34,9 @@ import java.util.HashMap;
 public class Booted implements KompicsEvent {
 
     public final NodeAssignment assignment;
-    public final HashMap<Integer, String> keyValues;
+    public final Map<String, String> keyValues;
 
-    public Booted(final NodeAssignment assignment, HashMap<Integer, String> keyValues) {
+    public Booted(final NodeAssignment assignment, Map<String, String> keyValues) {
         this.assignment = assignment;
         this.keyValues = keyValues;
     }
@@ -35,8 +35,18 @@ public class CheckIn implements KompicsEvent, Serializable {
 
     private static final long serialVersionUID = -5044901955690784224L;
     public final NetAddress netaddress;
+    public final int partition;
 
     public CheckIn(NetAddress netaddress) {
+        this(netaddress, -1);
+    }
+
+    /**
+     * @param netaddress address of the joining server
+     * @param partition  partition that the server has recoverable state for on disk, -1 if none
+     */
+    public CheckIn(NetAddress netaddress, int partition) {
         this.netaddress = netaddress;
+        this.partition = partition;
     }
 }
@@ -35,10 +35,12 @@ public class GetInitialAssignments implements KompicsEvent {
     public final ImmutableSet<NetAddress> nodes;
     public final int replicationDegree;
     public final int keySpace;
+    public final int vnodes;
 
-    public GetInitialAssignments(final ImmutableSet<NetAddress> nodes, int replicationDegree, int keySpace) {
+    public GetInitialAssignments(final ImmutableSet<NetAddress> nodes, int replicationDegree, int keySpace, int vnodes) {
         this.nodes = nodes;
         this.replicationDegree = replicationDegree;
         this.keySpace = keySpace;
+        this.vnodes = vnodes;
     }
 }
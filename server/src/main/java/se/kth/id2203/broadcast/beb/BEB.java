@@ -1,34 +1,87 @@
 package se.kth.id2203.broadcast.beb;
 
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.id2203.broadcast.beb.events.BEB_Broadcast;
 import se.kth.id2203.broadcast.beb.events.BEB_Deliver;
+import se.kth.id2203.broadcast.beb.events.RelayChunk;
 import se.kth.id2203.broadcast.beb.ports.BEBPort;
+import se.kth.id2203.broadcast.beb.timeout.AssemblyTimeout;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.networking.SerializedEvent;
 import se.kth.id2203.overlay.PID;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
+import se.sics.kompics.network.netty.serialization.Serializers;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timer;
+
+import java.util.*;
 
 /**
  * BestEffortBroadcast component
  *
+ * Large broadcasts to several nodes are split into chunks that are relayed along a tree over the recipients
+ * (a pipeline with fanout 1): the sender only sends each chunk to its children and every recipient forwards a chunk
+ * to its own children as soon as it arrives, so the uplink of the sender is no longer the bottleneck and the chunks
+ * of a broadcast are in flight on all links at once. If a relaying node fails, the nodes below it miss the
+ * broadcast, like a lost message, so only broadcasts that the layer above retransmits until they are ACK'ed should be
+ * relayed, the others are sent with relay disabled. Chunks of broadcasts that are never completed are dropped after
+ * the relay timeout.
+ *
  * @author Kim Hammar on 2017-02-08.
  */
 public class BEB extends ComponentDefinition {
 
     final static Logger LOG = LoggerFactory.getLogger(BEB.class);
+    private static final int MAX_ASSEMBLIES = 16;
     protected final Positive<Network> net = requires(Network.class);
+    protected final Positive<Timer> timer = requires(Timer.class);
     protected final Negative<BEBPort> broadcastPort = provides(BEBPort.class);
     private final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
+    private final int relayThreshold = config().getValue("id2203.project.beb.relay.threshold", Integer.class);
+    private final int chunkSize = config().getValue("id2203.project.beb.relay.chunkSize", Integer.class);
+    private final int fanout = config().getValue("id2203.project.beb.relay.fanout", Integer.class);
+    private final long relayTimeout = config().getValue("id2203.project.beb.relay.timeout", Long.class);
+    private final Map<UUID, Assembly> assemblies = new LinkedHashMap<UUID, Assembly>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Assembly> eldest) {
+            return size() > MAX_ASSEMBLIES;
+        }
+    };
+    private UUID assemblyTimeoutId;
 
+    /**
+     * Serialize the deliver once, payloads larger than the relay threshold are relayed in chunks unless relay is
+     * disabled, the others are sent as a read-only view of the bytes to every other recipient, so that large payloads (state-transfers,
+     * lookup-tables) are not serialized once per recipient. The deliver to this node is sent as an object since it
+     * is not serialized by the network.
+     */
     protected final Handler<BEB_Broadcast> broadcastHandler = new Handler<BEB_Broadcast>() {
         @Override
         public void handle(BEB_Broadcast BEBBroadcast) {
+            BEB_Deliver BEBDeliver = new BEB_Deliver(BEBBroadcast.payload, BEBBroadcast.source);
+            List<NetAddress> recipients = new ArrayList<>();
             for (PID recipient : BEBBroadcast.nodes) {
-                BEB_Deliver BEBDeliver = new BEB_Deliver(BEBBroadcast.payload, BEBBroadcast.source);
-                trigger(new Message(self, recipient.netAddress, BEBDeliver), net);
+                if (recipient.netAddress.equals(self))
+                    trigger(new Message(self, self, BEBDeliver), net);
+                else
+                    recipients.add(recipient.netAddress);
+            }
+            if (recipients.isEmpty())
+                return;
+            ByteBuf serialized = Unpooled.buffer();
+            Serializers.toBinary(BEBDeliver, serialized);
+            if (BEBBroadcast.relay && recipients.size() > 1 && serialized.readableBytes() > relayThreshold) {
+                relay(serialized, recipients);
+            } else {
+                for (NetAddress recipient : recipients) {
+                    trigger(new Message(self, recipient, new SerializedEvent(Unpooled.unmodifiableBuffer(serialized))), net);
+                }
             }
         }
     };
@@ -40,9 +93,146 @@ public class BEB extends ComponentDefinition {
         }
     };
 
+    /**
+     * Deliver that reached us without being deserialized, i.e over a network that does not serialize (simulation)
+     */
+    protected final ClassMatchedHandler<SerializedEvent, Message> serializedHandler = new ClassMatchedHandler<SerializedEvent, Message>() {
+        @Override
+        public void handle(SerializedEvent serializedEvent, Message message) {
+            KompicsEvent event = serializedEvent.deserialize();
+            if (event instanceof BEB_Deliver)
+                trigger(event, broadcastPort);
+        }
+    };
+
+    /**
+     * Chunk of a relayed broadcast, forward it to our children and deliver once all chunks have arrived
+     */
+    protected final ClassMatchedHandler<RelayChunk, Message> chunkHandler = new ClassMatchedHandler<RelayChunk, Message>() {
+        @Override
+        public void handle(RelayChunk chunk, Message message) {
+            int position = chunk.recipients.indexOf(self);
+            if (position < 0)
+                return;
+            for (NetAddress child : children(chunk.recipients, position)) {
+                trigger(new Message(self, child, chunk), net);
+            }
+            Assembly assembly = assemblies.get(chunk.id);
+            if (assembly == null) {
+                assembly = new Assembly(chunk.total);
+                assemblies.put(chunk.id, assembly);
+                scheduleAssemblyTimeout();
+            }
+            if (!assembly.add(chunk))
+                return;
+            assemblies.remove(chunk.id);
+            KompicsEvent event = (KompicsEvent) Serializers.fromBinary(assembly.bytes(), Optional.absent());
+            if (event instanceof BEB_Deliver)
+                trigger(event, broadcastPort);
+        }
+    };
+
+    /**
+     * Drop the broadcasts that have not received a chunk within the relay timeout, the rest of them will not arrive
+     * since the relaying node before us failed
+     */
+    protected final Handler<AssemblyTimeout> assemblyTimeoutHandler = new Handler<AssemblyTimeout>() {
+        @Override
+        public void handle(AssemblyTimeout event) {
+            if (!event.getTimeoutId().equals(assemblyTimeoutId))
+                return;
+            assemblyTimeoutId = null;
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<UUID, Assembly>> iterator = assemblies.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<UUID, Assembly> assembly = iterator.next();
+                if (now - assembly.getValue().updated >= relayTimeout) {
+                    LOG.debug("Dropping relayed broadcast {}, no chunk received within {} ms", assembly.getKey(), relayTimeout);
+                    iterator.remove();
+                }
+            }
+            scheduleAssemblyTimeout();
+        }
+    };
+
+    /**
+     * Setup the timer of incomplete broadcasts unless it is already running or there are none
+     */
+    private void scheduleAssemblyTimeout() {
+        if (assemblyTimeoutId != null || assemblies.isEmpty())
+            return;
+        ScheduleTimeout st = new ScheduleTimeout(relayTimeout);
+        st.setTimeoutEvent(new AssemblyTimeout(st));
+        trigger(st, timer);
+        assemblyTimeoutId = st.getTimeoutEvent().getTimeoutId();
+    }
+
+    private void relay(ByteBuf serialized, List<NetAddress> recipients) {
+        UUID id = UUID.randomUUID();
+        int total = (serialized.readableBytes() + chunkSize - 1) / chunkSize;
+        LOG.debug("Relaying {} bytes in {} chunks to {} nodes", serialized.readableBytes(), total, recipients.size());
+        List<NetAddress> children = children(recipients, -1);
+        for (int i = 0; i < total; i++) {
+            byte[] data = new byte[Math.min(chunkSize, serialized.readableBytes())];
+            serialized.readBytes(data);
+            RelayChunk chunk = new RelayChunk(id, recipients, i, total, data);
+            for (NetAddress child : children) {
+                trigger(new Message(self, child, chunk), net);
+            }
+        }
+    }
+
+    /**
+     * Children in the tree over the recipients, the sender is at position -1 and the children of position p are the
+     * recipients at positions (p + 1) * fanout to (p + 1) * fanout + fanout - 1
+     */
+    private List<NetAddress> children(List<NetAddress> recipients, int position) {
+        int first = Math.min((position + 1) * fanout, recipients.size());
+        int last = Math.min(first + fanout, recipients.size());
+        return recipients.subList(first, last);
+    }
+
+    /**
+     * Chunks of a relayed broadcast received so far
+     */
+    private static class Assembly {
+        private final byte[][] chunks;
+        private int received = 0;
+        private int size = 0;
+        private long updated = System.currentTimeMillis();
+
+        Assembly(int total) {
+            chunks = new byte[total][];
+        }
+
+        /**
+         * @return true if all chunks have been received
+         */
+        boolean add(RelayChunk chunk) {
+            updated = System.currentTimeMillis();
+            if (chunks[chunk.index] == null) {
+                chunks[chunk.index] = chunk.data;
+                received++;
+                size += chunk.data.length;
+            }
+            return received == chunks.length;
+        }
+
+        ByteBuf bytes() {
+            ByteBuf bytes = Unpooled.buffer(size);
+            for (byte[] chunk : chunks) {
+                bytes.writeBytes(chunk);
+            }
+            return bytes;
+        }
+    }
+
     {
         subscribe(broadcastHandler, broadcastPort);
         subscribe(deliverHandler, net);
+        subscribe(serializedHandler, net);
+        subscribe(chunkHandler, net);
+        subscribe(assemblyTimeoutHandler, timer);
     }
 
 }
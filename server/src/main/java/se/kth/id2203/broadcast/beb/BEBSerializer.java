@@ -0,0 +1,92 @@
+package se.kth.id2203.broadcast.beb;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import se.kth.id2203.broadcast.beb.events.BEB_Deliver;
+import se.kth.id2203.broadcast.beb.events.RelayChunk;
+import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static se.kth.id2203.networking.NetSerializer.*;
+
+/**
+ * Binary serializer for BEB_Deliver and the chunks of relayed delivers, the payload of a deliver is written with the
+ * serializer registered for its class
+ */
+public class BEBSerializer implements Serializer {
+
+    public static final String NAME = "bebS";
+    private static final byte DELIVER = 1;
+    private static final byte RELAY_CHUNK = 2;
+
+    /**
+     * Register the serializer and the classes it serializes
+     */
+    public static void register() {
+        Serializers.register(new BEBSerializer(), NAME);
+        Serializers.register(BEB_Deliver.class, NAME);
+        Serializers.register(RelayChunk.class, NAME);
+    }
+
+    @Override
+    public int identifier() {
+        return 105;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+        if (o instanceof BEB_Deliver) {
+            BEB_Deliver deliver = (BEB_Deliver) o;
+            buf.writeByte(DELIVER);
+            writeNullablePID(buf, deliver.source);
+            Serializers.toBinary(deliver.payload, buf);
+        } else if (o instanceof RelayChunk) {
+            RelayChunk chunk = (RelayChunk) o;
+            buf.writeByte(RELAY_CHUNK);
+            writeId(buf, chunk.id);
+            buf.writeInt(chunk.recipients.size());
+            for (NetAddress recipient : chunk.recipients) {
+                writeAddress(buf, recipient);
+            }
+            buf.writeInt(chunk.index);
+            buf.writeInt(chunk.total);
+            buf.writeInt(chunk.data.length);
+            buf.writeBytes(chunk.data);
+        } else {
+            throw new IllegalArgumentException("BEBSerializer can not serialize " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+        byte type = buf.readByte();
+        switch (type) {
+            case DELIVER: {
+                PID source = readNullablePID(buf);
+                return new BEB_Deliver((KompicsEvent) Serializers.fromBinary(buf, Optional.absent()), source);
+            }
+            case RELAY_CHUNK: {
+                UUID id = readId(buf);
+                int size = buf.readInt();
+                List<NetAddress> recipients = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    recipients.add(readAddress(buf));
+                }
+                int index = buf.readInt();
+                int total = buf.readInt();
+                byte[] data = new byte[buf.readInt()];
+                buf.readBytes(data);
+                return new RelayChunk(id, recipients, index, total, data);
+            }
+            default:
+                throw new IllegalArgumentException("BEBSerializer got unknown type " + type);
+        }
+    }
+}
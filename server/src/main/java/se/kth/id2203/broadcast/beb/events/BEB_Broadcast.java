@@ -13,10 +13,20 @@ public class BEB_Broadcast implements KompicsEvent {
     public final KompicsEvent payload;
     public final Set<PID> nodes;
     public final PID source;
+    public final boolean relay;
 
     public BEB_Broadcast(KompicsEvent payload, Set<PID> nodes, PID source) {
+        this(payload, nodes, source, true);
+    }
+
+    /**
+     * @param relay false if the broadcast must be sent directly to every node even if it is large, for broadcasts that
+     *              are not retransmitted and should not be lost because a relaying node failed
+     */
+    public BEB_Broadcast(KompicsEvent payload, Set<PID> nodes, PID source, boolean relay) {
         this.payload = payload;
         this.nodes = nodes;
         this.source = source;
+        this.relay = relay;
     }
 }
@@ -0,0 +1,29 @@
+package se.kth.id2203.broadcast.beb.events;
+
+import se.kth.id2203.networking.NetAddress;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Chunk of a serialized BEB_Deliver that is relayed along a tree over the recipients. Every chunk carries the
+ * recipients so that each node can find its children in the tree, whatever chunk it receives first.
+ */
+public class RelayChunk implements KompicsEvent, Serializable {
+
+    public final UUID id;
+    public final List<NetAddress> recipients;
+    public final int index;
+    public final int total;
+    public final byte[] data;
+
+    public RelayChunk(UUID id, List<NetAddress> recipients, int index, int total, byte[] data) {
+        this.id = id;
+        this.recipients = recipients;
+        this.index = index;
+        this.total = total;
+        this.data = data;
+    }
+}
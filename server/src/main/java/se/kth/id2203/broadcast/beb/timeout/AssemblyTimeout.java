@@ -0,0 +1,12 @@
+package se.kth.id2203.broadcast.beb.timeout;
+
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class AssemblyTimeout extends Timeout {
+
+	public AssemblyTimeout(ScheduleTimeout request) {
+		super(request);
+	}
+
+}
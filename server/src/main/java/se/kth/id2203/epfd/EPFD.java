@@ -1,21 +1,23 @@
 package se.kth.id2203.epfd;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.id2203.epfd.events.*;
 import se.kth.id2203.epfd.ports.EPFDPort;
 import se.kth.id2203.epfd.timeout.EPFDTimeout;
-import se.kth.id2203.networking.UDPMessage;
 import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.networking.NetMessage;
+import se.kth.id2203.networking.UDPMessage;
 import se.kth.id2203.overlay.PID;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
 import se.sics.kompics.timer.SchedulePeriodicTimeout;
 import se.sics.kompics.timer.Timer;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -23,6 +25,14 @@ import java.util.UUID;
  * Eventually Perfect Failure Detector, strong completeness and eventually strong accuracy.
  * Encapsulates timing assumption of partially synchronous systems
  *
+ * Every interval the EPFD indicates the suspicion level of every monitored process, computed by a phi-accrual
+ * detector, and the users apply their own thresholds.
+ *
+ * There is one EPFD per node shared by all components that need failure detection. Each subscriber registers its
+ * own set of processes and the EPFD monitors the union, so a process watched by several subscribers only costs one
+ * heartbeat stream. Any message received from a monitored node is proof of life, heartbeats are only requested from
+ * nodes that have not sent any other traffic during the last interval.
+ *
  * @author Konstantin Sozinov
  */
 public class EPFD extends ComponentDefinition {
@@ -35,13 +45,18 @@ public class EPFD extends ComponentDefinition {
     final static Logger LOG = LoggerFactory.getLogger(EPFD.class);
     private final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
     private PID selfPid;
-    private final long delta = config().getValue("id2203.project.epfd.delta", Long.class);
+    private final long interval = config().getValue("id2203.project.epfd.interval", Long.class);
+    private final PhiAccrualDetector<NetAddress> detector = new PhiAccrualDetector<>(
+            config().getValue("id2203.project.epfd.window", Integer.class),
+            config().getValue("id2203.project.epfd.minStdDeviation", Double.class),
+            config().getValue("id2203.project.epfd.acceptablePause", Long.class),
+            interval);
     private UUID timeoutId;
     private long seqnum = 0;
-    private long delay;
+    private final Map<String, Set<PID>> subscriptions = new HashMap<>();
     private Set<PID> all = new HashSet<>();
-    private Set<PID> alive = new HashSet<>();
-    private Set<PID> suspected = new HashSet<>();
+    private final Map<NetAddress, Long> lastSample = new HashMap<>();
+    private final Map<NetAddress, Long> lastTraffic = new HashMap<>();
 
     /**
      * Setup timer
@@ -49,10 +64,9 @@ public class EPFD extends ComponentDefinition {
     protected final Handler<Start> startHandler = new Handler<Start>() {
         @Override
         public void handle(Start e) {
-            delay = delta;
             selfPid = new PID(self, 0);
-            LOG.info("Starting epfd with delta {} and delay {}", delta, delay);
-            SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(delay, delay);
+            LOG.info("Starting epfd with heartbeat interval {}", interval);
+            SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(interval, interval);
             spt.setTimeoutEvent(new EPFDTimeout(spt));
             trigger(spt, timer);
             timeoutId = spt.getTimeoutEvent().getTimeoutId();
@@ -60,58 +74,85 @@ public class EPFD extends ComponentDefinition {
     };
 
     /**
-     * Initialize failure detection of set of nodes
+     * Initialize failure detection of set of nodes, replaces the set of the subscriber
      */
     protected final Handler<EPFDInit> initHandler = new Handler<EPFDInit>() {
         @Override
         public void handle(EPFDInit epfdInit) {
-            LOG.debug("EPFD Initialized, monitoring {} processes", epfdInit.nodes.size());
             selfPid = epfdInit.pid;
-            alive = new HashSet<>(ImmutableSet.copyOf(epfdInit.nodes));
-            all = new HashSet<>(ImmutableSet.copyOf(epfdInit.nodes));
-            suspected = new HashSet<>();
-            seqnum = 0;
-            delay = delta;
+            subscriptions.put(epfdInit.subscriber, new HashSet<>(ImmutableSet.copyOf(epfdInit.nodes)));
+            updateMonitored();
+            LOG.debug("EPFD Initialized by {}, monitoring {} processes", epfdInit.subscriber, all.size());
         }
     };
 
     /**
-     * New nodes to monitor
+     * New nodes to monitor for the subscriber
      */
     protected final Handler<Reconfigure> reconfHandler = new Handler<Reconfigure>() {
         @Override
         public void handle(Reconfigure reconfigure) {
-            all.addAll(reconfigure.nodes);
-            alive.addAll(reconfigure.nodes);
-            LOG.debug("EPFD Reconfigured, monitoring {} nodes", all.size());
+            Set<PID> nodes = subscriptions.get(reconfigure.subscriber);
+            if (nodes == null) {
+                nodes = new HashSet<>();
+                subscriptions.put(reconfigure.subscriber, nodes);
+            }
+            nodes.addAll(reconfigure.nodes);
+            updateMonitored();
+            LOG.debug("EPFD Reconfigured by {}, monitoring {} nodes", reconfigure.subscriber, all.size());
         }
     };
 
     /**
-     * Timeout, suspect processes that have'nt responded and restore processes that did
+     * Monitor the union of the subscriptions, nodes that are already monitored keep their heartbeat history
+     */
+    private void updateMonitored() {
+        all = new HashSet<>();
+        for (Set<PID> nodes : subscriptions.values()) {
+            all.addAll(nodes);
+        }
+        Set<NetAddress> addresses = new HashSet<>();
+        long now = System.currentTimeMillis();
+        for (PID node : all) {
+            addresses.add(node.netAddress);
+            detector.monitor(node.netAddress, now);
+        }
+        for (NetAddress address : ImmutableSet.copyOf(lastSample.keySet())) {
+            if (!addresses.contains(address)) {
+                detector.remove(address);
+                lastSample.remove(address);
+                lastTraffic.remove(address);
+            }
+        }
+        for (NetAddress address : addresses) {
+            if (!lastSample.containsKey(address))
+                lastSample.put(address, now);
+        }
+    }
+
+    /**
+     * Timeout, indicate the suspicion level of every monitored process and request heartbeats from the nodes that
+     * have been idle since the last interval
      */
     protected final Handler<EPFDTimeout> timeoutHandler = new Handler<EPFDTimeout>() {
         @Override
         public void handle(EPFDTimeout event) {
-            if (!(Sets.intersection(alive, suspected).size() == 0)) {
-                LOG.info("We detected premature-crash, increasing timeout with delta {}", delta);
-                delay = delay + delta;
-            }
+            if (all.isEmpty())
+                return;
             seqnum++;
+            long now = System.currentTimeMillis();
+            Map<PID, Double> levels = new HashMap<>();
             for (PID node : all) {
-                if (!alive.contains(node) && !suspected.contains(node)) {
-                    LOG.error("The node {} was suspected...", node.toString());
-                    suspected.add(node);
-                    trigger(new Suspect(node), epfd);
-                } else if (alive.contains(node) && suspected.contains(node)) {
-                    LOG.error("Got reply from a suspected {} node :) restore it", node.toString());
-                    suspected.remove(node);
-                    trigger(new Restore(node), epfd);
+                levels.put(node, detector.phi(node.netAddress, now));
+            }
+            for (NetAddress address : lastSample.keySet()) {
+                Long traffic = lastTraffic.get(address);
+                if (traffic == null || now - traffic >= interval) {
+                    HBRequest req = new HBRequest(seqnum);
+                    trigger(new UDPMessage(selfPid.netAddress, address, req), net);
                 }
-                HBRequest req = new HBRequest(seqnum);
-                trigger(new UDPMessage(selfPid.netAddress, node.netAddress, req), net);
             }
-            alive = new HashSet<>();
+            trigger(new Suspicion(levels), epfd);
         }
     };
 
@@ -128,24 +169,42 @@ public class EPFD extends ComponentDefinition {
     };
 
     /**
-     * Someone responded to our heartbeat-request
+     * Received a message from some node, whether it is a heartbeat reply or a data message it is proof of life.
+     * Data messages suppress the idle heartbeats. Samples are taken at most every half interval so that bursts of
+     * traffic do not shrink the inter-arrival distribution far below the heartbeat interval that takes over once
+     * the traffic stops.
      */
-    protected final ClassMatchedHandler<HBReply, UDPMessage> replyHandler = new ClassMatchedHandler<HBReply, UDPMessage>() {
+    protected final Handler<NetMessage> trafficHandler = new Handler<NetMessage>() {
 
         @Override
-        public void handle(HBReply event, UDPMessage msg) {
-            if (event.seqnum == seqnum || suspected.contains(event.source)) {
-                alive.add(event.source);
+        public void handle(NetMessage msg) {
+            NetAddress source = msg.getSource();
+            Long last = lastSample.get(source);
+            if (last == null)
+                return;
+            long now = System.currentTimeMillis();
+            if (!isHeartbeat(msg))
+                lastTraffic.put(source, now);
+            if (now - last >= interval / 2) {
+                detector.heartbeat(source, now);
+                lastSample.put(source, now);
             }
         }
     };
 
+    private boolean isHeartbeat(NetMessage msg) {
+        if (msg instanceof UDPMessage) {
+            KompicsEvent payload = ((UDPMessage) msg).payload;
+            return payload instanceof HBRequest || payload instanceof HBReply;
+        }
+        return false;
+    }
 
     {
         subscribe(startHandler, control);
         subscribe(timeoutHandler, timer);
         subscribe(requestHandler, net);
-        subscribe(replyHandler, net);
+        subscribe(trafficHandler, net);
         subscribe(initHandler, epfd);
         subscribe(reconfHandler, epfd);
     }
@@ -0,0 +1,149 @@
+package se.kth.id2203.epfd;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Phi-accrual failure detector (Hayashibara et al.). Instead of a binary suspicion after a fixed delay it keeps a
+ * window of heartbeat inter-arrival times per node and gives the suspicion level
+ *
+ * phi = -log10(P(the next heartbeat arrives later than now))
+ *
+ * assuming normally distributed inter-arrival times. A phi of 1 means a 10% chance that the suspicion is a mistake,
+ * 2 a 1% chance and so on, so every user can choose its own trade-off between detection time and accuracy. The
+ * distribution adapts to the network: on a steady network phi rises within a few heartbeat intervals, on a jittery
+ * one it rises slower.
+ *
+ * @param <K> node type
+ */
+public class PhiAccrualDetector<K> {
+
+    private final int windowSize;
+    private final double minStdDeviation;
+    private final long acceptablePause;
+    private final long firstIntervalEstimate;
+    private final Map<K, History> histories = new HashMap<>();
+
+    /**
+     * @param windowSize            number of inter-arrival times kept per node
+     * @param minStdDeviation       lower bound of the standard deviation, avoids extreme phi on a very steady network
+     * @param acceptablePause       pause that is added to the mean before suspecting, e.g for GC pauses
+     * @param firstIntervalEstimate expected interval used for a node that has not sent any heartbeats yet
+     */
+    public PhiAccrualDetector(int windowSize, double minStdDeviation, long acceptablePause, long firstIntervalEstimate) {
+        this.windowSize = windowSize;
+        this.minStdDeviation = minStdDeviation;
+        this.acceptablePause = acceptablePause;
+        this.firstIntervalEstimate = firstIntervalEstimate;
+    }
+
+    /**
+     * Start monitoring node. The window is seeded with the first interval estimate so that a node that never sends
+     * a heartbeat is eventually suspected.
+     *
+     * @param node node
+     * @param now  current time
+     */
+    public void monitor(K node, long now) {
+        if (histories.containsKey(node))
+            return;
+        History history = new History(now);
+        long deviation = firstIntervalEstimate / 4;
+        history.add(firstIntervalEstimate - deviation, windowSize);
+        history.add(firstIntervalEstimate + deviation, windowSize);
+        histories.put(node, history);
+    }
+
+    /**
+     * Received heartbeat or other proof of life from node
+     *
+     * @param node node
+     * @param now  current time
+     */
+    public void heartbeat(K node, long now) {
+        History history = histories.get(node);
+        if (history == null) {
+            monitor(node, now);
+            return;
+        }
+        if (now > history.lastHeartbeat) {
+            history.add(now - history.lastHeartbeat, windowSize);
+            history.lastHeartbeat = now;
+        }
+    }
+
+    /**
+     * @param node node
+     * @param now  current time
+     * @return suspicion level of node, 0 if it is not monitored
+     */
+    public double phi(K node, long now) {
+        History history = histories.get(node);
+        if (history == null)
+            return 0;
+        double mean = history.mean() + acceptablePause;
+        double stdDeviation = Math.max(history.stdDeviation(), minStdDeviation);
+        return phi(now - history.lastHeartbeat, mean, stdDeviation);
+    }
+
+    /**
+     * Stop monitoring node
+     *
+     * @param node node
+     */
+    public void remove(K node) {
+        histories.remove(node);
+    }
+
+    /**
+     * Stop monitoring all nodes
+     */
+    public void clear() {
+        histories.clear();
+    }
+
+    /**
+     * -log10 of the probability that a normally distributed interval is longer than elapsed, the CDF is computed
+     * with the logistic approximation which is accurate to within 10^-4 and never returns exactly 0 or 1.
+     */
+    static double phi(long elapsed, double mean, double stdDeviation) {
+        double y = (elapsed - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean)
+            return -Math.log10(e / (1.0 + e));
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    private static class History {
+        private final Deque<Long> intervals = new ArrayDeque<>();
+        private long lastHeartbeat;
+        private double sum;
+        private double squaredSum;
+
+        History(long lastHeartbeat) {
+            this.lastHeartbeat = lastHeartbeat;
+        }
+
+        void add(long interval, int windowSize) {
+            if (intervals.size() >= windowSize) {
+                long dropped = intervals.removeFirst();
+                sum -= dropped;
+                squaredSum -= (double) dropped * dropped;
+            }
+            intervals.addLast(interval);
+            sum += interval;
+            squaredSum += (double) interval * interval;
+        }
+
+        double mean() {
+            return sum / intervals.size();
+        }
+
+        double stdDeviation() {
+            double mean = mean();
+            return Math.sqrt(Math.max(squaredSum / intervals.size() - mean * mean, 0));
+        }
+    }
+}
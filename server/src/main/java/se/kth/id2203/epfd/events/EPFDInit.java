@@ -6,16 +6,19 @@ import se.sics.kompics.KompicsEvent;
 import java.util.Set;
 
 /**
- * Message sent to EPFD containing set of nodes to monitor
+ * Message sent to EPFD containing set of nodes to monitor. The EPFD is shared by all components of a node, the
+ * subscriber identifies whose set is replaced.
  */
 public class EPFDInit implements KompicsEvent {
 	
 	public final Set<PID> nodes;
 	public final PID pid;
+	public final String subscriber;
 	
-	public EPFDInit(Set<PID> nodes, PID pid){
+	public EPFDInit(Set<PID> nodes, PID pid, String subscriber){
 		this.nodes = nodes;
 		this.pid = pid;
+		this.subscriber = subscriber;
 	}
 
 }
@@ -11,8 +11,14 @@ import java.util.Set;
 public class Reconfigure implements KompicsEvent {
 
     public final Set<PID> nodes;
+    public final String subscriber;
 
     public Reconfigure(Set<PID> nodes) {
+        this(nodes, null);
+    }
+
+    public Reconfigure(Set<PID> nodes, String subscriber) {
         this.nodes = nodes;
+        this.subscriber = subscriber;
     }
 }
@@ -0,0 +1,29 @@
+package se.kth.id2203.epfd.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.util.Map;
+
+/**
+ * Suspicion level (phi) of every monitored process, indicated periodically. Each user decides on its own threshold
+ * above which it considers a process crashed.
+ */
+public class Suspicion implements KompicsEvent {
+
+    public final Map<PID, Double> levels;
+
+    public Suspicion(Map<PID, Double> levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * @param node process
+     * @param threshold phi threshold
+     * @return true if node is monitored and its suspicion level reached the threshold
+     */
+    public boolean suspected(PID node, double threshold) {
+        Double level = levels.get(node);
+        return level != null && level >= threshold;
+    }
+}
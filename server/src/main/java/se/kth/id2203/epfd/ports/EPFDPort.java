@@ -2,8 +2,7 @@ package se.kth.id2203.epfd.ports;
 
 import se.kth.id2203.epfd.events.EPFDInit;
 import se.kth.id2203.epfd.events.Reconfigure;
-import se.kth.id2203.epfd.events.Restore;
-import se.kth.id2203.epfd.events.Suspect;
+import se.kth.id2203.epfd.events.Suspicion;
 import se.sics.kompics.PortType;
 
 public class EPFDPort extends PortType {
@@ -11,7 +10,6 @@ public class EPFDPort extends PortType {
 	{
 		request(EPFDInit.class);
 		request(Reconfigure.class);
-		indication(Restore.class);
-		indication(Suspect.class);
+		indication(Suspicion.class);
 	}
 }
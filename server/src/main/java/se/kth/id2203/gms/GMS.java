@@ -6,22 +6,27 @@ import org.slf4j.LoggerFactory;
 import se.kth.id2203.broadcast.beb.events.BEB_Broadcast;
 import se.kth.id2203.broadcast.beb.events.BEB_Deliver;
 import se.kth.id2203.broadcast.beb.ports.BEBPort;
+import se.kth.id2203.epfd.events.EPFDInit;
 import se.kth.id2203.epfd.events.Reconfigure;
-import se.kth.id2203.epfd.events.Restore;
-import se.kth.id2203.epfd.events.Suspect;
+import se.kth.id2203.epfd.events.Suspicion;
 import se.kth.id2203.epfd.ports.EPFDPort;
 import se.kth.id2203.gms.events.*;
 import se.kth.id2203.gms.ports.GMSPort;
 import se.kth.id2203.gms.timeout.GMSTimeout;
+import se.kth.id2203.gms.timeout.ProposalTimeout;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.networking.RttEstimator;
 import se.kth.id2203.omega.events.OmegaInit;
 import se.kth.id2203.omega.events.Trust;
 import se.kth.id2203.omega.ports.OmegaPort;
 import se.kth.id2203.overlay.PID;
+import se.kth.id2203.vsync.VSyncService;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.CancelTimeout;
 import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timer;
 
 import java.util.HashSet;
@@ -33,6 +38,13 @@ import java.util.UUID;
  * Resilience: N/2 -1, can only tolerate a minority of processes failing, view always contains at least a
  * quorum of processes.
  *
+ * With quorum commit in VSync an update may only have reached a majority of the view, so a view is only installed if
+ * it keeps a majority of the members of the current view, also when members are suspected while others join.
+ *
+ * A member that is removed because it was suspected stays monitored and is added back when its suspicion level
+ * drops, so a live member that paused for too long is not left outside of its group. It catches up through the flush
+ * of the next view like any joining member.
+ *
  * @author Kim Hammar on 2017-02-08.
  */
 public class GMS extends ComponentDefinition {
@@ -57,6 +69,16 @@ public class GMS extends ComponentDefinition {
     private View currentView;
     private View pendingView = null;
     private Set<PID> acks = new HashSet();
+    private final RttEstimator<PID> rtt = new RttEstimator<>(
+            config().getValue("id2203.project.gms.retransmit.min", Long.class),
+            config().getValue("id2203.project.gms.retransmit.min", Long.class),
+            config().getValue("id2203.project.gms.retransmit.max", Long.class));
+    private UUID proposalTimeoutId;
+    private final double phiThreshold = config().getValue("id2203.project.gms.phi", Double.class);
+    private static final String SUBSCRIBER = "gms";
+    private final Set<PID> evicted = new HashSet<>();
+    private final boolean quorumCommit = VSyncService.COMMIT_QUORUM.equals(config().getValue("id2203.project.vsync.commit", String.class));
+    private long proposalSendTime;
 
     /**
      * Setup timer
@@ -83,6 +105,8 @@ public class GMS extends ComponentDefinition {
             selfPid = gmsInit.self;
             viewId = 0;
             members = new HashSet<>(gmsInit.nodes);
+            evicted.clear();
+            monitorEvicted();
             role = Role.WORKER;
             currentView = new View(ImmutableSet.copyOf(members), viewId, null);
             trigger(new OmegaInit(ImmutableSet.copyOf(gmsInit.nodes), selfPid), omegaPort);
@@ -90,8 +114,7 @@ public class GMS extends ComponentDefinition {
     };
 
     /**
-     * If new view should be installed and we are the leader, try to collect quorum of ACKS and then commit the new
-     * view.
+     * Leave if under-replicated and start a view change if the members changed without one.
      */
     protected final Handler<GMSTimeout> timeoutHandler = new Handler<GMSTimeout>() {
         @Override
@@ -102,25 +125,77 @@ public class GMS extends ComponentDefinition {
             }
             if (members != null && members.size() >= replicationDegree && members.size() != currentView.members.size() && pendingView == null)
                 viewChange();
+        }
+    };
+
+    /**
+     * No ACK from some members of the proposed view within their retransmission timeout, back off and re-send.
+     */
+    protected final Handler<ProposalTimeout> proposalTimeoutHandler = new Handler<ProposalTimeout>() {
+        @Override
+        public void handle(ProposalTimeout event) {
+            if (!event.getTimeoutId().equals(proposalTimeoutId))
+                return;
+            proposalTimeoutId = null;
             if (role == Role.LEADER && pendingView != null && pendingView.id > currentView.id) {
-                Set<PID> notAcked = new HashSet<>();
-                for (PID member : pendingView.members) {
-                    if (!acks.contains(member))
-                        notAcked.add(member);
-                }
-                if (notAcked.size() > 0) { //quorum not yet acked
-                    LOG.debug("I'm leader in my currentView, sending currentView proposal and collecting ACKs");
-                    trigger(new BEB_Broadcast(new ViewProposal(pendingView), notAcked, selfPid), broadcastPort);
-                } else {
-                    trigger(new BEB_Broadcast(new ViewCommit(pendingView), pendingView.members, selfPid), broadcastPort);
-                    currentView = pendingView;
-                    pendingView = null;
-                    acks = new HashSet<>();
+                for (PID member : notAcked()) {
+                    rtt.backoff(member);
                 }
+                proposalSendTime = -1;
+                propose();
             }
         }
     };
 
+    /**
+     * Send the view proposal to the members that have not ACK'ed it yet, or commit the view if all have.
+     */
+    private void propose() {
+        Set<PID> notAcked = notAcked();
+        if (notAcked.size() > 0) {
+            LOG.debug("I'm leader in my currentView, sending currentView proposal and collecting ACKs");
+            trigger(new BEB_Broadcast(new ViewProposal(pendingView), notAcked, selfPid), broadcastPort);
+            ScheduleTimeout st = new ScheduleTimeout(rtt.timeout(notAcked));
+            st.setTimeoutEvent(new ProposalTimeout(st));
+            trigger(st, timer);
+            proposalTimeoutId = st.getTimeoutEvent().getTimeoutId();
+        } else {
+            trigger(new BEB_Broadcast(new ViewCommit(pendingView), pendingView.members, selfPid), broadcastPort);
+            forgetRemoved(pendingView);
+            currentView = pendingView;
+            pendingView = null;
+            acks = new HashSet<>();
+        }
+    }
+
+    private Set<PID> notAcked() {
+        Set<PID> notAcked = new HashSet<>();
+        for (PID member : pendingView.members) {
+            if (!acks.contains(member))
+                notAcked.add(member);
+        }
+        return notAcked;
+    }
+
+    /**
+     * Drop the RTT estimates of the members of the current view that are not in view
+     */
+    private void forgetRemoved(View view) {
+        if (currentView == null)
+            return;
+        for (PID member : currentView.members) {
+            if (!view.members.contains(member))
+                rtt.remove(member);
+        }
+    }
+
+    private void cancelProposalTimeout() {
+        if (proposalTimeoutId == null)
+            return;
+        trigger(new CancelTimeout(proposalTimeoutId), timer);
+        proposalTimeoutId = null;
+    }
+
     /**
      * Omega indicates that a new leader is elected
      */
@@ -138,16 +213,39 @@ public class GMS extends ComponentDefinition {
     };
 
     /**
-     * EPFD suspect some process
+     * EPFD updated suspicion levels, remove the members above our threshold from the view and add removed members
+     * back when their level drops below half of it while the group has room for them, the margin keeps a member
+     * around the threshold from changing the view every interval. Removed members are monitored on our own
+     * subscription since Omega stops monitoring them once the view without them is installed.
      */
-    protected final Handler<Suspect> suspectHandler = new Handler<Suspect>() {
+    protected final Handler<Suspicion> suspicionHandler = new Handler<Suspicion>() {
         @Override
-        public void handle(Suspect event) {
-            if (role == Role.LEADER) {
-                LOG.info("GMS: Leader detected crash, updating currentView");
+        public void handle(Suspicion event) {
+            if (members == null)
+                return;
+            boolean changed = false;
+            boolean evictedChanged = false;
+            for (PID node : event.levels.keySet()) {
+                if (event.suspected(node, phiThreshold)) {
+                    if (members.remove(node)) {
+                        evicted.add(node);
+                        changed = evictedChanged = true;
+                    }
+                } else if (evicted.contains(node) && !event.suspected(node, phiThreshold / 2)
+                        && members.size() < replicationDegree * 2 - 1) {
+                    LOG.info("GMS: {} is no longer suspected, adding it back", node);
+                    evicted.remove(node);
+                    members.add(node);
+                    changed = evictedChanged = true;
+                }
+            }
+            if (evictedChanged)
+                monitorEvicted();
+            if (changed) {
+                if (role == Role.LEADER)
+                    LOG.info("GMS: Leader detected crash, updating currentView");
+                viewChange();
             }
-            members.remove(event.suspected);
-            viewChange();
         }
     };
 
@@ -157,19 +255,19 @@ public class GMS extends ComponentDefinition {
      */
     private void viewChange() {
         if (!currentView.sameView(members, leader) && role == Role.LEADER) {
+            if (quorumCommit && !currentView.keepsMajority(members)) {
+                LOG.warn("GMS: members {} do not keep a majority of view {}, not installing it", members, currentView.id);
+                return;
+            }
             acks = new HashSet<>();
             viewId++;
             pendingView = new View(ImmutableSet.copyOf(members), viewId, selfPid);
+            cancelProposalTimeout();
+            proposalSendTime = System.currentTimeMillis();
+            propose();
         }
     }
 
-    protected final Handler<Restore> restoreHandler = new Handler<Restore>() {
-        @Override
-        public void handle(Restore event) {
-            //Possible optimization to add previously suspected and removed nodes, for simplicity we don't.
-        }
-    };
-
     /**
      * Received new view-proposal from some process.
      * Only ACK a view-proposal from the leader that Omega indicated. Otherwise ignore.
@@ -192,11 +290,14 @@ public class GMS extends ComponentDefinition {
         public void handle(ViewCommit viewCommit, BEB_Deliver beb_deliver) {
             if(viewCommit.view.leader.equals(leader)){
                 LOG.debug("GMS Peer received currentView commit, delivering new currentView");
+                forgetRemoved(viewCommit.view);
                 currentView = viewCommit.view;
                 pendingView = null;
                 acks = new HashSet<>();
                 viewId = currentView.id;
                 members = new HashSet<>(ImmutableSet.copyOf(currentView.members));
+                if (evicted.removeAll(currentView.members))
+                    monitorEvicted();
                 trigger(new OmegaInit(currentView.members, selfPid), omegaPort);
                 trigger(currentView, gmsPort);
             }
@@ -204,14 +305,22 @@ public class GMS extends ComponentDefinition {
     };
 
     /**
-     * Received ACK from some member in group
+     * Received ACK from some member in group, commit the view when all members have ACK'ed it. ACK's of a proposal
+     * that was not re-sent are RTT samples of the member.
      */
     protected final ClassMatchedHandler<ViewAcc, Message> ackHandler = new ClassMatchedHandler<ViewAcc, Message>() {
         @Override
         public void handle(ViewAcc viewAcc, Message message) {
             LOG.debug("Received ACK for currentView proposal");
-            if (viewAcc.viewId == pendingView.id)
+            if (pendingView != null && viewAcc.viewId == pendingView.id && !acks.contains(viewAcc.source)) {
+                if (proposalSendTime >= 0)
+                    rtt.sample(viewAcc.source, System.currentTimeMillis() - proposalSendTime);
                 acks.add(viewAcc.source);
+                if (role == Role.LEADER && notAcked().isEmpty()) {
+                    cancelProposalTimeout();
+                    propose();
+                }
+            }
         }
     };
 
@@ -224,6 +333,8 @@ public class GMS extends ComponentDefinition {
         public void handle(GMSJoin gmsJoin) {
             if (members.size() < replicationDegree * 2 - 1 && !members.contains(gmsJoin.node)) {
                 members.add(gmsJoin.node);
+                if (evicted.remove(gmsJoin.node))
+                    monitorEvicted();
                 Set<PID> reconf = new HashSet<PID>();
                 reconf.add(gmsJoin.node);
                 trigger(new Reconfigure(reconf), omegaPort);
@@ -231,17 +342,24 @@ public class GMS extends ComponentDefinition {
         }
     };
 
+    /**
+     * Keep monitoring the members that we removed, replaces our subscription at the EPFD
+     */
+    private void monitorEvicted() {
+        trigger(new EPFDInit(ImmutableSet.copyOf(evicted), selfPid, SUBSCRIBER), epfdPort);
+    }
+
     {
         subscribe(joinHandler, gmsPort);
         subscribe(ackHandler, net);
         subscribe(viewProposalHandler, broadcastPort);
         subscribe(viewCommitHandler, broadcastPort);
         subscribe(trustedHandler, omegaPort);
-        subscribe(suspectHandler, epfdPort);
-        subscribe(restoreHandler, epfdPort);
+        subscribe(suspicionHandler, epfdPort);
         subscribe(gmsInitHandler, gmsPort);
         subscribe(startHandler, control);
         subscribe(timeoutHandler, timer);
+        subscribe(proposalTimeoutHandler, timer);
     }
 
     public enum Role {
@@ -4,6 +4,9 @@ import se.kth.id2203.overlay.PID;
 import se.sics.kompics.KompicsEvent;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -39,6 +42,54 @@ public class View implements KompicsEvent, Serializable {
         return true;
     }
 
+    /**
+     * @param nodes members of a proposed view
+     * @return true if the nodes include a majority of the members of this view
+     */
+    public boolean keepsMajority(Set<PID> nodes) {
+        int kept = 0;
+        for (PID pid : members) {
+            if (nodes.contains(pid))
+                kept++;
+        }
+        return kept > members.size() / 2;
+    }
+
+    /**
+     * Chain order of the view for chain replication, the leader is the head and the other members follow in PID
+     * order.
+     *
+     * @return members in chain order
+     */
+    public List<PID> chain() {
+        List<PID> chain = new ArrayList<>(members);
+        chain.remove(leader);
+        Collections.sort(chain);
+        if (members.contains(leader))
+            chain.add(0, leader);
+        return chain;
+    }
+
+    /**
+     * @param member member of the view
+     * @return the member after the given member in the chain, or null if it is the tail
+     */
+    public PID successor(PID member) {
+        List<PID> chain = chain();
+        int index = chain.indexOf(member);
+        if (index < 0 || index == chain.size() - 1)
+            return null;
+        return chain.get(index + 1);
+    }
+
+    /**
+     * @return last member of the chain
+     */
+    public PID tail() {
+        List<PID> chain = chain();
+        return chain.get(chain.size() - 1);
+    }
+
     @Override
 	public String toString() {
 		return "View [members=" + members + ", id=" + id + ", leader=" + leader + "]";
@@ -0,0 +1,12 @@
+package se.kth.id2203.gms.timeout;
+
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class ProposalTimeout extends Timeout {
+
+	public ProposalTimeout(ScheduleTimeout request) {
+		super(request);
+	}
+
+}
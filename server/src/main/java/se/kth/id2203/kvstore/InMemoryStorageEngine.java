@@ -0,0 +1,74 @@
+package se.kth.id2203.kvstore;
+
+import se.kth.id2203.vsync.events.LogEntry;
+
+import java.util.*;
+
+/**
+ * StorageEngine that keeps everything in a PersistentKeyValueMap on the heap. Writes replace the map with a new
+ * version, so a snapshot is the current version itself and costs nothing.
+ */
+public class InMemoryStorageEngine implements StorageEngine {
+
+    private PersistentKeyValueMap keyValues = PersistentKeyValueMap.empty();
+
+    @Override
+    public String get(String key) {
+        return keyValues.get(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String oldValue = keyValues.get(key);
+        keyValues = keyValues.plus(key, value);
+        return oldValue;
+    }
+
+    @Override
+    public String cas(String key, String referenceValue, String value) {
+        String oldValue = keyValues.get(key);
+        if (oldValue != null && oldValue.equals(referenceValue))
+            keyValues = keyValues.plus(key, value);
+        return oldValue;
+    }
+
+    @Override
+    public Map<String, String> snapshot() {
+        return keyValues;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> scan() {
+        return keyValues.entrySet().iterator();
+    }
+
+    /**
+     * The map is not ordered, so the keys in the range are collected and sorted first.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        TreeMap<String, String> range = new TreeMap<>();
+        for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+            if ((from == null || entry.getKey().compareTo(from) >= 0) && (to == null || entry.getKey().compareTo(to) < 0))
+                range.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(range).entrySet().iterator();
+    }
+
+    @Override
+    public void applyBatch(List<LogEntry> entries) {
+        for (LogEntry entry : entries) {
+            keyValues = entry.applyTo(keyValues);
+        }
+    }
+
+    @Override
+    public void restore(Map<String, String> keyValues) {
+        this.keyValues = PersistentKeyValueMap.copyOf(keyValues);
+    }
+
+    @Override
+    public int size() {
+        return keyValues.size();
+    }
+}
@@ -23,26 +23,39 @@
  */
 package se.kth.id2203.kvstore;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.id2203.gms.events.View;
+import se.kth.id2203.kvstore.events.BatchTimeout;
 import se.kth.id2203.kvstore.events.Handover;
 import se.kth.id2203.kvstore.events.KVServiceTimeout;
 import se.kth.id2203.kvstore.events.ReplicationInit;
 import se.kth.id2203.kvstore.events.RouteOperation;
+import se.kth.id2203.kvstore.events.TailRead;
+import se.kth.id2203.kvstore.events.WalSyncTimeout;
 import se.kth.id2203.kvstore.ports.KVPort;
+import se.kth.id2203.kvstore.wal.RecoveredState;
+import se.kth.id2203.kvstore.wal.WriteAheadLog;
 import se.kth.id2203.networking.Message;
+import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.overlay.PID;
+import se.kth.id2203.raft.RaftService;
 import se.kth.id2203.overlay.manager.ports.Routing;
+import se.kth.id2203.overlay.service.events.KeyTransfer;
+import se.kth.id2203.vsync.VSyncService;
 import se.kth.id2203.vsync.events.*;
 import se.kth.id2203.vsync.ports.VSyncPort;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.CancelPeriodicTimeout;
+import se.sics.kompics.timer.CancelTimeout;
 import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timer;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -61,13 +74,31 @@ public class KVService extends ComponentDefinition {
     /* Fields */
     private final static Logger LOG = LoggerFactory.getLogger(KVService.class);
     private PID selfPid;
-    private HashMap<Integer, String> keyValues = new HashMap<>();
+    private final StorageEngine store = StorageEngineFactory.create(config());
     private long timestamp;
     private View replicationGroup;
     private boolean blocked;
     private Queue<RouteOperation> operationQueue = new LinkedList<>();
-    private RouteOperation pendingOperation = null;
+    private Queue<KeyTransfer> transferQueue = new LinkedList<>();
+    private final int window = config().getValue("id2203.project.kvservice.window", Integer.class);
+    private LinkedHashMap<UUID, List<RouteOperation>> pendingOperations = new LinkedHashMap<>();
+    private final long batchWindow = config().getValue("id2203.project.kvservice.batch.window", Long.class);
+    private final int batchSize = config().getValue("id2203.project.kvservice.batch.size", Integer.class);
+    private List<LogEntry> batchEntries = new ArrayList<>();
+    private List<RouteOperation> batchOperations = new ArrayList<>();
+    private UUID batchTimeoutId;
+    private long leaseViewId;
+    private long leaseExpiry;
     private UUID timeoutId;
+    private final boolean tailReads = VSyncService.DISSEMINATION_CHAIN.equals(config().getValue("id2203.project.vsync.dissemination", String.class))
+            && !RaftService.PROTOCOL.equals(config().getValue("id2203.project.replication", String.class));
+    private final boolean walEnabled = config().getValue("id2203.project.wal.enabled", Boolean.class);
+    private final int syncBatch = config().getValue("id2203.project.wal.syncBatch", Integer.class);
+    private final int checkpointInterval = config().getValue("id2203.project.wal.checkpointInterval", Integer.class);
+    private WriteAheadLog wal;
+    private UUID walSyncTimeoutId;
+    private int partition;
+    private UUID lastUpdateId;
 
 
     /**
@@ -81,36 +112,100 @@ public class KVService extends ComponentDefinition {
             spt.setTimeoutEvent(new KVServiceTimeout(spt));
             trigger(spt, timer);
             timeoutId = spt.getTimeoutEvent().getTimeoutId();
+            if (walEnabled) {
+                NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
+                File walDirectory = WriteAheadLog.directory(config().getValue("id2203.project.wal.dir", String.class), self);
+                wal = new WriteAheadLog(walDirectory, config().getValue("id2203.project.wal.segmentSize", Integer.class));
+                long syncInterval = config().getValue("id2203.project.wal.syncInterval", Long.class);
+                SchedulePeriodicTimeout syncSpt = new SchedulePeriodicTimeout(syncInterval, syncInterval);
+                syncSpt.setTimeoutEvent(new WalSyncTimeout(syncSpt));
+                trigger(syncSpt, timer);
+                walSyncTimeoutId = syncSpt.getTimeoutEvent().getTimeoutId();
+            }
+        }
+    };
+
+    /**
+     * Group commit, force the entries appended to the write-ahead log since the last sync to disk
+     */
+    protected final Handler<WalSyncTimeout> walSyncHandler = new Handler<WalSyncTimeout>() {
+        @Override
+        public void handle(WalSyncTimeout event) {
+            if (wal != null)
+                wal.sync();
         }
     };
 
+    /**
+     * Cancel timers and force the remaining entries of the write-ahead log to disk before it is closed
+     */
+    @Override
+    public void tearDown() {
+        trigger(new CancelPeriodicTimeout(timeoutId), timer);
+        if (wal == null)
+            return;
+        trigger(new CancelPeriodicTimeout(walSyncTimeoutId), timer);
+        try {
+            wal.close();
+        } catch (IOException e) {
+            LOG.error("Write-ahead log could not be closed", e);
+        }
+        wal = null;
+    }
+
     /**
      * Flush operation queue if not blocked
      */
     protected final Handler<KVServiceTimeout> timeoutHandler = new Handler<KVServiceTimeout>() {
         @Override
         public void handle(KVServiceTimeout event) {
-            if (operationQueue.size() > 0 && !blocked && replicationGroup != null) {
-                while (operationQueue.size() > 0 && pendingOperation == null) {
-                    trigger(new Message(selfPid.netAddress, replicationGroup.leader.netAddress, operationQueue.poll()), net);
-                }
-            }
+            processQueue();
         }
     };
 
     /**
-     * Received Operation routed from overlay.
-     * Route it again within the replication-group to the leader.
+     * Process queued operations. The leader starts operations while fewer batches than the window are in flight,
+     * other members route them to the leader. Handed over keys are replicated by the leader in the same way.
+     */
+    private void processQueue() {
+        if (blocked || replicationGroup == null)
+            return;
+        while (transferQueue.size() > 0) {
+            if (replicationGroup.leader.equals(selfPid))
+                handleTransfer(transferQueue.poll());
+            else
+                trigger(new Message(selfPid.netAddress, replicationGroup.leader.netAddress, transferQueue.poll()), net);
+        }
+        while (operationQueue.size() > 0) {
+            if (replicationGroup.leader.equals(selfPid)) {
+                if (pendingOperations.size() >= window)
+                    break;
+                handleOperation(operationQueue.poll());
+            } else {
+                trigger(new Message(selfPid.netAddress, replicationGroup.leader.netAddress, operationQueue.poll()), net);
+            }
+        }
+    }
+
+    /**
+     * Received Operation routed from overlay or sent directly by a client with a routing table.
+     * Handle it if we are leader, otherwise route it again within the replication-group to the leader.
      */
     protected final ClassMatchedHandler<Operation, Message> opHandler = new ClassMatchedHandler<Operation, Message>() {
         @Override
         public void handle(Operation content, Message context) {
-            LOG.info("Got operation {}, routing it to leader..", content);
             RouteOperation routeOperation = new RouteOperation(content, context.getSource());
-            if (!blocked && replicationGroup != null) {
-                trigger(new Message(selfPid.netAddress, replicationGroup.leader.netAddress, routeOperation), net);
-            } else {
+            if (blocked || replicationGroup == null) {
                 operationQueue.add(routeOperation);
+            } else if (replicationGroup.leader.equals(selfPid)) {
+                LOG.debug("Leader received operation {}", content);
+                if (pendingOperations.size() < window)
+                    handleOperation(routeOperation);
+                else
+                    operationQueue.add(routeOperation);
+            } else {
+                LOG.info("Got operation {}, routing it to leader..", content);
+                trigger(new Message(selfPid.netAddress, replicationGroup.leader.netAddress, routeOperation), net);
             }
         }
 
@@ -124,27 +219,9 @@ public class KVService extends ComponentDefinition {
         @Override
         public void handle(RouteOperation routeOperation, Message message) {
             if (replicationGroup.leader.equals(selfPid)) {
-                timestamp++;
                 LOG.debug("Leader received operation");
-                if (!blocked && pendingOperation == null) {
-                    switch (routeOperation.operation.operationCode) {
-                        case GET:
-                            sendOp(routeOperation);
-                            break;
-                        case PUT:
-                            keyValues.put(routeOperation.operation.key.hashCode(), routeOperation.operation.value);
-                            sendOp(routeOperation);
-                            break;
-                        case CAS:
-                            routeOperation.oldValue = keyValues.get(routeOperation.operation.key.hashCode());
-                            if (routeOperation.oldValue != null && routeOperation.oldValue.equals(routeOperation.operation.referenceValue))
-                                keyValues.put(routeOperation.operation.key.hashCode(), routeOperation.operation.value);
-                            sendOp(routeOperation);
-                            break;
-                        default:
-                            trigger(new Message(selfPid.netAddress, routeOperation.client, new OpResponse(routeOperation.operation.id, OpResponse.Code.NOT_IMPLEMENTED)), net);
-                            break;
-                    }
+                if (!blocked && pendingOperations.size() < window) {
+                    handleOperation(routeOperation);
                 } else {
                     operationQueue.add(routeOperation);
                 }
@@ -154,11 +231,191 @@ public class KVService extends ComponentDefinition {
         }
     };
 
-    private void sendOp(RouteOperation routeOperation) {
-        StateTransfer snapshot = new StateTransfer(ImmutableMap.copyOf(keyValues), timestamp);
-        trigger(new VS_Broadcast(snapshot, replicationGroup.id), vSyncPort);
-        routeOperation.id = snapshot.id;
-        pendingOperation = routeOperation;
+    /**
+     * Received keys that another partition handed over after the lookup-table changed, replicate them once we are in
+     * a view
+     */
+    protected final ClassMatchedHandler<KeyTransfer, Message> keyTransferHandler = new ClassMatchedHandler<KeyTransfer, Message>() {
+        @Override
+        public void handle(KeyTransfer keyTransfer, Message message) {
+            LOG.debug("KVService received {} handed over keys", keyTransfer.keyValues.size());
+            transferQueue.add(keyTransfer);
+            processQueue();
+        }
+    };
+
+    /**
+     * Replicate handed over keys to the group as log-entries. Keys that we already have were written by clients
+     * routed to us after the lookup-table changed and are newer than the handed over values.
+     *
+     * @param keyTransfer keys handed over to us
+     */
+    private void handleTransfer(KeyTransfer keyTransfer) {
+        for (Map.Entry<String, String> keyValue : keyTransfer.keyValues.entrySet()) {
+            if (store.get(keyValue.getKey()) != null)
+                continue;
+            timestamp++;
+            LogEntry entry = new LogEntry(timestamp, keyValue.getKey(), keyValue.getValue());
+            store.applyBatch(Collections.singletonList(entry));
+            logUpdate(entry);
+            batchEntries.add(entry);
+        }
+        sendBatch();
+    }
+
+    /**
+     * Received read from the head of the chain, serve it if we are still the tail of the view it was sent in,
+     * otherwise route it through the leader again.
+     */
+    protected final ClassMatchedHandler<TailRead, Message> tailReadHandler = new ClassMatchedHandler<TailRead, Message>() {
+        @Override
+        public void handle(TailRead tailRead, Message message) {
+            if (!blocked && replicationGroup != null && replicationGroup.id == tailRead.viewId && replicationGroup.tail().equals(selfPid)) {
+                tailRead.routeOperation.oldValue = store.get(tailRead.routeOperation.operation.key);
+                respond(tailRead.routeOperation);
+            } else {
+                LOG.debug("Not the tail of view {}, routing read through the leader", tailRead.viewId);
+                operationQueue.add(tailRead.routeOperation);
+                processQueue();
+            }
+        }
+    };
+
+    /**
+     * Start an operation as leader. Reads capture the value at the point in the log where they are ordered, the
+     * response is sent once all operations before it have completed. With chain replication reads are served by
+     * the tail instead.
+     *
+     * @param routeOperation operation
+     */
+    private void handleOperation(RouteOperation routeOperation) {
+        switch (routeOperation.operation.operationCode) {
+            case GET:
+                if (tailReads && !replicationGroup.tail().equals(selfPid)) {
+                    trigger(new Message(selfPid.netAddress, replicationGroup.tail().netAddress, new TailRead(routeOperation, replicationGroup.id)), net);
+                    break;
+                }
+                routeOperation.oldValue = store.get(routeOperation.operation.key);
+                if (holdsLease() && !pendingWrite(routeOperation.operation.key))
+                    respond(routeOperation);
+                else
+                    sendOp(routeOperation, null, null);
+                break;
+            case PUT:
+                sendOp(routeOperation, routeOperation.operation.key, routeOperation.operation.value);
+                break;
+            case CAS:
+                routeOperation.oldValue = store.get(routeOperation.operation.key);
+                if (routeOperation.oldValue != null && routeOperation.oldValue.equals(routeOperation.operation.referenceValue))
+                    sendOp(routeOperation, routeOperation.operation.key, routeOperation.operation.value);
+                else
+                    sendOp(routeOperation, null, null);
+                break;
+            default:
+                trigger(new Message(selfPid.netAddress, routeOperation.client, new OpResponse(routeOperation.operation.id, OpResponse.Code.NOT_IMPLEMENTED)), net);
+                break;
+        }
+    }
+
+    /**
+     * The leader holds a valid read-lease if all members granted it for the current view and no view change is
+     * pending.
+     *
+     * @return true if reads can be served from local state
+     */
+    private boolean holdsLease() {
+        return !blocked && replicationGroup != null && leaseViewId == replicationGroup.id
+                && System.currentTimeMillis() < leaseExpiry;
+    }
+
+    /**
+     * Writes are applied locally before they are committed, reads of keys with a pending write must be ordered
+     * after it through the group.
+     *
+     * @param key key
+     * @return true if there is an in-flight operation that may write the key
+     */
+    private boolean pendingWrite(String key) {
+        for (List<RouteOperation> batch : pendingOperations.values()) {
+            if (writes(batch, key))
+                return true;
+        }
+        return writes(batchOperations, key);
+    }
+
+    private boolean writes(List<RouteOperation> operations, String key) {
+        for (RouteOperation operation : operations) {
+            if (operation.operation.operationCode != Operation.OperationCode.GET && operation.operation.key.equals(key))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Apply the effect of the operation to the local store and replicate it to the group as a log-entry. With no
+     * batch in flight the entry is sent right away, otherwise it waits for the micro-window to fill the batch.
+     *
+     * @param routeOperation operation
+     * @param key            key written by the operation or null if the operation does not write
+     * @param value          value written by the operation
+     */
+    private void sendOp(RouteOperation routeOperation, String key, String value) {
+        timestamp++;
+        LogEntry entry = new LogEntry(timestamp, key, value);
+        store.applyBatch(Collections.singletonList(entry));
+        logUpdate(entry);
+        routeOperation.id = entry.id;
+        batchEntries.add(entry);
+        batchOperations.add(routeOperation);
+        if (batchEntries.size() >= batchSize || batchWindow <= 0 || pendingOperations.isEmpty())
+            sendBatch();
+        else if (batchTimeoutId == null)
+            scheduleBatchTimeout();
+    }
+
+    /**
+     * Replicate the open batch to the group in one round, a batch of a single operation is sent as a plain
+     * log-entry. The operations of the batch are completed together when all members have ACK'ed it.
+     */
+    private void sendBatch() {
+        cancelBatchTimeout();
+        if (batchEntries.isEmpty())
+            return;
+        Update update = batchEntries.size() == 1 ? batchEntries.get(0) : new LogBatch(batchEntries);
+        trigger(new VS_Broadcast(update, replicationGroup.id), vSyncPort);
+        pendingOperations.put(update.id, batchOperations);
+        batchEntries = new ArrayList<>();
+        batchOperations = new ArrayList<>();
+    }
+
+    /**
+     * Micro-window ended, replicate the operations collected in it
+     */
+    protected final Handler<BatchTimeout> batchTimeoutHandler = new Handler<BatchTimeout>() {
+        @Override
+        public void handle(BatchTimeout event) {
+            if (event.getTimeoutId().equals(batchTimeoutId)) {
+                batchTimeoutId = null;
+                sendBatch();
+            }
+        }
+    };
+
+    /**
+     * Setup timer for the micro-window of the open batch
+     */
+    private void scheduleBatchTimeout() {
+        ScheduleTimeout st = new ScheduleTimeout(batchWindow);
+        st.setTimeoutEvent(new BatchTimeout(st));
+        trigger(st, timer);
+        batchTimeoutId = st.getTimeoutEvent().getTimeoutId();
+    }
+
+    private void cancelBatchTimeout() {
+        if (batchTimeoutId == null)
+            return;
+        trigger(new CancelTimeout(batchTimeoutId), timer);
+        batchTimeoutId = null;
     }
 
     /**
@@ -170,7 +427,11 @@ public class KVService extends ComponentDefinition {
             LOG.debug("KVService recieved new view from VSyncService");
             blocked = false;
             replicationGroup = view;
-            pendingOperation = null;
+            pendingOperations.clear();
+            cancelBatchTimeout();
+            batchEntries = new ArrayList<>();
+            batchOperations = new ArrayList<>();
+            processQueue();
         }
     };
 
@@ -181,11 +442,24 @@ public class KVService extends ComponentDefinition {
         @Override
         public void handle(ReplicationInit replicationInit) {
             LOG.info("KVService initializes replication group");
-            timestamp = 0;
             blocked = false;
             selfPid = replicationInit.self;
-            keyValues = replicationInit.keyValues;
-            trigger(new VSyncInit(ImmutableSet.copyOf(replicationInit.nodes), selfPid, new StateTransfer(ImmutableMap.copyOf(keyValues), timestamp)), vSyncPort);
+            partition = replicationInit.partition;
+            RecoveredState recovered = recover();
+            StateTransfer initialState;
+            if (recovered != null && recovered.partition == partition) {
+                LOG.info("KVService recovered {} keys up to timestamp {} from write-ahead log", recovered.keyValues.size(), recovered.timestamp);
+                store.restore(recovered.keyValues);
+                timestamp = recovered.timestamp;
+                initialState = new StateTransfer(recovered.keyValues, timestamp, recovered.id);
+            } else {
+                timestamp = 0;
+                store.restore(replicationInit.keyValues);
+                initialState = new StateTransfer(replicationInit.keyValues, timestamp);
+            }
+            lastUpdateId = initialState.id;
+            checkpoint();
+            trigger(new VSyncInit(ImmutableSet.copyOf(replicationInit.nodes), selfPid, initialState), vSyncPort);
         }
     };
 
@@ -196,45 +470,92 @@ public class KVService extends ComponentDefinition {
         @Override
         public void handle(StateTransfer stateTransfer, VS_Deliver vs_deliver) {
             LOG.debug("KVService received state update from VSyncService");
-            keyValues = new HashMap<>();
-            if (stateTransfer != null)
-                keyValues.putAll(stateTransfer.keyValues);
-            printStore();
+            if (stateTransfer != null && stateTransfer.id.equals(lastUpdateId)) {
+                LOG.debug("KVService already has the state");
+                return;
+            }
+            if (stateTransfer != null) {
+                store.restore(stateTransfer.keyValues);
+                timestamp = stateTransfer.timestamp;
+                lastUpdateId = stateTransfer.id;
+            } else {
+                store.restore(Collections.<String, String>emptyMap());
+                lastUpdateId = null;
+            }
+            checkpoint();
+            LOG.debug("Store has {} keys after state transfer", store.size());
         }
     };
 
     /**
-     * Operation complete, respond to client
+     * Received log-entry from VSyncService, apply it unless we already did (the leader applies its own entries
+     * when the operation is received)
+     */
+    protected final ClassMatchedHandler<LogEntry, VS_Deliver> logEntryHandler = new ClassMatchedHandler<LogEntry, VS_Deliver>() {
+        @Override
+        public void handle(LogEntry logEntry, VS_Deliver vs_deliver) {
+            if (logEntry.timestamp > timestamp) {
+                LOG.debug("KVService applying {}", logEntry);
+                store.applyBatch(Collections.singletonList(logEntry));
+                timestamp = logEntry.timestamp;
+                logUpdate(logEntry);
+            }
+        }
+    };
+
+    /**
+     * Batch of operations complete, respond to the clients
      */
     protected final ClassMatchedHandler<OperationComplete, VS_Deliver> writeCompleteHandler = new ClassMatchedHandler<OperationComplete, VS_Deliver>() {
         @Override
         public void handle(OperationComplete operationComplete, VS_Deliver vs_deliver) {
-            if(pendingOperation != null){
-                if (operationComplete.id.equals(pendingOperation.id)) {
-                    LOG.debug("Operation complete from Vsync layer, delivering to the client");
-                    switch (pendingOperation.operation.operationCode) {
-                        case GET:
-                            String val = keyValues.get(pendingOperation.operation.key.hashCode());
-                            if (val == null)
-                                val = "not found";
-                            trigger(new Message(selfPid.netAddress, pendingOperation.client, new OpResponse(pendingOperation.operation.id, OpResponse.Code.OK, val)), net);
-                            break;
-                        case PUT:
-                            trigger(new Message(selfPid.netAddress, pendingOperation.client, new OpResponse(pendingOperation.operation.id, OpResponse.Code.OK, "Write successful")), net);
-                            break;
-                        case CAS:
-                            if (pendingOperation.oldValue == null) {
-                                pendingOperation.oldValue = "not found";
-                            }
-                            trigger(new Message(selfPid.netAddress, pendingOperation.client, new OpResponse(pendingOperation.operation.id, OpResponse.Code.OK, pendingOperation.oldValue)), net);
-                            break;
-                    }
-                    pendingOperation = null;
+            List<RouteOperation> batch = pendingOperations.remove(operationComplete.id);
+            if (batch != null) {
+                LOG.debug("{} operations complete from Vsync layer, delivering to the clients", batch.size());
+                for (RouteOperation pendingOperation : batch) {
+                    respond(pendingOperation);
                 }
+                processQueue();
             }
         }
     };
 
+    /**
+     * Respond to the client with the result of the operation
+     *
+     * @param routeOperation operation
+     */
+    private void respond(RouteOperation routeOperation) {
+        switch (routeOperation.operation.operationCode) {
+            case GET:
+                String val = routeOperation.oldValue;
+                if (val == null)
+                    val = "not found";
+                trigger(new Message(selfPid.netAddress, routeOperation.client, new OpResponse(routeOperation.operation.id, OpResponse.Code.OK, val)), net);
+                break;
+            case PUT:
+                trigger(new Message(selfPid.netAddress, routeOperation.client, new OpResponse(routeOperation.operation.id, OpResponse.Code.OK, "Write successful")), net);
+                break;
+            case CAS:
+                if (routeOperation.oldValue == null) {
+                    routeOperation.oldValue = "not found";
+                }
+                trigger(new Message(selfPid.netAddress, routeOperation.client, new OpResponse(routeOperation.operation.id, OpResponse.Code.OK, routeOperation.oldValue)), net);
+                break;
+        }
+    }
+
+    /**
+     * Received read-lease from VSyncService
+     */
+    protected final Handler<Lease> leaseHandler = new Handler<Lease>() {
+        @Override
+        public void handle(Lease lease) {
+            leaseViewId = lease.viewId;
+            leaseExpiry = lease.expiry;
+        }
+    };
+
     /**
      * VSyncLayer ask us to block requests while installing new view
      */
@@ -242,6 +563,8 @@ public class KVService extends ComponentDefinition {
         @Override
         public void handle(Block block) {
             LOG.debug("KVService received block request from VSyncService");
+            if (replicationGroup != null && replicationGroup.leader.equals(selfPid))
+                sendBatch();
             blocked = true;
             trigger(new BlockOk(), vSyncPort);
         }
@@ -255,20 +578,72 @@ public class KVService extends ComponentDefinition {
         public void handle(Handover handover) {
             if (replicationGroup.leader.equals(selfPid)) {
                 LOG.debug("KVService received request to handover some keys");
+                sendBatch();
                 timestamp++;
-                StateTransfer snapshot = new StateTransfer(ImmutableMap.copyOf(handover.keyValues), timestamp);
+                StateTransfer snapshot = new StateTransfer(PersistentKeyValueMap.copyOf(handover.keyValues), timestamp);
                 trigger(new VS_Broadcast(snapshot, replicationGroup.id), vSyncPort);
             }
         }
     };
 
-    private void printStore() {
-        LOG.info("--------------------------------------");
-        LOG.info("Store:");
-        for (int key : keyValues.keySet()) {
-            LOG.info("key: " + key + " | value: " + keyValues.get(key));
+    /**
+     * Append applied log-entry to the write-ahead log. The log is forced to disk when enough entries have been
+     * appended or by the sync timer, continued in a new segment when the segment is full and checkpointed when it has
+     * grown large and no checkpoint is running.
+     *
+     * @param entry applied log-entry
+     */
+    private void logUpdate(LogEntry entry) {
+        lastUpdateId = entry.id;
+        if (wal == null)
+            return;
+        try {
+            if (!wal.append(entry)) {
+                wal.roll();
+                if (!wal.append(entry)) {
+                    //Larger than a segment, the entry is part of the snapshot instead
+                    checkpoint();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Write-ahead log segment could not be created, continuing without it", e);
+            wal = null;
+            return;
+        }
+        if (wal.entries() >= checkpointInterval && !wal.checkpointing())
+            checkpoint();
+        else if (wal.unsynced() >= syncBatch)
+            wal.sync();
+    }
+
+    /**
+     * Start a new write-ahead log segment and stream a point-in-time scan of the store to disk in the background, so
+     * the handlers are not blocked while it is written.
+     */
+    private void checkpoint() {
+        if (wal == null)
+            return;
+        try {
+            wal.checkpointAsync(partition, store.scan(), timestamp, lastUpdateId);
+        } catch (IOException e) {
+            LOG.error("Checkpoint of write-ahead log failed, continuing without it", e);
+            wal = null;
+        }
+    }
+
+    /**
+     * @return state recovered from the write-ahead log or null if there is none
+     */
+    private RecoveredState recover() {
+        if (wal == null)
+            return null;
+        try {
+            return wal.recover();
+        } catch (IOException e) {
+            LOG.error("Recovery from write-ahead log failed", e);
+            return null;
         }
-        LOG.info("--------------------------------------");
     }
 
     /**
@@ -277,12 +652,18 @@ public class KVService extends ComponentDefinition {
         subscribe(handoverHandler, kvPort);
         subscribe(startHandler, control);
         subscribe(timeoutHandler, timer);
+        subscribe(walSyncHandler, timer);
+        subscribe(batchTimeoutHandler, timer);
         subscribe(routedOpHandler, net);
+        subscribe(tailReadHandler, net);
+        subscribe(keyTransferHandler, net);
         subscribe(opHandler, net);
         subscribe(viewHandler, vSyncPort);
         subscribe(blockHandler, vSyncPort);
+        subscribe(leaseHandler, vSyncPort);
         subscribe(writeCompleteHandler, vSyncPort);
         subscribe(stateUpdateHandler, vSyncPort);
+        subscribe(logEntryHandler, vSyncPort);
         subscribe(replicationInitHandler, kvPort);
     }
 
@@ -0,0 +1,501 @@
+package se.kth.id2203.kvstore;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Immutable map from keys to values stored in a hash array mapped trie. {@link #plus(String, String)} and
+ * {@link #minus(String)} return a new map that shares all nodes except the path to the changed key with this map,
+ * so an update costs O(log32 n) and keeping an old version around, e.g as a snapshot or in a state transfer, costs
+ * nothing. Nodes keep their entries and sub-nodes in separate sections of one array (as in CHAMP) so that there is
+ * no per-entry object and removals keep the trie in canonical form.
+ *
+ * The map can be shared freely between components and threads. Null keys and values are not permitted and the
+ * mutators of the Map interface throw UnsupportedOperationException.
+ */
+public final class PersistentKeyValueMap extends AbstractMap<String, String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentKeyValueMap EMPTY = new PersistentKeyValueMap(BitmapNode.EMPTY, 0);
+
+    private final transient Node root;
+    private final transient int size;
+    private transient Set<Entry<String, String>> entrySet;
+
+    private PersistentKeyValueMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return the empty map
+     */
+    public static PersistentKeyValueMap empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param keyValues map to copy
+     * @return map with the same entries, keyValues itself if it already is a PersistentKeyValueMap
+     */
+    public static PersistentKeyValueMap copyOf(Map<String, String> keyValues) {
+        if (keyValues instanceof PersistentKeyValueMap)
+            return (PersistentKeyValueMap) keyValues;
+        return EMPTY.plusAll(keyValues);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * @param key   key
+     * @param value value
+     * @return map where key is mapped to value, this map if it already was
+     */
+    public PersistentKeyValueMap plus(String key, String value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        boolean[] added = new boolean[1];
+        Node newRoot = root.plus(0, hash(key), key, value, added);
+        if (newRoot == root)
+            return this;
+        return new PersistentKeyValueMap(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @param keyValues entries to add
+     * @return map with the entries added, overwriting existing values
+     */
+    public PersistentKeyValueMap plusAll(Map<String, String> keyValues) {
+        PersistentKeyValueMap map = this;
+        for (Entry<String, String> entry : keyValues.entrySet()) {
+            map = map.plus(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    /**
+     * @param key key
+     * @return map without key, this map if key was not present
+     */
+    public PersistentKeyValueMap minus(String key) {
+        if (key == null)
+            return this;
+        Node newRoot = root.minus(0, hash(key), key);
+        if (newRoot == root)
+            return this;
+        return new PersistentKeyValueMap(newRoot, size - 1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String))
+            return null;
+        return root.get(0, hash(key), (String) key);
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator(root);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private abstract static class Node {
+
+        abstract String get(int shift, int hash, String key);
+
+        /**
+         * @return this node if the key already mapped to the value
+         */
+        abstract Node plus(int shift, int hash, String key, String value, boolean[] added);
+
+        /**
+         * @return this node if the key was not present
+         */
+        abstract Node minus(int shift, int hash, String key);
+
+        abstract int entries();
+
+        abstract String keyAt(int i);
+
+        abstract String valueAt(int i);
+
+        abstract int nodes();
+
+        abstract Node nodeAt(int i);
+    }
+
+    /**
+     * Node with up to 32 slots, each holding an entry, a sub-node or nothing. The content array holds the entries
+     * as key, value pairs followed by the sub-nodes, both in slot order.
+     */
+    private static final class BitmapNode extends Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+
+        final int dataMap;
+        final int nodeMap;
+        final Object[] content;
+
+        BitmapNode(int dataMap, int nodeMap, Object[] content) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        private int dataIndex(int bit) {
+            return Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        private int nodeIndex(int bit) {
+            return 2 * Integer.bitCount(dataMap) + Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        @Override
+        String get(int shift, int hash, String key) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                return key.equals(content[2 * i]) ? (String) content[2 * i + 1] : null;
+            }
+            if ((nodeMap & bit) != 0)
+                return ((Node) content[nodeIndex(bit)]).get(shift + BITS, hash, key);
+            return null;
+        }
+
+        @Override
+        Node plus(int shift, int hash, String key, String value, boolean[] added) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                String existingKey = (String) content[2 * i];
+                String existingValue = (String) content[2 * i + 1];
+                if (key.equals(existingKey)) {
+                    if (value.equals(existingValue))
+                        return this;
+                    Object[] copy = content.clone();
+                    copy[2 * i + 1] = value;
+                    return new BitmapNode(dataMap, nodeMap, copy);
+                }
+                added[0] = true;
+                Node merged = merge(shift + BITS, hash(existingKey), existingKey, existingValue, hash, key, value);
+                return dataToNode(bit, i, merged);
+            }
+            if ((nodeMap & bit) != 0) {
+                int j = nodeIndex(bit);
+                Node node = (Node) content[j];
+                Node updated = node.plus(shift + BITS, hash, key, value, added);
+                if (updated == node)
+                    return this;
+                Object[] copy = content.clone();
+                copy[j] = updated;
+                return new BitmapNode(dataMap, nodeMap, copy);
+            }
+            added[0] = true;
+            int i = dataIndex(bit);
+            Object[] copy = new Object[content.length + 2];
+            System.arraycopy(content, 0, copy, 0, 2 * i);
+            copy[2 * i] = key;
+            copy[2 * i + 1] = value;
+            System.arraycopy(content, 2 * i, copy, 2 * i + 2, content.length - 2 * i);
+            return new BitmapNode(dataMap | bit, nodeMap, copy);
+        }
+
+        @Override
+        Node minus(int shift, int hash, String key) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                if (!key.equals(content[2 * i]))
+                    return this;
+                Object[] copy = new Object[content.length - 2];
+                System.arraycopy(content, 0, copy, 0, 2 * i);
+                System.arraycopy(content, 2 * i + 2, copy, 2 * i, content.length - 2 * i - 2);
+                return new BitmapNode(dataMap ^ bit, nodeMap, copy);
+            }
+            if ((nodeMap & bit) != 0) {
+                int j = nodeIndex(bit);
+                Node node = (Node) content[j];
+                Node updated = node.minus(shift + BITS, hash, key);
+                if (updated == node)
+                    return this;
+                if (updated.entries() == 1 && updated.nodes() == 0)
+                    return nodeToData(bit, j, updated.keyAt(0), updated.valueAt(0));
+                Object[] copy = content.clone();
+                copy[j] = updated;
+                return new BitmapNode(dataMap, nodeMap, copy);
+            }
+            return this;
+        }
+
+        /**
+         * Replace entry i in slot bit with a sub-node
+         */
+        private Node dataToNode(int bit, int i, Node node) {
+            int j = nodeIndex(bit) - 2;
+            Object[] copy = new Object[content.length - 1];
+            System.arraycopy(content, 0, copy, 0, 2 * i);
+            System.arraycopy(content, 2 * i + 2, copy, 2 * i, j - 2 * i);
+            copy[j] = node;
+            System.arraycopy(content, j + 2, copy, j + 1, content.length - j - 2);
+            return new BitmapNode(dataMap ^ bit, nodeMap | bit, copy);
+        }
+
+        /**
+         * Replace the sub-node at index j in slot bit with its single remaining entry
+         */
+        private Node nodeToData(int bit, int j, String key, String value) {
+            int i = dataIndex(bit);
+            Object[] copy = new Object[content.length + 1];
+            System.arraycopy(content, 0, copy, 0, 2 * i);
+            copy[2 * i] = key;
+            copy[2 * i + 1] = value;
+            System.arraycopy(content, 2 * i, copy, 2 * i + 2, j - 2 * i);
+            System.arraycopy(content, j + 1, copy, j + 2, content.length - j - 1);
+            return new BitmapNode(dataMap | bit, nodeMap ^ bit, copy);
+        }
+
+        @Override
+        int entries() {
+            return Integer.bitCount(dataMap);
+        }
+
+        @Override
+        String keyAt(int i) {
+            return (String) content[2 * i];
+        }
+
+        @Override
+        String valueAt(int i) {
+            return (String) content[2 * i + 1];
+        }
+
+        @Override
+        int nodes() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        @Override
+        Node nodeAt(int i) {
+            return (Node) content[2 * Integer.bitCount(dataMap) + i];
+        }
+    }
+
+    /**
+     * @return node holding both entries at the given depth
+     */
+    private static Node merge(int shift, int hash1, String key1, String value1, int hash2, String key2, String value2) {
+        if (shift >= 32)
+            return new CollisionNode(new String[]{key1, key2}, new String[]{value1, value2});
+        int bit1 = bit(hash1, shift);
+        int bit2 = bit(hash2, shift);
+        if (bit1 == bit2)
+            return new BitmapNode(0, bit1, new Object[]{merge(shift + BITS, hash1, key1, value1, hash2, key2, value2)});
+        if (((hash1 >>> shift) & MASK) < ((hash2 >>> shift) & MASK))
+            return new BitmapNode(bit1 | bit2, 0, new Object[]{key1, value1, key2, value2});
+        return new BitmapNode(bit1 | bit2, 0, new Object[]{key2, value2, key1, value1});
+    }
+
+    /**
+     * Leaf for keys whose hashes are equal in all 32 bits
+     */
+    private static final class CollisionNode extends Node {
+
+        final String[] keys;
+        final String[] values;
+
+        CollisionNode(String[] keys, String[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key))
+                    return i;
+            }
+            return -1;
+        }
+
+        @Override
+        String get(int shift, int hash, String key) {
+            int i = indexOf(key);
+            return i < 0 ? null : values[i];
+        }
+
+        @Override
+        Node plus(int shift, int hash, String key, String value, boolean[] added) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (values[i].equals(value))
+                    return this;
+                String[] newValues = values.clone();
+                newValues[i] = value;
+                return new CollisionNode(keys, newValues);
+            }
+            added[0] = true;
+            String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+            String[] newValues = Arrays.copyOf(values, values.length + 1);
+            newKeys[keys.length] = key;
+            newValues[values.length] = value;
+            return new CollisionNode(newKeys, newValues);
+        }
+
+        @Override
+        Node minus(int shift, int hash, String key) {
+            int i = indexOf(key);
+            if (i < 0)
+                return this;
+            String[] newKeys = new String[keys.length - 1];
+            String[] newValues = new String[values.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+            System.arraycopy(values, 0, newValues, 0, i);
+            System.arraycopy(values, i + 1, newValues, i, values.length - i - 1);
+            return new CollisionNode(newKeys, newValues);
+        }
+
+        @Override
+        int entries() {
+            return keys.length;
+        }
+
+        @Override
+        String keyAt(int i) {
+            return keys[i];
+        }
+
+        @Override
+        String valueAt(int i) {
+            return values[i];
+        }
+
+        @Override
+        int nodes() {
+            return 0;
+        }
+
+        @Override
+        Node nodeAt(int i) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * Depth-first iteration, the entries of a node before the entries of its sub-nodes
+     */
+    private static final class EntryIterator implements Iterator<Entry<String, String>> {
+
+        private final ArrayDeque<Node> pending = new ArrayDeque<>();
+        private Node current;
+        private int cursor;
+
+        EntryIterator(Node root) {
+            pending.push(root);
+            advance();
+        }
+
+        private void advance() {
+            while (current == null || cursor >= current.entries()) {
+                if (pending.isEmpty()) {
+                    current = null;
+                    return;
+                }
+                current = pending.pop();
+                cursor = 0;
+                for (int i = 0; i < current.nodes(); i++) {
+                    pending.push(current.nodeAt(i));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current != null;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (current == null)
+                throw new NoSuchElementException();
+            Entry<String, String> entry = new SimpleImmutableEntry<>(current.keyAt(cursor), current.valueAt(cursor));
+            cursor++;
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("Serialized through SerializedForm");
+    }
+
+    /**
+     * Serialized form of the map, the trie is rebuilt when it is read
+     */
+    private static final class SerializedForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private final String[] keys;
+        private final String[] values;
+
+        SerializedForm(PersistentKeyValueMap map) {
+            keys = new String[map.size];
+            values = new String[map.size];
+            int i = 0;
+            for (Entry<String, String> entry : map.entrySet()) {
+                keys[i] = entry.getKey();
+                values[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        private Object readResolve() {
+            PersistentKeyValueMap map = EMPTY;
+            for (int i = 0; i < keys.length; i++) {
+                map = map.plus(keys[i], values[i]);
+            }
+            return map;
+        }
+    }
+}
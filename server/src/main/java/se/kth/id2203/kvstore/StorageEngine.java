@@ -0,0 +1,81 @@
+package se.kth.id2203.kvstore;
+
+import se.kth.id2203.vsync.events.LogEntry;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of the key-value pairs of a replica. KVService only talks to the store through this interface so that
+ * engines tuned for different working-set sizes can be swapped in through the configuration, see
+ * {@link StorageEngineFactory}.
+ *
+ * Engines are only accessed from the handlers of a single component and need not be thread-safe.
+ */
+public interface StorageEngine {
+
+    /**
+     * @param key key
+     * @return value of key or null if it is not present
+     */
+    String get(String key);
+
+    /**
+     * @param key   key
+     * @param value new value
+     * @return previous value of key or null if it was not present
+     */
+    String put(String key, String value);
+
+    /**
+     * Write value if the current value of key equals the reference value
+     *
+     * @param key            key
+     * @param referenceValue expected current value
+     * @param value          new value
+     * @return value of key before the operation or null if it was not present
+     */
+    String cas(String key, String referenceValue, String value);
+
+    /**
+     * @return point-in-time copy of the store, later writes to the engine are not visible in it
+     */
+    Map<String, String> snapshot();
+
+    /**
+     * Iterate over a point-in-time view of the store without copying it, e.g to write a checkpoint. Later writes to
+     * the engine are not visible in it and it may be consumed on another thread.
+     *
+     * @return iterator over all entries in no particular order
+     */
+    Iterator<Map.Entry<String, String>> scan();
+
+    /**
+     * Iterate over the entries with keys in [from, to) in key order.
+     *
+     * @param from first key of the range (inclusive) or null for no lower bound
+     * @param to   last key of the range (exclusive) or null for no upper bound
+     * @return iterator over the entries in the range
+     */
+    Iterator<Map.Entry<String, String>> range(String from, String to);
+
+    /**
+     * Apply log-entries in order
+     *
+     * @param entries log-entries
+     */
+    void applyBatch(List<LogEntry> entries);
+
+    /**
+     * Replace the whole content of the store, e.g when a state transfer is received
+     *
+     * @param keyValues new content
+     */
+    void restore(Map<String, String> keyValues);
+
+    /**
+     * @return number of keys in the store
+     */
+    int size();
+}
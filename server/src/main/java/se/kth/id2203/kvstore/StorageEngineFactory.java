@@ -0,0 +1,43 @@
+package se.kth.id2203.kvstore;
+
+import se.kth.id2203.kvstore.lsm.LsmStorageEngine;
+import se.kth.id2203.networking.NetAddress;
+import se.sics.kompics.config.Config;
+
+import java.io.File;
+
+/**
+ * Creates the StorageEngine selected by "id2203.project.kvstore.engine" in the configuration.
+ */
+public class StorageEngineFactory {
+
+    public static final String MEMORY = "memory";
+    public static final String LSM = "lsm";
+
+    private StorageEngineFactory() {
+    }
+
+    /**
+     * @param config configuration of the server
+     * @return new empty engine
+     * @throws IllegalArgumentException if there is no engine with the configured name
+     */
+    public static StorageEngine create(Config config) {
+        String engine = config.getValue("id2203.project.kvstore.engine", String.class);
+        switch (engine) {
+            case MEMORY:
+                return new InMemoryStorageEngine();
+            case LSM:
+                NetAddress self = config.getValue("id2203.project.address", NetAddress.class);
+                File dir = new File(config.getValue("id2203.project.kvstore.lsm.dir", String.class),
+                        self.getIp().getHostAddress() + "-" + self.getPort());
+                return new LsmStorageEngine(dir,
+                        config.getValue("id2203.project.kvstore.lsm.memtableSize", Integer.class),
+                        config.getValue("id2203.project.kvstore.lsm.indexInterval", Integer.class),
+                        config.getValue("id2203.project.kvstore.lsm.falsePositive", Double.class),
+                        config.getValue("id2203.project.kvstore.lsm.compactionThreshold", Integer.class));
+            default:
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package se.kth.id2203.kvstore.events;
+
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class BatchTimeout extends Timeout {
+
+	public BatchTimeout(ScheduleTimeout request) {
+		super(request);
+	}
+
+}
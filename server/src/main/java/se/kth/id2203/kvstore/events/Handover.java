@@ -15,10 +15,10 @@ import java.util.UUID;
  */
 public class Handover implements KompicsEvent, Serializable{
 
-    public final Map<Integer, String> keyValues;
+    public final Map<String, String> keyValues;
     public final UUID id;
 
-    public Handover(Map<Integer, String> keyValues) {
+    public Handover(Map<String, String> keyValues) {
         this.keyValues = keyValues;
         this.id = UUID.randomUUID();
     }
@@ -3,7 +3,7 @@ package se.kth.id2203.kvstore.events;
 import se.kth.id2203.overlay.PID;
 import se.sics.kompics.KompicsEvent;
 
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -13,12 +13,14 @@ public class ReplicationInit implements KompicsEvent {
 
 	public final Set<PID> nodes;
 	public final PID self;
-	public final HashMap<Integer, String> keyValues;
+	public final Map<String, String> keyValues;
+	public final int partition;
 
-	public ReplicationInit(Set<PID> nodes, PID self, HashMap<Integer, String> keyValues){
+	public ReplicationInit(Set<PID> nodes, PID self, Map<String, String> keyValues, int partition){
 		this.nodes = nodes;
 		this.self = self;
         this.keyValues = keyValues;
+		this.partition = partition;
 	}
 
 }
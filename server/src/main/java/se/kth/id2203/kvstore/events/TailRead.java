@@ -0,0 +1,20 @@
+package se.kth.id2203.kvstore.events;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+
+/**
+ * Read sent by the head of the chain to the tail, which holds exactly the committed writes and responds to the
+ * client directly.
+ */
+public class TailRead implements KompicsEvent, Serializable {
+
+    public final RouteOperation routeOperation;
+    public final long viewId;
+
+    public TailRead(RouteOperation routeOperation, long viewId) {
+        this.routeOperation = routeOperation;
+        this.viewId = viewId;
+    }
+}
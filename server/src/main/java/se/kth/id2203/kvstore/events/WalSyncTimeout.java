@@ -0,0 +1,12 @@
+package se.kth.id2203.kvstore.events;
+
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class WalSyncTimeout extends Timeout {
+
+	public WalSyncTimeout(SchedulePeriodicTimeout request) {
+		super(request);
+	}
+
+}
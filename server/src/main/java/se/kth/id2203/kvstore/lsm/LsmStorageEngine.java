@@ -0,0 +1,345 @@
+package se.kth.id2203.kvstore.lsm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
+import se.kth.id2203.kvstore.StorageEngine;
+import se.kth.id2203.vsync.events.LogEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * StorageEngine based on a log-structured merge-tree, for stores that do not fit on the heap.
+ *
+ * Writes go to a sorted in-memory memtable. When the memtable is full it is frozen and flushed to an immutable
+ * {@link SortedRun} on disk by a background thread while a new memtable takes the writes. When the number of runs
+ * reaches the compaction threshold the same thread merges them into one run. Reads check the memtable, the frozen
+ * memtable and then the runs from newest to oldest; the Bloom filter of each run lets a read of a key that is not on
+ * disk skip the run without touching the file.
+ *
+ * Writes applied through {@link #applyBatch(List)} are blind, they never read the runs, so the number of keys is not
+ * known after a write and is counted by a scan the next time {@link #size()} is asked for.
+ *
+ * The engine is used from the handlers of a single component, the background thread only publishes new runs. Runs
+ * that were replaced by a compaction are closed by the handler thread on its next call so that a read never races
+ * with the close. The content of the directory is not recovered on start, a replica gets its state through state
+ * transfer or the write-ahead log.
+ *
+ * Only the store itself is kept out of the heap. State transfers on view changes, the replication log of
+ * VSyncService and the copy of the partition kept by the overlay for handovers still hold the whole partition in
+ * memory, so a partition must fit in RAM even with this engine.
+ */
+public class LsmStorageEngine implements StorageEngine {
+
+    private final static Logger LOG = LoggerFactory.getLogger(LsmStorageEngine.class);
+    private static final String SUFFIX = ".run";
+
+    private final File dir;
+    private final int memtableSize;
+    private final int indexInterval;
+    private final double falsePositive;
+    private final int compactionThreshold;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "lsm-" + dir.getName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private TreeMap<String, String> memtable = new TreeMap<>();
+    private volatile TreeMap<String, String> frozen;
+    /* newest run first, replaced as a whole when runs are added or compacted */
+    private volatile List<SortedRun> runs = Collections.emptyList();
+    private final Queue<SortedRun> obsolete = new ConcurrentLinkedQueue<>();
+    private Future<?> pendingFlush;
+    private long nextSequence;
+    /* number of keys or -1 if it has not been counted since the last blind write */
+    private int size;
+
+    /**
+     * @param dir                 directory of the sorted runs, existing runs in it are removed
+     * @param memtableSize        number of entries in the memtable before it is flushed
+     * @param indexInterval       number of entries between keys in the sparse index of a run
+     * @param falsePositive       false positive probability of the Bloom filters
+     * @param compactionThreshold number of runs that triggers a compaction
+     */
+    public LsmStorageEngine(File dir, int memtableSize, int indexInterval, double falsePositive, int compactionThreshold) {
+        this.dir = dir;
+        this.memtableSize = memtableSize;
+        this.indexInterval = indexInterval;
+        this.falsePositive = falsePositive;
+        this.compactionThreshold = compactionThreshold;
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IllegalArgumentException("Could not create " + dir);
+        File[] stale = dir.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                if (file.getName().endsWith(SUFFIX))
+                    file.delete();
+            }
+        }
+    }
+
+    @Override
+    public String get(String key) {
+        releaseObsolete();
+        String value = memtable.get(key);
+        if (value != null)
+            return value;
+        TreeMap<String, String> frozen = this.frozen;
+        if (frozen != null) {
+            value = frozen.get(key);
+            if (value != null)
+                return value;
+        }
+        try {
+            for (SortedRun run : runs) {
+                value = run.get(key);
+                if (value != null)
+                    return value;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + key + " from " + dir, e);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the previous value, the replication path writes through {@link #applyBatch(List)} instead.
+     */
+    @Override
+    public String put(String key, String value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        String oldValue = get(key);
+        write(key, value);
+        return oldValue;
+    }
+
+    @Override
+    public String cas(String key, String referenceValue, String value) {
+        String oldValue = get(key);
+        if (oldValue != null && oldValue.equals(referenceValue))
+            write(key, value);
+        return oldValue;
+    }
+
+    /**
+     * Blind write to the memtable
+     */
+    private void write(String key, String value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        memtable.put(key, value);
+        size = -1;
+        if (memtable.size() >= memtableSize)
+            flush();
+    }
+
+    /**
+     * Materializes the whole store on the heap, only meant for tests and stores that fit in memory, use
+     * {@link #scan()} to stream it.
+     */
+    @Override
+    public Map<String, String> snapshot() {
+        PersistentKeyValueMap snapshot = PersistentKeyValueMap.empty();
+        Iterator<Map.Entry<String, String>> entries = range(null, null);
+        while (entries.hasNext()) {
+            Map.Entry<String, String> entry = entries.next();
+            snapshot = snapshot.plus(entry.getKey(), entry.getValue());
+        }
+        return snapshot;
+    }
+
+    /**
+     * The memtable is copied and the runs are opened by the calling thread, the runs are then read lazily. The frozen
+     * memtable and the runs are immutable and the iterator of a run stays valid if it is compacted away, so the
+     * iterator can be consumed on another thread.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> scan() {
+        return range(null, null);
+    }
+
+    /**
+     * The entries of the memtable in the range are copied, the runs are read lazily.
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> range(String from, String to) {
+        releaseObsolete();
+        List<PeekingEntryIterator> sources = new ArrayList<>();
+        sources.add(PeekingEntryIterator.of(new TreeMap<>(subMap(memtable, from, to)).entrySet().iterator(), from, to));
+        TreeMap<String, String> frozen = this.frozen;
+        if (frozen != null)
+            sources.add(PeekingEntryIterator.of(subMap(frozen, from, to).entrySet().iterator(), from, to));
+        try {
+            for (SortedRun run : runs) {
+                sources.add(run.iterator(from, to));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read range from " + dir, e);
+        }
+        return new MergingIterator(sources);
+    }
+
+    private static SortedMap<String, String> subMap(TreeMap<String, String> map, String from, String to) {
+        if (from == null && to == null)
+            return map;
+        if (from == null)
+            return map.headMap(to);
+        if (to == null)
+            return map.tailMap(from);
+        return map.subMap(from, to);
+    }
+
+    @Override
+    public void applyBatch(List<LogEntry> entries) {
+        for (LogEntry entry : entries) {
+            if (entry.key != null)
+                write(entry.key, entry.value);
+        }
+    }
+
+    /**
+     * Waits for the background thread, drops all runs and writes the new content as a single run.
+     */
+    @Override
+    public void restore(Map<String, String> keyValues) {
+        awaitFlush();
+        for (SortedRun run : runs) {
+            obsolete.add(run);
+        }
+        runs = Collections.emptyList();
+        frozen = null;
+        memtable = new TreeMap<>();
+        size = keyValues.size();
+        releaseObsolete();
+        if (keyValues.size() < memtableSize) {
+            memtable.putAll(keyValues);
+            return;
+        }
+        try {
+            SortedRun run = SortedRun.write(nextSequence, runFile(nextSequence++),
+                    new TreeMap<>(keyValues).entrySet().iterator(), keyValues.size(), indexInterval, falsePositive);
+            runs = Collections.singletonList(run);
+        } catch (IOException e) {
+            LOG.error("Could not write restored store to {}, keeping it in memory", dir, e);
+            memtable.putAll(keyValues);
+        }
+    }
+
+    /**
+     * Counts the keys with a scan if there have been writes since the last count
+     */
+    @Override
+    public int size() {
+        if (size < 0) {
+            int count = 0;
+            Iterator<Map.Entry<String, String>> entries = scan();
+            while (entries.hasNext()) {
+                entries.next();
+                count++;
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    /**
+     * @return number of sorted runs on disk
+     */
+    public int runs() {
+        return runs.size();
+    }
+
+    /**
+     * Wait until the frozen memtable and any compaction it triggered are on disk
+     */
+    public void awaitFlush() {
+        if (pendingFlush == null)
+            return;
+        try {
+            pendingFlush.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("Flush of {} failed", dir, e.getCause());
+        }
+        pendingFlush = null;
+    }
+
+    /**
+     * Freeze the memtable and hand it to the background thread. Only one memtable is frozen at a time, if the
+     * previous flush is still running the writer waits for it, which bounds the memory used by the engine.
+     */
+    private void flush() {
+        awaitFlush();
+        TreeMap<String, String> toFlush = memtable;
+        if (frozen != null) {
+            /* The previous flush failed, retry it together with the current memtable */
+            toFlush = new TreeMap<>(frozen);
+            toFlush.putAll(memtable);
+        }
+        final TreeMap<String, String> flushing = toFlush;
+        final long sequence = nextSequence++;
+        frozen = flushing;
+        memtable = new TreeMap<>();
+        pendingFlush = background.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SortedRun run = SortedRun.write(sequence, runFile(sequence), flushing.entrySet().iterator(),
+                            flushing.size(), indexInterval, falsePositive);
+                    List<SortedRun> updated = new ArrayList<>(runs.size() + 1);
+                    updated.add(run);
+                    updated.addAll(runs);
+                    runs = Collections.unmodifiableList(updated);
+                    frozen = null;
+                } catch (IOException e) {
+                    LOG.error("Could not flush memtable to {}", dir, e);
+                    return;
+                }
+                if (runs.size() >= compactionThreshold)
+                    compact();
+            }
+        });
+    }
+
+    /**
+     * Merge all runs into one, runs on the background thread
+     */
+    private void compact() {
+        List<SortedRun> merging = runs;
+        long sequence = merging.get(0).sequence;
+        int expectedSize = 0;
+        List<PeekingEntryIterator> sources = new ArrayList<>();
+        try {
+            for (SortedRun run : merging) {
+                expectedSize += run.size;
+                sources.add(run.iterator(null, null));
+            }
+            File file = new File(dir, sequence + "-compacted" + SUFFIX);
+            SortedRun compacted = SortedRun.write(sequence, file, new MergingIterator(sources), expectedSize,
+                    indexInterval, falsePositive);
+            runs = Collections.singletonList(compacted);
+            obsolete.addAll(merging);
+        } catch (IOException | IllegalStateException e) {
+            LOG.error("Could not compact runs in {}", dir, e);
+        }
+    }
+
+    private void releaseObsolete() {
+        SortedRun run;
+        while ((run = obsolete.poll()) != null) {
+            run.delete();
+        }
+    }
+
+    private File runFile(long sequence) {
+        return new File(dir, sequence + SUFFIX);
+    }
+}
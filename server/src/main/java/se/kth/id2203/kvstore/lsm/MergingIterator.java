@@ -0,0 +1,54 @@
+package se.kth.id2203.kvstore.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges sorted sources into one iterator in key order. When several sources contain the same key the entry of the
+ * first source wins, so sources must be ordered from newest to oldest.
+ */
+class MergingIterator implements Iterator<Map.Entry<String, String>> {
+
+    private final List<PeekingEntryIterator> sources;
+
+    /**
+     * @param sources sources ordered from newest to oldest
+     */
+    MergingIterator(List<PeekingEntryIterator> sources) {
+        this.sources = sources;
+    }
+
+    @Override
+    public boolean hasNext() {
+        for (PeekingEntryIterator source : sources) {
+            if (source.hasNext())
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        Map.Entry<String, String> smallest = null;
+        for (PeekingEntryIterator source : sources) {
+            Map.Entry<String, String> entry = source.peek();
+            if (entry != null && (smallest == null || entry.getKey().compareTo(smallest.getKey()) < 0))
+                smallest = entry;
+        }
+        if (smallest == null)
+            throw new NoSuchElementException();
+        for (PeekingEntryIterator source : sources) {
+            Map.Entry<String, String> entry = source.peek();
+            if (entry != null && entry.getKey().equals(smallest.getKey()))
+                source.next();
+        }
+        return smallest;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,95 @@
+package se.kth.id2203.kvstore.lsm;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over the entries of a memtable or sorted run, in key order and restricted to keys in [from, to), that
+ * can look at the next entry without consuming it. Used as a source of {@link MergingIterator}.
+ */
+abstract class PeekingEntryIterator implements Iterator<Map.Entry<String, String>> {
+
+    private final String from;
+    private final String to;
+    private Map.Entry<String, String> next;
+    private boolean done;
+
+    PeekingEntryIterator(String from, String to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param entries entries in key order, e.g of a memtable
+     * @param from    first key (inclusive) or null
+     * @param to      last key (exclusive) or null
+     * @return peeking iterator over the entries in the range
+     */
+    static PeekingEntryIterator of(final Iterator<Map.Entry<String, String>> entries, String from, String to) {
+        return new PeekingEntryIterator(from, to) {
+            @Override
+            protected Map.Entry<String, String> read() {
+                return entries.hasNext() ? entries.next() : null;
+            }
+
+            @Override
+            protected void close() {
+            }
+        };
+    }
+
+    /**
+     * @return next entry of the underlying source or null if it is exhausted
+     * @throws IOException if the source can not be read
+     */
+    protected abstract Map.Entry<String, String> read() throws IOException;
+
+    /**
+     * Release the underlying source
+     *
+     * @throws IOException if the source can not be closed
+     */
+    protected abstract void close() throws IOException;
+
+    /**
+     * @return next entry without consuming it or null if there is none
+     */
+    Map.Entry<String, String> peek() {
+        if (next == null && !done) {
+            try {
+                do {
+                    next = read();
+                } while (next != null && from != null && next.getKey().compareTo(from) < 0);
+                if (next == null || (to != null && next.getKey().compareTo(to) >= 0)) {
+                    next = null;
+                    done = true;
+                    close();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read entries", e);
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return peek() != null;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        Map.Entry<String, String> entry = peek();
+        if (entry == null)
+            throw new NoSuchElementException();
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
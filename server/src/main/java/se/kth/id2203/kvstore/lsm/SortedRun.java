@@ -0,0 +1,182 @@
+package se.kth.id2203.kvstore.lsm;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Immutable sorted run of key-value pairs on disk, produced by flushing a memtable or by compacting other runs.
+ *
+ * The file is a sequence of [key length][key][value length][value] records in key order. A sparse index of every
+ * n:th key and a Bloom filter of all keys are kept in memory, so a lookup of a key that is not in the run usually
+ * costs no disk access and a lookup of a key that is costs a single read of at most one index interval.
+ */
+class SortedRun {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    final long sequence;
+    private final File file;
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long length;
+    private final BloomFilter<CharSequence> bloomFilter;
+    final int size;
+
+    private SortedRun(long sequence, File file, List<String> indexKeys, List<Long> indexOffsets, long length,
+                      BloomFilter<CharSequence> bloomFilter, int size) throws IOException {
+        this.sequence = sequence;
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.indexKeys = indexKeys.toArray(new String[indexKeys.size()]);
+        this.indexOffsets = new long[indexOffsets.size()];
+        for (int i = 0; i < this.indexOffsets.length; i++) {
+            this.indexOffsets[i] = indexOffsets.get(i);
+        }
+        this.length = length;
+        this.bloomFilter = bloomFilter;
+        this.size = size;
+    }
+
+    /**
+     * Write entries, which must be in key order, to a new run.
+     *
+     * @param sequence      sequence number of the run, newer runs have higher numbers
+     * @param file          file to write
+     * @param entries       entries in key order
+     * @param expectedSize  expected number of entries, used to size the Bloom filter
+     * @param indexInterval number of entries between keys in the sparse index
+     * @param falsePositive false positive probability of the Bloom filter
+     * @return the run
+     * @throws IOException if the file can not be written
+     */
+    static SortedRun write(long sequence, File file, Iterator<Map.Entry<String, String>> entries, int expectedSize,
+                           int indexInterval, double falsePositive) throws IOException {
+        BloomFilter<CharSequence> bloomFilter = BloomFilter.create(Funnels.stringFunnel(UTF8), Math.max(expectedSize, 1), falsePositive);
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        long offset = 0;
+        int size = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                if (size % indexInterval == 0) {
+                    indexKeys.add(entry.getKey());
+                    indexOffsets.add(offset);
+                }
+                byte[] key = entry.getKey().getBytes(UTF8);
+                byte[] value = entry.getValue().getBytes(UTF8);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(value.length);
+                out.write(value);
+                offset += 8 + key.length + value.length;
+                bloomFilter.put(entry.getKey());
+                size++;
+            }
+        }
+        return new SortedRun(sequence, file, indexKeys, indexOffsets, offset, bloomFilter, size);
+    }
+
+    /**
+     * @param key key
+     * @return value of key in this run or null if it is not in the run
+     * @throws IOException if the run can not be read
+     */
+    String get(String key) throws IOException {
+        if (!bloomFilter.mightContain(key))
+            return null;
+        int block = Arrays.binarySearch(indexKeys, key);
+        if (block < 0)
+            block = -block - 2;
+        if (block < 0)
+            return null;
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : length;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0)
+                throw new EOFException("Truncated run " + file);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            String candidate = readString(buffer);
+            int comparison = candidate.compareTo(key);
+            if (comparison == 0)
+                return readString(buffer);
+            if (comparison > 0)
+                return null;
+            int valueLength = buffer.getInt();
+            buffer.position(buffer.position() + valueLength);
+        }
+        return null;
+    }
+
+    /**
+     * Iterate over the entries with keys in [from, to). The iterator reads the file through its own stream so it
+     * stays valid if the run is compacted away meanwhile.
+     *
+     * @param from first key (inclusive) or null
+     * @param to   last key (exclusive) or null
+     * @return iterator in key order
+     * @throws IOException if the run can not be opened
+     */
+    PeekingEntryIterator iterator(String from, String to) throws IOException {
+        long start = 0;
+        if (from != null) {
+            int block = Arrays.binarySearch(indexKeys, from);
+            if (block < 0)
+                block = -block - 2;
+            if (block > 0)
+                start = indexOffsets[block];
+        }
+        final FileInputStream fileIn = new FileInputStream(file);
+        fileIn.getChannel().position(start);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, 1 << 16));
+        final long begin = start;
+        return new PeekingEntryIterator(from, to) {
+            long position = begin;
+
+            @Override
+            protected Map.Entry<String, String> read() throws IOException {
+                if (position >= length)
+                    return null;
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                position += 8 + key.length + value.length;
+                return new AbstractMap.SimpleImmutableEntry<>(new String(key, UTF8), new String(value, UTF8));
+            }
+
+            @Override
+            protected void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Close and remove the run
+     */
+    void delete() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //Nothing to do, the file is removed anyway
+        }
+        file.delete();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,23 @@
+package se.kth.id2203.kvstore.wal;
+
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
+
+import java.util.UUID;
+
+/**
+ * State of a replica's store as recovered from its write-ahead log.
+ */
+public class RecoveredState {
+
+    public final int partition;
+    public PersistentKeyValueMap keyValues = PersistentKeyValueMap.empty();
+    public long timestamp;
+    public UUID id;
+    public int replayed;
+
+    public RecoveredState(int partition, long timestamp, UUID id) {
+        this.partition = partition;
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+}
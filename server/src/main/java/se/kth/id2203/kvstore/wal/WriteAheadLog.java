@@ -0,0 +1,521 @@
+package se.kth.id2203.kvstore.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.vsync.events.LogEntry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log and snapshot of a replica's store.
+ *
+ * The directory holds a snapshot of the store at some timestamp and a chain of fixed-size, memory-mapped log
+ * segments with the log-entries applied after it. Appends are only written to the mapping, {@link #sync()} forces
+ * them to disk so that several appends can share one fsync (group commit). A full segment is continued in a new one.
+ *
+ * A checkpoint starts a new segment right away and streams the snapshot to disk on a background thread, so the
+ * component that owns the log keeps appending while the snapshot is written. The snapshot must therefore be a
+ * point-in-time view that later writes do not change. Once the snapshot is on disk the segments before it are
+ * removed.
+ *
+ * Segments are numbered, the snapshot names the first segment after it and every segment starts with the timestamp
+ * of the entry before its first record. Records are [length][crc][timestamp][id][key][value] and are always followed
+ * by a zero length that marks the end of the segment. Recovery replays the chain of segments after the snapshot as
+ * long as the crc matches and the timestamps are consecutive.
+ */
+public class WriteAheadLog {
+
+    private final static Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x1d2203;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SEGMENT = "wal-";
+    /* magic, partition, base timestamp */
+    private static final int SEGMENT_HEADER = 4 + 4 + 8;
+    /* length, crc, timestamp, id, key length, value length */
+    private static final int RECORD_OVERHEAD = 4 + 4 + 8 + 17 + 4 + 4;
+    /* magic, partition, timestamp, id, first segment, followed by the number of entries */
+    private static final int SNAPSHOT_COUNT_OFFSET = 4 + 4 + 8 + 17 + 8;
+    private static final int WRITE_BUFFER = 1 << 16;
+
+    private final File dir;
+    private final int segmentSize;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "wal-" + dir.getName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long generation = -1;
+    private Future<?> pendingCheckpoint;
+    private int partition;
+    private long appendedTimestamp;
+    private int unsynced;
+    private int entries;
+
+    /**
+     * @param dir         directory of the log, created if it does not exist
+     * @param segmentSize size in bytes of a mapped log segment
+     */
+    public WriteAheadLog(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @param root    root directory of the write-ahead logs on this host
+     * @param address address of the server
+     * @return directory of the write-ahead log of the server
+     */
+    public static File directory(String root, NetAddress address) {
+        return new File(root, address.getIp().getHostAddress() + "-" + address.getPort());
+    }
+
+    /**
+     * Read the partition of the latest snapshot without reading the store.
+     *
+     * @return partition that the recoverable state belongs to or -1 if there is nothing to recover
+     */
+    public int recoverPartition() {
+        File snapshotFile = new File(dir, SNAPSHOT);
+        if (!snapshotFile.exists())
+            return -1;
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            channel.read(buffer, 0);
+            buffer.flip();
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+                return -1;
+            return buffer.getInt();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Read the latest snapshot and replay the log on top of it.
+     *
+     * @return recovered state or null if there is nothing to recover
+     * @throws IOException if the files can not be read
+     */
+    public RecoveredState recover() throws IOException {
+        File snapshotFile = new File(dir, SNAPSHOT);
+        if (!snapshotFile.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), WRITE_BUFFER))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a snapshot: " + snapshotFile);
+            int partition = in.readInt();
+            long timestamp = in.readLong();
+            UUID id = readId(in);
+            long first = in.readLong();
+            RecoveredState state = new RecoveredState(partition, timestamp, id);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String key = readString(in);
+                String value = readString(in);
+                if (value != null)
+                    state.keyValues = state.keyValues.plus(key, value);
+            }
+            long segment = first;
+            while (replaySegment(segmentFile(segment), state)) {
+                segment++;
+            }
+            return state;
+        }
+    }
+
+    /**
+     * @return true if the segment continues the recovered state, i.e the next segment may continue it as well
+     */
+    private boolean replaySegment(File segmentFile, RecoveredState state) throws IOException {
+        if (!segmentFile.exists())
+            return false;
+        try (FileChannel channel = FileChannel.open(segmentFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+            if (buffer.remaining() < SEGMENT_HEADER || buffer.getInt() != MAGIC || buffer.getInt() != state.partition
+                    || buffer.getLong() != state.timestamp)
+                return false;
+            replay(buffer, state);
+            return true;
+        }
+    }
+
+    private void replay(ByteBuffer buffer, RecoveredState state) {
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_OVERHEAD) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < RECORD_OVERHEAD - 8 || length > buffer.remaining())
+                return;
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum)
+                return;
+            ByteBuffer record = ByteBuffer.wrap(payload);
+            long timestamp = record.getLong();
+            if (timestamp != state.timestamp + 1)
+                return;
+            UUID id = readId(record);
+            String key = readString(record);
+            String value = readString(record);
+            if (key != null)
+                state.keyValues = state.keyValues.plus(key, value);
+            state.timestamp = timestamp;
+            state.id = id;
+            state.replayed++;
+        }
+    }
+
+    /**
+     * Checkpoint the store and wait until the snapshot is on disk.
+     *
+     * @param partition partition that the store belongs to
+     * @param keyValues the store
+     * @param timestamp timestamp of the latest update in the store
+     * @param id        id of the latest update in the store
+     * @throws IOException if the snapshot or segment can not be written
+     */
+    public void checkpoint(int partition, Map<String, String> keyValues, long timestamp, UUID id) throws IOException {
+        Future<?> checkpoint = checkpointAsync(partition, keyValues.entrySet().iterator(), timestamp, id);
+        try {
+            checkpoint.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for checkpoint");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Checkpoint failed", e.getCause());
+        }
+    }
+
+    /**
+     * Start a new log segment after timestamp and write a snapshot of the store in the background. The snapshot is
+     * streamed to a temporary file that is moved in place once it is on disk, so a crash during the checkpoint leaves
+     * the previous snapshot and its segments intact. Checkpoints are written in the order they are started.
+     *
+     * @param partition partition that the store belongs to
+     * @param keyValues point-in-time view of the store, consumed by the background thread
+     * @param timestamp timestamp of the latest update in the store
+     * @param id        id of the latest update in the store
+     * @return future that completes when the snapshot is on disk
+     * @throws IOException if the new segment can not be created
+     */
+    public Future<?> checkpointAsync(final int partition, final Iterator<Map.Entry<String, String>> keyValues,
+                                     final long timestamp, final UUID id) throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Could not create " + dir);
+        this.partition = partition;
+        startSegment(timestamp);
+        entries = 0;
+        final long first = generation;
+        pendingCheckpoint = background.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try {
+                    writeSnapshot(partition, keyValues, timestamp, id, first);
+                } catch (IOException | RuntimeException e) {
+                    LOG.error("Could not write snapshot to {}", dir, e);
+                    throw e;
+                }
+                deleteSegmentsBefore(first);
+                return null;
+            }
+        });
+        return pendingCheckpoint;
+    }
+
+    /**
+     * @return true while the snapshot of a checkpoint is being written
+     */
+    public boolean checkpointing() {
+        return pendingCheckpoint != null && !pendingCheckpoint.isDone();
+    }
+
+    private void writeSnapshot(int partition, Iterator<Map.Entry<String, String>> keyValues, long timestamp, UUID id,
+                               long first) throws IOException {
+        File tmp = new File(dir, SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER);
+            buffer.putInt(MAGIC);
+            buffer.putInt(partition);
+            buffer.putLong(timestamp);
+            writeId(buffer, id);
+            buffer.putLong(first);
+            buffer.putInt(0);
+            int size = 0;
+            while (keyValues.hasNext()) {
+                Map.Entry<String, String> entry = keyValues.next();
+                byte[] key = entry.getKey().getBytes(UTF8);
+                byte[] value = entry.getValue() == null ? null : entry.getValue().getBytes(UTF8);
+                int length = 8 + key.length + (value == null ? 0 : value.length);
+                if (buffer.remaining() < length) {
+                    write(channel, buffer);
+                    if (buffer.remaining() < length)
+                        buffer = ByteBuffer.allocate(length);
+                }
+                writeBytes(buffer, key);
+                writeBytes(buffer, value);
+                size++;
+            }
+            write(channel, buffer);
+            ByteBuffer count = ByteBuffer.allocate(4);
+            count.putInt(size);
+            count.flip();
+            channel.write(count, SNAPSHOT_COUNT_OFFSET);
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Make created, renamed and removed files in the directory durable
+     */
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //Directories can not be opened on every platform (Windows), there the rename is as durable as the OS makes it
+            LOG.debug("Could not sync directory {}", dir, e);
+        }
+    }
+
+    private void deleteSegmentsBefore(long first) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            long segment = segmentNumber(file);
+            if (segment >= 0 && segment < first)
+                Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Continue the log in a new segment after the last appended entry, e.g when the current segment is full
+     *
+     * @throws IOException if the segment can not be created
+     */
+    public void roll() throws IOException {
+        if (segment == null)
+            throw new IllegalStateException("Write-ahead log has no segment, checkpoint first");
+        startSegment(appendedTimestamp);
+    }
+
+    private void startSegment(long base) throws IOException {
+        if (segment != null) {
+            sync();
+            segmentChannel.close();
+            segment = null;
+        }
+        generation = generation < 0 ? lastSegment() + 1 : generation + 1;
+        segmentChannel = FileChannel.open(segmentFile(generation).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(MAGIC);
+        segment.putInt(partition);
+        segment.putLong(base);
+        if (segment.remaining() >= 4)
+            segment.putInt(segment.position(), 0);
+        segment.force();
+        syncDirectory();
+        appendedTimestamp = base;
+    }
+
+    /**
+     * @return number of the newest segment in the directory or -1 if there is none
+     */
+    private long lastSegment() {
+        long last = -1;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                last = Math.max(last, segmentNumber(file));
+            }
+        }
+        return last;
+    }
+
+    private static long segmentNumber(File file) {
+        if (!file.getName().startsWith(SEGMENT))
+            return -1;
+        try {
+            return Long.parseLong(file.getName().substring(SEGMENT.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, SEGMENT + segment);
+    }
+
+    /**
+     * Append a log-entry to the segment. It is not durable until the next {@link #sync()}.
+     *
+     * @param entry log-entry
+     * @return false if the segment is full, the caller should then {@link #roll()} to a new segment
+     */
+    public boolean append(LogEntry entry) {
+        if (segment == null)
+            throw new IllegalStateException("Write-ahead log has no segment, checkpoint first");
+        byte[] key = entry.key == null ? null : entry.key.getBytes(UTF8);
+        byte[] value = entry.value == null ? null : entry.value.getBytes(UTF8);
+        int length = RECORD_OVERHEAD - 8 + (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+        if (segment.remaining() < length + 8)
+            return false;
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.putLong(entry.timestamp);
+        writeId(payload, entry.id);
+        writeBytes(payload, key);
+        writeBytes(payload, value);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, length);
+        segment.putInt(length);
+        segment.putInt((int) crc.getValue());
+        segment.put(payload.array());
+        if (segment.remaining() >= 4)
+            segment.putInt(segment.position(), 0);
+        appendedTimestamp = entry.timestamp;
+        unsynced++;
+        entries++;
+        return true;
+    }
+
+    /**
+     * Force appended entries to disk
+     */
+    public void sync() {
+        if (unsynced == 0)
+            return;
+        segment.force();
+        unsynced = 0;
+    }
+
+    /**
+     * @return number of appended entries that are not yet forced to disk
+     */
+    public int unsynced() {
+        return unsynced;
+    }
+
+    /**
+     * @return number of entries in the log since the last checkpoint
+     */
+    public int entries() {
+        return entries;
+    }
+
+    /**
+     * Force remaining entries, wait for a running checkpoint and release the segment. The log can not be used after
+     * it is closed.
+     *
+     * @throws IOException if the segment can not be closed
+     */
+    public void close() throws IOException {
+        awaitCheckpoint();
+        background.shutdown();
+        if (segment != null) {
+            sync();
+            segmentChannel.close();
+            segment = null;
+        }
+    }
+
+    private void awaitCheckpoint() {
+        if (pendingCheckpoint == null)
+            return;
+        try {
+            pendingCheckpoint.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            //Already logged by the checkpoint
+        }
+        pendingCheckpoint = null;
+    }
+
+    private static void writeId(ByteBuffer buffer, UUID id) {
+        if (id == null) {
+            buffer.put((byte) 0);
+            buffer.putLong(0);
+            buffer.putLong(0);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putLong(id.getMostSignificantBits());
+            buffer.putLong(id.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readId(ByteBuffer buffer) {
+        boolean present = buffer.get() != 0;
+        long msb = buffer.getLong();
+        long lsb = buffer.getLong();
+        return present ? new UUID(msb, lsb) : null;
+    }
+
+    private static UUID readId(DataInput in) throws IOException {
+        boolean present = in.readByte() != 0;
+        long msb = in.readLong();
+        long lsb = in.readLong();
+        return present ? new UUID(msb, lsb) : null;
+    }
+
+    private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,117 @@
+package se.kth.id2203.networking;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sics.kompics.*;
+import se.sics.kompics.network.Msg;
+import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timer;
+
+import java.util.*;
+
+/**
+ * Coalesces outbound TCP messages, sits between the network and the components that use it.
+ *
+ * Messages sent by this node are buffered per destination for at most the flush window and then sent as one
+ * MessageBatch, so a burst of small messages to the same node costs one frame instead of one frame per message.
+ * A destination is flushed early when its batch is full. The receiving side unpacks a batch into the original
+ * messages in order. UDP messages and messages forwarded on behalf of another source are sent right away, after
+ * flushing the batch of their destination so that the order of the TCP messages to a node is kept.
+ */
+public class Coalescer extends ComponentDefinition {
+
+    final static Logger LOG = LoggerFactory.getLogger(Coalescer.class);
+    protected final Negative<Network> net = provides(Network.class);
+    protected final Positive<Network> network = requires(Network.class);
+    protected final Positive<Timer> timer = requires(Timer.class);
+    private final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
+    private final long window = config().getValue("id2203.project.coalescer.window", Long.class);
+    private final int maxBatch = config().getValue("id2203.project.coalescer.maxBatch", Integer.class);
+    private final Map<NetAddress, List<KompicsEvent>> pending = new HashMap<>();
+    private boolean flushScheduled = false;
+
+    /**
+     * Outbound message from the components above
+     */
+    protected final Handler<Msg> sendHandler = new Handler<Msg>() {
+        @Override
+        public void handle(Msg msg) {
+            if (window > 0 && msg instanceof Message && self.equals(msg.getSource())) {
+                Message message = (Message) msg;
+                List<KompicsEvent> payloads = pending.get(message.getDestination());
+                if (payloads == null) {
+                    payloads = new ArrayList<>();
+                    pending.put(message.getDestination(), payloads);
+                }
+                payloads.add(message.payload);
+                if (payloads.size() >= maxBatch)
+                    flush(message.getDestination());
+                else
+                    scheduleFlush();
+            } else {
+                NetAddress destination = (NetAddress) msg.getDestination();
+                if (pending.containsKey(destination))
+                    flush(destination);
+                trigger(msg, network);
+            }
+        }
+    };
+
+    /**
+     * Inbound message from the network, unpack batches
+     */
+    protected final Handler<Msg> receiveHandler = new Handler<Msg>() {
+        @Override
+        public void handle(Msg msg) {
+            if (msg instanceof Message && ((Message) msg).payload instanceof MessageBatch) {
+                Message message = (Message) msg;
+                for (KompicsEvent payload : ((MessageBatch) message.payload).payloads) {
+                    trigger(new Message(message.getSource(), message.getDestination(), payload), net);
+                }
+            } else {
+                trigger(msg, net);
+            }
+        }
+    };
+
+    protected final Handler<FlushTimeout> flushHandler = new Handler<FlushTimeout>() {
+        @Override
+        public void handle(FlushTimeout event) {
+            flushScheduled = false;
+            for (NetAddress destination : new ArrayList<>(pending.keySet())) {
+                flush(destination);
+            }
+        }
+    };
+
+    private void scheduleFlush() {
+        if (flushScheduled)
+            return;
+        ScheduleTimeout st = new ScheduleTimeout(window);
+        st.setTimeoutEvent(new FlushTimeout(st));
+        trigger(st, timer);
+        flushScheduled = true;
+    }
+
+    /**
+     * Send the pending messages to destination, a single message is sent as is
+     */
+    private void flush(NetAddress destination) {
+        List<KompicsEvent> payloads = pending.remove(destination);
+        if (payloads == null)
+            return;
+        if (payloads.size() == 1) {
+            trigger(new Message(self, destination, payloads.get(0)), network);
+        } else {
+            LOG.trace("Coalesced {} messages to {}", payloads.size(), destination);
+            trigger(new Message(self, destination, new MessageBatch(payloads)), network);
+        }
+    }
+
+    {
+        subscribe(sendHandler, net);
+        subscribe(receiveHandler, network);
+        subscribe(flushHandler, timer);
+    }
+}
@@ -0,0 +1,11 @@
+package se.kth.id2203.networking;
+
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class FlushTimeout extends Timeout {
+
+	public FlushTimeout(ScheduleTimeout request) {
+		super(request);
+	}
+}
@@ -6,8 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.id2203.epfd.events.EPFDInit;
 import se.kth.id2203.epfd.events.Reconfigure;
-import se.kth.id2203.epfd.events.Restore;
-import se.kth.id2203.epfd.events.Suspect;
+import se.kth.id2203.epfd.events.Suspicion;
 import se.kth.id2203.epfd.ports.EPFDPort;
 import se.kth.id2203.omega.events.OmegaInit;
 import se.kth.id2203.omega.events.Trust;
@@ -41,6 +40,8 @@ public class Omega extends ComponentDefinition {
     private Set<PID> suspected = new HashSet<>();
     private UUID timeoutId;
     private PID selfPid;
+    private final double phiThreshold = config().getValue("id2203.project.omega.phi", Double.class);
+    private static final String SUBSCRIBER = "omega";
 
     /**
      * Setup timer
@@ -69,7 +70,7 @@ public class Omega extends ComponentDefinition {
             suspected = new HashSet<>();
             leader = null;
             all = ImmutableSet.copyOf(omegaInit.nodes);
-            trigger(new EPFDInit(ImmutableSet.copyOf(omegaInit.nodes), selfPid), epfdPort);
+            trigger(new EPFDInit(ImmutableSet.copyOf(omegaInit.nodes), selfPid, SUBSCRIBER), epfdPort);
         }
     };
 
@@ -79,42 +80,46 @@ public class Omega extends ComponentDefinition {
     protected final Handler<OmegaTimeout> timeoutHandler = new Handler<OmegaTimeout>() {
         @Override
         public void handle(OmegaTimeout event) {
-            PID max = maxRank(Sets.difference(all, suspected));
-            if (max != null && (leader == null || !leader.equals(max))) {
-                leader = max;
-                trigger(new Trust(leader), omegaPort);
-                LOG.info("New Leader elected: {}", leader);
-            }
+            updateLeader();
         }
     };
 
+    private void updateLeader() {
+        PID max = maxRank(Sets.difference(all, suspected));
+        if (max != null && (leader == null || !leader.equals(max))) {
+            leader = max;
+            trigger(new Trust(leader), omegaPort);
+            LOG.info("New Leader elected: {}", leader);
+        }
+    }
+
     /**
      * New nodes to monitor
      */
     protected final Handler<Reconfigure> reconfHandler = new Handler<Reconfigure>() {
         @Override
         public void handle(Reconfigure reconfigure) {
-            trigger(reconfigure, epfdPort);
+            trigger(new Reconfigure(reconfigure.nodes, SUBSCRIBER), epfdPort);
         }
     };
 
     /**
-     * EPFD suspected some process
+     * EPFD updated suspicion levels, suspect the processes above our threshold and re-evaluate the leader right
+     * away so that failover does not wait for the next timeout. The EPFD is shared, processes monitored for other
+     * subscribers are ignored.
      */
-    protected final Handler<Suspect> suspectHandler = new Handler<Suspect>() {
+    protected final Handler<Suspicion> suspicionHandler = new Handler<Suspicion>() {
         @Override
-        public void handle(Suspect event) {
-            suspected.add(event.suspected);
-        }
-    };
-
-    /**
-     * EPFD restored suspicion of some process
-     */
-    protected final Handler<Restore> restoreHandler = new Handler<Restore>() {
-        @Override
-        public void handle(Restore event) {
-            suspected.remove(event.restored);
+        public void handle(Suspicion event) {
+            for (PID node : event.levels.keySet()) {
+                if (!all.contains(node))
+                    continue;
+                if (event.suspected(node, phiThreshold))
+                    suspected.add(node);
+                else
+                    suspected.remove(node);
+            }
+            updateLeader();
         }
     };
 
@@ -132,8 +137,7 @@ public class Omega extends ComponentDefinition {
     }
 
     {
-        subscribe(restoreHandler, epfdPort);
-        subscribe(suspectHandler, epfdPort);
+        subscribe(suspicionHandler, epfdPort);
         subscribe(timeoutHandler, timer);
         subscribe(startHandler, control);
         subscribe(omegaInitHandler, omegaPort);
@@ -31,54 +31,179 @@ import org.slf4j.LoggerFactory;
 import se.kth.id2203.bootstrapping.NodeAssignment;
 import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.RoutingTable;
+import se.kth.id2203.overlay.TokenRing;
 
 import java.util.*;
 
 /**
  * LookupTable for nodes assigned to partitions.
  *
+ * Keys are routed over a TokenRing with vnodes tokens per partition. The table also keeps the last known leader of
+ * every partition so that clients can be given a RoutingTable and send operations straight to the leader.
+ *
+ * Every partition has a versioned PartitionEntry. Nodes exchange only the entries that are newer than what the peer
+ * knows, found by comparing version vectors (digests), so the traffic follows the churn and not the cluster size.
+ *
  * @author Lars Kroll <lkroll@kth.se>
  */
 public class LookupTable implements NodeAssignment {
 
     private static final long serialVersionUID = -8766981433378303267L;
     final static Logger LOG = LoggerFactory.getLogger(LookupTable.class);
+    public static final int DEFAULT_VNODES = 64;
     private TreeMultimap<Integer, PID> partitions = TreeMultimap.create();
+    private Map<Integer, PartitionEntry> entries = new HashMap<>();
+    private int vnodes = DEFAULT_VNODES;
+    private transient TokenRing ring;
 
     public LookupTable(){
     }
 
+    public LookupTable(int vnodes){
+        this.vnodes = vnodes;
+    }
+
     public LookupTable(LookupTable lookupTable){
         this.partitions = TreeMultimap.create(lookupTable.partitions);
+        this.entries = new HashMap<>(lookupTable.entries);
+        this.vnodes = lookupTable.vnodes;
     }
 
-    public int lookupPartitionKey(int keyHash){
-        Integer partition = partitions.keySet().floor(keyHash);
-        if (partition == null) {
-            partition = partitions.keySet().last();
-        }
-        return partition;
+    /**
+     * @param key key
+     * @return id of the partition responsible for key
+     */
+    public int lookupPartitionKey(String key){
+        if (ring == null)
+            ring = new TokenRing(partitions.keySet(), vnodes);
+        return ring.owner(key);
     }
 
     public Collection<PID> lookup(String key) {
-        int keyHash = key.hashCode();
-        Integer partition = partitions.keySet().floor(keyHash);
-        if (partition == null) {
-            partition = partitions.keySet().last();
-        }
-        return partitions.get(partition);
+        return partitions.get(lookupPartitionKey(key));
     }
 
     public TreeMultimap getMap(){
         return partitions;
     }
 
-    public Collection<PID> lookup(int keyHash) {
-        Integer partition = partitions.keySet().floor(keyHash);
-        if (partition == null) {
-            partition = partitions.keySet().last();
+    /**
+     * @param partition partition id
+     * @return last known leader of partition, null if unknown
+     */
+    public PID getLeader(int partition){
+        PartitionEntry entry = entries.get(partition);
+        return entry == null ? null : entry.leader;
+    }
+
+    /**
+     * @return snapshot of the table for clients
+     */
+    public RoutingTable routingTable(){
+        Map<Integer, Set<PID>> snapshot = new HashMap<>();
+        Map<Integer, PID> leaders = new HashMap<>();
+        for (int key : partitions.keySet()) {
+            snapshot.put(key, new HashSet<>(partitions.get(key)));
+            PID leader = getLeader(key);
+            if (leader != null)
+                leaders.put(key, leader);
+        }
+        return new RoutingTable(snapshot, leaders, vnodes);
+    }
+
+    /**
+     * @param entry entry
+     * @return true if entry is newer than what we know about its partition
+     */
+    public boolean isNewer(PartitionEntry entry){
+        PartitionEntry current = entries.get(entry.partition);
+        return current == null || entry.version.compareTo(current.version) > 0;
+    }
+
+    /**
+     * Apply entry if it is newer than what we know about its partition
+     *
+     * @param entry entry
+     * @return true if the entry was applied
+     */
+    public boolean apply(PartitionEntry entry){
+        if (!isNewer(entry))
+            return false;
+        entries.put(entry.partition, entry);
+        partitions.removeAll(entry.partition);
+        partitions.putAll(entry.partition, entry.members);
+        ring = null;
+        return true;
+    }
+
+    /**
+     * Partition installed a new view
+     *
+     * @param partition partition id
+     * @param members   members of the view
+     * @param leader    leader of the view
+     * @param viewId    id of the view
+     * @return the new entry or null if we already know the view or a newer one
+     */
+    public PartitionEntry update(int partition, Set<PID> members, PID leader, long viewId){
+        PartitionEntry current = entries.get(partition);
+        long incarnation = current == null ? Version.INITIAL.incarnation : current.version.incarnation;
+        PartitionEntry entry = new PartitionEntry(partition, members, leader, new Version(incarnation, viewId));
+        return apply(entry) ? entry : null;
+    }
+
+    /**
+     * Create a partition, a new incarnation if the partition id was used before
+     *
+     * @param partition partition id
+     * @param members   initial members
+     * @return the new entry
+     */
+    public PartitionEntry create(int partition, Set<PID> members){
+        PartitionEntry current = entries.get(partition);
+        long incarnation = current == null ? Version.INITIAL.incarnation : current.version.incarnation + 1;
+        PartitionEntry entry = new PartitionEntry(partition, members, null, new Version(incarnation, Version.INITIAL.viewId));
+        apply(entry);
+        return entry;
+    }
+
+    /**
+     * @return version vector of the table
+     */
+    public Map<Integer, Version> digest(){
+        Map<Integer, Version> digest = new HashMap<>();
+        for (PartitionEntry entry : entries.values()) {
+            digest.put(entry.partition, entry.version);
+        }
+        return digest;
+    }
+
+    /**
+     * @param digest version vector of a peer
+     * @return the entries that are newer than in digest
+     */
+    public List<PartitionEntry> delta(Map<Integer, Version> digest){
+        List<PartitionEntry> delta = new ArrayList<>();
+        for (PartitionEntry entry : entries.values()) {
+            Version known = digest.get(entry.partition);
+            if (known == null || entry.version.compareTo(known) > 0)
+                delta.add(entry);
         }
-        return partitions.get(partition);
+        return delta;
+    }
+
+    /**
+     * @param digest version vector of a peer
+     * @return true if the peer knows entries that are newer than ours
+     */
+    public boolean isBehind(Map<Integer, Version> digest){
+        for (Map.Entry<Integer, Version> known : digest.entrySet()) {
+            PartitionEntry entry = entries.get(known.getKey());
+            if (entry == null || known.getValue().compareTo(entry.version) > 0)
+                return true;
+        }
+        return false;
     }
 
     public int reverseLookup(PID node) {
@@ -117,21 +242,42 @@ public class LookupTable implements NodeAssignment {
         return nodes;
     }
 
-    public void putPartition(int  partition, Set<PID> nodes){
-        partitions.removeAll(partition);
-        partitions.putAll(partition, nodes);
-    }
-
+    /**
+     * Add node to partition without changing the version, used while assigning nodes before the partition has
+     * installed a view that includes them
+     */
     public void putNode(int  partition, PID node){
         partitions.put(partition, node);
+        PartitionEntry current = entries.get(partition);
+        entries.put(partition, new PartitionEntry(partition, partitions.get(partition),
+                current == null ? null : current.leader, current == null ? Version.INITIAL : current.version));
+        ring = null;
+    }
+
+    public Collection<PartitionEntry> getEntries(){
+        return entries.values();
     }
 
-    public Collection getPartition(int key){
+    public int getVnodes(){
+        return vnodes;
+    }
+
+    public Collection<PID> getPartition(int key){
         return partitions.get(key);
     }
 
-    public void removePartition(int partition){
-        partitions.removeAll(partition);
+    /**
+     * Remove partition, a new incarnation without members that overrides all entries of the removed one
+     *
+     * @param partition partition id
+     * @return the removal entry
+     */
+    public PartitionEntry removePartition(int partition){
+        PartitionEntry current = entries.get(partition);
+        long incarnation = current == null ? Version.INITIAL.incarnation : current.version.incarnation + 1;
+        PartitionEntry entry = new PartitionEntry(partition, Collections.<PID>emptySet(), null, new Version(incarnation, Version.INITIAL.viewId));
+        apply(entry);
+        return entry;
     }
 
     public int freePartition(int replicationDegree){
@@ -142,6 +288,10 @@ public class LookupTable implements NodeAssignment {
         return partitions.keySet().descendingIterator().next();
     }
 
+    public boolean isFree(int partition, int replicationDegree){
+        return partitions.containsKey(partition) && partitions.get(partition).size() < replicationDegree*2 -1;
+    }
+
     public int succ(int key){
         Integer ceiling = partitions.keySet().ceiling(key+1);
         if(ceiling == null){
@@ -179,17 +329,18 @@ public class LookupTable implements NodeAssignment {
      *
      * @param nodes             Nodes to assign to partitions
      * @param replicationDegree replication-degree
-     * @param keySpace          range between each partition
+     * @param keySpace          range between each partition id
+     * @param vnodes            number of tokens of each partition on the ring
      * @return
      */
-    public static LookupTable generate(ImmutableSet<NetAddress> nodes, int replicationDegree, int keySpace) throws PartitionAssignmentException {
-        LookupTable lut = new LookupTable();
+    public static LookupTable generate(ImmutableSet<NetAddress> nodes, int replicationDegree, int keySpace, int vnodes) throws PartitionAssignmentException {
+        LookupTable lut = new LookupTable(vnodes);
         int i = 0;
         int partition = 0;
         int partitionMaxSize = replicationDegree * 2 - 1;
         long pid = 0;
         for (NetAddress node : nodes) {
-            lut.partitions.put(partition, new PID(node, pid));
+            lut.putNode(partition, new PID(node, pid));
             pid++;
             i++;
             if (i == partitionMaxSize) {
@@ -0,0 +1,43 @@
+package se.kth.id2203.overlay.lookuptable;
+
+import com.google.common.collect.ImmutableSet;
+import se.kth.id2203.overlay.PID;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Versioned entry of a partition in the LookupTable, the unit of the deltas that are disseminated between nodes.
+ * A removed partition is kept as an entry without members so that the removal is not undone by older entries.
+ */
+public class PartitionEntry implements Serializable {
+
+    public final int partition;
+    public final ImmutableSet<PID> members;
+    public final PID leader;
+    public final Version version;
+
+    public PartitionEntry(int partition, Collection<PID> members, PID leader, Version version) {
+        this.partition = partition;
+        this.members = ImmutableSet.copyOf(members);
+        this.leader = leader;
+        this.version = version;
+    }
+
+    /**
+     * @return true if the partition was removed
+     */
+    public boolean removed() {
+        return members.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionEntry{" +
+                "partition=" + partition +
+                ", members=" + members +
+                ", leader=" + leader +
+                ", version=" + version +
+                '}';
+    }
+}
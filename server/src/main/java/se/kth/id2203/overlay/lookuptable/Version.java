@@ -0,0 +1,51 @@
+package se.kth.id2203.overlay.lookuptable;
+
+import java.io.Serializable;
+
+/**
+ * Version of a partition entry in the LookupTable. Within an incarnation of a partition the version is the id of the
+ * view that defined the entry, view ids of a partition increase monotonically. Removing a partition starts a new
+ * incarnation so that the removal wins over late views and a partition that is created again with the same id wins
+ * over the removal.
+ */
+public class Version implements Serializable, Comparable<Version> {
+
+    /**
+     * Version of an assigned partition that has not installed a view yet
+     */
+    public static final Version INITIAL = new Version(0, -1);
+    public final long incarnation;
+    public final long viewId;
+
+    public Version(long incarnation, long viewId) {
+        this.incarnation = incarnation;
+        this.viewId = viewId;
+    }
+
+    @Override
+    public int compareTo(Version o) {
+        if (incarnation != o.incarnation)
+            return incarnation < o.incarnation ? -1 : 1;
+        if (viewId != o.viewId)
+            return viewId < o.viewId ? -1 : 1;
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Version version = (Version) o;
+        return incarnation == version.incarnation && viewId == version.viewId;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (int) (incarnation ^ (incarnation >>> 32)) + (int) (viewId ^ (viewId >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return incarnation + "." + viewId;
+    }
+}
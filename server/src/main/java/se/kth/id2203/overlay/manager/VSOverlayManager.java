@@ -36,6 +36,7 @@ import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.overlay.*;
 import se.kth.id2203.overlay.lookuptable.LookupTable;
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
 import se.kth.id2203.overlay.lookuptable.PartitionAssignmentException;
 import se.kth.id2203.overlay.manager.ports.Routing;
 import se.kth.id2203.overlay.service.events.GlobalView;
@@ -85,7 +86,7 @@ public class VSOverlayManager extends ComponentDefinition {
             LOG.info("Generating LookupTable...");
             LookupTable lut = null;
             try {
-                lut = LookupTable.generate(event.nodes, event.replicationDegree, event.keySpace);
+                lut = LookupTable.generate(event.nodes, event.replicationDegree, event.keySpace, event.vnodes);
             } catch (PartitionAssignmentException e) {
                 e.printStackTrace();
                 Kompics.forceShutdown();
@@ -106,9 +107,9 @@ public class VSOverlayManager extends ComponentDefinition {
                 lut = (LookupTable) event.assignment;
                 selfPID = lut.getPID(self);
                 int key = lut.reverseLookup(selfPID);
-                Collection<PID> replicationGroup = lut.lookup(key);
-                trigger(new ReplicationInit((Set) replicationGroup, selfPID, event.keyValues), kvPort);
-                trigger(new VSOverlayServiceInit(lut, selfPID), overlayServicePort);
+                Collection<PID> replicationGroup = lut.getPartition(key);
+                trigger(new ReplicationInit((Set) replicationGroup, selfPID, event.keyValues, key), kvPort);
+                trigger(new VSOverlayServiceInit(new LookupTable(lut), selfPID), overlayServicePort);
             } else {
                 LOG.error("Got invalid NodeAssignment type. Expected: LookupTable; Got: {}", event.assignment.getClass());
             }
@@ -116,20 +117,37 @@ public class VSOverlayManager extends ComponentDefinition {
     };
 
     /**
-     * Some operation for the key-value store to be routed. Retrieve the set of servers for the partition and route
-     * payload to a randomly selected server
+     * Some operation for the key-value store to be routed. Route payload to the leader of the partition or to a
+     * randomly selected server if the leader is not known. If we are not the leader the client has a stale or no
+     * routing table, redirect it so that it sends the next operations straight to the leader.
      */
     protected final ClassMatchedHandler<RouteMsg, Message> routeHandler = new ClassMatchedHandler<RouteMsg, Message>() {
 
         @Override
         public void handle(RouteMsg content, Message context) {
-            Collection<PID> partition = lut.lookup(content.key);
-            PID target = J6.randomElement(partition);
-            LOG.info("Forwarding payload for key {} to {}", content.key, target);
+            PID target = lut.getLeader(lut.lookupPartitionKey(content.key));
+            if (target == null)
+                target = J6.randomElement(lut.lookup(content.key));
+            if (!target.equals(selfPID)) {
+                LOG.info("Forwarding payload for key {} to {}", content.key, target);
+                trigger(new Message(self, context.getSource(), new Redirect(content.key, lut.routingTable())), net);
+            }
             trigger(new Message(context.getSource(), target.netAddress, content.msg), net);
         }
     };
 
+    /**
+     * Client requests the routing table
+     */
+    protected final ClassMatchedHandler<GetRoutingTable, Message> routingTableHandler = new ClassMatchedHandler<GetRoutingTable, Message>() {
+
+        @Override
+        public void handle(GetRoutingTable content, Message context) {
+            if (lut != null)
+                trigger(new Message(self, context.getSource(), lut.routingTable()), net);
+        }
+    };
+
     /**
      * Locally routed payload
      */
@@ -168,7 +186,9 @@ public class VSOverlayManager extends ComponentDefinition {
         @Override
         public void handle(GlobalView globalView) {
             LOG.debug("Received new global view table from VSOverlayService");
-            lut = globalView.lookupTable;
+            for (PartitionEntry entry : globalView.delta) {
+                lut.apply(entry);
+            }
         }
     };
 
@@ -181,5 +201,6 @@ public class VSOverlayManager extends ComponentDefinition {
         subscribe(routeHandler, net);
         subscribe(localRouteHandler, route);
         subscribe(connectHandler, net);
+        subscribe(routingTableHandler, net);
     }
 }
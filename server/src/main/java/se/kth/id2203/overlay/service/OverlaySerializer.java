@@ -0,0 +1,166 @@
+package se.kth.id2203.overlay.service;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import se.kth.id2203.bootstrapping.NodeAssignment;
+import se.kth.id2203.bootstrapping.events.Boot;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.lookuptable.LookupTable;
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
+import se.kth.id2203.overlay.lookuptable.Version;
+import se.kth.id2203.overlay.service.events.Delta;
+import se.kth.id2203.overlay.service.events.Digest;
+import se.kth.id2203.overlay.service.events.Gossip;
+import se.kth.id2203.overlay.service.events.KeyTransfer;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+import java.util.*;
+
+import static se.kth.id2203.networking.NetSerializer.*;
+import static se.kth.id2203.vsync.VSyncSerializer.readKeyValues;
+import static se.kth.id2203.vsync.VSyncSerializer.writeKeyValues;
+
+/**
+ * Compact binary serializer for the LookupTable and the overlay events that carry it or its entries.
+ * A LookupTable is written as its versioned entries, the partitions and the ring are rebuilt from them.
+ */
+public class OverlaySerializer implements Serializer {
+
+    public static final String NAME = "overlayS";
+    private static final byte LOOKUP_TABLE = 1;
+    private static final byte BOOT = 2;
+    private static final byte GOSSIP = 3;
+    private static final byte DIGEST = 4;
+    private static final byte DELTA = 5;
+    private static final byte KEY_TRANSFER = 6;
+
+    /**
+     * Register the serializer and the classes it serializes
+     */
+    public static void register() {
+        Serializers.register(new OverlaySerializer(), NAME);
+        Serializers.register(LookupTable.class, NAME);
+        Serializers.register(Boot.class, NAME);
+        Serializers.register(Gossip.class, NAME);
+        Serializers.register(Digest.class, NAME);
+        Serializers.register(Delta.class, NAME);
+        Serializers.register(KeyTransfer.class, NAME);
+    }
+
+    @Override
+    public int identifier() {
+        return 103;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+        if (o instanceof LookupTable) {
+            LookupTable lookupTable = (LookupTable) o;
+            buf.writeByte(LOOKUP_TABLE);
+            buf.writeInt(lookupTable.getVnodes());
+            writeEntries(buf, lookupTable.getEntries());
+        } else if (o instanceof Boot) {
+            Boot boot = (Boot) o;
+            buf.writeByte(BOOT);
+            Serializers.toBinary(boot.assignment, buf);
+            writeKeyValues(buf, boot.keyValues);
+        } else if (o instanceof Gossip) {
+            buf.writeByte(GOSSIP);
+            writeEntries(buf, ((Gossip) o).entries);
+        } else if (o instanceof Digest) {
+            Digest digest = (Digest) o;
+            buf.writeByte(DIGEST);
+            buf.writeBoolean(digest.pull);
+            buf.writeInt(digest.versions.size());
+            for (Map.Entry<Integer, Version> version : digest.versions.entrySet()) {
+                buf.writeInt(version.getKey());
+                writeVersion(buf, version.getValue());
+            }
+        } else if (o instanceof Delta) {
+            buf.writeByte(DELTA);
+            writeEntries(buf, ((Delta) o).entries);
+        } else if (o instanceof KeyTransfer) {
+            buf.writeByte(KEY_TRANSFER);
+            writeKeyValues(buf, ((KeyTransfer) o).keyValues);
+        } else {
+            throw new IllegalArgumentException("OverlaySerializer can not serialize " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+        byte type = buf.readByte();
+        switch (type) {
+            case LOOKUP_TABLE: {
+                LookupTable lookupTable = new LookupTable(buf.readInt());
+                for (PartitionEntry entry : readEntries(buf)) {
+                    lookupTable.apply(entry);
+                }
+                return lookupTable;
+            }
+            case BOOT: {
+                NodeAssignment assignment = (NodeAssignment) Serializers.fromBinary(buf, Optional.absent());
+                return new Boot(assignment, readKeyValues(buf));
+            }
+            case GOSSIP:
+                return new Gossip(readEntries(buf));
+            case DIGEST: {
+                boolean pull = buf.readBoolean();
+                int size = buf.readInt();
+                Map<Integer, Version> versions = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    int partition = buf.readInt();
+                    versions.put(partition, readVersion(buf));
+                }
+                return new Digest(versions, pull);
+            }
+            case DELTA:
+                return new Delta(readEntries(buf));
+            case KEY_TRANSFER:
+                return new KeyTransfer(readKeyValues(buf));
+            default:
+                throw new IllegalArgumentException("OverlaySerializer got unknown type " + type);
+        }
+    }
+
+    private static void writeVersion(ByteBuf buf, Version version) {
+        buf.writeLong(version.incarnation);
+        buf.writeLong(version.viewId);
+    }
+
+    private static Version readVersion(ByteBuf buf) {
+        long incarnation = buf.readLong();
+        return new Version(incarnation, buf.readLong());
+    }
+
+    private static void writeEntries(ByteBuf buf, Collection<PartitionEntry> entries) {
+        buf.writeInt(entries.size());
+        for (PartitionEntry entry : entries) {
+            buf.writeInt(entry.partition);
+            writeVersion(buf, entry.version);
+            writeNullablePID(buf, entry.leader);
+            buf.writeInt(entry.members.size());
+            for (PID member : entry.members) {
+                writePID(buf, member);
+            }
+        }
+    }
+
+    private static List<PartitionEntry> readEntries(ByteBuf buf) {
+        int size = buf.readInt();
+        List<PartitionEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int partition = buf.readInt();
+            Version version = readVersion(buf);
+            PID leader = readNullablePID(buf);
+            int members = buf.readInt();
+            List<PID> pids = new ArrayList<>(members);
+            for (int j = 0; j < members; j++) {
+                pids.add(readPID(buf));
+            }
+            entries.add(new PartitionEntry(partition, pids, leader, version));
+        }
+        return entries;
+    }
+}
@@ -1,31 +1,35 @@
 package se.kth.id2203.overlay.service;
 
-import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.id2203.bootstrapping.events.Boot;
 import se.kth.id2203.bootstrapping.events.CheckIn;
-import se.kth.id2203.broadcast.beb.events.BEB_Broadcast;
-import se.kth.id2203.broadcast.beb.events.BEB_Deliver;
-import se.kth.id2203.broadcast.beb.ports.BEBPort;
-import se.kth.id2203.epfd.events.EPFDInit;
-import se.kth.id2203.epfd.events.Restore;
-import se.kth.id2203.epfd.events.Suspect;
-import se.kth.id2203.epfd.ports.EPFDPort;
 import se.kth.id2203.gms.events.GMSJoin;
 import se.kth.id2203.gms.events.View;
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
 import se.kth.id2203.kvstore.events.Handover;
 import se.kth.id2203.kvstore.ports.KVPort;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.overlay.PID;
 import se.kth.id2203.overlay.lookuptable.LookupTable;
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
+import se.kth.id2203.overlay.service.events.Delta;
+import se.kth.id2203.overlay.service.events.Digest;
 import se.kth.id2203.overlay.service.events.GlobalView;
 import se.kth.id2203.overlay.service.events.Gossip;
 import se.kth.id2203.overlay.service.events.JoinPending;
+import se.kth.id2203.overlay.service.events.KeyTransfer;
 import se.kth.id2203.overlay.service.events.VSOverlayServiceInit;
 import se.kth.id2203.overlay.service.ports.OverlayServicePort;
+import se.kth.id2203.overlay.service.timeouts.AntiEntropyTimeout;
 import se.kth.id2203.overlay.service.timeouts.OverlayServiceTimeout;
+import se.kth.id2203.swim.events.Disseminate;
+import se.kth.id2203.swim.events.MemberUpdate;
+import se.kth.id2203.swim.events.Rumor;
+import se.kth.id2203.swim.events.SWIMInit;
+import se.kth.id2203.swim.ports.SWIMPort;
+import se.kth.id2203.vsync.events.LogEntry;
 import se.kth.id2203.vsync.events.StateTransfer;
 import se.kth.id2203.vsync.events.VS_Deliver;
 import se.kth.id2203.vsync.ports.VSyncPort;
@@ -39,6 +43,12 @@ import java.util.*;
 /**
  * Component that maintains the lookup-table when churn happens.
  *
+ * Failures of the successor partition are detected by SWIM and partition crashes and views are disseminated
+ * through SWIM, piggybacked on its probes, so the load per node does not grow with the size of the cluster.
+ *
+ * A new partition takes over tokens of every existing partition, so whenever the lookup-table changes the leader of
+ * every partition hands over the keys it no longer owns to the partitions that own them now.
+ *
  * @author Kim Hammar on 2017-02-22.
  */
 public class VSOverlayService extends ComponentDefinition {
@@ -46,9 +56,8 @@ public class VSOverlayService extends ComponentDefinition {
     /* Ports */
     protected final Negative<OverlayServicePort> overlayServicePort = provides(OverlayServicePort.class);
     protected final Positive<Network> net = requires(Network.class);
-    protected final Positive<EPFDPort> epfdPort = requires(EPFDPort.class);
+    protected final Positive<SWIMPort> swimPort = requires(SWIMPort.class);
     protected final Positive<Timer> timer = requires(Timer.class);
-    protected final Positive<BEBPort> broadcastPort = requires(BEBPort.class);
     protected final Positive<VSyncPort> vSyncPort = requires(VSyncPort.class);
     protected final Positive<KVPort> kvPort = requires(KVPort.class);
     /* Fields */
@@ -56,15 +65,19 @@ public class VSOverlayService extends ComponentDefinition {
     private LookupTable lookupTable;
     private PID selfPid;
     private Set<PID> successorAlive = new HashSet<>();
+    private Set<PID> successorNodes = new HashSet<>();
+    private final Set<PID> failed = new HashSet<>();
     private View view;
     private int partition;
     private UUID timeoutId;
+    private UUID antiEntropyTimeoutId;
     private final int replicationDegree = config().getValue("id2203.project.replicationDegree", Integer.class);
     final int keySpace = config().getValue("id2203.project.keySpace", Integer.class);
-    private final Map<Integer, Long> latestViews = new HashMap();
+    private final Random random = new Random();
     private Set<NetAddress> pendingJoins = new HashSet<>();
     private State state;
-    private HashMap<Integer, String> keyValues = new HashMap<>();
+    private PersistentKeyValueMap keyValues = PersistentKeyValueMap.empty();
+    private long timestamp;
     private int newJoins = 0;
 
     /**
@@ -81,6 +94,11 @@ public class VSOverlayService extends ComponentDefinition {
             trigger(spt, timer);
             timeoutId = spt.getTimeoutEvent().getTimeoutId();
             LOG.debug("Timeout set");
+            long antiEntropy = config().getValue("id2203.project.overlayservice.antientropy", Long.class);
+            spt = new SchedulePeriodicTimeout(antiEntropy, antiEntropy);
+            spt.setTimeoutEvent(new AntiEntropyTimeout(spt));
+            trigger(spt, timer);
+            antiEntropyTimeoutId = spt.getTimeoutEvent().getTimeoutId();
         }
     };
 
@@ -95,6 +113,7 @@ public class VSOverlayService extends ComponentDefinition {
             lookupTable = init.lookupTable;
             selfPid = init.pid;
             partition = lookupTable.reverseLookup(selfPid);
+            updateMembers();
             monitorSuccessor();
         }
     };
@@ -102,12 +121,20 @@ public class VSOverlayService extends ComponentDefinition {
     private void monitorSuccessor() {
         int successor = lookupTable.succ(partition);
         LOG.debug("Partition {} now monitoring successor-partition {}", partition, successor);
-        successorAlive = new HashSet<>((Set) lookupTable.lookup(successor));
-        trigger(new EPFDInit(new HashSet<PID>((Set) successorAlive), selfPid), epfdPort);
+        successorNodes = new HashSet<>((Set) lookupTable.getPartition(successor));
+        successorAlive = new HashSet<>(successorNodes);
+        successorAlive.removeAll(failed);
+    }
+
+    /**
+     * Probe and disseminate to all nodes in the lookup-table
+     */
+    private void updateMembers() {
+        trigger(new SWIMInit(lookupTable.getNodesSet(), selfPid), swimPort);
     }
 
     /**
-     * Trigger Gossip periodically if we are leader. Create new partition if there is enough pending joins
+     * Gossip crash of the successor partition if we are leader. Create new partition if there is enough pending joins
      */
     protected final Handler<OverlayServiceTimeout> timeoutHandler = new Handler<OverlayServiceTimeout>() {
         @Override
@@ -115,41 +142,39 @@ public class VSOverlayService extends ComponentDefinition {
             if (state == State.LEADER) {
                 if (successorAlive.size() < replicationDegree) {
                     LOG.info("OVerlay detected crash of successor partition {}.. gossiping", lookupTable.succ(partition));
-                    trigger(new BEB_Broadcast(new Gossip(lookupTable.succ(partition), null, true), lookupTable.getNodesSet(), selfPid), broadcastPort);
-                    lookupTable.removePartition(lookupTable.succ(partition));
-                    monitorSuccessor();
-                }
-                if (view != null && view.leader.equals(selfPid)) {
-                    trigger(new BEB_Broadcast(new Gossip(partition, view, false), lookupTable.getNodesSet(), selfPid), broadcastPort);
+                    publish(lookupTable.removePartition(lookupTable.succ(partition)));
                 }
                 if (pendingJoins.size() >= replicationDegree && lookupTable.getEdgeKey() == partition) {
                     LOG.info("VSOverlayService received enough join-requests to boot a new partition");
                     int createPartitionId = lookupTable.getEdgeKey() + keySpace;
+                    long newPid = lookupTable.getNewPid();
+                    Set<PID> members = new HashSet<>();
                     Iterator iterator = pendingJoins.iterator();
                     for (int i = 0; i < replicationDegree * 2 - 1; i++) {
                         if(iterator.hasNext()){
                             NetAddress node = (NetAddress) iterator.next();
-                            PID pid = new PID(node, lookupTable.getNewPid());
-                            lookupTable.putNode(createPartitionId, pid);
+                            members.add(new PID(node, newPid++));
                             iterator.remove();
                         }
                     }
-                    iterator = lookupTable.getPartition(createPartitionId).iterator();
-                    while (iterator.hasNext()) {
-                        PID node = (PID) iterator.next();
-                        HashMap<Integer, String> handoverStore = handover(createPartitionId);
-                        LOG.debug("HandoverStore: " + handoverStore);
-                        LOG.debug("Kept store: " + keyValues);
-                        monitorSuccessor();
+                    PartitionEntry created = lookupTable.create(createPartitionId, members);
+                    Map<Integer, PersistentKeyValueMap> handedOver = handover();
+                    PersistentKeyValueMap handoverStore = handedOver.remove(createPartitionId);
+                    if (handoverStore == null)
+                        handoverStore = PersistentKeyValueMap.empty();
+                    LOG.debug("Handing over {} keys to the new partition {}", handoverStore.size(), createPartitionId);
+                    for (PID node : lookupTable.getPartition(createPartitionId)) {
                         trigger(new Message(selfPid.netAddress, node.netAddress, new Boot(lookupTable, handoverStore)), net);
                     }
+                    transfer(handedOver);
+                    publish(created);
                     pendingJoins = new HashSet<>();
                 }
                 if (lookupTable.getEdgeKey() != partition && pendingJoins.size() > 0) {
                     //We are not the "edge" in the ring, overlay structure might have changed while the joins were pending
                     //forward the join request to the edge partition instead.
                     LOG.debug("Forwarding CheckIn to right partition");
-                    Set partitionSet = (Set) lookupTable.lookup(lookupTable.getEdgeKey());
+                    Set partitionSet = (Set) lookupTable.getPartition(lookupTable.getEdgeKey());
                     PID targetLeader = (PID) Collections.max(partitionSet);
                     for (NetAddress joiningNode : pendingJoins) {
                         trigger(new Message(selfPid.netAddress, targetLeader.netAddress, new CheckIn(joiningNode)), net);
@@ -160,38 +185,95 @@ public class VSOverlayService extends ComponentDefinition {
     };
 
     /**
-     * Received gossip, update our lookup-table accordingly. 2 types of gossip: partition crash and partition-view change
+     * Anti-entropy, exchange digests with a random node so that entries missed by the dissemination are repaired
+     */
+    protected final Handler<AntiEntropyTimeout> antiEntropyHandler = new Handler<AntiEntropyTimeout>() {
+        @Override
+        public void handle(AntiEntropyTimeout event) {
+            if (state == State.WAITING)
+                return;
+            List<PID> peers = new ArrayList<>(lookupTable.getNodesSet());
+            peers.remove(selfPid);
+            if (peers.isEmpty())
+                return;
+            PID peer = peers.get(random.nextInt(peers.size()));
+            trigger(new Message(selfPid.netAddress, peer.netAddress, new Digest(lookupTable.digest(), true)), net);
+        }
+    };
+
+    /**
+     * Received digest, send the entries the peer is missing and ask for the ones we are missing
      */
-    protected final ClassMatchedHandler<Gossip, BEB_Deliver> deliverHandler = new ClassMatchedHandler<Gossip, BEB_Deliver>() {
+    protected final ClassMatchedHandler<Digest, Message> digestHandler = new ClassMatchedHandler<Digest, Message>() {
         @Override
-        public void handle(Gossip gossip, BEB_Deliver beb_deliver) {
-            if (gossip.partitionId == partition && !gossip.view.members.contains(selfPid)) {
+        public void handle(Digest digest, Message message) {
+            if (state == State.WAITING)
+                return;
+            List<PartitionEntry> delta = lookupTable.delta(digest.versions);
+            if (!delta.isEmpty())
+                trigger(new Message(selfPid.netAddress, message.getSource(), new Delta(delta)), net);
+            if (digest.pull && lookupTable.isBehind(digest.versions))
+                trigger(new Message(selfPid.netAddress, message.getSource(), new Digest(lookupTable.digest(), false)), net);
+        }
+    };
+
+    /**
+     * Received the entries we were missing from anti-entropy
+     */
+    protected final ClassMatchedHandler<Delta, Message> deltaHandler = new ClassMatchedHandler<Delta, Message>() {
+        @Override
+        public void handle(Delta delta, Message message) {
+            if (state != State.WAITING)
+                apply(delta.entries);
+        }
+    };
+
+    /**
+     * Received gossip, update our lookup-table with the entries that are newer than ours.
+     * SWIM keeps spreading the gossip, no need to re-broadcast it.
+     */
+    protected final ClassMatchedHandler<Gossip, Rumor> deliverHandler = new ClassMatchedHandler<Gossip, Rumor>() {
+        @Override
+        public void handle(Gossip gossip, Rumor rumor) {
+            if (state != State.WAITING)
+                apply(gossip.entries);
+        }
+    };
+
+    private void apply(List<PartitionEntry> entries) {
+        List<PartitionEntry> applied = new ArrayList<>();
+        for (PartitionEntry entry : entries) {
+            if (entry.partition == partition && !entry.members.contains(selfPid) && lookupTable.isNewer(entry)) {
                 LOG.warn("Ring-partition that have healed, crash to make room for other partition");
                 Kompics.shutdown();
-            }
-            if (gossip.crashed) {
-                LOG.info("Received gossip that partition {} crashed", gossip.partitionId);
-                lookupTable.removePartition(gossip.partitionId);
-                if (gossip.partitionId == lookupTable.succ(partition)) {
-                    monitorSuccessor();
-                }
-                trigger(new GlobalView(lookupTable), overlayServicePort);
-                printTable();
                 return;
             }
-            Long latestView = latestViews.get(gossip.partitionId);
-            if (beb_deliver.source.equals(gossip.view.leader) && (latestView == null || gossip.view.id > latestView)) {
-                lookupTable.putPartition(gossip.partitionId, gossip.view.members);
-                trigger(new GlobalView(lookupTable), overlayServicePort);
-                printTable();
-                if (gossip.partitionId == lookupTable.succ(partition)) {
-                    monitorSuccessor();
-                }
-                latestViews.put(gossip.partitionId, gossip.view.id);
-                trigger(new BEB_Broadcast(gossip, lookupTable.getNodesSet(), selfPid), broadcastPort);
+            if (lookupTable.apply(entry)) {
+                if (entry.removed())
+                    LOG.info("Received gossip that partition {} crashed", entry.partition);
+                applied.add(entry);
             }
         }
-    };
+        if (!applied.isEmpty())
+            changed(applied);
+    }
+
+    /**
+     * Our lookup-table changed locally, disseminate the entry
+     */
+    private void publish(PartitionEntry entry) {
+        trigger(new Disseminate(new Gossip(Collections.singletonList(entry))), swimPort);
+        changed(Collections.singletonList(entry));
+    }
+
+    private void changed(List<PartitionEntry> delta) {
+        if (state == State.LEADER)
+            transfer(handover());
+        updateMembers();
+        monitorSuccessor();
+        trigger(new GlobalView(delta), overlayServicePort);
+        printTable();
+    }
 
     /**
      * Received new view from VSyncService
@@ -202,17 +284,19 @@ public class VSOverlayService extends ComponentDefinition {
             LOG.debug("VSOverlayService recieved new view from VSyncService");
             newJoins = 0;
             view = newView;
-            latestViews.put(partition, view.id);
             if (view.leader.equals(selfPid))
                 state = State.LEADER;
             else
                 state = State.BACKUP;
-            if(state == State.LEADER && lookupTable.succ(partition) != partition){
-                handover(lookupTable.succ(partition));
-            }
-            lookupTable.putPartition(partition, view.members);
-            trigger(new GlobalView(lookupTable), overlayServicePort);
-            printTable();
+            if (state == State.LEADER)
+                transfer(handover());
+            PartitionEntry entry = lookupTable.update(partition, view.members, view.leader, view.id);
+            if (entry == null)
+                return;
+            if (state == State.LEADER)
+                publish(entry);
+            else
+                changed(Collections.singletonList(entry));
         }
     };
 
@@ -227,8 +311,10 @@ public class VSOverlayService extends ComponentDefinition {
             if (state == State.LEADER) {
                 LOG.debug("OVerlayService leader received Join request");
                 int targetPartition = lookupTable.freePartition(replicationDegree);
+                if (lookupTable.isFree(checkIn.partition, replicationDegree))
+                    targetPartition = checkIn.partition; //Rejoin the partition that the server has state for on disk
                 if (targetPartition != partition) {
-                    Set partitionSet = (Set) lookupTable.lookup(targetPartition);
+                    Set partitionSet = (Set) lookupTable.getPartition(targetPartition);
                     PID targetLeader = (PID) Collections.max(partitionSet);
                     LOG.debug("Forwarding CheckIn to right partition");
                     trigger(new Message(selfPid.netAddress, targetLeader.netAddress, checkIn), net);
@@ -238,7 +324,8 @@ public class VSOverlayService extends ComponentDefinition {
                         PID node = new PID(checkIn.netaddress, lookupTable.getNewPid());
                         LookupTable copy = new LookupTable(lookupTable);
                         copy.putNode(partition, node);
-                        Boot boot = new Boot(copy, keyValues);
+                        //A rejoining server recovers its store from disk and only needs the updates it missed
+                        Boot boot = new Boot(copy, checkIn.partition == partition ? PersistentKeyValueMap.empty() : keyValues);
                         trigger(new Message(selfPid.netAddress, checkIn.netaddress, boot), net);
                         trigger(new GMSJoin(node), vSyncPort);
                         newJoins++;
@@ -257,39 +344,60 @@ public class VSOverlayService extends ComponentDefinition {
         }
     };
 
-    private HashMap<Integer, String> handover(int createPartitionKey){
-        HashMap<Integer, String> store1 = new HashMap<>();
-        HashMap<Integer, String> store2 = new HashMap<>();
-        for (int key : keyValues.keySet()) {
-            if(lookupTable.lookupPartitionKey(key) == createPartitionKey)
-                store2.put(key, keyValues.get(key));
-            else if(lookupTable.lookupPartitionKey(key) == partition)
-                store1.put(key, keyValues.get(key));
+    /**
+     * Remove the keys that our partition no longer owns from the store and replicate the store without them
+     *
+     * @return the removed keys grouped by the partition that owns them now
+     */
+    private Map<Integer, PersistentKeyValueMap> handover() {
+        Map<Integer, PersistentKeyValueMap> handedOver = new HashMap<>();
+        PersistentKeyValueMap kept = keyValues;
+        for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+            int owner = lookupTable.lookupPartitionKey(entry.getKey());
+            if (owner == partition)
+                continue;
+            PersistentKeyValueMap keys = handedOver.get(owner);
+            if (keys == null)
+                keys = PersistentKeyValueMap.empty();
+            handedOver.put(owner, keys.plus(entry.getKey(), entry.getValue()));
+            kept = kept.minus(entry.getKey());
         }
-        if(!keyValues.equals(store1)){
-            keyValues = store1;
-            trigger(new Handover(ImmutableMap.copyOf(keyValues)), kvPort);
+        if (kept != keyValues) {
+            keyValues = kept;
+            trigger(new Handover(keyValues), kvPort);
         }
-        return store2;
+        return handedOver;
     }
 
     /**
-     * EPFD suspected some process in the sucessor partition
+     * Send handed over keys to the leaders of the partitions that own them, or to the member that will become leader
+     * if the partition has not installed a view yet. Members that are not leader route them to their leader.
      */
-    protected final Handler<Suspect> suspectHandler = new Handler<Suspect>() {
-        @Override
-        public void handle(Suspect event) {
-            successorAlive.remove(event.suspected);
+    private void transfer(Map<Integer, PersistentKeyValueMap> handedOver) {
+        for (Map.Entry<Integer, PersistentKeyValueMap> keys : handedOver.entrySet()) {
+            PID target = lookupTable.getLeader(keys.getKey());
+            if (target == null)
+                target = Collections.max(lookupTable.getPartition(keys.getKey()));
+            LOG.info("Handing over {} keys to partition {}", keys.getValue().size(), keys.getKey());
+            trigger(new Message(selfPid.netAddress, target.netAddress, new KeyTransfer(keys.getValue())), net);
         }
-    };
+    }
 
     /**
-     * EPFD restored suspicion of some process in the successor partition
+     * SWIM updated the state of a node, track the nodes of the successor partition that are alive. Suspected nodes
+     * are still alive until SWIM confirms the failure.
      */
-    protected final Handler<Restore> restoreHandler = new Handler<Restore>() {
+    protected final Handler<MemberUpdate> memberHandler = new Handler<MemberUpdate>() {
         @Override
-        public void handle(Restore event) {
-            successorAlive.add(event.restored);
+        public void handle(MemberUpdate update) {
+            if (update.status == MemberUpdate.Status.CONFIRM)
+                failed.add(update.node);
+            if (!successorNodes.contains(update.node))
+                return;
+            if (update.status == MemberUpdate.Status.CONFIRM)
+                successorAlive.remove(update.node);
+            else
+                successorAlive.add(update.node);
         }
     };
 
@@ -299,9 +407,24 @@ public class VSOverlayService extends ComponentDefinition {
     protected final ClassMatchedHandler<StateTransfer, VS_Deliver> stateUpdateHandler = new ClassMatchedHandler<StateTransfer, VS_Deliver>() {
         @Override
         public void handle(StateTransfer stateTransfer, VS_Deliver vs_deliver) {
-            keyValues = new HashMap<>();
-            if (stateTransfer != null)
-                keyValues.putAll(stateTransfer.keyValues);
+            keyValues = PersistentKeyValueMap.empty();
+            if (stateTransfer != null) {
+                keyValues = PersistentKeyValueMap.copyOf(stateTransfer.keyValues);
+                timestamp = stateTransfer.timestamp;
+            }
+        }
+    };
+
+    /**
+     * Received log-entry from VSyncService
+     */
+    protected final ClassMatchedHandler<LogEntry, VS_Deliver> logEntryHandler = new ClassMatchedHandler<LogEntry, VS_Deliver>() {
+        @Override
+        public void handle(LogEntry logEntry, VS_Deliver vs_deliver) {
+            if (logEntry.timestamp > timestamp) {
+                keyValues = logEntry.applyTo(keyValues);
+                timestamp = logEntry.timestamp;
+            }
         }
     };
 
@@ -311,12 +434,15 @@ public class VSOverlayService extends ComponentDefinition {
 
     {
         subscribe(stateUpdateHandler, vSyncPort);
-        subscribe(suspectHandler, epfdPort);
-        subscribe(restoreHandler, epfdPort);
+        subscribe(logEntryHandler, vSyncPort);
+        subscribe(memberHandler, swimPort);
         subscribe(initHandler, overlayServicePort);
         subscribe(startHandler, control);
         subscribe(timeoutHandler, timer);
-        subscribe(deliverHandler, broadcastPort);
+        subscribe(antiEntropyHandler, timer);
+        subscribe(digestHandler, net);
+        subscribe(deltaHandler, net);
+        subscribe(deliverHandler, swimPort);
         subscribe(viewHandler, vSyncPort);
         subscribe(joinHandler, net);
     }
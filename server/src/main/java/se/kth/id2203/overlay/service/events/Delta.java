@@ -0,0 +1,19 @@
+package se.kth.id2203.overlay.service.events;
+
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Anti-entropy: entries of the lookup-table that are newer than in the digest of the receiver
+ */
+public class Delta implements KompicsEvent, Serializable {
+
+    public final List<PartitionEntry> entries;
+
+    public Delta(List<PartitionEntry> entries) {
+        this.entries = entries;
+    }
+}
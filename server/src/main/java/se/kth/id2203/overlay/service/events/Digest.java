@@ -0,0 +1,22 @@
+package se.kth.id2203.overlay.service.events;
+
+import se.kth.id2203.overlay.lookuptable.Version;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Anti-entropy: version vector of the lookup-table of the sender. The receiver answers with the entries that are
+ * newer and, if pull is set and the sender knows newer entries, with its own digest.
+ */
+public class Digest implements KompicsEvent, Serializable {
+
+    public final Map<Integer, Version> versions;
+    public final boolean pull;
+
+    public Digest(Map<Integer, Version> versions, boolean pull) {
+        this.versions = versions;
+        this.pull = pull;
+    }
+}
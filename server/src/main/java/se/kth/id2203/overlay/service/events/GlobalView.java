@@ -1,17 +1,21 @@
 package se.kth.id2203.overlay.service.events;
 
-import se.kth.id2203.overlay.lookuptable.LookupTable;
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
 import se.sics.kompics.KompicsEvent;
 
+import java.util.List;
+
 
 /**
+ * Entries of the lookup-table that changed, applied by the overlay manager to its own copy of the table
+ *
  * @author Kim Hammar on 2017-02-22.
  */
 public class GlobalView implements KompicsEvent {
 
-    public final LookupTable lookupTable;
+    public final List<PartitionEntry> delta;
 
-    public GlobalView(LookupTable lookupTable) {
-        this.lookupTable = lookupTable;
+    public GlobalView(List<PartitionEntry> delta) {
+        this.delta = delta;
     }
 }
@@ -1,22 +1,21 @@
 package se.kth.id2203.overlay.service.events;
 
-import se.kth.id2203.gms.events.View;
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
 import se.sics.kompics.KompicsEvent;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
+ * Changed entries of the lookup-table: a partition that installed a new view, was created or crashed
+ *
  * @author Kim Hammar on 2017-02-22.
  */
 public class Gossip implements KompicsEvent, Serializable {
 
-    public final int partitionId;
-    public final View view;
-    public final boolean crashed;
+    public final List<PartitionEntry> entries;
 
-    public Gossip(int partitionId, View view, boolean crashed) {
-        this.partitionId = partitionId;
-        this.view = view;
-        this.crashed = crashed;
+    public Gossip(List<PartitionEntry> entries) {
+        this.entries = entries;
     }
 }
@@ -0,0 +1,19 @@
+package se.kth.id2203.overlay.service.events;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Keys that a partition no longer owns after the lookup-table changed, sent by its leader to the partition that
+ * owns them now
+ */
+public class KeyTransfer implements KompicsEvent, Serializable {
+
+    public final Map<String, String> keyValues;
+
+    public KeyTransfer(Map<String, String> keyValues) {
+        this.keyValues = keyValues;
+    }
+}
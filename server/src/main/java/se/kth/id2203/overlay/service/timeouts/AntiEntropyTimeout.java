@@ -0,0 +1,11 @@
+package se.kth.id2203.overlay.service.timeouts;
+
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class AntiEntropyTimeout extends Timeout {
+
+    public AntiEntropyTimeout(SchedulePeriodicTimeout request) {
+        super(request);
+    }
+}
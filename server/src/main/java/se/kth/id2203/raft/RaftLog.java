@@ -0,0 +1,219 @@
+package se.kth.id2203.raft;
+
+import se.kth.id2203.gms.events.View;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.raft.events.RaftEntry;
+import se.kth.id2203.vsync.events.StateTransfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The replicated log of RaftService: the entries after the last snapshot, the snapshot itself and the configuration,
+ * which is the members of the latest view entry in the log whether it is committed or not. Index i is at
+ * entries.get(i - snapshotIndex - 1), the snapshot is at snapshotIndex.
+ *
+ * The log has no knowledge of terms, commit or networking, RaftService decides what to append and this class only
+ * keeps the entries consistent with the leader's.
+ */
+public class RaftLog {
+
+    private List<RaftEntry> entries = new ArrayList<>();
+    private long snapshotIndex;
+    private long snapshotTerm;
+    private StateTransfer snapshotState;
+    private Set<PID> snapshotMembers;
+    private View snapshotView;
+    private Set<PID> members;
+    private long configIndex;
+
+    /**
+     * Empty log with the initial state as the snapshot at index 0
+     */
+    public RaftLog(StateTransfer state, Set<PID> members) {
+        this.snapshotState = state;
+        this.snapshotMembers = members;
+        updateConfiguration();
+    }
+
+    /**
+     * Append entry to the log, a view entry changes the configuration immediately
+     */
+    public void append(RaftEntry entry) {
+        entries.add(entry);
+        if (entry.isView())
+            updateConfiguration();
+    }
+
+    /**
+     * Append the entries that the leader sent after prevLogIndex, if the log matches the leader's at prevLogIndex.
+     * Entries that conflict with the leader's are removed together with all that follow them, entries that are
+     * already in the log are kept so that a delayed message does not truncate the log.
+     *
+     * @return on success the index of the last entry that matches the leader's, otherwise the index that the leader
+     * should continue from: the first index of the conflicting term, or the end of the log if it is too short
+     */
+    public Match appendEntries(long prevLogIndex, long prevLogTerm, List<RaftEntry> leaderEntries) {
+        if (prevLogIndex > lastIndex())
+            return new Match(false, lastIndex() + 1);
+        long index = prevLogIndex;
+        int skip = 0;
+        if (index < snapshotIndex) {
+            //Entries up to the snapshot are committed and therefore the same as the leader's
+            skip = (int) Math.min(snapshotIndex - index, leaderEntries.size());
+            index += skip;
+            if (index < snapshotIndex)
+                return new Match(true, index);
+        } else if (termAt(index) != prevLogTerm) {
+            return new Match(false, conflictIndex(index));
+        }
+        for (int i = skip; i < leaderEntries.size(); i++) {
+            index++;
+            RaftEntry entry = leaderEntries.get(i);
+            if (index <= lastIndex()) {
+                if (termAt(index) == entry.term)
+                    continue;
+                truncate(index);
+            }
+            append(entry);
+        }
+        return new Match(true, index);
+    }
+
+    /**
+     * Replace the log up to lastIncludedIndex with a snapshot from the leader. The entries after it are kept if the
+     * log contains the last included entry, otherwise the whole log is replaced.
+     */
+    public void installSnapshot(long lastIncludedIndex, long lastIncludedTerm, StateTransfer state, Set<PID> members,
+                                View view) {
+        if (lastIncludedIndex <= lastIndex() && lastIncludedIndex >= snapshotIndex
+                && termAt(lastIncludedIndex) == lastIncludedTerm)
+            entries = new ArrayList<>(entries.subList((int) (lastIncludedIndex - snapshotIndex), entries.size()));
+        else
+            entries = new ArrayList<>();
+        snapshotIndex = lastIncludedIndex;
+        snapshotTerm = lastIncludedTerm;
+        snapshotState = state;
+        snapshotMembers = members;
+        snapshotView = view;
+        updateConfiguration();
+    }
+
+    /**
+     * Compact the applied entries up to index into a snapshot of the applied state
+     */
+    public void compact(long index, StateTransfer state, View view) {
+        long term = termAt(index);
+        entries = new ArrayList<>(entries.subList((int) (index - snapshotIndex), entries.size()));
+        snapshotIndex = index;
+        snapshotTerm = term;
+        snapshotState = state;
+        if (view != null)
+            snapshotMembers = view.members;
+        snapshotView = view;
+    }
+
+    /**
+     * @return the entries from index from to index to, both included
+     */
+    public List<RaftEntry> entries(long from, long to) {
+        return new ArrayList<>(entries.subList((int) (from - snapshotIndex - 1), (int) (to - snapshotIndex)));
+    }
+
+    public RaftEntry entry(long index) {
+        return entries.get((int) (index - snapshotIndex - 1));
+    }
+
+    public long termAt(long index) {
+        return index == snapshotIndex ? snapshotTerm : entry(index).term;
+    }
+
+    public long lastIndex() {
+        return snapshotIndex + entries.size();
+    }
+
+    public long lastTerm() {
+        return termAt(lastIndex());
+    }
+
+    public long snapshotIndex() {
+        return snapshotIndex;
+    }
+
+    public long snapshotTerm() {
+        return snapshotTerm;
+    }
+
+    public StateTransfer snapshotState() {
+        return snapshotState;
+    }
+
+    public Set<PID> snapshotMembers() {
+        return snapshotMembers;
+    }
+
+    public View snapshotView() {
+        return snapshotView;
+    }
+
+    /**
+     * @return members of the latest view entry in the log, or of the snapshot
+     */
+    public Set<PID> members() {
+        return members;
+    }
+
+    /**
+     * @return index of the latest view entry in the log, or of the snapshot
+     */
+    public long configIndex() {
+        return configIndex;
+    }
+
+    /**
+     * Remove the entries from index and onwards
+     */
+    private void truncate(long index) {
+        entries.subList((int) (index - snapshotIndex - 1), entries.size()).clear();
+        if (configIndex >= index)
+            updateConfiguration();
+    }
+
+    private void updateConfiguration() {
+        members = snapshotMembers;
+        configIndex = snapshotIndex;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).isView()) {
+                members = entries.get(i).members;
+                configIndex = snapshotIndex + i + 1;
+                break;
+            }
+        }
+    }
+
+    /**
+     * First index of the term of the entry at index, but not within the snapshot
+     */
+    private long conflictIndex(long index) {
+        long term = termAt(index);
+        while (index - 1 > snapshotIndex && termAt(index - 1) == term) {
+            index--;
+        }
+        return Math.max(index, snapshotIndex + 1);
+    }
+
+    /**
+     * Outcome of appendEntries
+     */
+    public static class Match {
+
+        public final boolean success;
+        public final long index;
+
+        Match(boolean success, long index) {
+            this.success = success;
+            this.index = index;
+        }
+    }
+}
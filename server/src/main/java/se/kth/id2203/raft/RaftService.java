@@ -0,0 +1,684 @@
+package se.kth.id2203.raft;
+
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.id2203.gms.events.GMSJoin;
+import se.kth.id2203.gms.events.View;
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
+import se.kth.id2203.networking.Message;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.raft.events.*;
+import se.kth.id2203.raft.timeout.RaftTimeout;
+import se.kth.id2203.vsync.events.*;
+import se.kth.id2203.vsync.ports.VSyncPort;
+import se.sics.kompics.*;
+import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timer;
+
+import java.util.*;
+
+/**
+ * Replication service based on a Raft-style replicated log, an alternative to VSyncService + GMS that is chosen by
+ * setting id2203.project.replication to "raft". It provides the VSyncPort so the layers above can not tell the two
+ * apart: the leader of the current view accepts updates, every member delivers them in log order, the leader gets an
+ * OperationComplete when an update is committed and a Lease when it may serve reads locally.
+ *
+ * The leader is elected for a term by a majority of the configuration. Before a node increases its term it runs a
+ * pre-vote round, and members that have heard from a leader within the minimum election timeout ignore candidates,
+ * so a partitioned node that comes back does not disrupt a working leader. The same rule is what the read-lease is
+ * based on: once a majority has acknowledged a heartbeat sent at time t, no other leader can be elected before
+ * t + election.min.
+ *
+ * Views are entries in the log. A new leader appends a view entry with itself as leader and membership changes are
+ * view entries, one at a time, that take effect when they are appended. A View is emitted to the layers above when the
+ * view entry is applied and its id is the index of the entry. The log is compacted into a StateTransfer snapshot that
+ * is sent to members that are too far behind.
+ *
+ * The term and vote are kept in memory only, so a process must not rejoin the group under the same PID after a crash
+ * in the same term; the overlay gives a restarted server a new PID.
+ */
+public class RaftService extends ComponentDefinition {
+
+    /* Ports */
+    protected final Positive<Network> net = requires(Network.class);
+    protected final Positive<Timer> timer = requires(Timer.class);
+    protected final Negative<VSyncPort> vSyncPort = provides(VSyncPort.class);
+    /* Fields */
+    public static final String PROTOCOL = "raft";
+    private final static Logger LOG = LoggerFactory.getLogger(RaftService.class);
+    private final long electionMin = config().getValue("id2203.project.raft.election.min", Long.class);
+    private final long electionMax = config().getValue("id2203.project.raft.election.max", Long.class);
+    private final long heartbeat = config().getValue("id2203.project.raft.heartbeat", Long.class);
+    private final int maxEntries = config().getValue("id2203.project.raft.maxEntries", Integer.class);
+    private final int logCompaction = config().getValue("id2203.project.raft.logCompaction", Integer.class);
+    private final long memberTimeout = config().getValue("id2203.project.raft.memberTimeout", Long.class);
+    private final long leaseDrift = config().getValue("id2203.project.raft.lease.drift", Long.class);
+    private final int maxMembers = config().getValue("id2203.project.replicationDegree", Integer.class) * 2 - 1;
+    private final Random random = new Random();
+    private enum Role {
+        FOLLOWER, CANDIDATE, LEADER
+    }
+    private boolean initialized;
+    private PID selfPid;
+    private Role role = Role.FOLLOWER;
+    private long currentTerm;
+    private PID votedFor;
+    private PID leader;
+    private long lastLeaderContact;
+    private long electionDeadline;
+    private boolean preVoting;
+    private Set<PID> votes = new HashSet<>();
+    private RaftLog log;
+    private Set<PID> members;
+    private long commitIndex;
+    private long lastApplied;
+    /* Applied state */
+    private PersistentKeyValueMap appliedKeyValues;
+    private long appliedTimestamp;
+    private UUID appliedId;
+    private View currentView;
+    /* Leader state */
+    private long leaderViewIndex;
+    private Map<PID, Long> nextIndex = new HashMap<>();
+    private Map<PID, Long> matchIndex = new HashMap<>();
+    private Map<PID, Long> lastSent = new HashMap<>();
+    private Map<PID, Long> lastResponse = new HashMap<>();
+    private Map<PID, Long> leaseAcks = new HashMap<>();
+    private Set<UUID> proposed = new HashSet<>();
+    private Queue<PID> pendingJoins = new LinkedList<>();
+    private long leaseExpiry;
+
+    /**
+     * Initialize timer
+     */
+    protected final Handler<Start> startHandler = new Handler<Start>() {
+        @Override
+        public void handle(Start e) {
+            long tick = config().getValue("id2203.project.raft.tick", Long.class);
+            SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(tick, tick);
+            spt.setTimeoutEvent(new RaftTimeout(spt));
+            trigger(spt, timer);
+        }
+    };
+
+    /**
+     * Initialize the replicated log for a set of nodes, the initial state is the snapshot at index 0
+     */
+    protected final Handler<VSyncInit> vSyncInitHandler = new Handler<VSyncInit>() {
+        @Override
+        public void handle(VSyncInit vSyncInit) {
+            LOG.debug("RaftService initialized");
+            selfPid = vSyncInit.self;
+            role = Role.FOLLOWER;
+            currentTerm = 0;
+            votedFor = null;
+            leader = null;
+            lastLeaderContact = 0;
+            preVoting = false;
+            log = new RaftLog(vSyncInit.stateTransfer, ImmutableSet.copyOf(vSyncInit.nodes));
+            commitIndex = 0;
+            lastApplied = 0;
+            currentView = null;
+            restoreState(vSyncInit.stateTransfer);
+            updateConfiguration();
+            proposed = new HashSet<>();
+            pendingJoins = new LinkedList<>();
+            leaseExpiry = 0;
+            resetElectionTimer();
+            initialized = true;
+            trigger(new Block(), vSyncPort);
+        }
+    };
+
+    /**
+     * Periodic tick. The leader sends heartbeats, changes membership and renews its lease, the others start an
+     * election when they have not heard from a leader before their election timeout.
+     */
+    protected final Handler<RaftTimeout> timeoutHandler = new Handler<RaftTimeout>() {
+        @Override
+        public void handle(RaftTimeout event) {
+            if (!initialized)
+                return;
+            long now = System.currentTimeMillis();
+            if (role == Role.LEADER) {
+                for (PID member : members) {
+                    if (member.equals(selfPid))
+                        continue;
+                    if (now - lastResponse.get(member) >= heartbeat && matchIndex.get(member) < log.lastIndex())
+                        nextIndex.put(member, matchIndex.get(member) + 1); //Nothing came back, go back and resend
+                    if (now - lastSent.get(member) >= heartbeat)
+                        sendAppend(member, now);
+                }
+                changeMembership(now);
+                renewLease(now);
+            } else if (now >= electionDeadline && members.contains(selfPid)) {
+                startPreVote();
+            }
+        }
+    };
+
+    /**
+     * Received operation for the replication group from the KVLayer above, append it if we are the leader and our
+     * view entry is applied
+     */
+    protected final Handler<VS_Broadcast> broadcastHandler = new Handler<VS_Broadcast>() {
+        @Override
+        public void handle(VS_Broadcast vs_broadcast) {
+            if (!leaderReady()) {
+                LOG.debug("RaftService is not leader, dropping update");
+                return;
+            }
+            proposed.add(vs_broadcast.payload.id);
+            append(new RaftEntry(currentTerm, vs_broadcast.payload));
+            replicate(System.currentTimeMillis());
+        }
+    };
+
+    /**
+     * Someone wants to join and we are leader, add it to the configuration when the previous change is committed
+     */
+    protected final Handler<GMSJoin> gmsJoinHandler = new Handler<GMSJoin>() {
+        @Override
+        public void handle(GMSJoin gmsJoin) {
+            if (role != Role.LEADER) {
+                LOG.debug("RaftService is not leader, dropping join of {}", gmsJoin.node);
+                return;
+            }
+            pendingJoins.add(gmsJoin.node);
+            changeMembership(System.currentTimeMillis());
+        }
+    };
+
+    /**
+     * KVLayer confirmed our Block-request, nothing to do since the log decides what is committed
+     */
+    protected final Handler<BlockOk> blockOkHandler = new Handler<BlockOk>() {
+        @Override
+        public void handle(BlockOk blockOk) {
+            LOG.debug("Received BlockOK from KV-layer");
+        }
+    };
+
+    /**
+     * Received vote request. A pre-vote is granted without changing our state. Both are ignored while we have a
+     * leader that we heard from within the minimum election timeout.
+     */
+    protected final ClassMatchedHandler<RequestVote, Message> requestVoteHandler = new ClassMatchedHandler<RequestVote, Message>() {
+        @Override
+        public void handle(RequestVote requestVote, Message message) {
+            if (!initialized)
+                return;
+            boolean leaderAlive = role == Role.LEADER
+                    || (leader != null && System.currentTimeMillis() - lastLeaderContact < electionMin);
+            boolean upToDate = requestVote.lastLogTerm > log.lastTerm()
+                    || (requestVote.lastLogTerm == log.lastTerm() && requestVote.lastLogIndex >= log.lastIndex());
+            if (requestVote.preVote) {
+                boolean granted = requestVote.term > currentTerm && upToDate && !leaderAlive;
+                send(requestVote.candidate, new VoteResponse(granted ? requestVote.term : currentTerm, selfPid, granted, true));
+                return;
+            }
+            if (leaderAlive && !requestVote.candidate.equals(leader))
+                return;
+            if (requestVote.term > currentTerm)
+                becomeFollower(requestVote.term, null);
+            boolean granted = requestVote.term == currentTerm && upToDate
+                    && (votedFor == null || votedFor.equals(requestVote.candidate));
+            if (granted) {
+                votedFor = requestVote.candidate;
+                resetElectionTimer();
+            }
+            send(requestVote.candidate, new VoteResponse(currentTerm, selfPid, granted, false));
+        }
+    };
+
+    /**
+     * Received vote, a majority of pre-votes starts the real election and a majority of votes makes us leader
+     */
+    protected final ClassMatchedHandler<VoteResponse, Message> voteResponseHandler = new ClassMatchedHandler<VoteResponse, Message>() {
+        @Override
+        public void handle(VoteResponse response, Message message) {
+            if (!initialized)
+                return;
+            if (!response.granted) {
+                if (response.term > currentTerm)
+                    becomeFollower(response.term, null);
+                return;
+            }
+            if (response.preVote) {
+                if (preVoting && role != Role.LEADER && response.term == currentTerm + 1) {
+                    votes.add(response.voter);
+                    if (isMajority(votes))
+                        startElection();
+                }
+            } else if (role == Role.CANDIDATE && response.term == currentTerm) {
+                votes.add(response.voter);
+                if (isMajority(votes))
+                    becomeLeader();
+            }
+        }
+    };
+
+    /**
+     * Received entries or heartbeat from the leader. The entries are appended if our log matches the leader's at
+     * the previous index, conflicting entries are replaced. On mismatch we reply with the first index of the
+     * conflicting term so that the leader can skip back a whole term at a time, see RaftLog.appendEntries.
+     */
+    protected final ClassMatchedHandler<AppendEntries, Message> appendEntriesHandler = new ClassMatchedHandler<AppendEntries, Message>() {
+        @Override
+        public void handle(AppendEntries appendEntries, Message message) {
+            if (!initialized)
+                return;
+            if (appendEntries.term < currentTerm) {
+                send(appendEntries.leader, new AppendEntriesResponse(currentTerm, selfPid, false, 0, appendEntries.sendTime));
+                return;
+            }
+            followLeader(appendEntries.term, appendEntries.leader);
+            RaftLog.Match match = log.appendEntries(appendEntries.prevLogIndex, appendEntries.prevLogTerm, appendEntries.entries);
+            updateConfiguration();
+            if (match.success && appendEntries.leaderCommit > commitIndex) {
+                commitIndex = Math.max(commitIndex, Math.min(appendEntries.leaderCommit, match.index));
+                apply();
+            }
+            send(appendEntries.leader, new AppendEntriesResponse(currentTerm, selfPid, match.success, match.index, appendEntries.sendTime));
+        }
+    };
+
+    /**
+     * Received snapshot from the leader because the entries we lack are compacted away. The snapshot replaces the
+     * state and the log, unless our log already continues it.
+     */
+    protected final ClassMatchedHandler<InstallSnapshot, Message> installSnapshotHandler = new ClassMatchedHandler<InstallSnapshot, Message>() {
+        @Override
+        public void handle(InstallSnapshot installSnapshot, Message message) {
+            if (!initialized)
+                return;
+            if (installSnapshot.term < currentTerm) {
+                send(installSnapshot.leader, new AppendEntriesResponse(currentTerm, selfPid, false, 0, installSnapshot.sendTime));
+                return;
+            }
+            followLeader(installSnapshot.term, installSnapshot.leader);
+            if (installSnapshot.lastIncludedIndex > commitIndex) {
+                LOG.debug("Installing snapshot at index {}", installSnapshot.lastIncludedIndex);
+                log.installSnapshot(installSnapshot.lastIncludedIndex, installSnapshot.lastIncludedTerm,
+                        installSnapshot.state, installSnapshot.members, installSnapshot.view);
+                commitIndex = log.snapshotIndex();
+                lastApplied = log.snapshotIndex();
+                updateConfiguration();
+                restoreState(log.snapshotState());
+                View snapshotView = log.snapshotView();
+                PID source = snapshotView == null ? installSnapshot.leader : snapshotView.leader;
+                trigger(new VS_Deliver(appliedState(), source, viewId()), vSyncPort);
+                if (snapshotView != null) {
+                    currentView = snapshotView;
+                    trigger(currentView, vSyncPort);
+                }
+            }
+            send(installSnapshot.leader, new AppendEntriesResponse(currentTerm, selfPid, true, installSnapshot.lastIncludedIndex, installSnapshot.sendTime));
+        }
+    };
+
+    /**
+     * Received response from a member, advance its indexes and the commit index, or go back on mismatch
+     */
+    protected final ClassMatchedHandler<AppendEntriesResponse, Message> appendEntriesResponseHandler = new ClassMatchedHandler<AppendEntriesResponse, Message>() {
+        @Override
+        public void handle(AppendEntriesResponse response, Message message) {
+            if (!initialized)
+                return;
+            if (response.term > currentTerm) {
+                becomeFollower(response.term, null);
+                return;
+            }
+            PID member = response.source;
+            if (role != Role.LEADER || response.term != currentTerm || !nextIndex.containsKey(member))
+                return;
+            long now = System.currentTimeMillis();
+            lastResponse.put(member, now);
+            if (response.sendTime > leaseAcks.get(member))
+                leaseAcks.put(member, response.sendTime);
+            if (response.success) {
+                if (response.matchIndex > matchIndex.get(member))
+                    matchIndex.put(member, response.matchIndex);
+                if (nextIndex.get(member) <= matchIndex.get(member))
+                    nextIndex.put(member, matchIndex.get(member) + 1);
+                advanceCommitIndex();
+                if (role == Role.LEADER && nextIndex.containsKey(member) && nextIndex.get(member) <= log.lastIndex())
+                    sendAppend(member, now);
+            } else {
+                nextIndex.put(member, Math.max(matchIndex.get(member) + 1, Math.min(nextIndex.get(member), response.matchIndex)));
+                sendAppend(member, now);
+            }
+        }
+    };
+
+    /**
+     * Start a pre-vote round for the next term, our term is only increased if a majority would vote for us
+     */
+    private void startPreVote() {
+        resetElectionTimer();
+        preVoting = true;
+        votes = new HashSet<>();
+        votes.add(selfPid);
+        if (isMajority(votes)) {
+            startElection();
+            return;
+        }
+        LOG.debug("Election timeout, starting pre-vote for term {}", currentTerm + 1);
+        for (PID member : members) {
+            if (!member.equals(selfPid))
+                send(member, new RequestVote(currentTerm + 1, selfPid, log.lastIndex(), log.lastTerm(), true));
+        }
+    }
+
+    /**
+     * Increase term and ask the configuration for votes
+     */
+    private void startElection() {
+        preVoting = false;
+        role = Role.CANDIDATE;
+        currentTerm++;
+        votedFor = selfPid;
+        leader = null;
+        votes = new HashSet<>();
+        votes.add(selfPid);
+        resetElectionTimer();
+        if (isMajority(votes)) {
+            becomeLeader();
+            return;
+        }
+        LOG.debug("Starting election for term {}", currentTerm);
+        for (PID member : members) {
+            if (!member.equals(selfPid))
+                send(member, new RequestVote(currentTerm, selfPid, log.lastIndex(), log.lastTerm(), false));
+        }
+    }
+
+    /**
+     * Elected, append a view entry with us as leader. Updates are accepted once it is applied since every entry of
+     * previous terms is then applied as well.
+     */
+    private void becomeLeader() {
+        LOG.debug("Elected leader for term {}", currentTerm);
+        long now = System.currentTimeMillis();
+        role = Role.LEADER;
+        leader = selfPid;
+        preVoting = false;
+        nextIndex = new HashMap<>();
+        matchIndex = new HashMap<>();
+        lastSent = new HashMap<>();
+        lastResponse = new HashMap<>();
+        leaseAcks = new HashMap<>();
+        pendingJoins = new LinkedList<>();
+        leaseExpiry = 0;
+        append(new RaftEntry(currentTerm, ImmutableSet.copyOf(members), selfPid));
+        leaderViewIndex = log.lastIndex();
+        replicate(now);
+    }
+
+    /**
+     * Accept the leader of a term, stepping down if we were leader or candidate
+     */
+    private void followLeader(long term, PID leaderPid) {
+        if (term > currentTerm || role != Role.FOLLOWER || !leaderPid.equals(leader))
+            becomeFollower(term, leaderPid);
+        lastLeaderContact = System.currentTimeMillis();
+        resetElectionTimer();
+    }
+
+    /**
+     * Become follower in a term. A leader that steps down blocks the KV-layer and hands it the applied state, since
+     * the updates that it applied speculatively may never be committed.
+     */
+    private void becomeFollower(long term, PID leaderPid) {
+        boolean wasLeader = role == Role.LEADER;
+        if (term > currentTerm) {
+            currentTerm = term;
+            votedFor = null;
+        }
+        role = Role.FOLLOWER;
+        preVoting = false;
+        leader = leaderPid;
+        if (wasLeader) {
+            LOG.debug("Stepping down as leader in term {}", currentTerm);
+            leaseExpiry = 0;
+            pendingJoins = new LinkedList<>();
+            proposed = new HashSet<>();
+            trigger(new Block(), vSyncPort);
+            trigger(new VS_Deliver(appliedState(), selfPid, viewId()), vSyncPort);
+        }
+    }
+
+    /**
+     * Send the entries from the member's next index, or the snapshot if they are compacted away, and advance the
+     * next index optimistically so that the following entries are pipelined
+     */
+    private void sendAppend(PID member, long now) {
+        long next = nextIndex.get(member);
+        lastSent.put(member, now);
+        if (next <= log.snapshotIndex()) {
+            LOG.debug("Sending snapshot at index {} to {}", log.snapshotIndex(), member);
+            send(member, new InstallSnapshot(currentTerm, selfPid, log.snapshotIndex(), log.snapshotTerm(),
+                    log.snapshotState(), log.snapshotMembers(), log.snapshotView(), now));
+            nextIndex.put(member, log.snapshotIndex() + 1);
+            return;
+        }
+        long last = Math.min(log.lastIndex(), next + maxEntries - 1);
+        send(member, new AppendEntries(currentTerm, selfPid, next - 1, log.termAt(next - 1), log.entries(next, last),
+                commitIndex, now));
+        nextIndex.put(member, last + 1);
+    }
+
+    /**
+     * Send new entries to the members that are not waiting for earlier ones
+     */
+    private void replicate(long now) {
+        for (PID member : members) {
+            if (!member.equals(selfPid) && nextIndex.get(member) <= log.lastIndex())
+                sendAppend(member, now);
+        }
+        advanceCommitIndex();
+    }
+
+    /**
+     * An entry of the current term is committed when a majority of the configuration has it, the entries before it
+     * are committed with it
+     */
+    private void advanceCommitIndex() {
+        if (role != Role.LEADER)
+            return;
+        for (long index = log.lastIndex(); index > commitIndex && log.termAt(index) == currentTerm; index--) {
+            int replicas = 0;
+            for (PID member : members) {
+                if (member.equals(selfPid) || matchIndex.get(member) >= index)
+                    replicas++;
+            }
+            if (replicas > members.size() / 2) {
+                commitIndex = index;
+                apply();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply committed entries in log order and compact the log when it has grown beyond logCompaction entries
+     */
+    private void apply() {
+        while (lastApplied < commitIndex) {
+            lastApplied++;
+            RaftEntry entry = log.entry(lastApplied);
+            if (entry.isView()) {
+                currentView = new View(entry.members, lastApplied, entry.leader);
+                LOG.debug("Applied view {}", currentView);
+                trigger(currentView, vSyncPort);
+            } else {
+                deliver(entry.update);
+            }
+        }
+        if (lastApplied - log.snapshotIndex() >= logCompaction) {
+            LOG.debug("Compacting log up to index {}", lastApplied);
+            log.compact(lastApplied, appliedState(), currentView);
+        }
+    }
+
+    /**
+     * Deliver committed update to the layers above, the entries of a LogBatch one by one. The leader also
+     * completes its own proposals.
+     */
+    private void deliver(Update update) {
+        PID source = currentView == null ? leader : currentView.leader;
+        if (update instanceof LogBatch) {
+            for (LogEntry entry : ((LogBatch) update).entries) {
+                applyToState(entry);
+                trigger(new VS_Deliver(entry, source, viewId()), vSyncPort);
+            }
+        } else {
+            applyToState(update);
+            trigger(new VS_Deliver(update, source, viewId()), vSyncPort);
+        }
+        if (proposed.remove(update.id))
+            trigger(new VS_Deliver(new OperationComplete(update.id), selfPid, viewId()), vSyncPort);
+    }
+
+    private void applyToState(Update update) {
+        if (update instanceof StateTransfer) {
+            restoreState((StateTransfer) update);
+        } else {
+            appliedKeyValues = ((LogEntry) update).applyTo(appliedKeyValues);
+            appliedTimestamp = update.timestamp;
+            appliedId = update.id;
+        }
+    }
+
+    private void restoreState(StateTransfer stateTransfer) {
+        appliedKeyValues = stateTransfer == null ? PersistentKeyValueMap.empty()
+                : PersistentKeyValueMap.copyOf(stateTransfer.keyValues);
+        appliedTimestamp = stateTransfer == null ? 0 : stateTransfer.timestamp;
+        appliedId = stateTransfer == null ? null : stateTransfer.id;
+    }
+
+    private StateTransfer appliedState() {
+        if (appliedId == null)
+            return new StateTransfer(appliedKeyValues, appliedTimestamp);
+        return new StateTransfer(appliedKeyValues, appliedTimestamp, appliedId);
+    }
+
+    /**
+     * Add a joining node or remove a member that has stopped responding. Only one change is in the log
+     * uncommitted at a time so that the old and new configuration always share a majority.
+     */
+    private void changeMembership(long now) {
+        if (!leaderReady() || log.configIndex() > commitIndex)
+            return;
+        while (!pendingJoins.isEmpty()) {
+            PID node = pendingJoins.remove();
+            if (!members.contains(node) && members.size() < maxMembers) {
+                LOG.debug("Adding {} to the configuration", node);
+                Set<PID> newMembers = new HashSet<>(members);
+                newMembers.add(node);
+                append(new RaftEntry(currentTerm, ImmutableSet.copyOf(newMembers), selfPid));
+                replicate(now);
+                return;
+            }
+        }
+        for (PID member : members) {
+            if (!member.equals(selfPid) && now - lastResponse.get(member) > memberTimeout) {
+                LOG.debug("No response from {}, removing it from the configuration", member);
+                Set<PID> newMembers = new HashSet<>(members);
+                newMembers.remove(member);
+                append(new RaftEntry(currentTerm, ImmutableSet.copyOf(newMembers), selfPid));
+                replicate(now);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Renew the read-lease from the heartbeat send times that a majority has acknowledged
+     */
+    private void renewLease(long now) {
+        if (!leaderReady())
+            return;
+        List<Long> acks = new ArrayList<>();
+        for (PID member : members) {
+            acks.add(member.equals(selfPid) ? now : leaseAcks.get(member));
+        }
+        Collections.sort(acks, Collections.reverseOrder());
+        long expiry = acks.get(members.size() / 2) + electionMin - leaseDrift;
+        if (expiry > leaseExpiry && expiry > now) {
+            leaseExpiry = expiry;
+            trigger(new Lease(viewId(), expiry), vSyncPort);
+        }
+    }
+
+    /**
+     * Append entry to the log, a view entry changes the configuration immediately
+     */
+    private void append(RaftEntry entry) {
+        log.append(entry);
+        if (entry.isView())
+            updateConfiguration();
+    }
+
+    /**
+     * The configuration is the latest view entry in the log whether it is committed or not, as leader start tracking
+     * the members that are new to it
+     */
+    private void updateConfiguration() {
+        members = log.members();
+        if (role == Role.LEADER) {
+            long now = System.currentTimeMillis();
+            for (PID member : members) {
+                if (!nextIndex.containsKey(member)) {
+                    nextIndex.put(member, log.lastIndex() + 1);
+                    matchIndex.put(member, 0L);
+                    lastSent.put(member, 0L);
+                    lastResponse.put(member, now);
+                    leaseAcks.put(member, 0L);
+                }
+            }
+        }
+    }
+
+    private boolean leaderReady() {
+        return role == Role.LEADER && lastApplied >= leaderViewIndex;
+    }
+
+    private boolean isMajority(Set<PID> nodes) {
+        int count = 0;
+        for (PID member : members) {
+            if (nodes.contains(member))
+                count++;
+        }
+        return count > members.size() / 2;
+    }
+
+    private void resetElectionTimer() {
+        electionDeadline = System.currentTimeMillis() + electionMin + random.nextInt((int) (electionMax - electionMin + 1));
+    }
+
+    private void send(PID destination, KompicsEvent event) {
+        trigger(new Message(selfPid.netAddress, destination.netAddress, event), net);
+    }
+
+    private long viewId() {
+        return currentView == null ? 0 : currentView.id;
+    }
+
+    {
+        subscribe(startHandler, control);
+        subscribe(timeoutHandler, timer);
+        subscribe(vSyncInitHandler, vSyncPort);
+        subscribe(broadcastHandler, vSyncPort);
+        subscribe(gmsJoinHandler, vSyncPort);
+        subscribe(blockOkHandler, vSyncPort);
+        subscribe(requestVoteHandler, net);
+        subscribe(voteResponseHandler, net);
+        subscribe(appendEntriesHandler, net);
+        subscribe(installSnapshotHandler, net);
+        subscribe(appendEntriesResponseHandler, net);
+    }
+
+}
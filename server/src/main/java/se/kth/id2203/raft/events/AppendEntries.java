@@ -0,0 +1,32 @@
+package se.kth.id2203.raft.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Log entries (or an empty heartbeat) from the leader. The send time is echoed in the response so that the leader
+ * knows since when a member has accepted it as leader, which is what its read-lease is based on.
+ */
+public class AppendEntries implements KompicsEvent, Serializable {
+    public final long term;
+    public final PID leader;
+    public final long prevLogIndex;
+    public final long prevLogTerm;
+    public final List<RaftEntry> entries;
+    public final long leaderCommit;
+    public final long sendTime;
+
+    public AppendEntries(long term, PID leader, long prevLogIndex, long prevLogTerm, List<RaftEntry> entries,
+                         long leaderCommit, long sendTime) {
+        this.term = term;
+        this.leader = leader;
+        this.prevLogIndex = prevLogIndex;
+        this.prevLogTerm = prevLogTerm;
+        this.entries = entries;
+        this.leaderCommit = leaderCommit;
+        this.sendTime = sendTime;
+    }
+}
@@ -0,0 +1,26 @@
+package se.kth.id2203.raft.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+
+/**
+ * Response to AppendEntries and InstallSnapshot. On success matchIndex is the last index the member has in common
+ * with the leader, otherwise it is the index the leader should continue from.
+ */
+public class AppendEntriesResponse implements KompicsEvent, Serializable {
+    public final long term;
+    public final PID source;
+    public final boolean success;
+    public final long matchIndex;
+    public final long sendTime;
+
+    public AppendEntriesResponse(long term, PID source, boolean success, long matchIndex, long sendTime) {
+        this.term = term;
+        this.source = source;
+        this.success = success;
+        this.matchIndex = matchIndex;
+        this.sendTime = sendTime;
+    }
+}
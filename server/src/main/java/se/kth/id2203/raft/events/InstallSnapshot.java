@@ -0,0 +1,35 @@
+package se.kth.id2203.raft.events;
+
+import se.kth.id2203.gms.events.View;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.vsync.events.StateTransfer;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * Snapshot of the compacted prefix of the log, sent by the leader to members that are behind it.
+ */
+public class InstallSnapshot implements KompicsEvent, Serializable {
+    public final long term;
+    public final PID leader;
+    public final long lastIncludedIndex;
+    public final long lastIncludedTerm;
+    public final StateTransfer state;
+    public final Set<PID> members;
+    public final View view;
+    public final long sendTime;
+
+    public InstallSnapshot(long term, PID leader, long lastIncludedIndex, long lastIncludedTerm, StateTransfer state,
+                           Set<PID> members, View view, long sendTime) {
+        this.term = term;
+        this.leader = leader;
+        this.lastIncludedIndex = lastIncludedIndex;
+        this.lastIncludedTerm = lastIncludedTerm;
+        this.state = state;
+        this.members = members;
+        this.view = view;
+        this.sendTime = sendTime;
+    }
+}
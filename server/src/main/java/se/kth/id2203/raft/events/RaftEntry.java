@@ -0,0 +1,45 @@
+package se.kth.id2203.raft.events;
+
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.vsync.events.Update;
+
+import java.io.Serializable;
+import java.util.Set;
+
+/**
+ * Entry in the Raft log. An entry either carries an Update from the KV-layer or a view, i.e the members and leader
+ * of the group. A leader appends a view entry when it is elected and when the membership changes, the members of the
+ * latest view entry in the log are the configuration that votes and commits.
+ */
+public class RaftEntry implements Serializable {
+    public final long term;
+    public final Update update;
+    public final Set<PID> members;
+    public final PID leader;
+
+    public RaftEntry(long term, Update update) {
+        this.term = term;
+        this.update = update;
+        this.members = null;
+        this.leader = null;
+    }
+
+    public RaftEntry(long term, Set<PID> members, PID leader) {
+        this.term = term;
+        this.update = null;
+        this.members = members;
+        this.leader = leader;
+    }
+
+    public boolean isView() {
+        return members != null;
+    }
+
+    @Override
+    public String toString() {
+        return "RaftEntry{" +
+                "term=" + term +
+                (isView() ? ", members=" + members + ", leader=" + leader : ", update=" + update) +
+                '}';
+    }
+}
@@ -0,0 +1,26 @@
+package se.kth.id2203.raft.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+
+/**
+ * Vote request from a candidate. A pre-vote asks whether the member would vote for the candidate in the next term
+ * without making anyone change term, so a member that can not win does not disrupt the group.
+ */
+public class RequestVote implements KompicsEvent, Serializable {
+    public final long term;
+    public final PID candidate;
+    public final long lastLogIndex;
+    public final long lastLogTerm;
+    public final boolean preVote;
+
+    public RequestVote(long term, PID candidate, long lastLogIndex, long lastLogTerm, boolean preVote) {
+        this.term = term;
+        this.candidate = candidate;
+        this.lastLogIndex = lastLogIndex;
+        this.lastLogTerm = lastLogTerm;
+        this.preVote = preVote;
+    }
+}
@@ -0,0 +1,20 @@
+package se.kth.id2203.raft.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+
+public class VoteResponse implements KompicsEvent, Serializable {
+    public final long term;
+    public final PID voter;
+    public final boolean granted;
+    public final boolean preVote;
+
+    public VoteResponse(long term, PID voter, boolean granted, boolean preVote) {
+        this.term = term;
+        this.voter = voter;
+        this.granted = granted;
+        this.preVote = preVote;
+    }
+}
@@ -0,0 +1,12 @@
+package se.kth.id2203.raft.timeout;
+
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class RaftTimeout extends Timeout {
+
+	public RaftTimeout(SchedulePeriodicTimeout request) {
+		super(request);
+	}
+
+}
@@ -0,0 +1,97 @@
+package se.kth.id2203.swim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffer of updates that are piggybacked on outgoing messages, infection-style. Every update is sent
+ * retransmitMultiplier * ceil(log10(n + 1)) times in a group of n members and then dropped, which is enough for it to
+ * reach all members with high probability. Updates that have been sent the fewest times go first, so fresh updates
+ * spread fast even when the buffer holds more than fits in a message.
+ *
+ * @param <K> key of an update, a newer update replaces the buffered update with the same key
+ * @param <V> update type
+ */
+public class DisseminationBuffer<K, V> {
+
+    private final int retransmitMultiplier;
+    private final Map<K, Entry<V>> entries = new LinkedHashMap<>();
+    private long added = 0;
+
+    /**
+     * @param retransmitMultiplier number of transmissions of an update per order of magnitude of the group size
+     */
+    public DisseminationBuffer(int retransmitMultiplier) {
+        this.retransmitMultiplier = retransmitMultiplier;
+    }
+
+    /**
+     * Add update, replacing the buffered update with the same key
+     *
+     * @param key    key
+     * @param update update
+     */
+    public void add(K key, V update) {
+        entries.put(key, new Entry<>(update, added++));
+    }
+
+    /**
+     * Select the updates to piggyback on a message
+     *
+     * @param max       maximum number of updates in a message
+     * @param groupSize number of members in the group
+     * @return updates, the least transmitted ones first
+     */
+    public List<V> piggyback(int max, int groupSize) {
+        List<V> updates = new ArrayList<>();
+        if (entries.isEmpty() || max <= 0)
+            return updates;
+        List<Map.Entry<K, Entry<V>>> sorted = new ArrayList<>(entries.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<K, Entry<V>>>() {
+            @Override
+            public int compare(Map.Entry<K, Entry<V>> e1, Map.Entry<K, Entry<V>> e2) {
+                int c = Integer.compare(e1.getValue().transmissions, e2.getValue().transmissions);
+                return c != 0 ? c : Long.compare(e1.getValue().order, e2.getValue().order);
+            }
+        });
+        int limit = retransmitLimit(groupSize);
+        for (Map.Entry<K, Entry<V>> e : sorted.subList(0, Math.min(max, sorted.size()))) {
+            Entry<V> entry = e.getValue();
+            updates.add(entry.update);
+            entry.transmissions++;
+            if (entry.transmissions >= limit)
+                entries.remove(e.getKey());
+        }
+        return updates;
+    }
+
+    /**
+     * @param groupSize number of members in the group
+     * @return number of times each update is sent
+     */
+    public int retransmitLimit(int groupSize) {
+        return retransmitMultiplier * Math.max(1, (int) Math.ceil(Math.log10(groupSize + 1)));
+    }
+
+    /**
+     * @return number of buffered updates
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry<V> {
+        private final V update;
+        private final long order;
+        private int transmissions;
+
+        Entry(V update, long order) {
+            this.update = update;
+            this.order = order;
+        }
+    }
+}
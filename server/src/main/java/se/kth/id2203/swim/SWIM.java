@@ -0,0 +1,331 @@
+package se.kth.id2203.swim;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.networking.UDPMessage;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.swim.events.*;
+import se.kth.id2203.swim.events.MemberUpdate.Status;
+import se.kth.id2203.swim.ports.SWIMPort;
+import se.kth.id2203.swim.timeout.ProbeTimeout;
+import se.kth.id2203.swim.timeout.SWIMTimeout;
+import se.sics.kompics.*;
+import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.CancelPeriodicTimeout;
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timer;
+
+import java.util.*;
+
+/**
+ * SWIM membership protocol (Das et al.), failure detection and dissemination with constant load per member.
+ *
+ * Every protocol period one member is probed with a Ping, members are probed round-robin in an order that is
+ * shuffled every round so that every failure is detected within a bounded time. If the Ping is not acknowledged
+ * within the ack timeout, k other members are asked to probe it with a PingReq. A member that is not acknowledged
+ * directly or indirectly by the end of the period is suspected and confirmed failed if it does not refute the
+ * suspicion within suspicionMultiplier * ceil(log10(n + 1)) periods.
+ *
+ * Member updates and rumors of the user are not broadcast, they are piggybacked on the probe messages and spread
+ * infection-style.
+ */
+public class SWIM extends ComponentDefinition {
+
+    /* Ports */
+    protected final Negative<SWIMPort> swimPort = provides(SWIMPort.class);
+    protected final Positive<Network> net = requires(Network.class);
+    protected final Positive<Timer> timer = requires(Timer.class);
+    /* Fields */
+    final static Logger LOG = LoggerFactory.getLogger(SWIM.class);
+    private final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
+    private final long period = config().getValue("id2203.project.swim.period", Long.class);
+    private final long ackTimeout = config().getValue("id2203.project.swim.ackTimeout", Long.class);
+    private final int indirectProbes = config().getValue("id2203.project.swim.indirectProbes", Integer.class);
+    private final int suspicionMultiplier = config().getValue("id2203.project.swim.suspicionMultiplier", Integer.class);
+    private final int maxPiggyback = config().getValue("id2203.project.swim.maxPiggyback", Integer.class);
+    private final DisseminationBuffer<Object, KompicsEvent> buffer = new DisseminationBuffer<>(
+            config().getValue("id2203.project.swim.retransmitMultiplier", Integer.class));
+    private final Random random = new Random();
+    private PID selfPid;
+    private long incarnation = 0;
+    private Map<PID, MemberUpdate> members = new HashMap<>();
+    private final Map<PID, Long> suspectedAt = new HashMap<>();
+    private final Map<UUID, Long> seenRumors = new HashMap<>();
+    private final Map<Long, Relay> relays = new HashMap<>();
+    private List<PID> probeOrder = new ArrayList<>();
+    private int probeIndex = 0;
+    private PID probeTarget;
+    private long probeSeq = -1;
+    private boolean probeAcked;
+    private long seq = 0;
+    private long tick = 0;
+    private UUID timeoutId;
+
+    /**
+     * Setup timer
+     */
+    protected final Handler<Start> startHandler = new Handler<Start>() {
+        @Override
+        public void handle(Start e) {
+            LOG.info("Starting SWIM with protocol period {}", period);
+            SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(period, period);
+            spt.setTimeoutEvent(new SWIMTimeout(spt));
+            trigger(spt, timer);
+            timeoutId = spt.getTimeoutEvent().getTimeoutId();
+        }
+    };
+
+    /**
+     * New set of members
+     */
+    protected final Handler<SWIMInit> initHandler = new Handler<SWIMInit>() {
+        @Override
+        public void handle(SWIMInit init) {
+            selfPid = init.self;
+            Map<PID, MemberUpdate> updated = new HashMap<>();
+            for (PID node : init.members) {
+                if (node.equals(selfPid))
+                    continue;
+                MemberUpdate known = members.get(node);
+                updated.put(node, known != null ? known : new MemberUpdate(node, Status.ALIVE, 0));
+            }
+            members = updated;
+            suspectedAt.keySet().retainAll(members.keySet());
+            LOG.debug("SWIM members updated, {} members", members.size());
+        }
+    };
+
+    /**
+     * Spread payload to all members
+     */
+    protected final Handler<Disseminate> disseminateHandler = new Handler<Disseminate>() {
+        @Override
+        public void handle(Disseminate disseminate) {
+            if (selfPid == null)
+                return;
+            Rumor rumor = new Rumor(UUID.randomUUID(), selfPid, disseminate.payload);
+            seenRumors.put(rumor.id, tick);
+            buffer.add(rumor.id, rumor);
+        }
+    };
+
+    /**
+     * New protocol period. Suspect the target of the last period if it was not acknowledged, confirm suspicions
+     * that timed out and probe the next member.
+     */
+    protected final Handler<SWIMTimeout> timeoutHandler = new Handler<SWIMTimeout>() {
+        @Override
+        public void handle(SWIMTimeout event) {
+            if (selfPid == null)
+                return;
+            tick++;
+            if (probeTarget != null && !probeAcked) {
+                MemberUpdate current = members.get(probeTarget);
+                if (current != null && current.status == Status.ALIVE) {
+                    LOG.debug("SWIM: {} did not respond to probes, suspecting it", probeTarget);
+                    apply(new MemberUpdate(probeTarget, Status.SUSPECT, current.incarnation));
+                }
+            }
+            long suspicionPeriods = suspicionMultiplier * Math.max(1, (long) Math.ceil(Math.log10(members.size() + 2)));
+            for (Map.Entry<PID, Long> suspect : new ArrayList<>(suspectedAt.entrySet())) {
+                if (tick - suspect.getValue() >= suspicionPeriods) {
+                    LOG.info("SWIM: confirming failure of {}", suspect.getKey());
+                    apply(new MemberUpdate(suspect.getKey(), Status.CONFIRM, members.get(suspect.getKey()).incarnation));
+                }
+            }
+            expire();
+            probe();
+        }
+    };
+
+    /**
+     * Direct probe not acknowledged in time, ask k random members to probe the target
+     */
+    protected final Handler<ProbeTimeout> probeTimeoutHandler = new Handler<ProbeTimeout>() {
+        @Override
+        public void handle(ProbeTimeout event) {
+            if (event.seq != probeSeq || probeAcked)
+                return;
+            List<PID> candidates = new ArrayList<>();
+            for (MemberUpdate member : members.values()) {
+                if (member.status == Status.ALIVE && !member.node.equals(probeTarget))
+                    candidates.add(member.node);
+            }
+            Collections.shuffle(candidates, random);
+            for (PID node : candidates.subList(0, Math.min(indirectProbes, candidates.size()))) {
+                send(node.netAddress, new PingReq(probeSeq, probeTarget, piggyback()));
+            }
+        }
+    };
+
+    /**
+     * Probed, acknowledge
+     */
+    protected final ClassMatchedHandler<Ping, UDPMessage> pingHandler = new ClassMatchedHandler<Ping, UDPMessage>() {
+        @Override
+        public void handle(Ping ping, UDPMessage msg) {
+            receive(ping.updates);
+            send(msg.getSource(), new Ack(ping.seq, piggyback()));
+        }
+    };
+
+    /**
+     * Probe target on behalf of the sender
+     */
+    protected final ClassMatchedHandler<PingReq, UDPMessage> pingReqHandler = new ClassMatchedHandler<PingReq, UDPMessage>() {
+        @Override
+        public void handle(PingReq pingReq, UDPMessage msg) {
+            receive(pingReq.updates);
+            long relaySeq = ++seq;
+            relays.put(relaySeq, new Relay(msg.getSource(), pingReq.seq, tick));
+            send(pingReq.target.netAddress, new Ping(relaySeq, piggyback()));
+        }
+    };
+
+    /**
+     * Probe acknowledged, forward the ack if we probed on behalf of someone else
+     */
+    protected final ClassMatchedHandler<Ack, UDPMessage> ackHandler = new ClassMatchedHandler<Ack, UDPMessage>() {
+        @Override
+        public void handle(Ack ack, UDPMessage msg) {
+            receive(ack.updates);
+            Relay relay = relays.remove(ack.seq);
+            if (relay != null)
+                send(relay.requester, new Ack(relay.seq, piggyback()));
+            else if (ack.seq == probeSeq)
+                probeAcked = true;
+        }
+    };
+
+    private void probe() {
+        probeTarget = nextTarget();
+        if (probeTarget == null)
+            return;
+        probeSeq = ++seq;
+        probeAcked = false;
+        send(probeTarget.netAddress, new Ping(probeSeq, piggyback()));
+        ScheduleTimeout st = new ScheduleTimeout(ackTimeout);
+        st.setTimeoutEvent(new ProbeTimeout(st, probeSeq));
+        trigger(st, timer);
+    }
+
+    /**
+     * Round-robin over the members that are not confirmed failed, in a new random order every round
+     */
+    private PID nextTarget() {
+        boolean shuffled = false;
+        while (true) {
+            if (probeIndex >= probeOrder.size()) {
+                if (shuffled)
+                    return null;
+                probeOrder = new ArrayList<>(members.keySet());
+                Collections.shuffle(probeOrder, random);
+                probeIndex = 0;
+                shuffled = true;
+            }
+            PID node = probeOrder.get(probeIndex++);
+            MemberUpdate member = members.get(node);
+            if (member != null && member.status != Status.CONFIRM)
+                return node;
+        }
+    }
+
+    private void receive(List<KompicsEvent> updates) {
+        for (KompicsEvent update : updates) {
+            if (update instanceof MemberUpdate) {
+                apply((MemberUpdate) update);
+            } else if (update instanceof Rumor) {
+                Rumor rumor = (Rumor) update;
+                if (seenRumors.containsKey(rumor.id) || selfPid == null)
+                    continue;
+                seenRumors.put(rumor.id, tick);
+                buffer.add(rumor.id, rumor);
+                trigger(rumor, swimPort);
+            }
+        }
+    }
+
+    /**
+     * Apply member update if it overrides what we know, refute suspicions of ourselves
+     */
+    private void apply(MemberUpdate update) {
+        if (selfPid == null)
+            return;
+        if (update.node.equals(selfPid)) {
+            if (update.status == Status.SUSPECT && update.incarnation >= incarnation) {
+                incarnation = update.incarnation + 1;
+                LOG.debug("SWIM: refuting suspicion, new incarnation {}", incarnation);
+                buffer.add(selfPid, new MemberUpdate(selfPid, Status.ALIVE, incarnation));
+            } else if (update.status == Status.CONFIRM) {
+                LOG.warn("SWIM: other members confirmed our failure");
+            }
+            return;
+        }
+        MemberUpdate current = members.get(update.node);
+        if (current == null || !update.overrides(current))
+            return;
+        members.put(update.node, update);
+        buffer.add(update.node, update);
+        if (update.status == Status.SUSPECT)
+            suspectedAt.put(update.node, tick);
+        else
+            suspectedAt.remove(update.node);
+        trigger(update, swimPort);
+    }
+
+    /**
+     * Forget rumors and relayed probes that can no longer arrive. A member stops piggybacking a rumor after the
+     * retransmit limit which it reaches within as many periods, so after a few times that no copies are left.
+     */
+    private void expire() {
+        long rumorPeriods = 3L * buffer.retransmitLimit(members.size() + 1);
+        Iterator<Long> rumors = seenRumors.values().iterator();
+        while (rumors.hasNext()) {
+            if (tick - rumors.next() > rumorPeriods)
+                rumors.remove();
+        }
+        Iterator<Relay> relayIterator = relays.values().iterator();
+        while (relayIterator.hasNext()) {
+            if (relayIterator.next().tick < tick - 1)
+                relayIterator.remove();
+        }
+    }
+
+    private List<KompicsEvent> piggyback() {
+        return buffer.piggyback(maxPiggyback, members.size() + 1);
+    }
+
+    private void send(NetAddress destination, SWIMMessage msg) {
+        trigger(new UDPMessage(self, destination, msg), net);
+    }
+
+    @Override
+    public void tearDown() {
+        trigger(new CancelPeriodicTimeout(timeoutId), timer);
+    }
+
+    private static class Relay {
+        private final NetAddress requester;
+        private final long seq;
+        private final long tick;
+
+        Relay(NetAddress requester, long seq, long tick) {
+            this.requester = requester;
+            this.seq = seq;
+            this.tick = tick;
+        }
+    }
+
+    {
+        subscribe(startHandler, control);
+        subscribe(initHandler, swimPort);
+        subscribe(disseminateHandler, swimPort);
+        subscribe(timeoutHandler, timer);
+        subscribe(probeTimeoutHandler, timer);
+        subscribe(pingHandler, net);
+        subscribe(pingReqHandler, net);
+        subscribe(ackHandler, net);
+    }
+}
@@ -0,0 +1,123 @@
+package se.kth.id2203.swim;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.swim.events.*;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static se.kth.id2203.networking.NetSerializer.*;
+
+/**
+ * Compact binary serializer for the SWIM protocol messages and the updates piggybacked on them
+ */
+public class SWIMSerializer implements Serializer {
+
+    public static final String NAME = "swimS";
+    private static final byte PING = 1;
+    private static final byte PING_REQ = 2;
+    private static final byte ACK = 3;
+    private static final byte MEMBER_UPDATE = 4;
+    private static final byte RUMOR = 5;
+
+    /**
+     * Register the serializer and the classes it serializes
+     */
+    public static void register() {
+        Serializers.register(new SWIMSerializer(), NAME);
+        Serializers.register(Ping.class, NAME);
+        Serializers.register(PingReq.class, NAME);
+        Serializers.register(Ack.class, NAME);
+        Serializers.register(MemberUpdate.class, NAME);
+        Serializers.register(Rumor.class, NAME);
+    }
+
+    @Override
+    public int identifier() {
+        return 104;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+        if (o instanceof Ping) {
+            buf.writeByte(PING);
+            writeMessage(buf, (SWIMMessage) o);
+        } else if (o instanceof PingReq) {
+            buf.writeByte(PING_REQ);
+            writePID(buf, ((PingReq) o).target);
+            writeMessage(buf, (SWIMMessage) o);
+        } else if (o instanceof Ack) {
+            buf.writeByte(ACK);
+            writeMessage(buf, (SWIMMessage) o);
+        } else if (o instanceof MemberUpdate) {
+            MemberUpdate update = (MemberUpdate) o;
+            buf.writeByte(MEMBER_UPDATE);
+            writePID(buf, update.node);
+            buf.writeByte(update.status.ordinal());
+            buf.writeLong(update.incarnation);
+        } else if (o instanceof Rumor) {
+            Rumor rumor = (Rumor) o;
+            buf.writeByte(RUMOR);
+            writeId(buf, rumor.id);
+            writePID(buf, rumor.origin);
+            Serializers.toBinary(rumor.payload, buf);
+        } else {
+            throw new IllegalArgumentException("SWIMSerializer can not serialize " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+        byte type = buf.readByte();
+        switch (type) {
+            case PING: {
+                long seq = buf.readLong();
+                return new Ping(seq, readUpdates(buf));
+            }
+            case PING_REQ: {
+                PID target = readPID(buf);
+                long seq = buf.readLong();
+                return new PingReq(seq, target, readUpdates(buf));
+            }
+            case ACK: {
+                long seq = buf.readLong();
+                return new Ack(seq, readUpdates(buf));
+            }
+            case MEMBER_UPDATE: {
+                PID node = readPID(buf);
+                MemberUpdate.Status status = MemberUpdate.Status.values()[buf.readByte()];
+                return new MemberUpdate(node, status, buf.readLong());
+            }
+            case RUMOR: {
+                UUID id = readId(buf);
+                PID origin = readPID(buf);
+                return new Rumor(id, origin, (KompicsEvent) Serializers.fromBinary(buf, Optional.absent()));
+            }
+            default:
+                throw new IllegalArgumentException("SWIMSerializer got unknown type " + type);
+        }
+    }
+
+    private static void writeMessage(ByteBuf buf, SWIMMessage message) {
+        buf.writeLong(message.seq);
+        buf.writeInt(message.updates.size());
+        for (KompicsEvent update : message.updates) {
+            Serializers.toBinary(update, buf);
+        }
+    }
+
+    private static List<KompicsEvent> readUpdates(ByteBuf buf) {
+        int size = buf.readInt();
+        List<KompicsEvent> updates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            updates.add((KompicsEvent) Serializers.fromBinary(buf, Optional.absent()));
+        }
+        return updates;
+    }
+}
@@ -0,0 +1,15 @@
+package se.kth.id2203.swim.events;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.util.List;
+
+/**
+ * Answer to a Ping, forwarded to the requester if the ping was sent on behalf of a PingReq
+ */
+public class Ack extends SWIMMessage {
+
+    public Ack(long seq, List<KompicsEvent> updates) {
+        super(seq, updates);
+    }
+}
@@ -0,0 +1,16 @@
+package se.kth.id2203.swim.events;
+
+import se.sics.kompics.KompicsEvent;
+
+/**
+ * Request to spread payload to all members by piggybacking it on the probe messages. The payload is sent over the
+ * network and must be serializable.
+ */
+public class Disseminate implements KompicsEvent {
+
+    public final KompicsEvent payload;
+
+    public Disseminate(KompicsEvent payload) {
+        this.payload = payload;
+    }
+}
@@ -0,0 +1,59 @@
+package se.kth.id2203.swim.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+
+/**
+ * State of a member, disseminated between the SWIM components and indicated to the user when it changes.
+ * The incarnation is only incremented by the member itself when it refutes a suspicion.
+ */
+public class MemberUpdate implements KompicsEvent, Serializable {
+
+    public final PID node;
+    public final Status status;
+    public final long incarnation;
+
+    public MemberUpdate(PID node, Status status, long incarnation) {
+        this.node = node;
+        this.status = status;
+        this.incarnation = incarnation;
+    }
+
+    /**
+     * Precedence rules of SWIM: a confirmed failure overrides everything, alive overrides alive and suspect of
+     * older incarnations and suspect overrides suspect of older incarnations and alive of the same incarnation.
+     *
+     * @param current currently known state of the member
+     * @return true if this update should replace current
+     */
+    public boolean overrides(MemberUpdate current) {
+        if (current.status == Status.CONFIRM)
+            return false;
+        switch (status) {
+            case CONFIRM:
+                return true;
+            case SUSPECT:
+                return incarnation > current.incarnation
+                        || (incarnation == current.incarnation && current.status == Status.ALIVE);
+            default:
+                return incarnation > current.incarnation;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MemberUpdate{" +
+                "node=" + node +
+                ", status=" + status +
+                ", incarnation=" + incarnation +
+                '}';
+    }
+
+    public static enum Status {
+        ALIVE,
+        SUSPECT,
+        CONFIRM
+    }
+}
@@ -0,0 +1,15 @@
+package se.kth.id2203.swim.events;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.util.List;
+
+/**
+ * Direct probe, answered with an Ack carrying the same sequence number
+ */
+public class Ping extends SWIMMessage {
+
+    public Ping(long seq, List<KompicsEvent> updates) {
+        super(seq, updates);
+    }
+}
@@ -0,0 +1,19 @@
+package se.kth.id2203.swim.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.util.List;
+
+/**
+ * Request to probe target on behalf of the sender, used when the direct probe was not acknowledged in time
+ */
+public class PingReq extends SWIMMessage {
+
+    public final PID target;
+
+    public PingReq(long seq, PID target, List<KompicsEvent> updates) {
+        super(seq, updates);
+        this.target = target;
+    }
+}
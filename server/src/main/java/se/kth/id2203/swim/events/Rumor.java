@@ -0,0 +1,34 @@
+package se.kth.id2203.swim.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.PatternExtractor;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Disseminated payload, delivered once at every member except the origin
+ */
+public class Rumor implements PatternExtractor<Class, KompicsEvent>, Serializable {
+
+    public final UUID id;
+    public final PID origin;
+    public final KompicsEvent payload;
+
+    public Rumor(UUID id, PID origin, KompicsEvent payload) {
+        this.id = id;
+        this.origin = origin;
+        this.payload = payload;
+    }
+
+    @Override
+    public Class extractPattern() {
+        return payload.getClass();
+    }
+
+    @Override
+    public KompicsEvent extractValue() {
+        return payload;
+    }
+}
@@ -0,0 +1,21 @@
+package se.kth.id2203.swim.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.util.Set;
+
+/**
+ * Set of members to probe and disseminate to, replaces the previous set. Members that are already known keep their
+ * state.
+ */
+public class SWIMInit implements KompicsEvent {
+
+    public final Set<PID> members;
+    public final PID self;
+
+    public SWIMInit(Set<PID> members, PID self) {
+        this.members = members;
+        this.self = self;
+    }
+}
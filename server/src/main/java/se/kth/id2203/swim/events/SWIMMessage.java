@@ -0,0 +1,20 @@
+package se.kth.id2203.swim.events;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Probe message with piggybacked member updates and rumors
+ */
+public abstract class SWIMMessage implements KompicsEvent, Serializable {
+
+    public final long seq;
+    public final List<KompicsEvent> updates;
+
+    protected SWIMMessage(long seq, List<KompicsEvent> updates) {
+        this.seq = seq;
+        this.updates = updates;
+    }
+}
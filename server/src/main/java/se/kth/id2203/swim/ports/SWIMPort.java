@@ -0,0 +1,17 @@
+package se.kth.id2203.swim.ports;
+
+import se.kth.id2203.swim.events.Disseminate;
+import se.kth.id2203.swim.events.MemberUpdate;
+import se.kth.id2203.swim.events.Rumor;
+import se.kth.id2203.swim.events.SWIMInit;
+import se.sics.kompics.PortType;
+
+public class SWIMPort extends PortType {
+
+    {
+        request(SWIMInit.class);
+        request(Disseminate.class);
+        indication(MemberUpdate.class);
+        indication(Rumor.class);
+    }
+}
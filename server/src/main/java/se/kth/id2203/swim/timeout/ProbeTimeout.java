@@ -0,0 +1,14 @@
+package se.kth.id2203.swim.timeout;
+
+import se.sics.kompics.timer.ScheduleTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class ProbeTimeout extends Timeout {
+
+	public final long seq;
+
+	public ProbeTimeout(ScheduleTimeout request, long seq) {
+		super(request);
+		this.seq = seq;
+	}
+}
@@ -0,0 +1,11 @@
+package se.kth.id2203.swim.timeout;
+
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class SWIMTimeout extends Timeout {
+
+	public SWIMTimeout(SchedulePeriodicTimeout request) {
+		super(request);
+	}
+}
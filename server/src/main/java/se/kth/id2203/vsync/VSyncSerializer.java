@@ -0,0 +1,235 @@
+package se.kth.id2203.vsync;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import se.kth.id2203.gms.events.View;
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.vsync.events.*;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.network.netty.serialization.Serializer;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+import java.util.*;
+
+import static se.kth.id2203.networking.NetSerializer.*;
+
+/**
+ * Compact binary serializer for views, updates and the view-synchronous events that carry them. Updates keep their
+ * ids since they are ACK'ed by id.
+ */
+public class VSyncSerializer implements Serializer {
+
+    public static final String NAME = "vsyncS";
+    private static final byte VIEW = 1;
+    private static final byte STATE_TRANSFER = 2;
+    private static final byte LOG_ENTRY = 3;
+    private static final byte LOG_BATCH = 4;
+    private static final byte VIEW_INSTALL = 5;
+    private static final byte FLUSH = 6;
+    private static final byte VS_DELIVER = 7;
+
+    /**
+     * Register the serializer and the classes it serializes
+     */
+    public static void register() {
+        Serializers.register(new VSyncSerializer(), NAME);
+        Serializers.register(View.class, NAME);
+        Serializers.register(StateTransfer.class, NAME);
+        Serializers.register(LogEntry.class, NAME);
+        Serializers.register(LogBatch.class, NAME);
+        Serializers.register(ViewInstall.class, NAME);
+        Serializers.register(Flush.class, NAME);
+        Serializers.register(VS_Deliver.class, NAME);
+    }
+
+    @Override
+    public int identifier() {
+        return 102;
+    }
+
+    @Override
+    public void toBinary(Object o, ByteBuf buf) {
+        if (o instanceof View) {
+            buf.writeByte(VIEW);
+            writeView(buf, (View) o);
+        } else if (o instanceof StateTransfer) {
+            buf.writeByte(STATE_TRANSFER);
+            writeStateTransfer(buf, (StateTransfer) o);
+        } else if (o instanceof LogEntry) {
+            buf.writeByte(LOG_ENTRY);
+            writeLogEntry(buf, (LogEntry) o);
+        } else if (o instanceof LogBatch) {
+            LogBatch batch = (LogBatch) o;
+            buf.writeByte(LOG_BATCH);
+            writeUpdateId(buf, batch.id);
+            writeLogEntries(buf, batch.entries);
+        } else if (o instanceof ViewInstall) {
+            ViewInstall viewInstall = (ViewInstall) o;
+            buf.writeByte(VIEW_INSTALL);
+            writeView(buf, viewInstall.view);
+            writeNullableStateTransfer(buf, viewInstall.latestUpdate);
+            buf.writeBoolean(viewInstall.suffix != null);
+            if (viewInstall.suffix != null)
+                writeLogEntries(buf, viewInstall.suffix);
+        } else if (o instanceof Flush) {
+            Flush flush = (Flush) o;
+            buf.writeByte(FLUSH);
+            writeNullableStateTransfer(buf, flush.latestUpdate);
+            buf.writeLong(flush.viewId);
+            buf.writeLong(flush.oldView);
+            writeNullablePID(buf, flush.source);
+        } else if (o instanceof VS_Deliver) {
+            VS_Deliver deliver = (VS_Deliver) o;
+            buf.writeByte(VS_DELIVER);
+            writeNullablePID(buf, deliver.source);
+            buf.writeLong(deliver.viewId);
+            Serializers.toBinary(deliver.payload, buf);
+        } else {
+            throw new IllegalArgumentException("VSyncSerializer can not serialize " + o.getClass());
+        }
+    }
+
+    @Override
+    public Object fromBinary(ByteBuf buf, Optional<Object> hint) {
+        byte type = buf.readByte();
+        switch (type) {
+            case VIEW:
+                return readView(buf);
+            case STATE_TRANSFER:
+                return readStateTransfer(buf);
+            case LOG_ENTRY:
+                return readLogEntry(buf);
+            case LOG_BATCH: {
+                UUID id = readUpdateId(buf);
+                return new LogBatch(readLogEntries(buf), id);
+            }
+            case VIEW_INSTALL: {
+                View view = readView(buf);
+                StateTransfer latestUpdate = readNullableStateTransfer(buf);
+                if (buf.readBoolean())
+                    return new ViewInstall(view, readLogEntries(buf));
+                return new ViewInstall(view, latestUpdate);
+            }
+            case FLUSH: {
+                StateTransfer latestUpdate = readNullableStateTransfer(buf);
+                long viewId = buf.readLong();
+                long oldView = buf.readLong();
+                return new Flush(latestUpdate, viewId, oldView, readNullablePID(buf));
+            }
+            case VS_DELIVER: {
+                PID source = readNullablePID(buf);
+                long viewId = buf.readLong();
+                return new VS_Deliver((KompicsEvent) Serializers.fromBinary(buf, Optional.absent()), source, viewId);
+            }
+            default:
+                throw new IllegalArgumentException("VSyncSerializer got unknown type " + type);
+        }
+    }
+
+    private static void writeView(ByteBuf buf, View view) {
+        buf.writeLong(view.id);
+        writeNullablePID(buf, view.leader);
+        buf.writeInt(view.members.size());
+        for (PID member : view.members) {
+            writePID(buf, member);
+        }
+    }
+
+    private static View readView(ByteBuf buf) {
+        long id = buf.readLong();
+        PID leader = readNullablePID(buf);
+        int size = buf.readInt();
+        Set<PID> members = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            members.add(readPID(buf));
+        }
+        return new View(members, id, leader);
+    }
+
+    private static void writeStateTransfer(ByteBuf buf, StateTransfer stateTransfer) {
+        buf.writeLong(stateTransfer.timestamp);
+        writeUpdateId(buf, stateTransfer.id);
+        writeKeyValues(buf, stateTransfer.keyValues);
+    }
+
+    private static StateTransfer readStateTransfer(ByteBuf buf) {
+        long timestamp = buf.readLong();
+        UUID id = readUpdateId(buf);
+        return new StateTransfer(readKeyValues(buf), timestamp, id);
+    }
+
+    private static void writeNullableStateTransfer(ByteBuf buf, StateTransfer stateTransfer) {
+        buf.writeBoolean(stateTransfer != null);
+        if (stateTransfer != null)
+            writeStateTransfer(buf, stateTransfer);
+    }
+
+    private static StateTransfer readNullableStateTransfer(ByteBuf buf) {
+        return buf.readBoolean() ? readStateTransfer(buf) : null;
+    }
+
+    private static void writeLogEntry(ByteBuf buf, LogEntry entry) {
+        buf.writeLong(entry.timestamp);
+        writeUpdateId(buf, entry.id);
+        writeString(buf, entry.key);
+        writeString(buf, entry.value);
+    }
+
+    private static LogEntry readLogEntry(ByteBuf buf) {
+        long timestamp = buf.readLong();
+        UUID id = readUpdateId(buf);
+        String key = readString(buf);
+        return new LogEntry(timestamp, key, readString(buf), id);
+    }
+
+    private static void writeLogEntries(ByteBuf buf, List<LogEntry> entries) {
+        buf.writeInt(entries.size());
+        for (LogEntry entry : entries) {
+            writeLogEntry(buf, entry);
+        }
+    }
+
+    private static List<LogEntry> readLogEntries(ByteBuf buf) {
+        int size = buf.readInt();
+        List<LogEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(readLogEntry(buf));
+        }
+        return entries;
+    }
+
+    /**
+     * Updates recovered from an empty write-ahead log have no id
+     */
+    private static void writeUpdateId(ByteBuf buf, UUID id) {
+        buf.writeBoolean(id != null);
+        if (id != null)
+            writeId(buf, id);
+    }
+
+    private static UUID readUpdateId(ByteBuf buf) {
+        return buf.readBoolean() ? readId(buf) : null;
+    }
+
+    /**
+     * Number of pairs followed by the keys and values, read back as a PersistentKeyValueMap
+     */
+    public static void writeKeyValues(ByteBuf buf, Map<String, String> keyValues) {
+        buf.writeInt(keyValues.size());
+        for (Map.Entry<String, String> entry : keyValues.entrySet()) {
+            writeString(buf, entry.getKey());
+            writeString(buf, entry.getValue());
+        }
+    }
+
+    public static PersistentKeyValueMap readKeyValues(ByteBuf buf) {
+        int size = buf.readInt();
+        PersistentKeyValueMap keyValues = PersistentKeyValueMap.empty();
+        for (int i = 0; i < size; i++) {
+            String key = readString(buf);
+            keyValues = keyValues.plus(key, readString(buf));
+        }
+        return keyValues;
+    }
+}
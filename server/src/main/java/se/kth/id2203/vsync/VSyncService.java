@@ -10,15 +10,22 @@ import se.kth.id2203.gms.events.GMSInit;
 import se.kth.id2203.gms.events.GMSJoin;
 import se.kth.id2203.gms.events.View;
 import se.kth.id2203.gms.ports.GMSPort;
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.networking.RttEstimator;
 import se.kth.id2203.overlay.PID;
 import se.kth.id2203.vsync.events.*;
 import se.kth.id2203.vsync.ports.VSyncPort;
+import se.kth.id2203.vsync.timeout.FlushTimeout;
+import se.kth.id2203.vsync.timeout.LeaseTimeout;
+import se.kth.id2203.vsync.timeout.RetransmitTimeout;
 import se.kth.id2203.vsync.timeout.VSyncTimeout;
 import se.sics.kompics.*;
 import se.sics.kompics.network.Network;
+import se.sics.kompics.timer.CancelTimeout;
 import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.ScheduleTimeout;
 import se.sics.kompics.timer.Timer;
 
 import java.util.*;
@@ -38,6 +45,10 @@ public class VSyncService extends ComponentDefinition {
     protected final Positive<GMSPort> gmsPort = requires(GMSPort.class);
     protected final Positive<BEBPort> broadcastPort = requires(BEBPort.class);
     /* Fields */
+    public static final String COMMIT_ALL = "all";
+    public static final String COMMIT_QUORUM = "quorum";
+    public static final String DISSEMINATION_BROADCAST = "broadcast";
+    public static final String DISSEMINATION_CHAIN = "chain";
     private final static Logger LOG = LoggerFactory.getLogger(VSyncService.class);
     private final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
     private PID selfPid;
@@ -45,13 +56,33 @@ public class VSyncService extends ComponentDefinition {
     private long viewId = 0;
     private boolean flushing;
     private boolean blocked;
+    private final int logCompaction = config().getValue("id2203.project.vsync.logCompaction", Integer.class);
     private StateTransfer latestUpdate;
+    private List<LogEntry> log = new ArrayList<>();
     private Queue<View> pendingViews = new LinkedList<>();
     private Set<PID> flushes = new HashSet<>();
+    private Map<PID, StateTransfer> flushedStates = new HashMap<>();
+    private UUID flushTimeoutId;
+    private long flushSendTime;
     private UUID timeoutId;
-    private Set<PID> acks = new HashSet<>();
-    private Queue<StateTransfer> pendingUpdates;
-    private StateTransfer pendingUpdate;
+    private Map<UUID, Set<PID>> acks = new HashMap<>();
+    private LinkedHashMap<UUID, Update> pendingUpdates = new LinkedHashMap<>();
+    private final boolean quorumCommit = COMMIT_QUORUM.equals(config().getValue("id2203.project.vsync.commit", String.class));
+    private LinkedHashMap<UUID, Update> laggingUpdates = new LinkedHashMap<>();
+    private final boolean chain = DISSEMINATION_CHAIN.equals(config().getValue("id2203.project.vsync.dissemination", String.class));
+    private SortedMap<Long, VS_Deliver> holdback = new TreeMap<>();
+    private final long retransmitMin = config().getValue("id2203.project.vsync.retransmit.min", Long.class);
+    private final long retransmitMax = config().getValue("id2203.project.vsync.retransmit.max", Long.class);
+    private final RttEstimator<PID> rtt = new RttEstimator<>(retransmitMin, retransmitMin, retransmitMax);
+    private Map<UUID, Long> sendTimes = new HashMap<>();
+    private UUID retransmitTimeoutId;
+    private final long leaseDuration = config().getValue("id2203.project.vsync.lease.duration", Long.class);
+    private final long leaseDrift = config().getValue("id2203.project.vsync.lease.drift", Long.class);
+    private LeaseRequest leaseRequest;
+    private long leaseRequestTime;
+    private Set<PID> leaseGrants = new HashSet<>();
+    private PID promisedLeader;
+    private long promisedUntil;
 
     /**
      * Initialize timer
@@ -61,11 +92,61 @@ public class VSyncService extends ComponentDefinition {
         public void handle(Start e) {
             long timeout = config().getValue("id2203.project.vsync.timeout", Long.class);
             selfPid = new PID(self, 0);
-            pendingUpdates = new LinkedList<>();
             SchedulePeriodicTimeout spt = new SchedulePeriodicTimeout(timeout, timeout);
             spt.setTimeoutEvent(new VSyncTimeout(spt));
             trigger(spt, timer);
             timeoutId = spt.getTimeoutEvent().getTimeoutId();
+            long leaseRenewal = config().getValue("id2203.project.vsync.lease.renewal", Long.class);
+            SchedulePeriodicTimeout leaseSpt = new SchedulePeriodicTimeout(leaseRenewal, leaseRenewal);
+            leaseSpt.setTimeoutEvent(new LeaseTimeout(leaseSpt));
+            trigger(leaseSpt, timer);
+        }
+    };
+
+    /**
+     * Lease timeout, if we are leader of an installed view, ask the members to renew our read-lease
+     */
+    protected final Handler<LeaseTimeout> leaseTimeoutHandler = new Handler<LeaseTimeout>() {
+        @Override
+        public void handle(LeaseTimeout event) {
+            if (currentView != null && currentView.leader.equals(selfPid) && !blocked && pendingViews.isEmpty()) {
+                leaseRequest = new LeaseRequest(viewId, selfPid);
+                leaseRequestTime = System.currentTimeMillis();
+                leaseGrants = new HashSet<>();
+                trigger(new BEB_Broadcast(leaseRequest, currentView.members, selfPid), broadcastPort);
+            }
+        }
+    };
+
+    /**
+     * Received lease-request from leader, grant it unless we are about to change view
+     */
+    protected final ClassMatchedHandler<LeaseRequest, BEB_Deliver> leaseRequestHandler = new ClassMatchedHandler<LeaseRequest, BEB_Deliver>() {
+        @Override
+        public void handle(LeaseRequest request, BEB_Deliver beb_deliver) {
+            if (request.viewId == viewId && currentView != null && request.source.equals(currentView.leader) && pendingViews.isEmpty()) {
+                promisedLeader = request.source;
+                promisedUntil = System.currentTimeMillis() + leaseDuration;
+                trigger(new Message(selfPid.netAddress, request.source.netAddress, new LeaseGrant(request.id, selfPid)), net);
+            }
+        }
+    };
+
+    /**
+     * Received lease-grant from member, when all members have granted the lease the KV-layer may serve reads locally
+     * until it expires. The lease is counted from when it was requested and shortened by the allowed clock drift.
+     */
+    protected final ClassMatchedHandler<LeaseGrant, Message> leaseGrantHandler = new ClassMatchedHandler<LeaseGrant, Message>() {
+        @Override
+        public void handle(LeaseGrant grant, Message message) {
+            if (leaseRequest != null && grant.id.equals(leaseRequest.id) && leaseRequest.viewId == viewId) {
+                leaseGrants.add(grant.source);
+                if (leaseGrants.containsAll(currentView.members)) {
+                    LOG.debug("All members granted read-lease");
+                    trigger(new Lease(viewId, leaseRequestTime + leaseDuration - leaseDrift), vSyncPort);
+                    leaseRequest = null;
+                }
+            }
         }
     };
 
@@ -79,8 +160,12 @@ public class VSyncService extends ComponentDefinition {
             flushing = false;
             blocked = true;
             latestUpdate = vSyncInit.stateTransfer;
+            log = new ArrayList<>();
+            holdback = new TreeMap<>();
             pendingViews = new LinkedList<>();
             flushes = new HashSet<>();
+            flushedStates = new HashMap<>();
+            cancelFlushTimeout();
             selfPid = vSyncInit.self;
             trigger(new GMSInit(ImmutableSet.copyOf(vSyncInit.nodes), selfPid), gmsPort);
             trigger(new Block(), vSyncPort);
@@ -88,8 +173,8 @@ public class VSyncService extends ComponentDefinition {
     };
 
     /**
-     * Timeout, if we are leader of new view and have pending view, attempt to install new view by collecting acks.
-     * Also if we are leader and we have pending updates, broadcast and collect ACK's before delivering to upper layer.
+     * Timeout, if we are leader of new view and have pending view, attempt to install new view by collecting flushes.
+     * Flush-requests are re-sent by the flush timer, not by this one.
      */
     protected final Handler<VSyncTimeout> timeoutHandler = new Handler<VSyncTimeout>() {
         @Override
@@ -100,49 +185,258 @@ public class VSyncService extends ComponentDefinition {
                 if (!blocked)
                     trigger(new Block(), vSyncPort);
             }
+            if (pendingViews.size() > 0 && flushing && blocked && pendingViews.peek().leader.equals(selfPid) && flushTimeoutId == null) {
+                flushSendTime = System.currentTimeMillis();
+                requestFlushes();
+            }
+        }
+    };
+
+    /**
+     * No flush from some members of the pending view within their retransmission timeout, back off and re-send.
+     */
+    protected final Handler<FlushTimeout> flushTimeoutHandler = new Handler<FlushTimeout>() {
+        @Override
+        public void handle(FlushTimeout event) {
+            if (!event.getTimeoutId().equals(flushTimeoutId))
+                return;
+            flushTimeoutId = null;
             if (pendingViews.size() > 0 && flushing && blocked && pendingViews.peek().leader.equals(selfPid)) {
-                Set<PID> notFlushed = new HashSet<>();
-                for (PID member : pendingViews.peek().members) {
-                    if (!flushes.contains(member))
-                        notFlushed.add(member);
-                }
-                try {
-                    if (notFlushed.size() > 0) {
-                        LOG.debug("Missing {} flushes before new view can be installed, re-sending flushrequest..", notFlushed.size());
-                        trigger(new BEB_Broadcast(new FlushReq(pendingViews.peek().id, viewId), notFlushed, selfPid), broadcastPort);
-                    } else {
-                        LOG.debug("Received all flushes, installing new view");
-                        currentView = pendingViews.remove();
-                        viewId = currentView.id;
-                        trigger(new BEB_Broadcast(new ViewInstall(currentView, latestUpdate), currentView.members, selfPid), broadcastPort);
-                    }
-                } catch (Exception e) {
-                    LOG.debug("Exception!");
-                    e.printStackTrace();
+                for (PID member : notFlushed()) {
+                    rtt.backoff(member);
                 }
+                flushSendTime = -1;
+                requestFlushes();
             }
-            if (pendingUpdates.size() > 0 && pendingUpdate == null) {
-                pendingUpdate = pendingUpdates.poll();
-                acks = new HashSet<>();
+        }
+    };
+
+    /**
+     * Send the flush-request to the members of the pending view that have not flushed yet, or install the view if
+     * all have.
+     */
+    private void requestFlushes() {
+        Set<PID> notFlushed = notFlushed();
+        try {
+            if (notFlushed.size() > 0) {
+                LOG.debug("Missing {} flushes before new view can be installed, sending flushrequest..", notFlushed.size());
+                trigger(new BEB_Broadcast(new FlushReq(pendingViews.peek().id, viewId), notFlushed, selfPid), broadcastPort);
+                ScheduleTimeout st = new ScheduleTimeout(rtt.timeout(notFlushed));
+                st.setTimeoutEvent(new FlushTimeout(st));
+                trigger(st, timer);
+                flushTimeoutId = st.getTimeoutEvent().getTimeoutId();
+            } else {
+                LOG.debug("Received all flushes, installing new view");
+                forgetRemoved(pendingViews.peek());
+                currentView = pendingViews.remove();
+                viewId = currentView.id;
+                installView();
             }
-            if (currentView != null && currentView.leader.equals(selfPid) && pendingUpdate != null) {
-                Set<PID> notAcked = new HashSet<>();
-                for (PID member : currentView.members) {
-                    if (!acks.contains(member))
-                        notAcked.add(member);
+        } catch (Exception e) {
+            LOG.debug("Exception!");
+            e.printStackTrace();
+        }
+    }
+
+    private Set<PID> notFlushed() {
+        Set<PID> notFlushed = new HashSet<>();
+        for (PID member : pendingViews.peek().members) {
+            if (!flushes.contains(member))
+                notFlushed.add(member);
+        }
+        return notFlushed;
+    }
+
+    /**
+     * Drop the RTT estimates of the members of the current view that are not in view
+     */
+    private void forgetRemoved(View view) {
+        if (currentView == null)
+            return;
+        for (PID member : currentView.members) {
+            if (!view.members.contains(member))
+                rtt.remove(member);
+        }
+    }
+
+    private void cancelFlushTimeout() {
+        if (flushTimeoutId == null)
+            return;
+        trigger(new CancelTimeout(flushTimeoutId), timer);
+        flushTimeoutId = null;
+    }
+
+    /**
+     * Send ViewInstall to the members of the new view. Members whose flushed state is a prefix of our log only
+     * receive the missing log-entries, the others receive the full state in a single broadcast so that BEB serializes
+     * it once. The ViewInstall is sent once and not retransmitted, so it is sent directly to every member and not
+     * relayed, a member that crashed during the view change must not keep the view from the members after it.
+     */
+    private void installView() {
+        Set<PID> fullState = new HashSet<>();
+        for (PID member : currentView.members) {
+            List<LogEntry> suffix = suffix(flushedStates.get(member));
+            if (suffix != null) {
+                LOG.debug("Sending {} log-entries to {} with view", suffix.size(), member);
+                trigger(new BEB_Broadcast(new ViewInstall(currentView, suffix), ImmutableSet.of(member), selfPid), broadcastPort);
+            } else {
+                fullState.add(member);
+            }
+        }
+        if (!fullState.isEmpty())
+            trigger(new BEB_Broadcast(new ViewInstall(currentView, currentState()), fullState, selfPid, false), broadcastPort);
+    }
+
+    /**
+     * Log-entries that a member needs on top of its flushed state to catch up with us. The state is only a prefix of
+     * our log if the latest update it includes is the update we have at the same timestamp.
+     *
+     * @param flushed state flushed by the member
+     * @return log-entries after the flushed state, or null if the member needs a full state-transfer
+     */
+    private List<LogEntry> suffix(StateTransfer flushed) {
+        long timestamp = flushed == null ? 0 : flushed.timestamp;
+        UUID id = flushed == null ? null : flushed.id;
+        long base = latestUpdate == null ? 0 : latestUpdate.timestamp;
+        if (timestamp < base || timestamp > latestTimestamp())
+            return null;
+        if (timestamp == base) {
+            UUID baseId = latestUpdate == null ? null : latestUpdate.id;
+            if (baseId == null ? id != null : !baseId.equals(id))
+                return null;
+            return new ArrayList<>(log);
+        }
+        int index = (int) (timestamp - base - 1);
+        LogEntry entry = log.get(index);
+        if (entry.timestamp != timestamp || !entry.id.equals(id))
+            return null;
+        return new ArrayList<>(log.subList(index + 1, log.size()));
+    }
+
+    /**
+     * Retransmission timeout, re-send pending updates and committed updates that some members still lack to the
+     * members that have not ACK'ed them yet and back off the timeouts of those members. Retransmissions are sent
+     * directly to the members and not relayed, so that a crashed member that has not been removed from the view yet
+     * does not keep the update from the members after it.
+     */
+    protected final Handler<RetransmitTimeout> retransmitHandler = new Handler<RetransmitTimeout>() {
+        @Override
+        public void handle(RetransmitTimeout event) {
+            if (!event.getTimeoutId().equals(retransmitTimeoutId))
+                return;
+            retransmitTimeoutId = null;
+            if (currentView != null && currentView.leader.equals(selfPid) && (pendingUpdates.size() > 0 || laggingUpdates.size() > 0)) {
+                for (Update laggingUpdate : laggingUpdates.values()) {
+                    trigger(new BEB_Broadcast(new VS_Deliver(laggingUpdate, selfPid, viewId), notAcked(laggingUpdate), selfPid, false), broadcastPort);
                 }
-                if (notAcked.size() > 0) {
-                    LOG.debug("Resending update to backups waiting for {} nodes ", notAcked.size());
-                    trigger(new BEB_Broadcast(new VS_Deliver(pendingUpdate, selfPid, viewId), notAcked, selfPid), broadcastPort);
-                } else {
-                    trigger(new VS_Deliver(new OperationComplete(pendingUpdate.id), selfPid, viewId), vSyncPort);
-                    latestUpdate = pendingUpdate;
-                    pendingUpdate = null;
+                for (Update pendingUpdate : pendingUpdates.values()) {
+                    if (chain) {
+                        LOG.debug("Resending update down the chain");
+                        forward(new VS_Deliver(pendingUpdate, selfPid, viewId));
+                    } else {
+                        Set<PID> notAcked = notAcked(pendingUpdate);
+                        LOG.debug("Resending update to backups waiting for {} nodes ", notAcked.size());
+                        trigger(new BEB_Broadcast(new VS_Deliver(pendingUpdate, selfPid, viewId), notAcked, selfPid, false), broadcastPort);
+                    }
+                    sendTimes.remove(pendingUpdate.id);
                 }
+                for (PID member : waiting()) {
+                    rtt.backoff(member);
+                }
+                scheduleRetransmit();
             }
         }
     };
 
+    /**
+     * Setup retransmission timer unless one is already running, the timeout is the largest retransmission timeout
+     * of the members we are waiting for
+     */
+    private void scheduleRetransmit() {
+        if (retransmitTimeoutId != null)
+            return;
+        ScheduleTimeout st = new ScheduleTimeout(rtt.timeout(waiting()));
+        st.setTimeoutEvent(new RetransmitTimeout(st));
+        trigger(st, timer);
+        retransmitTimeoutId = st.getTimeoutEvent().getTimeoutId();
+    }
+
+    /**
+     * Cancel retransmission timer
+     */
+    private void cancelRetransmit() {
+        if (retransmitTimeoutId == null)
+            return;
+        trigger(new CancelTimeout(retransmitTimeoutId), timer);
+        retransmitTimeoutId = null;
+    }
+
+    /**
+     * Complete pending updates that are committed, in the order they were broadcasted. On progress the
+     * retransmission timer is restarted with the current estimates of the members.
+     *
+     * With quorum commit an update completes when a majority of the members have ACK'ed it, the remaining members
+     * are caught up by retransmission in the background. A view change flushes the state of every member of the new
+     * view and installs the most recent one, and in this mode GMS refuses views that do not keep a majority of the
+     * previous view, so a committed update always survives in at least one of them. A group with quorum commit
+     * therefore blocks when a majority of its members fail at once, even if new members join.
+     *
+     * With chain dissemination an update is committed when the tail ACK's it, since every member before the tail
+     * has recorded it by then.
+     */
+    private void completeUpdates() {
+        boolean progress = false;
+        Iterator<Update> iterator = pendingUpdates.values().iterator();
+        while (iterator.hasNext()) {
+            Update pendingUpdate = iterator.next();
+            int notAcked = notAcked(pendingUpdate).size();
+            if (quorumCommit ? currentView.members.size() - notAcked <= currentView.members.size() / 2 : notAcked > 0)
+                break;
+            trigger(new VS_Deliver(new OperationComplete(pendingUpdate.id), selfPid, viewId), vSyncPort);
+            if (notAcked > 0)
+                laggingUpdates.put(pendingUpdate.id, pendingUpdate);
+            else
+                acks.remove(pendingUpdate.id);
+            iterator.remove();
+            sendTimes.remove(pendingUpdate.id);
+            progress = true;
+        }
+        if (progress) {
+            cancelRetransmit();
+            if (pendingUpdates.size() > 0 || laggingUpdates.size() > 0)
+                scheduleRetransmit();
+        }
+    }
+
+    /**
+     * @return members that have not ACK'ed some pending or lagging update, with chain dissemination only the tail
+     * ACK's
+     */
+    private Set<PID> waiting() {
+        Set<PID> waiting = new HashSet<>();
+        if (chain) {
+            waiting.add(currentView.tail());
+            return waiting;
+        }
+        for (Update pendingUpdate : pendingUpdates.values()) {
+            waiting.addAll(notAcked(pendingUpdate));
+        }
+        for (Update laggingUpdate : laggingUpdates.values()) {
+            waiting.addAll(notAcked(laggingUpdate));
+        }
+        return waiting;
+    }
+
+    private Set<PID> notAcked(Update update) {
+        Set<PID> notAcked = new HashSet<>();
+        Set<PID> updateAcks = acks.get(update.id);
+        for (PID member : currentView.members) {
+            if (updateAcks == null || !updateAcks.contains(member))
+                notAcked.add(member);
+        }
+        return notAcked;
+    }
+
     /**
      * Received operation for the replication group from the network
      */
@@ -164,8 +458,8 @@ public class VSyncService extends ComponentDefinition {
     };
 
     /**
-     * Handle operation for the replication group. If we are leader, broadcast to all replicas, otherwise forward to
-     * leader.
+     * Handle operation for the replication group. If we are leader, broadcast to all replicas (or with chain
+     * dissemination record it and pass it to the next member of the chain), otherwise forward to leader.
      *
      * @param vs_broadcast operation
      */
@@ -174,8 +468,14 @@ public class VSyncService extends ComponentDefinition {
             if (currentView.leader.equals(selfPid)) {
                 LOG.debug("VSyncService leader received request, sending broadcast");
                 VS_Deliver vs_deliver = new VS_Deliver(vs_broadcast.payload, selfPid, viewId);
-                pendingUpdates.add(vs_broadcast.payload);
-                trigger(new BEB_Broadcast(vs_deliver, currentView.members, selfPid), broadcastPort);
+                pendingUpdates.put(vs_broadcast.payload.id, vs_broadcast.payload);
+                acks.put(vs_broadcast.payload.id, new HashSet<PID>());
+                sendTimes.put(vs_broadcast.payload.id, System.currentTimeMillis());
+                if (chain)
+                    deliver(vs_deliver);
+                else
+                    trigger(new BEB_Broadcast(vs_deliver, currentView.members, selfPid), broadcastPort);
+                scheduleRetransmit();
             } else {
                 LOG.debug("VSyncService member received request, forwarding to leader");
                 trigger(new Message(selfPid.netAddress, currentView.leader.netAddress, vs_broadcast), net);
@@ -184,31 +484,171 @@ public class VSyncService extends ComponentDefinition {
     }
 
     /**
-     * Received operation from leader-broadcast, deliver to KVLayer.
+     * Received operation from leader-broadcast, deliver to KVLayer in timestamp order. Updates that arrive ahead of a
+     * missing predecessor are held back until the gap is filled. Retransmitted updates that we already have are
+     * acked again but not delivered twice.
      */
     protected final ClassMatchedHandler<VS_Deliver, BEB_Deliver> deliverHandler = new ClassMatchedHandler<VS_Deliver, BEB_Deliver>() {
         @Override
         public void handle(VS_Deliver vs_deliver, BEB_Deliver beb_deliver) {
-            if (vs_deliver.viewId == viewId && vs_deliver.source.equals(currentView.leader)) {
-                LOG.debug("Received StateTransfer from leader in view, delivering to application");
-                latestUpdate = (StateTransfer) vs_deliver.payload;
-                OperationAck acc = new OperationAck(latestUpdate.id, selfPid);
-                LOG.debug("Sending acc to {} ", beb_deliver.source);
-                trigger(new Message(selfPid.netAddress, beb_deliver.source.netAddress, acc), net);
-                trigger(vs_deliver, vSyncPort);
-            }
+            receive(vs_deliver);
         }
     };
 
     /**
-     * Received ACK for update from backup in the view
+     * Received operation from our predecessor in the chain
+     */
+    protected final ClassMatchedHandler<VS_Deliver, Message> chainDeliverHandler = new ClassMatchedHandler<VS_Deliver, Message>() {
+        @Override
+        public void handle(VS_Deliver vs_deliver, Message message) {
+            receive(vs_deliver);
+        }
+    };
+
+    private void receive(VS_Deliver vs_deliver) {
+        if (vs_deliver.viewId == viewId && vs_deliver.source.equals(currentView.leader)) {
+            Update update = (Update) vs_deliver.payload;
+            if (update.firstTimestamp() > latestTimestamp() + 1) {
+                LOG.debug("Received update {} ahead of {}, holding it back", update.firstTimestamp(), latestTimestamp() + 1);
+                holdback.put(update.firstTimestamp(), vs_deliver);
+                return;
+            }
+            LOG.debug("Received update from leader in view, delivering to application");
+            deliver(vs_deliver);
+            while (!holdback.isEmpty() && holdback.firstKey() <= latestTimestamp() + 1) {
+                deliver(holdback.remove(holdback.firstKey()));
+            }
+        }
+    }
+
+    /**
+     * Record update, ACK it to the leader and deliver it to the KVLayer if it was not a duplicate. The entries of a
+     * LogBatch are delivered one by one. With chain dissemination the update is passed on to the next member, also
+     * when it is a duplicate since the retransmission may be for a member further down, and only the tail ACK's.
+     *
+     * @param vs_deliver update from the leader
+     */
+    private void deliver(VS_Deliver vs_deliver) {
+        Update update = (Update) vs_deliver.payload;
+        long previous = latestTimestamp();
+        boolean fresh = recordUpdate(update);
+        if (!chain || forward(vs_deliver)) {
+            OperationAck acc = new OperationAck(update.id, selfPid);
+            LOG.debug("Sending acc to {} ", vs_deliver.source);
+            trigger(new Message(selfPid.netAddress, vs_deliver.source.netAddress, acc), net);
+        }
+        if (!fresh)
+            return;
+        if (update instanceof LogBatch) {
+            for (LogEntry entry : ((LogBatch) update).entries) {
+                if (entry.timestamp > previous)
+                    trigger(new VS_Deliver(entry, vs_deliver.source, vs_deliver.viewId), vSyncPort);
+            }
+        } else {
+            trigger(vs_deliver, vSyncPort);
+        }
+    }
+
+    /**
+     * Pass update to the next member of the chain
+     *
+     * @param vs_deliver update from the leader
+     * @return true if we are the tail of the chain
+     */
+    private boolean forward(VS_Deliver vs_deliver) {
+        PID successor = currentView.successor(selfPid);
+        if (successor == null)
+            return true;
+        trigger(new Message(selfPid.netAddress, successor.netAddress, vs_deliver), net);
+        return false;
+    }
+
+    /**
+     * Record update in the replication-log. A StateTransfer replaces the latest state while LogEntries, alone or in a
+     * LogBatch, are appended to the log on top of it. The log is compacted into a new StateTransfer when it grows
+     * beyond logCompaction entries.
+     *
+     * @param update update delivered in the view
+     * @return true if the update was new, false if it was a duplicate
+     */
+    private boolean recordUpdate(Update update) {
+        if (update.timestamp <= latestTimestamp())
+            return false;
+        if (update instanceof StateTransfer) {
+            latestUpdate = (StateTransfer) update;
+            log = new ArrayList<>();
+        } else {
+            if (update instanceof LogBatch) {
+                for (LogEntry entry : ((LogBatch) update).entries) {
+                    if (entry.timestamp > latestTimestamp())
+                        log.add(entry);
+                }
+            } else {
+                log.add((LogEntry) update);
+            }
+            if (log.size() >= logCompaction) {
+                latestUpdate = currentState();
+                log = new ArrayList<>();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return timestamp of the latest update that this process have recorded
+     */
+    private long latestTimestamp() {
+        if (!log.isEmpty())
+            return log.get(log.size() - 1).timestamp;
+        if (latestUpdate != null)
+            return latestUpdate.timestamp;
+        return 0;
+    }
+
+    /**
+     * Materialize the latest state by applying the log on top of the latest StateTransfer. Only used when the full
+     * state needs to be transferred, i.e on flush and when installing a new view.
+     *
+     * @return full state
+     */
+    private StateTransfer currentState() {
+        if (log.isEmpty())
+            return latestUpdate;
+        PersistentKeyValueMap keyValues = latestUpdate == null ? PersistentKeyValueMap.empty()
+                : PersistentKeyValueMap.copyOf(latestUpdate.keyValues);
+        for (LogEntry entry : log) {
+            keyValues = entry.applyTo(keyValues);
+        }
+        return new StateTransfer(keyValues, latestTimestamp(), log.get(log.size() - 1).id);
+    }
+
+    /**
+     * Received ACK for update from backup in the view, commit as soon as the last (or with quorum commit the
+     * majority) ACK arrives. Committed updates are forgotten once the last lagging member has ACK'ed them. With chain
+     * dissemination the ACK of the tail counts for every member. The first ACK of an update that was not
+     * retransmitted is an RTT sample of the member.
      */
     protected final ClassMatchedHandler<OperationAck, Message> accHandler = new ClassMatchedHandler<OperationAck, Message>() {
 
         @Override
         public void handle(OperationAck content, Message context) {
             LOG.debug("Received acc from {} ", context.getSource());
-            acks.add(content.source);
+            Set<PID> updateAcks = acks.get(content.id);
+            Long sendTime = sendTimes.get(content.id);
+            if (sendTime != null && (updateAcks == null || !updateAcks.contains(content.source)))
+                rtt.sample(content.source, System.currentTimeMillis() - sendTime);
+            if (updateAcks != null) {
+                if (chain && content.source.equals(currentView.tail()))
+                    updateAcks.addAll(currentView.members);
+                else
+                    updateAcks.add(content.source);
+                Update laggingUpdate = laggingUpdates.get(content.id);
+                if (laggingUpdate != null && notAcked(laggingUpdate).isEmpty()) {
+                    laggingUpdates.remove(content.id);
+                    acks.remove(content.id);
+                }
+                completeUpdates();
+            }
         }
     };
 
@@ -223,6 +663,7 @@ public class VSyncService extends ComponentDefinition {
                 LOG.debug("Received view from GMS with itself as leader, trying to install it");
                 pendingViews.add(view);
                 flushes = new HashSet<>();
+                flushedStates = new HashMap<>();
             } else {
                 LOG.debug("Received view from GMS, adding it to pending list and waiting for leader to install it");
                 pendingViews.add(view);
@@ -248,8 +689,13 @@ public class VSyncService extends ComponentDefinition {
         @Override
         public void handle(FlushReq flushReq, BEB_Deliver beb_deliver) {
             LOG.debug("Received Flush-request");
+            if (pendingViews.size() > 0 && promisedLeader != null && !promisedLeader.equals(pendingViews.peek().leader)
+                    && System.currentTimeMillis() < promisedUntil) {
+                LOG.debug("Lease granted to {} has not expired, deferring flush", promisedLeader);
+                return;
+            }
             if ((flushReq.oldView == viewId || viewId == 0) && pendingViews.size() > 0 && flushReq.viewId == pendingViews.peek().id)
-                trigger(new Message(selfPid.netAddress, pendingViews.peek().leader.netAddress, new Flush(latestUpdate, pendingViews.peek().id, viewId, selfPid)), net);
+                trigger(new Message(selfPid.netAddress, pendingViews.peek().leader.netAddress, new Flush(currentState(), pendingViews.peek().id, viewId, selfPid)), net);
         }
     };
 
@@ -262,27 +708,58 @@ public class VSyncService extends ComponentDefinition {
             LOG.debug("Installed new view");
             blocked = false;
             flushing = false;
+            cancelFlushTimeout();
+            forgetRemoved(viewInstall.view);
             currentView = viewInstall.view;
-            latestUpdate = viewInstall.latestUpdate;
+            if (viewInstall.suffix == null) {
+                latestUpdate = viewInstall.latestUpdate;
+                log = new ArrayList<>();
+            }
+            holdback = new TreeMap<>();
+            pendingUpdates = new LinkedHashMap<>();
+            laggingUpdates = new LinkedHashMap<>();
+            acks = new HashMap<>();
+            sendTimes = new HashMap<>();
+            cancelRetransmit();
+            leaseRequest = null;
             viewId = viewInstall.view.id;
             trigger(currentView, vSyncPort);
             if (pendingViews.size() > 0)
                 pendingViews.remove();
-            trigger(new VS_Deliver(latestUpdate, currentView.leader, viewId), vSyncPort);
+            if (viewInstall.suffix == null) {
+                trigger(new VS_Deliver(latestUpdate, currentView.leader, viewId), vSyncPort);
+            } else {
+                //Layers above that already have our state ignore it by id, others catch up locally
+                trigger(new VS_Deliver(currentState(), currentView.leader, viewId), vSyncPort);
+                for (LogEntry entry : viewInstall.suffix) {
+                    if (recordUpdate(entry))
+                        trigger(new VS_Deliver(entry, currentView.leader, viewId), vSyncPort);
+                }
+            }
         }
     };
 
     /**
-     * Received Flush from member in the view
+     * Received Flush from member in the view, install the view when all members have flushed. The first flush of a
+     * request that was not re-sent is an RTT sample of the member.
      */
     protected final ClassMatchedHandler<Flush, Message> flushHandler = new ClassMatchedHandler<Flush, Message>() {
         @Override
         public void handle(Flush flush, Message context) {
             LOG.debug("Received Flush");
             if ((flush.oldView == viewId || flush.oldView == 0) && pendingViews.size() > 0 && flush.viewId == pendingViews.peek().id && pendingViews.peek().leader.equals(selfPid)) {
+                if (flushSendTime >= 0 && !flushes.contains(flush.source))
+                    rtt.sample(flush.source, System.currentTimeMillis() - flushSendTime);
                 flushes.add(flush.source);
-                if (flush.latestUpdate != null && flush.latestUpdate.timestamp > latestUpdate.timestamp)
+                flushedStates.put(flush.source, flush.latestUpdate);
+                if (flush.latestUpdate != null && flush.latestUpdate.timestamp > latestTimestamp()) {
                     latestUpdate = flush.latestUpdate;
+                    log = new ArrayList<>();
+                }
+                if (flushTimeoutId != null && notFlushed().isEmpty()) {
+                    cancelFlushTimeout();
+                    requestFlushes();
+                }
             }
         }
     };
@@ -302,6 +779,7 @@ public class VSyncService extends ComponentDefinition {
         subscribe(viewInstallHandler, broadcastPort);
         subscribe(flushReqHandler, broadcastPort);
         subscribe(deliverHandler, broadcastPort);
+        subscribe(chainDeliverHandler, net);
         subscribe(viewHandler, gmsPort);
         subscribe(accHandler, net);
         subscribe(blockOkHandler, vSyncPort);
@@ -309,6 +787,11 @@ public class VSyncService extends ComponentDefinition {
         subscribe(vSyncInitHandler, vSyncPort);
         subscribe(startHandler, control);
         subscribe(timeoutHandler, timer);
+        subscribe(retransmitHandler, timer);
+        subscribe(flushTimeoutHandler, timer);
+        subscribe(leaseTimeoutHandler, timer);
+        subscribe(leaseRequestHandler, broadcastPort);
+        subscribe(leaseGrantHandler, net);
         subscribe(flushHandler, net);
         subscribe(netBroadcastHandler, net);
     }
@@ -0,0 +1,17 @@
+package se.kth.id2203.vsync.events;
+
+import se.sics.kompics.KompicsEvent;
+
+/**
+ * Event sent by the leader to the KV-layer when all members of the view have granted it a read-lease. Until the
+ * expiry time no other process can install a view and commit writes, so reads can be served from local state.
+ */
+public class Lease implements KompicsEvent {
+    public final long viewId;
+    public final long expiry;
+
+    public Lease(long viewId, long expiry) {
+        this.viewId = viewId;
+        this.expiry = expiry;
+    }
+}
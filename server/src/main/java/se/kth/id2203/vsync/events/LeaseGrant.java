@@ -0,0 +1,20 @@
+package se.kth.id2203.vsync.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Event sent by a member of the view to the leader to grant the read-lease it asked for.
+ */
+public class LeaseGrant implements KompicsEvent, Serializable {
+    public final UUID id;
+    public final PID source;
+
+    public LeaseGrant(UUID id, PID source) {
+        this.id = id;
+        this.source = source;
+    }
+}
@@ -0,0 +1,23 @@
+package se.kth.id2203.vsync.events;
+
+import se.kth.id2203.overlay.PID;
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Event broadcasted by the leader of a view to ask the members for a read-lease. A member that grants the lease
+ * promises not to flush to another leader until the lease has expired.
+ */
+public class LeaseRequest implements KompicsEvent, Serializable {
+    public final UUID id;
+    public final long viewId;
+    public final PID source;
+
+    public LeaseRequest(long viewId, PID source) {
+        this.id = UUID.randomUUID();
+        this.viewId = viewId;
+        this.source = source;
+    }
+}
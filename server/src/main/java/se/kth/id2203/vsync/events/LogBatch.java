@@ -0,0 +1,39 @@
+package se.kth.id2203.vsync.events;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Log-entries with consecutive timestamps that the leader replicates in a single round. The batch is ACK'ed and
+ * completed as a whole, the entries are recorded in the log and delivered to the layers above one by one.
+ */
+public class LogBatch extends Update {
+
+    public final List<LogEntry> entries;
+
+    /**
+     * @param entries log-entries in timestamp order, at least one
+     */
+    public LogBatch(List<LogEntry> entries) {
+        super(entries.get(entries.size() - 1).timestamp);
+        this.entries = entries;
+    }
+
+    public LogBatch(List<LogEntry> entries, UUID id) {
+        super(entries.get(entries.size() - 1).timestamp, id);
+        this.entries = entries;
+    }
+
+    @Override
+    public long firstTimestamp() {
+        return entries.get(0).timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "LogBatch{" +
+                "timestamps=" + firstTimestamp() + ".." + timestamp +
+                ", entries=" + entries.size() +
+                '}';
+    }
+}
@@ -0,0 +1,66 @@
+package se.kth.id2203.vsync.events;
+
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Entry in the replication-log, describes the effect of a single operation on the store. Issued by the leader for
+ * every operation instead of a full StateTransfer. Operations that do not change the store (GET or CAS with
+ * non-matching reference value) are replicated as entries without a write.
+ */
+public class LogEntry extends Update {
+
+    public final String key;
+    public final String value;
+
+    public LogEntry(long timestamp, String key, String value) {
+        super(timestamp);
+        this.key = key;
+        this.value = value;
+    }
+
+    public LogEntry(long timestamp, String key, String value, UUID id) {
+        super(timestamp, id);
+        this.key = key;
+        this.value = value;
+    }
+
+    public LogEntry(long timestamp) {
+        this(timestamp, null, null);
+    }
+
+    public boolean isWrite() {
+        return key != null;
+    }
+
+    /**
+     * Apply the entry to a store
+     *
+     * @param keyValues store
+     */
+    public void applyTo(Map<String, String> keyValues) {
+        if (isWrite())
+            keyValues.put(key, value);
+    }
+
+    /**
+     * Apply the entry to a persistent store
+     *
+     * @param keyValues store
+     * @return new version of the store
+     */
+    public PersistentKeyValueMap applyTo(PersistentKeyValueMap keyValues) {
+        return isWrite() ? keyValues.plus(key, value) : keyValues;
+    }
+
+    @Override
+    public String toString() {
+        return "LogEntry{" +
+                "timestamp=" + timestamp +
+                ", key=" + key +
+                ", value=" + value +
+                '}';
+    }
+}
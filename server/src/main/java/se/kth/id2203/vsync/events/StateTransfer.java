@@ -1,27 +1,33 @@
 package se.kth.id2203.vsync.events;
 
-import se.sics.kompics.KompicsEvent;
-
-import java.io.Serializable;
 import java.util.Map;
 import java.util.UUID;
 
 /**
- * StateTransfer event, basic state-transfer that is issued by leader to all replicas before a write to the shared memory
- * is completed.
+ * StateTransfer event, full state-transfer of the store. Used when a new view is installed, on flush and on handover,
+ * ordinary operations are replicated as LogEntries.
  *
  * @author Kim Hammar on 2017-02-14.
  */
-public class StateTransfer implements KompicsEvent, Serializable{
+public class StateTransfer extends Update {
+
+    public final Map<String, String> keyValues;
 
-    public final Map<Integer, String> keyValues;
-    public final long timestamp;
-    public final UUID id;
+    public StateTransfer(Map<String, String> keyValues, long timestamp) {
+        super(timestamp);
+        this.keyValues = keyValues;
+    }
 
-    public StateTransfer(Map<Integer, String> keyValues, long timestamp) {
+    /**
+     * State as of the update with the given id, e.g a materialized log or a state recovered from disk
+     *
+     * @param keyValues state
+     * @param timestamp timestamp of the latest update included in the state
+     * @param id        id of the latest update included in the state
+     */
+    public StateTransfer(Map<String, String> keyValues, long timestamp, UUID id) {
+        super(timestamp, id);
         this.keyValues = keyValues;
-        this.timestamp = timestamp;
-        this.id = UUID.randomUUID();
     }
 
 }
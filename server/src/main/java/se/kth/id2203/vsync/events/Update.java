@@ -0,0 +1,32 @@
+package se.kth.id2203.vsync.events;
+
+import se.sics.kompics.KompicsEvent;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Base class for updates that the leader replicates within the replication-group. Updates are ordered by timestamp.
+ */
+public abstract class Update implements KompicsEvent, Serializable {
+
+    public final long timestamp;
+    public final UUID id;
+
+    protected Update(long timestamp) {
+        this(timestamp, UUID.randomUUID());
+    }
+
+    protected Update(long timestamp, UUID id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /**
+     * @return timestamp of the first change in the update, updates that cover several timestamps override this
+     */
+    public long firstTimestamp() {
+        return timestamp;
+    }
+
+}
@@ -9,10 +9,10 @@ import se.sics.kompics.KompicsEvent;
  */
 public class VS_Broadcast implements KompicsEvent {
 
-    public final StateTransfer payload;
+    public final Update payload;
     public final long viewId;
 
-    public VS_Broadcast(StateTransfer payload, long viewId) {
+    public VS_Broadcast(Update payload, long viewId) {
         this.payload = payload;
         this.viewId = viewId;
     }
@@ -4,6 +4,7 @@ import se.kth.id2203.gms.events.View;
 import se.sics.kompics.KompicsEvent;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Event sent by leader to members of new view after it has collected all flushes.
@@ -14,9 +15,23 @@ public class ViewInstall implements KompicsEvent, Serializable {
 
     public final View view;
     public final StateTransfer latestUpdate;
+    public final List<LogEntry> suffix;
 
     public ViewInstall(View view, StateTransfer latestUpdate) {
         this.view = view;
         this.latestUpdate = latestUpdate;
+        this.suffix = null;
+    }
+
+    /**
+     * ViewInstall for a member whose flushed state is a prefix of the leader's log, only the missing suffix is sent
+     *
+     * @param view   new view
+     * @param suffix log-entries after the member's latest update
+     */
+    public ViewInstall(View view, List<LogEntry> suffix) {
+        this.view = view;
+        this.latestUpdate = null;
+        this.suffix = suffix;
     }
 }
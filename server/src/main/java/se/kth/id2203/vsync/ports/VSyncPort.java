@@ -17,5 +17,6 @@ public class VSyncPort extends PortType{
         indication(VS_Deliver.class);
         indication(View.class);
         indication(Block.class);
+        indication(Lease.class);
     }
 }
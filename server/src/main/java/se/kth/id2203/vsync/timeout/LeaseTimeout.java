@@ -0,0 +1,12 @@
+package se.kth.id2203.vsync.timeout;
+
+import se.sics.kompics.timer.SchedulePeriodicTimeout;
+import se.sics.kompics.timer.Timeout;
+
+public class LeaseTimeout extends Timeout {
+
+	public LeaseTimeout(SchedulePeriodicTimeout request) {
+		super(request);
+	}
+
+}
@@ -0,0 +1,60 @@
+package se.kth.id2203.epfd;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for PhiAccrualDetector
+ */
+public class PhiAccrualDetectorTest {
+
+    /**
+     * With regular heartbeats phi stays low, after a few missed intervals it passes the usual thresholds
+     */
+    @Test
+    public void missedHeartbeatsTest() {
+        PhiAccrualDetector<String> detector = new PhiAccrualDetector<>(100, 10, 0, 100);
+        long now = 0;
+        detector.monitor("a", now);
+        for (int i = 0; i < 50; i++) {
+            now += 100;
+            detector.heartbeat("a", now);
+        }
+        Assert.assertTrue(detector.phi("a", now + 50) < 1);
+        Assert.assertTrue(detector.phi("a", now + 100) < 1);
+        Assert.assertTrue(detector.phi("a", now + 200) > 8);
+        Assert.assertTrue(detector.phi("a", now + 200) < detector.phi("a", now + 300));
+    }
+
+    /**
+     * Jitter in the inter-arrival times makes the detector more tolerant to the same pause
+     */
+    @Test
+    public void jitterTest() {
+        PhiAccrualDetector<String> detector = new PhiAccrualDetector<>(100, 10, 0, 100);
+        long now = 0;
+        detector.monitor("steady", now);
+        detector.monitor("jittery", now);
+        for (int i = 0; i < 50; i++) {
+            now += 100;
+            detector.heartbeat("steady", now);
+            detector.heartbeat("jittery", now + (i % 2 == 0 ? -60 : 60));
+        }
+        Assert.assertTrue(detector.phi("jittery", now + 250) < detector.phi("steady", now + 250));
+    }
+
+    /**
+     * A node that never sends a heartbeat is suspected based on the first interval estimate, unmonitored nodes are
+     * never suspected
+     */
+    @Test
+    public void silentNodeTest() {
+        PhiAccrualDetector<String> detector = new PhiAccrualDetector<>(100, 10, 0, 100);
+        detector.monitor("a", 0);
+        Assert.assertTrue(detector.phi("a", 50) < 1);
+        Assert.assertTrue(detector.phi("a", 1000) > 8);
+        detector.remove("a");
+        Assert.assertEquals(0.0, detector.phi("a", 1000));
+        Assert.assertEquals(0.0, detector.phi("b", 1000));
+    }
+}
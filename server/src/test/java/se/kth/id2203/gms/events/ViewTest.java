@@ -0,0 +1,61 @@
+package se.kth.id2203.gms.events;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.overlay.PID;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Unit tests for View
+ */
+public class ViewTest {
+
+    /**
+     * A view change that drops a minority or only adds members keeps a majority of the view
+     */
+    @Test
+    public void keepsMajorityTest() {
+        View view = new View(members(1, 2, 3), 1, pid(3));
+        Assert.assertTrue(view.keepsMajority(members(1, 2, 3)));
+        Assert.assertTrue(view.keepsMajority(members(2, 3)));
+        Assert.assertTrue(view.keepsMajority(members(2, 3, 4)));
+        Assert.assertTrue(view.keepsMajority(members(1, 2, 3, 4, 5)));
+        Assert.assertFalse(view.keepsMajority(members(3)));
+        Assert.assertFalse(view.keepsMajority(members(4, 5)));
+    }
+
+    /**
+     * Suspecting a majority while others join does not keep a majority, even if the new view is as large as the
+     * replication degree: an update ACK'ed only by the suspected members would be lost
+     */
+    @Test
+    public void suspectedMajorityWithJoinTest() {
+        View view = new View(members(1, 2, 3), 1, pid(3));
+        Assert.assertFalse(view.keepsMajority(members(3, 4)));
+        Assert.assertFalse(view.keepsMajority(members(3, 4, 5)));
+        View even = new View(members(1, 2, 3, 4), 2, pid(4));
+        Assert.assertFalse(even.keepsMajority(members(3, 4, 5)));
+        Assert.assertTrue(even.keepsMajority(members(2, 3, 4, 5)));
+    }
+
+    private static Set<PID> members(Integer... ids) {
+        Set<PID> members = new HashSet<>();
+        for (int id : ids) {
+            members.add(pid(id));
+        }
+        return members;
+    }
+
+    private static PID pid(int i) {
+        try {
+            return new PID(new NetAddress(InetAddress.getByName("192.168.0." + i), 45678), i);
+        } catch (UnknownHostException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
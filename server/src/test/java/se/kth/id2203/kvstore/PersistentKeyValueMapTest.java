@@ -0,0 +1,78 @@
+package se.kth.id2203.kvstore;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.HashMap;
+
+/**
+ * Unit tests for the hash array mapped trie PersistentKeyValueMap
+ */
+public class PersistentKeyValueMapTest {
+
+    /**
+     * "Aa" and "BB" have the same String.hashCode() and end up in a collision node
+     */
+    @Test
+    public void collidingKeysTest() {
+        PersistentKeyValueMap map = PersistentKeyValueMap.empty().plus("Aa", "1").plus("BB", "2").plus("C", "3");
+        Assert.assertEquals(3, map.size());
+        Assert.assertEquals("1", map.get("Aa"));
+        Assert.assertEquals("2", map.get("BB"));
+        map = map.minus("Aa");
+        Assert.assertEquals(2, map.size());
+        Assert.assertNull(map.get("Aa"));
+        Assert.assertEquals("2", map.get("BB"));
+    }
+
+    /**
+     * Compare against HashMap across insertions, overwrites and removals, old versions must be unaffected
+     */
+    @Test
+    public void matchesHashMapTest() {
+        PersistentKeyValueMap map = PersistentKeyValueMap.empty();
+        HashMap<String, String> reference = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            map = map.plus("key" + i, "value" + i);
+            reference.put("key" + i, "value" + i);
+        }
+        PersistentKeyValueMap snapshot = map;
+        HashMap<String, String> snapshotReference = new HashMap<>(reference);
+        for (int i = 0; i < 10000; i += 3) {
+            map = map.minus("key" + i);
+            reference.remove("key" + i);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            map = map.plus("key" + i, "new" + i);
+            reference.put("key" + i, "new" + i);
+        }
+        Assert.assertEquals(reference.size(), map.size());
+        Assert.assertEquals(reference, map);
+        Assert.assertEquals(map, reference);
+        Assert.assertEquals(reference.hashCode(), map.hashCode());
+        Assert.assertEquals(snapshotReference, snapshot);
+        Assert.assertSame(map, map.plus("key0", "new0"));
+        Assert.assertSame(map, map.minus("missing"));
+        for (int i = 0; i < 10000; i++) {
+            map = map.minus("key" + i);
+        }
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void serializationTest() throws IOException, ClassNotFoundException {
+        PersistentKeyValueMap map = PersistentKeyValueMap.empty();
+        for (int i = 0; i < 1000; i++) {
+            map = map.plus("key" + i, "v\u00e4rde" + i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(map);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object copy = in.readObject();
+        Assert.assertTrue(copy instanceof PersistentKeyValueMap);
+        Assert.assertEquals(map, copy);
+    }
+}
@@ -0,0 +1,106 @@
+package se.kth.id2203.kvstore.lsm;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import se.kth.id2203.vsync.events.LogEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Unit tests for the LSM-tree StorageEngine, with a small memtable so that flushes and compactions happen
+ */
+public class LsmStorageEngineTest {
+
+    private LsmStorageEngine newEngine() throws IOException {
+        File dir = Files.createTempDirectory("lsm").toFile();
+        dir.deleteOnExit();
+        return new LsmStorageEngine(dir, 100, 8, 0.01, 3);
+    }
+
+    /**
+     * Compare against TreeMap across flushes and compactions, with overwrites of keys that are on disk
+     */
+    @Test
+    public void matchesTreeMapTest() throws IOException {
+        LsmStorageEngine engine = newEngine();
+        TreeMap<String, String> reference = new TreeMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String key = "key" + (i * 7919 % 1000);
+            Assert.assertEquals(reference.put(key, "value" + i), engine.put(key, "value" + i));
+        }
+        Assert.assertEquals("value1001", engine.cas("key919", "value1001", "cas"));
+        reference.put("key919", "cas");
+        Assert.assertEquals("cas", engine.cas("key919", "wrong", "ignored"));
+        engine.awaitFlush();
+        Assert.assertTrue(engine.runs() < 3);
+        Assert.assertEquals(reference.size(), engine.size());
+        for (Map.Entry<String, String> entry : reference.entrySet()) {
+            Assert.assertEquals(entry.getValue(), engine.get(entry.getKey()));
+        }
+        Assert.assertNull(engine.get("missing"));
+        Assert.assertEquals(reference, engine.snapshot());
+    }
+
+    @Test
+    public void rangeTest() throws IOException {
+        LsmStorageEngine engine = newEngine();
+        TreeMap<String, String> reference = new TreeMap<>();
+        for (int i = 0; i < 550; i++) {
+            String key = String.format("%04d", (i * 31) % 500);
+            reference.put(key, Integer.toString(i));
+            engine.put(key, Integer.toString(i));
+        }
+        List<Map.Entry<String, String>> range = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> iterator = engine.range("0100", "0250");
+        while (iterator.hasNext()) {
+            range.add(iterator.next());
+        }
+        Assert.assertEquals(new ArrayList<>(reference.subMap("0100", "0250").entrySet()), range);
+    }
+
+    @Test
+    public void restoreTest() throws IOException {
+        LsmStorageEngine engine = newEngine();
+        for (int i = 0; i < 300; i++) {
+            engine.put("old" + i, "value");
+        }
+        Map<String, String> keyValues = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            keyValues.put("new" + i, Integer.toString(i));
+        }
+        engine.restore(keyValues);
+        Assert.assertEquals(500, engine.size());
+        Assert.assertNull(engine.get("old1"));
+        Assert.assertEquals("42", engine.get("new42"));
+        Assert.assertEquals(keyValues, engine.snapshot());
+    }
+
+    /**
+     * Blind writes through applyBatch, the number of keys is counted on demand and a scan is not affected by later
+     * writes
+     */
+    @Test
+    public void applyBatchTest() throws IOException {
+        LsmStorageEngine engine = newEngine();
+        Map<String, String> reference = new HashMap<>();
+        List<LogEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 450; i++) {
+            entries.add(new LogEntry(i + 1, "key" + (i % 300), Integer.toString(i)));
+            reference.put("key" + (i % 300), Integer.toString(i));
+        }
+        engine.applyBatch(entries);
+        Assert.assertEquals(300, engine.size());
+        Iterator<Map.Entry<String, String>> scan = engine.scan();
+        engine.applyBatch(Collections.singletonList(new LogEntry(451, "late", "value")));
+        Map<String, String> scanned = new HashMap<>();
+        while (scan.hasNext()) {
+            Map.Entry<String, String> entry = scan.next();
+            scanned.put(entry.getKey(), entry.getValue());
+        }
+        Assert.assertEquals(reference, scanned);
+        Assert.assertEquals(301, engine.size());
+    }
+}
@@ -0,0 +1,125 @@
+package se.kth.id2203.kvstore.wal;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import se.kth.id2203.kvstore.PersistentKeyValueMap;
+import se.kth.id2203.vsync.events.LogEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Unit tests for recovery from the WriteAheadLog
+ */
+public class WriteAheadLogTest {
+
+    @Test
+    public void recoverSnapshotAndLogTest() throws IOException {
+        File dir = Files.createTempDirectory("wal").toFile();
+        WriteAheadLog wal = new WriteAheadLog(dir, 1 << 16);
+        Assert.assertNull(wal.recover());
+        PersistentKeyValueMap keyValues = PersistentKeyValueMap.empty().plus("a", "1");
+        UUID snapshotId = UUID.randomUUID();
+        wal.checkpoint(7, keyValues, 10, snapshotId);
+        LogEntry write = new LogEntry(11, "b", "2");
+        LogEntry read = new LogEntry(12);
+        Assert.assertTrue(wal.append(write));
+        Assert.assertTrue(wal.append(read));
+        wal.sync();
+        Assert.assertEquals(0, wal.unsynced());
+        wal.close();
+
+        RecoveredState state = new WriteAheadLog(dir, 1 << 16).recover();
+        Assert.assertEquals(7, state.partition);
+        Assert.assertEquals(12, state.timestamp);
+        Assert.assertEquals(read.id, state.id);
+        Assert.assertEquals(2, state.replayed);
+        Assert.assertEquals("1", state.keyValues.get("a"));
+        Assert.assertEquals("2", state.keyValues.get("b"));
+    }
+
+    /**
+     * Records left in the segment from before a checkpoint must not be replayed
+     */
+    @Test
+    public void staleRecordsTest() throws IOException {
+        File dir = Files.createTempDirectory("wal").toFile();
+        WriteAheadLog wal = new WriteAheadLog(dir, 1 << 16);
+        wal.checkpoint(1, PersistentKeyValueMap.empty(), 0, null);
+        for (int i = 1; i <= 5; i++) {
+            Assert.assertTrue(wal.append(new LogEntry(i, "key" + i, "old")));
+        }
+        PersistentKeyValueMap keyValues = PersistentKeyValueMap.empty().plus("key1", "new");
+        wal.checkpoint(1, keyValues, 1, UUID.randomUUID());
+        wal.close();
+
+        RecoveredState state = new WriteAheadLog(dir, 1 << 16).recover();
+        Assert.assertEquals(1, state.timestamp);
+        Assert.assertEquals(0, state.replayed);
+        Assert.assertEquals(1, state.keyValues.size());
+        Assert.assertEquals("new", state.keyValues.get("key1"));
+    }
+
+    @Test
+    public void fullSegmentTest() throws IOException {
+        File dir = Files.createTempDirectory("wal").toFile();
+        WriteAheadLog wal = new WriteAheadLog(dir, 256);
+        wal.checkpoint(1, PersistentKeyValueMap.empty(), 0, null);
+        int appended = 0;
+        while (wal.append(new LogEntry(appended + 1, "key", "value")))
+            appended++;
+        Assert.assertTrue(appended > 0);
+        wal.sync();
+        wal.close();
+        Assert.assertEquals(appended, new WriteAheadLog(dir, 256).recover().timestamp);
+    }
+
+    /**
+     * Entries appended while the snapshot is written in the background go to the new segment
+     */
+    @Test
+    public void asyncCheckpointTest() throws Exception {
+        File dir = Files.createTempDirectory("wal").toFile();
+        WriteAheadLog wal = new WriteAheadLog(dir, 1 << 16);
+        wal.checkpoint(1, PersistentKeyValueMap.empty(), 0, null);
+        Assert.assertTrue(wal.append(new LogEntry(1, "a", "1")));
+        PersistentKeyValueMap keyValues = PersistentKeyValueMap.empty().plus("a", "1");
+        wal.checkpointAsync(1, keyValues.entrySet().iterator(), 1, UUID.randomUUID());
+        Assert.assertTrue(wal.append(new LogEntry(2, "b", "2")));
+        wal.sync();
+        wal.close();
+
+        RecoveredState state = new WriteAheadLog(dir, 1 << 16).recover();
+        Assert.assertEquals(2, state.timestamp);
+        Assert.assertEquals(1, state.replayed);
+        Assert.assertEquals("1", state.keyValues.get("a"));
+        Assert.assertEquals("2", state.keyValues.get("b"));
+        Assert.assertEquals("snapshot and the segment after it", 2, dir.list().length);
+    }
+
+    /**
+     * A full segment is continued in a new one, entries that do not fit the write buffer are streamed to the snapshot
+     */
+    @Test
+    public void rollTest() throws IOException {
+        File dir = Files.createTempDirectory("wal").toFile();
+        WriteAheadLog wal = new WriteAheadLog(dir, 256);
+        String large = new String(new char[1 << 17]).replace('\0', 'x');
+        wal.checkpoint(1, Collections.singletonMap("large", large), 0, null);
+        for (int i = 1; i <= 20; i++) {
+            if (!wal.append(new LogEntry(i, "key" + i, "value"))) {
+                wal.roll();
+                Assert.assertTrue(wal.append(new LogEntry(i, "key" + i, "value")));
+            }
+        }
+        wal.close();
+
+        RecoveredState state = new WriteAheadLog(dir, 256).recover();
+        Assert.assertEquals(20, state.timestamp);
+        Assert.assertEquals(large, state.keyValues.get("large"));
+        Assert.assertEquals("value", state.keyValues.get("key20"));
+    }
+}
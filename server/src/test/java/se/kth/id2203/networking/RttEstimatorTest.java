@@ -0,0 +1,94 @@
+package se.kth.id2203.networking;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for RttEstimator
+ */
+public class RttEstimatorTest {
+
+    /**
+     * The first sample sets srtt to the sample and rttvar to half of it, later samples follow the RFC 6298 update
+     */
+    @Test
+    public void updateTest() {
+        RttEstimator<String> rtt = new RttEstimator<>(1000, 100, 5000);
+        Assert.assertEquals(1000, rtt.timeout("a"));
+        Assert.assertEquals(-1, rtt.smoothedRtt("a"));
+        rtt.sample("a", 200);
+        Assert.assertEquals(200, rtt.smoothedRtt("a"));
+        Assert.assertEquals(200 + 4 * 100, rtt.timeout("a"));
+        rtt.sample("a", 400);
+        Assert.assertEquals((7 * 200 + 400) / 8, rtt.smoothedRtt("a"));
+        Assert.assertEquals(225 + 4 * ((3 * 100 + 200) / 4), rtt.timeout("a"));
+        Assert.assertEquals(1000, rtt.timeout("b"));
+    }
+
+    /**
+     * Each timeout doubles the retransmission timeout of the peer up to the upper bound
+     */
+    @Test
+    public void backoffTest() {
+        RttEstimator<String> rtt = new RttEstimator<>(1000, 100, 5000);
+        rtt.backoff("a");
+        Assert.assertEquals(2000, rtt.timeout("a"));
+        rtt.backoff("a");
+        Assert.assertEquals(4000, rtt.timeout("a"));
+        rtt.backoff("a");
+        Assert.assertEquals(5000, rtt.timeout("a"));
+        rtt = new RttEstimator<>(1000, 100, Long.MAX_VALUE);
+        for (int i = 0; i < 64; i++) {
+            rtt.backoff("a");
+        }
+        Assert.assertEquals(1000L << 16, rtt.timeout("a"));
+    }
+
+    /**
+     * The backed off timeout is kept until a new sample arrives (Karn's algorithm), the sample resets the backoff
+     */
+    @Test
+    public void karnTest() {
+        RttEstimator<String> rtt = new RttEstimator<>(1000, 100, 5000);
+        rtt.sample("a", 200);
+        rtt.backoff("a");
+        rtt.backoff("a");
+        Assert.assertEquals(4 * 600, rtt.timeout("a"));
+        Assert.assertEquals(4 * 600, rtt.timeout("a"));
+        Assert.assertEquals(200, rtt.smoothedRtt("a"));
+        rtt.sample("a", 200);
+        Assert.assertEquals(200 + 4 * ((3 * 100) / 4), rtt.timeout("a"));
+    }
+
+    /**
+     * Timeouts stay within the configured bounds, the timeout of a set of peers is the largest of them
+     */
+    @Test
+    public void boundsTest() {
+        RttEstimator<String> rtt = new RttEstimator<>(1000, 100, 5000);
+        rtt.sample("fast", 1);
+        Assert.assertEquals(100, rtt.timeout("fast"));
+        rtt.sample("slow", 100000);
+        Assert.assertEquals(5000, rtt.timeout("slow"));
+        rtt.sample("medium", 300);
+        Assert.assertEquals(5000, rtt.timeout(Arrays.asList("fast", "medium", "slow")));
+        Assert.assertEquals(900, rtt.timeout(Arrays.asList("fast", "medium")));
+        Assert.assertEquals(100, rtt.timeout(Collections.<String>emptyList()));
+    }
+
+    /**
+     * A removed peer starts over from the initial timeout
+     */
+    @Test
+    public void removeTest() {
+        RttEstimator<String> rtt = new RttEstimator<>(1000, 100, 5000);
+        rtt.sample("a", 200);
+        rtt.backoff("a");
+        rtt.remove("a");
+        Assert.assertEquals(-1, rtt.smoothedRtt("a"));
+        Assert.assertEquals(1000, rtt.timeout("a"));
+    }
+}
@@ -0,0 +1,67 @@
+package se.kth.id2203.networking;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.kth.id2203.broadcast.beb.BEBSerializer;
+import se.kth.id2203.kvstore.KVSerializer;
+import se.kth.id2203.overlay.service.OverlaySerializer;
+import se.kth.id2203.swim.SWIMSerializer;
+import se.kth.id2203.vsync.VSyncSerializer;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serialization time per message compared with Java serialization. Not part of the unit tests, run with
+ * mvn test -Pbenchmark
+ */
+public class SerializationBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SerializationBenchmark.class);
+    private static final int ITERATIONS = 20000;
+
+    @Before
+    public void setUp() {
+        NetSerializer.register();
+        KVSerializer.register();
+        OverlaySerializer.register();
+        VSyncSerializer.register();
+        SWIMSerializer.register();
+        BEBSerializer.register();
+    }
+
+    @Test
+    public void serializationBenchmark() throws IOException {
+        for (Map.Entry<String, Object> message : SerializationTest.messages().entrySet()) {
+            int binary = SerializationTest.binary(message.getValue()).readableBytes();
+            int java = SerializationTest.java(message.getValue()).length;
+            long binaryNs = time(message.getValue(), true);
+            long javaNs = time(message.getValue(), false);
+            LOG.info("{} binary {} bytes {} ns/op, java {} bytes {} ns/op",
+                    message.getKey(), binary, binaryNs, java, javaNs);
+        }
+    }
+
+    /**
+     * Average time of one serialization, after the same number of iterations to warm up
+     */
+    private static long time(Object o, boolean binary) throws IOException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            serialize(o, binary);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            serialize(o, binary);
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static void serialize(Object o, boolean binary) throws IOException {
+        if (binary)
+            SerializationTest.binary(o);
+        else
+            SerializationTest.java(o);
+    }
+}
@@ -0,0 +1,295 @@
+package se.kth.id2203.networking;
+
+import com.google.common.base.Optional;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import se.kth.id2203.bootstrapping.events.Boot;
+import se.kth.id2203.broadcast.beb.BEBSerializer;
+import se.kth.id2203.broadcast.beb.events.BEB_Deliver;
+import se.kth.id2203.broadcast.beb.events.RelayChunk;
+import se.kth.id2203.gms.events.View;
+import se.kth.id2203.kvstore.KVSerializer;
+import se.kth.id2203.kvstore.OpResponse;
+import se.kth.id2203.kvstore.Operation;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.RouteMsg;
+import se.kth.id2203.overlay.lookuptable.LookupTable;
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
+import se.kth.id2203.overlay.service.OverlaySerializer;
+import se.kth.id2203.overlay.service.events.Digest;
+import se.kth.id2203.overlay.service.events.Gossip;
+import se.kth.id2203.overlay.service.events.KeyTransfer;
+import se.kth.id2203.swim.SWIMSerializer;
+import se.kth.id2203.swim.events.MemberUpdate;
+import se.kth.id2203.swim.events.Ping;
+import se.kth.id2203.swim.events.Rumor;
+import se.kth.id2203.vsync.VSyncSerializer;
+import se.kth.id2203.vsync.events.*;
+import se.sics.kompics.KompicsEvent;
+import se.sics.kompics.network.netty.serialization.Serializers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * Round-trip tests of the binary serializers and a comparison with Java serialization
+ */
+public class SerializationTest {
+
+    @Before
+    public void setUp() {
+        NetSerializer.register();
+        KVSerializer.register();
+        OverlaySerializer.register();
+        VSyncSerializer.register();
+        SWIMSerializer.register();
+        BEBSerializer.register();
+    }
+
+    /**
+     * Operations and responses keep their ids, null values survive
+     */
+    @Test
+    public void operationTest() {
+        Operation operation = new Operation("key", null, "reference", Operation.OperationCode.CAS);
+        Message message = (Message) roundTrip(new Message(address(1), address(2), new RouteMsg("key", operation)));
+        Assert.assertEquals(address(1), message.getSource());
+        Assert.assertEquals(address(2), message.getDestination());
+        RouteMsg routeMsg = (RouteMsg) message.payload;
+        Assert.assertEquals("key", routeMsg.key);
+        Operation copy = (Operation) routeMsg.msg;
+        Assert.assertEquals(operation.id, copy.id);
+        Assert.assertEquals("key", copy.key);
+        Assert.assertNull(copy.value);
+        Assert.assertEquals("reference", copy.referenceValue);
+        Assert.assertEquals(Operation.OperationCode.CAS, copy.operationCode);
+
+        OpResponse response = (OpResponse) roundTrip(new OpResponse(operation.id, OpResponse.Code.OK, "v\u00e4rde"));
+        Assert.assertEquals(operation.id, response.id);
+        Assert.assertEquals(OpResponse.Code.OK, response.status);
+        Assert.assertEquals("v\u00e4rde", response.value);
+    }
+
+    /**
+     * A coalesced batch is unpacked into the payloads in the order they were sent
+     */
+    @Test
+    public void batchTest() {
+        List<KompicsEvent> payloads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            payloads.add(new OpResponse(UUID.randomUUID(), OpResponse.Code.OK, "value" + i));
+        }
+        Message message = (Message) roundTrip(new Message(address(1), address(2), new MessageBatch(payloads)));
+        List<KompicsEvent> copy = ((MessageBatch) message.payload).payloads;
+        Assert.assertEquals(3, copy.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(((OpResponse) payloads.get(i)).id, ((OpResponse) copy.get(i)).id);
+            Assert.assertEquals("value" + i, ((OpResponse) copy.get(i)).value);
+        }
+    }
+
+    /**
+     * A LookupTable is rebuilt from its versioned entries, including removed partitions and leaders, and the other
+     * overlay events keep their content
+     */
+    @Test
+    public void lookupTableTest() {
+        LookupTable lut = lookupTable();
+        Boot boot = (Boot) roundTrip(new Boot(lut, Collections.singletonMap("k", "v")));
+        LookupTable copy = (LookupTable) boot.assignment;
+        Assert.assertEquals("v", boot.keyValues.get("k"));
+        Assert.assertEquals(lut.getVnodes(), copy.getVnodes());
+        Assert.assertEquals(lut.digest(), copy.digest());
+        Assert.assertEquals(pid(0), copy.getLeader(0));
+        Assert.assertTrue(copy.getPartition(100).isEmpty());
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(lut.lookupPartitionKey("key" + i), copy.lookupPartitionKey("key" + i));
+        }
+        Digest digest = (Digest) roundTrip(new Digest(lut.digest(), true));
+        Assert.assertTrue(digest.pull);
+        Assert.assertEquals(lut.digest(), digest.versions);
+        KeyTransfer transfer = (KeyTransfer) roundTrip(new KeyTransfer(Collections.singletonMap("k", "v")));
+        Assert.assertEquals(Collections.singletonMap("k", "v"), transfer.keyValues);
+    }
+
+    /**
+     * Gossip piggybacked on SWIM messages
+     */
+    @Test
+    public void swimTest() {
+        PartitionEntry entry = lookupTable().getEntries().iterator().next();
+        List<KompicsEvent> updates = new ArrayList<>();
+        updates.add(new MemberUpdate(pid(1), MemberUpdate.Status.SUSPECT, 3));
+        updates.add(new Rumor(UUID.randomUUID(), pid(2), new Gossip(Collections.singletonList(entry))));
+        UDPMessage message = (UDPMessage) roundTrip(new UDPMessage(address(1), address(2), new Ping(7, updates)));
+        Ping ping = (Ping) message.payload;
+        Assert.assertEquals(7, ping.seq);
+        MemberUpdate update = (MemberUpdate) ping.updates.get(0);
+        Assert.assertEquals(pid(1), update.node);
+        Assert.assertEquals(MemberUpdate.Status.SUSPECT, update.status);
+        Assert.assertEquals(3, update.incarnation);
+        Rumor rumor = (Rumor) ping.updates.get(1);
+        Assert.assertEquals(pid(2), rumor.origin);
+        PartitionEntry copy = ((Gossip) rumor.payload).entries.get(0);
+        Assert.assertEquals(entry.partition, copy.partition);
+        Assert.assertEquals(entry.version, copy.version);
+        Assert.assertEquals(entry.leader, copy.leader);
+        Assert.assertEquals(entry.members, copy.members);
+    }
+
+    /**
+     * Views, state-transfers and log-entries keep their ids through the broadcast
+     */
+    @Test
+    public void vsyncTest() {
+        View view = new View(new HashSet<>(Arrays.asList(pid(0), pid(1), pid(2))), 4, pid(0));
+        StateTransfer state = new StateTransfer(Collections.singletonMap("k", "v"), 12);
+        BEB_Deliver deliver = (BEB_Deliver) roundTrip(new BEB_Deliver(new ViewInstall(view, state), pid(0)));
+        Assert.assertEquals(pid(0), deliver.source);
+        ViewInstall viewInstall = (ViewInstall) deliver.payload;
+        Assert.assertEquals(view.members, viewInstall.view.members);
+        Assert.assertEquals(view.id, viewInstall.view.id);
+        Assert.assertEquals(view.leader, viewInstall.view.leader);
+        Assert.assertNull(viewInstall.suffix);
+        Assert.assertEquals(state.id, viewInstall.latestUpdate.id);
+        Assert.assertEquals(12, viewInstall.latestUpdate.timestamp);
+        Assert.assertEquals(state.keyValues, viewInstall.latestUpdate.keyValues);
+
+        List<LogEntry> entries = Arrays.asList(new LogEntry(13, "k", "v2"), new LogEntry(14));
+        LogBatch batch = new LogBatch(entries);
+        VS_Deliver vsDeliver = (VS_Deliver) roundTrip(new VS_Deliver(batch, pid(0), 4));
+        LogBatch copy = (LogBatch) vsDeliver.payload;
+        Assert.assertEquals(4, vsDeliver.viewId);
+        Assert.assertEquals(batch.id, copy.id);
+        Assert.assertEquals(14, copy.timestamp);
+        Assert.assertEquals(entries.get(0).id, copy.entries.get(0).id);
+        Assert.assertEquals("v2", copy.entries.get(0).value);
+        Assert.assertFalse(copy.entries.get(1).isWrite());
+
+        Flush flush = (Flush) roundTrip(new Flush(null, 5, 4, pid(1)));
+        Assert.assertNull(flush.latestUpdate);
+        Assert.assertEquals(5, flush.viewId);
+        Assert.assertEquals(4, flush.oldView);
+        Assert.assertEquals(pid(1), flush.source);
+    }
+
+    /**
+     * An event serialized once is sent to many nodes, every copy is received as the original event and the shared
+     * buffer is not consumed, so a message can be serialized again (e.g when it is retransmitted)
+     */
+    @Test
+    public void serializedEventTest() {
+        StateTransfer state = new StateTransfer(Collections.singletonMap("k", "v"), 12);
+        ByteBuf serialized = Unpooled.buffer();
+        Serializers.toBinary(new BEB_Deliver(state, pid(0)), serialized);
+        int length = serialized.readableBytes();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            messages.add(new Message(address(1), address(i + 1), new SerializedEvent(Unpooled.unmodifiableBuffer(serialized))));
+        }
+        for (Message message : messages) {
+            for (int i = 0; i < 2; i++) {
+                BEB_Deliver deliver = (BEB_Deliver) ((Message) roundTrip(message)).payload;
+                Assert.assertEquals(pid(0), deliver.source);
+                Assert.assertEquals(state.id, ((StateTransfer) deliver.payload).id);
+            }
+        }
+        Assert.assertEquals(length, serialized.readableBytes());
+
+        SerializedEvent event = new SerializedEvent(Unpooled.unmodifiableBuffer(serialized));
+        for (int i = 0; i < 2; i++) {
+            BEB_Deliver deliver = (BEB_Deliver) event.deserialize();
+            Assert.assertEquals(state.keyValues, ((StateTransfer) deliver.payload).keyValues);
+        }
+        Assert.assertEquals(length, event.bytes.readableBytes());
+    }
+
+    @Test
+    public void relayChunkTest() {
+        byte[] data = new byte[]{1, 2, 3, 4, 5};
+        List<NetAddress> recipients = Arrays.asList(address(2), address(3), address(4));
+        RelayChunk chunk = new RelayChunk(UUID.randomUUID(), recipients, 1, 3, data);
+        RelayChunk copy = (RelayChunk) ((Message) roundTrip(new Message(address(1), address(2), chunk))).payload;
+        Assert.assertEquals(chunk.id, copy.id);
+        Assert.assertEquals(recipients, copy.recipients);
+        Assert.assertEquals(1, copy.index);
+        Assert.assertEquals(3, copy.total);
+        Assert.assertTrue(Arrays.equals(data, copy.data));
+    }
+
+    /**
+     * Bytes per message compared with Java serialization, the time per message is measured by
+     * {@link SerializationBenchmark}
+     */
+    @Test
+    public void sizeTest() throws IOException {
+        for (Map.Entry<String, Object> message : messages().entrySet()) {
+            int binary = binary(message.getValue()).readableBytes();
+            int java = java(message.getValue()).length;
+            Assert.assertTrue(message.getKey() + " " + binary + " >= " + java, binary < java);
+        }
+    }
+
+    static Map<String, Object> messages() {
+        Map<String, Object> messages = new LinkedHashMap<>();
+        messages.put("Operation", new Message(address(1), address(2),
+                new RouteMsg("key", new Operation("key", "value", null, Operation.OperationCode.PUT))));
+        messages.put("OpResponse", new Message(address(2), address(1), new OpResponse(UUID.randomUUID(), OpResponse.Code.OK, "value")));
+        messages.put("Ping", new UDPMessage(address(1), address(2), new Ping(1, Collections.<KompicsEvent>singletonList(
+                new MemberUpdate(pid(1), MemberUpdate.Status.ALIVE, 1)))));
+        messages.put("LogEntry", new Message(address(1), address(2), new BEB_Deliver(
+                new VS_Deliver(new LogEntry(1, "key", "value"), pid(0), 1), pid(0))));
+        messages.put("Boot", new Message(address(1), address(2), new Boot(lookupTable(), new HashMap<String, String>())));
+        return messages;
+    }
+
+    static ByteBuf binary(Object o) {
+        ByteBuf buf = Unpooled.buffer();
+        Serializers.toBinary(o, buf);
+        return buf;
+    }
+
+    static byte[] java(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object roundTrip(Object o) {
+        ByteBuf buf = binary(o);
+        Object copy = Serializers.fromBinary(buf, Optional.absent());
+        Assert.assertEquals(0, buf.readableBytes());
+        return copy;
+    }
+
+    private static LookupTable lookupTable() {
+        LookupTable lut = new LookupTable(16);
+        for (int i = 0; i < 3; i++) {
+            lut.putNode(i * 50, pid(i));
+        }
+        lut.update(0, Collections.singleton(pid(0)), pid(0), 2);
+        lut.removePartition(100);
+        return lut;
+    }
+
+    private static NetAddress address(int i) {
+        try {
+            return new NetAddress(InetAddress.getByName("192.168.0." + i), 45678);
+        } catch (UnknownHostException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static PID pid(int i) {
+        return new PID(address(i + 1), i);
+    }
+}
@@ -0,0 +1,161 @@
+package se.kth.id2203.overlay.lookuptable;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.RoutingTable;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+
+/**
+ * Unit tests for the token ring and the versioned entries of LookupTable
+ */
+public class LookupTableTest {
+
+    private static final int KEYS = 100000;
+
+    /**
+     * Keys spread over all partitions and not only the last one
+     */
+    @Test
+    public void distributionTest() {
+        LookupTable lut = lookupTable(4, 64);
+        int[] counts = new int[4];
+        for (int i = 0; i < KEYS; i++) {
+            counts[lut.lookupPartitionKey("key" + i) / 50]++;
+        }
+        for (int count : counts) {
+            Assert.assertTrue(count > KEYS / 4 / 2);
+            Assert.assertTrue(count < KEYS / 4 * 2);
+        }
+    }
+
+    /**
+     * Adding a partition only moves keys to the new partition, removing it moves them back
+     */
+    @Test
+    public void minimalMovementTest() {
+        LookupTable lut = lookupTable(3, 64);
+        LookupTable grown = new LookupTable(lut);
+        grown.putNode(150, pid(3));
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "key" + i;
+            int before = lut.lookupPartitionKey(key);
+            int after = grown.lookupPartitionKey(key);
+            if (before != after) {
+                Assert.assertEquals(150, after);
+                moved++;
+            }
+        }
+        Assert.assertTrue(moved > KEYS / 4 / 2);
+        Assert.assertTrue(moved < KEYS / 4 * 2);
+        grown.removePartition(150);
+        for (int i = 0; i < KEYS; i += 100) {
+            Assert.assertEquals(lut.lookupPartitionKey("key" + i), grown.lookupPartitionKey("key" + i));
+        }
+    }
+
+    /**
+     * The ring does not depend on the order in which partitions were added
+     */
+    @Test
+    public void deterministicTest() {
+        LookupTable lut1 = lookupTable(3, 16);
+        LookupTable lut2 = new LookupTable(16);
+        for (int i = 2; i >= 0; i--) {
+            lut2.putNode(i * 50, pid(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(lut1.lookupPartitionKey("key" + i), lut2.lookupPartitionKey("key" + i));
+            Assert.assertEquals(lut1.lookup("key" + i), lut2.lookup("key" + i));
+        }
+    }
+
+    /**
+     * Stale entries are ignored, a crash wins over the views before it and a re-created partition wins over the crash
+     */
+    @Test
+    public void versionTest() {
+        LookupTable lut = lookupTable(2, 16);
+        PartitionEntry view1 = lut.update(50, Collections.singleton(pid(1)), pid(1), 1);
+        Assert.assertNotNull(view1);
+        Assert.assertNull(lut.update(50, Collections.singleton(pid(1)), pid(1), 1));
+        LookupTable peer = new LookupTable(lut);
+        PartitionEntry crash = lut.removePartition(50);
+        Assert.assertTrue(crash.removed());
+        Assert.assertTrue(peer.apply(crash));
+        Assert.assertFalse(peer.apply(view1));
+        Assert.assertTrue(peer.getPartition(50).isEmpty());
+        PartitionEntry created = lut.create(50, Collections.singleton(pid(2)));
+        Assert.assertTrue(peer.apply(created));
+        Assert.assertEquals(Collections.singleton(pid(2)), peer.getPartition(50));
+    }
+
+    /**
+     * A digest exchange brings a table that missed updates up to date
+     */
+    @Test
+    public void antiEntropyTest() {
+        LookupTable lut = lookupTable(3, 16);
+        LookupTable behind = new LookupTable(lut);
+        lut.update(0, Collections.singleton(pid(0)), pid(0), 4);
+        lut.removePartition(100);
+        Assert.assertTrue(behind.isBehind(lut.digest()));
+        Assert.assertTrue(lut.delta(behind.digest()).size() == 2);
+        for (PartitionEntry entry : lut.delta(behind.digest())) {
+            Assert.assertTrue(behind.apply(entry));
+        }
+        Assert.assertFalse(behind.isBehind(lut.digest()));
+        Assert.assertTrue(lut.delta(behind.digest()).isEmpty());
+        Assert.assertEquals(pid(0), behind.getLeader(0));
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(lut.lookupPartitionKey("key" + i), behind.lookupPartitionKey("key" + i));
+        }
+    }
+
+    /**
+     * The routing table sends keys to the leader of their partition, once a client drops a leader that stopped
+     * responding the partition has no target until a fresh table arrives and other partitions are not affected
+     */
+    @Test
+    public void routingTableTest() {
+        LookupTable lut = lookupTable(3, 16);
+        for (int i = 0; i < 3; i++) {
+            lut.update(i * 50, Collections.singleton(pid(i)), pid(i), 1);
+        }
+        RoutingTable routingTable = lut.routingTable();
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(lut.getLeader(lut.lookupPartitionKey("key" + i)), routingTable.target("key" + i));
+        }
+        RoutingTable withoutLeader = routingTable.withoutLeader("key0");
+        int dropped = lut.lookupPartitionKey("key0");
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            if (lut.lookupPartitionKey(key) == dropped)
+                Assert.assertNull(withoutLeader.target(key));
+            else
+                Assert.assertEquals(routingTable.target(key), withoutLeader.target(key));
+        }
+        Assert.assertNotNull(routingTable.target("key0"));
+    }
+
+    private static LookupTable lookupTable(int partitions, int vnodes) {
+        LookupTable lut = new LookupTable(vnodes);
+        for (int i = 0; i < partitions; i++) {
+            lut.putNode(i * 50, pid(i));
+        }
+        return lut;
+    }
+
+    private static PID pid(int i) {
+        try {
+            return new PID(new NetAddress(InetAddress.getByName("192.168.0." + (i + 1)), 45678), i);
+        } catch (UnknownHostException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package se.kth.id2203.raft;
+
+import com.google.common.collect.ImmutableSet;
+import junit.framework.Assert;
+import org.junit.Test;
+import se.kth.id2203.gms.events.View;
+import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.raft.events.RaftEntry;
+import se.kth.id2203.vsync.events.LogEntry;
+import se.kth.id2203.vsync.events.StateTransfer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Unit tests for RaftLog, how a follower's log follows the entries and snapshots of the leader
+ */
+public class RaftLogTest {
+
+    private static final Set<PID> MEMBERS = ImmutableSet.of(pid(1), pid(2), pid(3));
+
+    /**
+     * Entries that match the previous entry are appended, entries that the log already has are kept
+     */
+    @Test
+    public void appendTest() {
+        RaftLog log = log(1, 1, 2);
+        RaftLog.Match match = log.appendEntries(3, 2, entries(2, 2));
+        Assert.assertTrue(match.success);
+        Assert.assertEquals(5, match.index);
+        Assert.assertEquals(5, log.lastIndex());
+        Assert.assertEquals(2, log.lastTerm());
+        match = log.appendEntries(0, 0, entries(1, 1));
+        Assert.assertTrue(match.success);
+        Assert.assertEquals(2, match.index);
+        Assert.assertEquals(5, log.lastIndex());
+    }
+
+    /**
+     * Entries of an older term that conflict with the leader's are removed together with all that follow them
+     */
+    @Test
+    public void conflictTruncationTest() {
+        RaftLog log = log(1, 1, 2, 2, 2);
+        RaftLog.Match match = log.appendEntries(2, 1, entries(3, 3));
+        Assert.assertTrue(match.success);
+        Assert.assertEquals(4, match.index);
+        Assert.assertEquals(4, log.lastIndex());
+        Assert.assertEquals(1, log.termAt(2));
+        Assert.assertEquals(3, log.termAt(3));
+        Assert.assertEquals(3, log.termAt(4));
+    }
+
+    /**
+     * On mismatch the leader is told to continue from the first index of the conflicting term, or from the end of a
+     * log that is too short, and the log is left as it is
+     */
+    @Test
+    public void conflictIndexTest() {
+        RaftLog log = log(1, 1, 2, 2, 2);
+        RaftLog.Match match = log.appendEntries(4, 3, entries(3));
+        Assert.assertFalse(match.success);
+        Assert.assertEquals(3, match.index);
+        Assert.assertEquals(5, log.lastIndex());
+        match = log.appendEntries(8, 3, entries(3));
+        Assert.assertFalse(match.success);
+        Assert.assertEquals(6, match.index);
+        Assert.assertEquals(5, log.lastIndex());
+    }
+
+    /**
+     * Truncating an uncommitted view entry returns to the configuration before it
+     */
+    @Test
+    public void truncateViewTest() {
+        RaftLog log = log(1);
+        Set<PID> grown = ImmutableSet.of(pid(1), pid(2), pid(3), pid(4));
+        log.append(new RaftEntry(1, grown, pid(1)));
+        Assert.assertEquals(grown, log.members());
+        Assert.assertEquals(2, log.configIndex());
+        RaftLog.Match match = log.appendEntries(1, 1, entries(2));
+        Assert.assertTrue(match.success);
+        Assert.assertEquals(MEMBERS, log.members());
+        Assert.assertEquals(0, log.configIndex());
+    }
+
+    /**
+     * A snapshot replaces a log that does not contain its last entry, the state and configuration come from it
+     */
+    @Test
+    public void installSnapshotTest() {
+        RaftLog log = log(1, 1, 1);
+        Set<PID> members = ImmutableSet.of(pid(2), pid(3), pid(4));
+        View view = new View(members, 4, pid(2));
+        StateTransfer state = new StateTransfer(Collections.singletonMap("key", "value"), 6);
+        log.installSnapshot(6, 2, state, members, view);
+        Assert.assertEquals(6, log.snapshotIndex());
+        Assert.assertEquals(6, log.lastIndex());
+        Assert.assertEquals(2, log.lastTerm());
+        Assert.assertEquals(state, log.snapshotState());
+        Assert.assertEquals(view, log.snapshotView());
+        Assert.assertEquals(members, log.members());
+        Assert.assertEquals(6, log.configIndex());
+    }
+
+    /**
+     * A snapshot of a prefix of the log keeps the entries that follow it
+     */
+    @Test
+    public void installSnapshotPrefixTest() {
+        RaftLog log = log(1, 1, 2, 2);
+        log.installSnapshot(2, 1, new StateTransfer(new HashMap<String, String>(), 2), MEMBERS, null);
+        Assert.assertEquals(2, log.snapshotIndex());
+        Assert.assertEquals(4, log.lastIndex());
+        Assert.assertEquals(2, log.termAt(3));
+        log.installSnapshot(3, 1, new StateTransfer(new HashMap<String, String>(), 3), MEMBERS, null);
+        Assert.assertEquals(3, log.lastIndex());
+    }
+
+    /**
+     * Entries before the snapshot are committed, the leader's entries for them are skipped
+     */
+    @Test
+    public void appendAcrossSnapshotTest() {
+        RaftLog log = log(1, 1, 1);
+        log.compact(2, new StateTransfer(new HashMap<String, String>(), 2), null);
+        Assert.assertEquals(2, log.snapshotIndex());
+        Assert.assertEquals(1, log.termAt(2));
+        RaftLog.Match match = log.appendEntries(0, 0, entries(1));
+        Assert.assertTrue(match.success);
+        Assert.assertEquals(1, match.index);
+        match = log.appendEntries(0, 0, entries(1, 1, 1, 2));
+        Assert.assertTrue(match.success);
+        Assert.assertEquals(4, match.index);
+        Assert.assertEquals(2, log.termAt(4));
+        Assert.assertEquals(2, log.entries(3, 4).size());
+    }
+
+    private static RaftLog log(long... terms) {
+        RaftLog log = new RaftLog(null, MEMBERS);
+        for (RaftEntry entry : entries(terms)) {
+            log.append(entry);
+        }
+        return log;
+    }
+
+    private static List<RaftEntry> entries(long... terms) {
+        List<RaftEntry> entries = new ArrayList<>();
+        for (long term : terms) {
+            entries.add(new RaftEntry(term, new LogEntry(term, "key", "value" + term)));
+        }
+        return entries;
+    }
+
+    private static PID pid(int i) {
+        try {
+            return new PID(new NetAddress(InetAddress.getByName("192.168.0." + i), 45678), i);
+        } catch (UnknownHostException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -23,12 +23,15 @@
  */
 package se.kth.id2203.simulation.scenario.common;
 
+import com.google.common.base.Joiner;
 import se.kth.id2203.ParentComponent;
 import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.raft.RaftService;
 import se.kth.id2203.simulation.gv.SimulationObserver;
 import se.kth.id2203.simulation.scenario.lin.SequentialClient;
 import se.kth.id2203.simulation.scenario.ops.SimpleOpsScenarioClient;
 import se.kth.id2203.simulation.scenario.reconf.ReconfTestClient;
+import se.kth.id2203.vsync.VSyncService;
 import se.sics.kompics.Init;
 import se.sics.kompics.network.Address;
 import se.sics.kompics.simulator.SimulationScenario;
@@ -43,7 +46,11 @@ import se.sics.kompics.simulator.events.system.StartNodeEvent;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -111,60 +118,64 @@ public abstract class ScenarioGen {
     };
 
     /**
-     * Operation to start a cluster for scenario
+     * Operation to start a cluster for scenario, overrides are put in the config of every server e.g. to choose the
+     * replication protocol
      */
-    private static final Operation3 startScenarioServerOp = new Operation3<StartNodeEvent, Integer, Integer, Integer>() {
+    private static Operation3 startScenarioServerOp(final Map<String, Object> overrides) {
+        return new Operation3<StartNodeEvent, Integer, Integer, Integer>() {
 
-        @Override
-        public StartNodeEvent generate(final Integer self, final Integer replicationDegree, final Integer bootThreshold) {
-            return new StartNodeEvent() {
-                final NetAddress selfAdr;
-                final NetAddress bsAdr;
+            @Override
+            public StartNodeEvent generate(final Integer self, final Integer replicationDegree, final Integer bootThreshold) {
+                return new StartNodeEvent() {
+                    final NetAddress selfAdr;
+                    final NetAddress bsAdr;
 
-                {
-                    try {
-                        selfAdr = new NetAddress(InetAddress.getByName("192.168.0." + self), 45678);
-                        bsAdr = new NetAddress(InetAddress.getByName("192.168.0.1"), 45678);
-                    } catch (UnknownHostException ex) {
-                        throw new RuntimeException(ex);
+                    {
+                        try {
+                            selfAdr = new NetAddress(InetAddress.getByName("192.168.0." + self), 45678);
+                            bsAdr = new NetAddress(InetAddress.getByName("192.168.0.1"), 45678);
+                        } catch (UnknownHostException ex) {
+                            throw new RuntimeException(ex);
+                        }
                     }
-                }
 
-                @Override
-                public Address getNodeAddress() {
-                    return selfAdr;
-                }
+                    @Override
+                    public Address getNodeAddress() {
+                        return selfAdr;
+                    }
 
-                @Override
-                public Class getComponentDefinition() {
-                    return SimulationParentComponent.class;
-                }
+                    @Override
+                    public Class getComponentDefinition() {
+                        return SimulationParentComponent.class;
+                    }
 
-                @Override
-                public String toString() {
-                    return "StartNode<" + selfAdr.toString() + ">";
-                }
+                    @Override
+                    public String toString() {
+                        return "StartNode<" + selfAdr.toString() + ">";
+                    }
 
-                @Override
-                public Init getComponentInit() {
-                    return Init.NONE;
-                }
+                    @Override
+                    public Init getComponentInit() {
+                        return Init.NONE;
+                    }
 
-                @Override
-                public Map<String, Object> initConfigUpdate() {
-                    HashMap<String, Object> config = new HashMap<>();
-                    config.put("id2203.project.address", selfAdr);
-                    config.put("id2203.project.replicationDegree", replicationDegree);
-                    config.put("id2203.project.bootThreshold", bootThreshold);
-                    if (self != 1) { // don't put this at the bootstrap server, or it will act as a bootstrap client
-                        config.put("id2203.project.bootstrap-address", bsAdr);
+                    @Override
+                    public Map<String, Object> initConfigUpdate() {
+                        HashMap<String, Object> config = new HashMap<>();
+                        config.put("id2203.project.address", selfAdr);
+                        config.put("id2203.project.replicationDegree", replicationDegree);
+                        config.put("id2203.project.bootThreshold", bootThreshold);
+                        if (self != 1) { // don't put this at the bootstrap server, or it will act as a bootstrap client
+                            config.put("id2203.project.bootstrap-address", bsAdr);
+                        }
+                        config.putAll(overrides);
+                        return config;
                     }
-                    return config;
-                }
-            };
-        }
-    };
-    
+                };
+            }
+        };
+    }
+
     private static final Operation4 startScenarioView = new Operation4<StartNodeEvent, Integer, Integer, Integer, Integer>() {
 
         @Override
@@ -321,55 +332,58 @@ public abstract class ScenarioGen {
     };
 
     /**
-     * Operation for starting a client, takes one parameter which defines the pid of the client.
+     * Operation for starting a client that puts the given keys, takes one parameter which defines the pid of the client.
      */
-    private static final Operation1 startReconfClient = new Operation1<StartNodeEvent, Integer>() {
+    private static Operation1 startReconfClient(final List<String> keys) {
+        return new Operation1<StartNodeEvent, Integer>() {
 
-        @Override
-        public StartNodeEvent generate(final Integer self) {
-            return new StartNodeEvent() {
-                final NetAddress selfAdr;
-                final NetAddress bsAdr;
+            @Override
+            public StartNodeEvent generate(final Integer self) {
+                return new StartNodeEvent() {
+                    final NetAddress selfAdr;
+                    final NetAddress bsAdr;
 
-                {
-                    try {
-                        selfAdr = new NetAddress(InetAddress.getByName("192.168.1." + self), 45678);
-                        bsAdr = new NetAddress(InetAddress.getByName("192.168.0.1"), 45678);
-                    } catch (UnknownHostException ex) {
-                        throw new RuntimeException(ex);
+                    {
+                        try {
+                            selfAdr = new NetAddress(InetAddress.getByName("192.168.1." + self), 45678);
+                            bsAdr = new NetAddress(InetAddress.getByName("192.168.0.1"), 45678);
+                        } catch (UnknownHostException ex) {
+                            throw new RuntimeException(ex);
+                        }
                     }
-                }
 
-                @Override
-                public Address getNodeAddress() {
-                    return selfAdr;
-                }
+                    @Override
+                    public Address getNodeAddress() {
+                        return selfAdr;
+                    }
 
-                @Override
-                public Class getComponentDefinition() {
-                    return ReconfTestClient.class;
-                }
+                    @Override
+                    public Class getComponentDefinition() {
+                        return ReconfTestClient.class;
+                    }
 
-                @Override
-                public String toString() {
-                    return "StartClient<" + selfAdr.toString() + ">";
-                }
+                    @Override
+                    public String toString() {
+                        return "StartClient<" + selfAdr.toString() + ">";
+                    }
 
-                @Override
-                public Init getComponentInit() {
-                    return Init.NONE;
-                }
+                    @Override
+                    public Init getComponentInit() {
+                        return Init.NONE;
+                    }
 
-                @Override
-                public Map<String, Object> initConfigUpdate() {
-                    HashMap<String, Object> config = new HashMap<>();
-                    config.put("id2203.project.address", selfAdr);
-                    config.put("id2203.project.bootstrap-address", bsAdr);
-                    return config;
-                }
-            };
-        }
-    };
+                    @Override
+                    public Map<String, Object> initConfigUpdate() {
+                        HashMap<String, Object> config = new HashMap<>();
+                        config.put("id2203.project.address", selfAdr);
+                        config.put("id2203.project.bootstrap-address", bsAdr);
+                        config.put("id2203.project.reconf.keys", Joiner.on(',').join(keys));
+                        return config;
+                    }
+                };
+            }
+        };
+    }
 
     /**
      * Operation for starting a observer (node to check the global state periodically during execution).
@@ -473,6 +487,18 @@ public abstract class ScenarioGen {
     }
 
 
+    /**
+     * Server configs that the parameterized linearizability and replication tests run with: the default VSync
+     * replication, VSync with chain dissemination and Raft
+     */
+    public static Collection<Object[]> replicationConfigs() {
+        return Arrays.asList(new Object[][]{
+                {Collections.<String, Object>emptyMap()},
+                {Collections.<String, Object>singletonMap("id2203.project.vsync.dissemination", VSyncService.DISSEMINATION_CHAIN)},
+                {Collections.<String, Object>singletonMap("id2203.project.replication", RaftService.PROTOCOL)}
+        });
+    }
+
     /**
      * Start test cluster of servers and cluster of clients. Clients generate random sequence of invocation events
      * and server respond with response-events, log all events to a trace.
@@ -481,12 +507,16 @@ public abstract class ScenarioGen {
      * @return
      */
     public static SimulationScenario linearizeTest(final int servers, final int clients, final int replicationDegree) {
+        return linearizeTest(servers, clients, replicationDegree, Collections.<String, Object>emptyMap());
+    }
+
+    public static SimulationScenario linearizeTest(final int servers, final int clients, final int replicationDegree, final Map<String, Object> config) {
         return new SimulationScenario() {
             {
                 SimulationScenario.StochasticProcess startCluster = new SimulationScenario.StochasticProcess() {
                     {
                         eventInterArrivalTime(constant(1000));
-                        raise(servers, startScenarioServerOp, new BasicIntSequentialDistribution(1), new ConstantDistribution(Integer.class, replicationDegree), new ConstantDistribution(Integer.class, servers));
+                        raise(servers, startScenarioServerOp(config), new BasicIntSequentialDistribution(1), new ConstantDistribution(Integer.class, replicationDegree), new ConstantDistribution(Integer.class, servers));
                     }
                 };
 
@@ -505,12 +535,16 @@ public abstract class ScenarioGen {
 
 
     public static SimulationScenario linearizeCrashTest(final int servers, final int clients, final int replicationDegree, final int crashes) {
+        return linearizeCrashTest(servers, clients, replicationDegree, crashes, Collections.<String, Object>emptyMap());
+    }
+
+    public static SimulationScenario linearizeCrashTest(final int servers, final int clients, final int replicationDegree, final int crashes, final Map<String, Object> config) {
         return new SimulationScenario() {
             {
                 SimulationScenario.StochasticProcess startCluster = new SimulationScenario.StochasticProcess() {
                     {
                         eventInterArrivalTime(constant(1000));
-                        raise(servers, startScenarioServerOp, new BasicIntSequentialDistribution(1), new ConstantDistribution(Integer.class, replicationDegree), new ConstantDistribution(Integer.class, servers));
+                        raise(servers, startScenarioServerOp(config), new BasicIntSequentialDistribution(1), new ConstantDistribution(Integer.class, replicationDegree), new ConstantDistribution(Integer.class, servers));
                     }
                 };
 
@@ -552,12 +586,16 @@ public abstract class ScenarioGen {
     }
 
     public static SimulationScenario replicationTest(final int servers, final int clients, final int replicationDegree) {
+        return replicationTest(servers, clients, replicationDegree, Collections.<String, Object>emptyMap());
+    }
+
+    public static SimulationScenario replicationTest(final int servers, final int clients, final int replicationDegree, final Map<String, Object> config) {
         return new SimulationScenario() {
             {
                 SimulationScenario.StochasticProcess startCluster = new SimulationScenario.StochasticProcess() {
                     {
                         eventInterArrivalTime(constant(1000));
-                        raise(servers, startScenarioServerOp, new BasicIntSequentialDistribution(1), new ConstantDistribution(Integer.class, replicationDegree), new ConstantDistribution(Integer.class, servers));
+                        raise(servers, startScenarioServerOp(config), new BasicIntSequentialDistribution(1), new ConstantDistribution(Integer.class, replicationDegree), new ConstantDistribution(Integer.class, servers));
                     }
                 };
 
@@ -574,6 +612,49 @@ public abstract class ScenarioGen {
         };
     }
 
+    /**
+     * Like replicationTest but the server crashed is killed while the clients run, and a second set of clients runs
+     * against the group after the crash
+     */
+    public static SimulationScenario replicationCrashTest(final int servers, final int clients, final int replicationDegree, final int crashed, final Map<String, Object> config) {
+        return new SimulationScenario() {
+            {
+                SimulationScenario.StochasticProcess startCluster = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(servers, startScenarioServerOp(config), new BasicIntSequentialDistribution(1), new ConstantDistribution(Integer.class, replicationDegree), new ConstantDistribution(Integer.class, servers));
+                    }
+                };
+
+                SimulationScenario.StochasticProcess startClients = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(clients, startSequentialClient, new BasicIntSequentialDistribution(1));
+                    }
+                };
+
+                SimulationScenario.StochasticProcess killNode = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(0));
+                        raise(1, killNodeOp, new ConstantDistribution(Integer.class, crashed));
+                    }
+                };
+
+                SimulationScenario.StochasticProcess startClients2 = new SimulationScenario.StochasticProcess() {
+                    {
+                        eventInterArrivalTime(constant(1000));
+                        raise(clients, startSequentialClient, new BasicIntSequentialDistribution(1));
+                    }
+                };
+                startCluster.start();
+                startClients.startAfterTerminationOf(100000, startCluster);
+                killNode.startAfterStartOf(2000, startClients);
+                startClients2.startAfterStartOf(30000, killNode);
+                terminateAfterTerminationOf(10000, startClients2);
+            }
+        };
+    }
+
     public static SimulationScenario viewTest(final int servers, final int replicationDegree, final int crashes) {
         return new SimulationScenario() {
             {
@@ -597,6 +678,13 @@ public abstract class ScenarioGen {
     }
     
     public static SimulationScenario reconfTest(final int servers, final int replicationDegree, final int join, final int keyrange) {
+        return reconfTest(servers, replicationDegree, join, keyrange, Arrays.asList("1", "15"));
+    }
+
+    /**
+     * Start a cluster, a client that puts the keys and then the servers that join
+     */
+    public static SimulationScenario reconfTest(final int servers, final int replicationDegree, final int join, final int keyrange, final List<String> keys) {
         return new SimulationScenario() {
             {
                 SimulationScenario.StochasticProcess startCluster = new SimulationScenario.StochasticProcess() {
@@ -616,7 +704,7 @@ public abstract class ScenarioGen {
                 SimulationScenario.StochasticProcess startClient = new SimulationScenario.StochasticProcess() {
                     {
                         eventInterArrivalTime(constant(1000));
-                        raise(1, startReconfClient, new BasicIntSequentialDistribution(1));
+                        raise(1, startReconfClient(keys), new BasicIntSequentialDistribution(1));
                     }
                 };
 
@@ -17,6 +17,9 @@ import se.kth.id2203.omega.ports.OmegaPort;
 import se.kth.id2203.overlay.manager.ports.Routing;
 import se.kth.id2203.overlay.service.VSOverlayService;
 import se.kth.id2203.overlay.service.ports.OverlayServicePort;
+import se.kth.id2203.raft.RaftService;
+import se.kth.id2203.swim.SWIM;
+import se.kth.id2203.swim.ports.SWIMPort;
 import se.kth.id2203.vsync.VSyncService;
 import se.kth.id2203.vsync.ports.VSyncPort;
 import se.sics.kompics.*;
@@ -38,13 +41,13 @@ public class SimulationParentComponent extends ComponentDefinition {
     protected final Component kv = create(SimulationKVService.class, Init.NONE);
     protected final Component overlay = create(SimulationVSOverlayManager.class, Init.NONE);
     protected final Component boot;
-    protected final Component epfd = create(EPFD.class, Init.NONE);
-    protected final Component omega = create(Omega.class, Init.NONE);
+    protected final Component epfd;
+    protected final Component omega;
     protected final Component beb = create(BEB.class, Init.NONE);
-    protected final Component gms = create(GMS.class, Init.NONE);
-    protected final Component vSync = create(VSyncService.class, Init.NONE);
-    protected final Component epfd2 = create(EPFD.class, Init.NONE);
+    protected final Component gms;
+    protected final Component vSync;
     protected final Component overlayService = create(VSOverlayService.class, Init.NONE);
+    protected final Component swim = create(SWIM.class, Init.NONE);
 
 
     {
@@ -54,6 +57,17 @@ public class SimulationParentComponent extends ComponentDefinition {
         } else { // start in server mode
             boot = create(BootstrapServer.class, Init.NONE);
         }
+        if (RaftService.PROTOCOL.equals(config().getValue("id2203.project.replication", String.class))) {
+            vSync = create(RaftService.class, Init.NONE);
+            epfd = null;
+            omega = null;
+            gms = null;
+        } else {
+            vSync = create(VSyncService.class, Init.NONE);
+            epfd = create(EPFD.class, Init.NONE);
+            omega = create(Omega.class, Init.NONE);
+            gms = create(GMS.class, Init.NONE);
+        }
         connect(timer, boot.getNegative(Timer.class), Channel.TWO_WAY);
         connect(net, boot.getNegative(Network.class), Channel.TWO_WAY);
         //Overlay
@@ -71,30 +85,33 @@ public class SimulationParentComponent extends ComponentDefinition {
         connect(net, kv.getNegative(Network.class), Channel.TWO_WAY);
         connect(timer, kv.required(Timer.class), Channel.TWO_WAY);
         connect(kv.required(VSyncPort.class), vSync.provided(VSyncPort.class), Channel.TWO_WAY);
-        //EPFD
-        connect(epfd.provided(EPFDPort.class), omega.required(EPFDPort.class), Channel.TWO_WAY);
-        connect(net, epfd.required(Network.class), Channel.TWO_WAY);
-        connect(timer, epfd.required(Timer.class), Channel.TWO_WAY);
-        connect(epfd.provided(EPFDPort.class), gms.required(EPFDPort.class), Channel.TWO_WAY);
-        //EPFD2
-        connect(epfd2.provided(EPFDPort.class), overlayService.required(EPFDPort.class), Channel.TWO_WAY);
-        connect(net, epfd2.required(Network.class), Channel.TWO_WAY);
-        connect(timer, epfd2.required(Timer.class), Channel.TWO_WAY);
-        //Omega
-        connect(omega.provided(OmegaPort.class), gms.required(OmegaPort.class), Channel.TWO_WAY);
-        connect(timer, omega.required(Timer.class), Channel.TWO_WAY);
+        //SWIM
+        connect(swim.provided(SWIMPort.class), overlayService.required(SWIMPort.class), Channel.TWO_WAY);
+        connect(net, swim.required(Network.class), Channel.TWO_WAY);
+        connect(timer, swim.required(Timer.class), Channel.TWO_WAY);
         //BEB
-        connect(beb.provided(BEBPort.class), gms.required(BEBPort.class), Channel.TWO_WAY);
-        connect(beb.provided(BEBPort.class), vSync.required(BEBPort.class), Channel.TWO_WAY);
-        connect(beb.provided(BEBPort.class), overlayService.required(BEBPort.class), Channel.TWO_WAY);
         connect(net, beb.required(Network.class), Channel.TWO_WAY);
-        //GMS
-        connect(gms.provided(GMSPort.class), vSync.required(GMSPort.class), Channel.TWO_WAY);
-        connect(timer, gms.required(Timer.class), Channel.TWO_WAY);
-        connect(net, gms.required(Network.class), Channel.TWO_WAY);
+        connect(timer, beb.required(Timer.class), Channel.TWO_WAY);
         //VSync
         connect(timer, vSync.required(Timer.class), Channel.TWO_WAY);
         connect(net, vSync.required(Network.class), Channel.TWO_WAY);
+        //GMS-based VSync, Raft only needs the timer and network
+        if (gms != null) {
+            //EPFD, one heartbeat stream per node shared by all subscribers
+            connect(epfd.provided(EPFDPort.class), omega.required(EPFDPort.class), Channel.TWO_WAY);
+            connect(net, epfd.required(Network.class), Channel.TWO_WAY);
+            connect(timer, epfd.required(Timer.class), Channel.TWO_WAY);
+            connect(epfd.provided(EPFDPort.class), gms.required(EPFDPort.class), Channel.TWO_WAY);
+            //Omega
+            connect(omega.provided(OmegaPort.class), gms.required(OmegaPort.class), Channel.TWO_WAY);
+            connect(timer, omega.required(Timer.class), Channel.TWO_WAY);
+            //GMS
+            connect(gms.provided(GMSPort.class), vSync.required(GMSPort.class), Channel.TWO_WAY);
+            connect(timer, gms.required(Timer.class), Channel.TWO_WAY);
+            connect(net, gms.required(Network.class), Channel.TWO_WAY);
+            connect(beb.provided(BEBPort.class), gms.required(BEBPort.class), Channel.TWO_WAY);
+            connect(beb.provided(BEBPort.class), vSync.required(BEBPort.class), Channel.TWO_WAY);
+        }
     }
 
     @Override
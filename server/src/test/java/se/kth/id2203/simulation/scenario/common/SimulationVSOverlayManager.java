@@ -24,6 +24,7 @@
 package se.kth.id2203.simulation.scenario.common;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.larskroll.common.J6;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,9 +37,12 @@ import se.kth.id2203.kvstore.ports.KVPort;
 import se.kth.id2203.networking.Message;
 import se.kth.id2203.networking.NetAddress;
 import se.kth.id2203.overlay.Connect;
+import se.kth.id2203.overlay.GetRoutingTable;
 import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.Redirect;
 import se.kth.id2203.overlay.RouteMsg;
 import se.kth.id2203.overlay.lookuptable.LookupTable;
+import se.kth.id2203.overlay.lookuptable.PartitionEntry;
 import se.kth.id2203.overlay.lookuptable.PartitionAssignmentException;
 import se.kth.id2203.overlay.manager.ports.Routing;
 import se.kth.id2203.overlay.service.events.GlobalView;
@@ -52,6 +56,7 @@ import se.sics.kompics.timer.Timer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -81,7 +86,7 @@ public class SimulationVSOverlayManager extends ComponentDefinition {
             LOG.info("Generating LookupTable...");
             LookupTable lut = null;
             try {
-                lut = LookupTable.generate(event.nodes, event.replicationDegree, event.keySpace);
+                lut = LookupTable.generate(event.nodes, event.replicationDegree, event.keySpace, event.vnodes);
             } catch (PartitionAssignmentException e) {
                 e.printStackTrace();
                 Kompics.forceShutdown();
@@ -103,9 +108,9 @@ public class SimulationVSOverlayManager extends ComponentDefinition {
                 selfPID = lut.getPID(self);
                 res.put(selfPID.netAddress.getIp().getHostAddress()+"-globalviews",new ArrayList<>());
                 int key = lut.reverseLookup(selfPID);
-                Collection<PID> replicationGroup = lut.lookup(key);
-                trigger(new ReplicationInit((Set) replicationGroup, selfPID, event.keyValues), kvPort);
-                trigger(new VSOverlayServiceInit(lut, selfPID), overlayServicePort);
+                Collection<PID> replicationGroup = lut.getPartition(key);
+                trigger(new ReplicationInit((Set) replicationGroup, selfPID, event.keyValues, key), kvPort);
+                trigger(new VSOverlayServiceInit(new LookupTable(lut), selfPID), overlayServicePort);
             } else {
                 LOG.error("Got invalid NodeAssignment type. Expected: LookupTable; Got: {}", event.assignment.getClass());
             }
@@ -113,20 +118,37 @@ public class SimulationVSOverlayManager extends ComponentDefinition {
     };
 
     /**
-     * Some operation for the key-value store to be routed. Retrieve the set of servers for the partition and route
-     * payload to a randomly selected server
+     * Some operation for the key-value store to be routed. Route payload to the leader of the partition or to a
+     * randomly selected server if the leader is not known. If we are not the leader the client has a stale or no
+     * routing table, redirect it so that it sends the next operations straight to the leader.
      */
     protected final ClassMatchedHandler<RouteMsg, Message> routeHandler = new ClassMatchedHandler<RouteMsg, Message>() {
 
         @Override
         public void handle(RouteMsg content, Message context) {
-            Collection<PID> partition = lut.lookup(content.key);
-            PID target = J6.randomElement(partition);
-            LOG.info("Forwarding payload for key {} to {}", content.key, target);
+            PID target = lut.getLeader(lut.lookupPartitionKey(content.key));
+            if (target == null)
+                target = J6.randomElement(lut.lookup(content.key));
+            if (!target.equals(selfPID)) {
+                LOG.info("Forwarding payload for key {} to {}", content.key, target);
+                trigger(new Message(self, context.getSource(), new Redirect(content.key, lut.routingTable())), net);
+            }
             trigger(new Message(context.getSource(), target.netAddress, content.msg), net);
         }
     };
 
+    /**
+     * Client requests the routing table
+     */
+    protected final ClassMatchedHandler<GetRoutingTable, Message> routingTableHandler = new ClassMatchedHandler<GetRoutingTable, Message>() {
+
+        @Override
+        public void handle(GetRoutingTable content, Message context) {
+            if (lut != null)
+                trigger(new Message(self, context.getSource(), lut.routingTable()), net);
+        }
+    };
+
     /**
      * Locally routed payload
      */
@@ -165,9 +187,16 @@ public class SimulationVSOverlayManager extends ComponentDefinition {
         @Override
         public void handle(GlobalView globalView) {
             LOG.debug("Received new global view table from VSOverlayService");
-            lut = globalView.lookupTable;
+            for (PartitionEntry entry : globalView.delta) {
+                lut.apply(entry);
+            }
             ArrayList<Map> viewHistory = res.get(selfPID.netAddress.getIp().getHostAddress()+"-globalviews", ArrayList.class);
-            viewHistory.add(ImmutableMap.copyOf(globalView.lookupTable.getMap().asMap()));
+            Map<Object, Set<PID>> partitions = new HashMap<>();
+            for (Object key : lut.getMap().keySet()) {
+                partitions.put(key, ImmutableSet.copyOf((Collection<PID>) lut.getMap().get(key)));
+            }
+            if (viewHistory.isEmpty() || !viewHistory.get(viewHistory.size() - 1).equals(partitions))
+                viewHistory.add(ImmutableMap.copyOf(partitions));
         }
     };
 /*
@@ -187,5 +216,6 @@ public class SimulationVSOverlayManager extends ComponentDefinition {
         subscribe(routeHandler, net);
         subscribe(localRouteHandler, route);
         subscribe(connectHandler, net);
+        subscribe(routingTableHandler, net);
     }
 }
@@ -25,6 +25,8 @@ package se.kth.id2203.simulation.scenario.lin;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import se.kth.id2203.simulation.result.SimulationResultMap;
 import se.kth.id2203.simulation.result.SimulationResultSingleton;
 import se.kth.id2203.simulation.scenario.common.ScenarioGen;
@@ -32,9 +34,11 @@ import se.sics.kompics.simulator.SimulationScenario;
 import se.sics.kompics.simulator.run.LauncherComp;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
@@ -44,6 +48,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  *
  * @author Kim Hammar
  */
+@RunWith(Parameterized.class)
 public class LinCrashTest {
 
     private static final int NUM_MESSAGES = 10;
@@ -52,13 +57,26 @@ public class LinCrashTest {
     private static final int REPLICATION_DEGREE = 3;
     private static final int CRASHES = 2;
     private final static SimulationResultMap res = SimulationResultSingleton.getInstance();
+    private final Map<String, Object> config;
+
+    public LinCrashTest(Map<String, Object> config) {
+        this.config = config;
+    }
+
+    /**
+     * Run the scenario with each replication protocol and dissemination mode
+     */
+    @Parameterized.Parameters
+    public static Collection<Object[]> configs() {
+        return ScenarioGen.replicationConfigs();
+    }
 
     @Test
     public void linCrashTest() {
 
         long seed = 123;
         SimulationScenario.setSeed(seed);
-        SimulationScenario simpleBootScenario = ScenarioGen.linearizeCrashTest(SERVERS, CLIENTS, REPLICATION_DEGREE, CRASHES);
+        SimulationScenario simpleBootScenario = ScenarioGen.linearizeCrashTest(SERVERS, CLIENTS, REPLICATION_DEGREE, CRASHES, config);
         res.put("messages", NUM_MESSAGES);
         res.put("trace", new ConcurrentLinkedQueue<>());
 
@@ -74,7 +92,7 @@ public class LinCrashTest {
 
         //Check linearizability
         ConcurrentLinkedQueue history = res.get("trace", ConcurrentLinkedQueue.class);
-        Assert.assertTrue(isLinearizable(history, new HashMap<Integer, String>()));
+        Assert.assertTrue(isLinearizable(history, new HashMap<String, String>()));
     }
 
     /**
@@ -84,13 +102,13 @@ public class LinCrashTest {
      * @param specificationObject
      * @return
      */
-    private static boolean isLinearizable(ConcurrentLinkedQueue history, HashMap<Integer, String> specificationObject) {
+    private static boolean isLinearizable(ConcurrentLinkedQueue history, HashMap<String, String> specificationObject) {
         if (history.isEmpty())
             return true;
         else {
             for (HashMap<String, Object> operation : getMinimalOps(history)) {
                 HashMap<String, Object> res = getResponse(history, (String) operation.get("id"));
-                HashMap<Integer, String> undoReference = new HashMap<>(specificationObject);
+                HashMap<String, String> undoReference = new HashMap<>(specificationObject);
                 HashMap<String, Object> res2 = applyOperation(operation, specificationObject);
                 ConcurrentLinkedQueue h1 = new ConcurrentLinkedQueue(history);
                 h1.remove(operation);
@@ -131,7 +149,7 @@ public class LinCrashTest {
      * @param specificationObject
      * @return
      */
-    private static HashMap<String, Object> applyOperation(HashMap<String, Object> operation, HashMap<Integer, String> specificationObject) {
+    private static HashMap<String, Object> applyOperation(HashMap<String, Object> operation, HashMap<String, String> specificationObject) {
         String operationCode = (String) operation.get("operationCode");
         String key = (String) operation.get("key");
         String status = "OK";
@@ -140,18 +158,18 @@ public class LinCrashTest {
         String referenceValue = (String) operation.get("referenceValue");
         String responseValue = "";
         if (operationCode.equals("GET")) {
-            responseValue = specificationObject.get(key.hashCode());
+            responseValue = specificationObject.get(key);
             if (responseValue == null)
                 responseValue = "not found";
         }
         if (operationCode.equals("PUT")) {
-            specificationObject.put(key.hashCode(), opValue);
+            specificationObject.put(key, opValue);
             responseValue = "Write successful";
         }
         if (operationCode.equals("CAS")) {
-            String oldValue = specificationObject.get(key.hashCode());
+            String oldValue = specificationObject.get(key);
             if (oldValue != null && referenceValue.equals(oldValue))
-                specificationObject.put(key.hashCode(), opValue);
+                specificationObject.put(key, opValue);
             if (oldValue == null)
                 responseValue = "not found";
             else
@@ -164,7 +182,7 @@ public class LinCrashTest {
         return response;
     }
 
-    private static void undo(HashMap<Integer, String> specificationObject, HashMap<Integer, String> undoReference) {
+    private static void undo(HashMap<String, String> specificationObject, HashMap<String, String> undoReference) {
         specificationObject.keySet().removeAll(specificationObject.keySet());
         specificationObject.putAll(undoReference);
     }
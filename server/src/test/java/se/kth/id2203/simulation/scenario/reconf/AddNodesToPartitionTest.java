@@ -86,14 +86,14 @@ public class AddNodesToPartitionTest {
          * Verify that all nodes have consistent store, especially joined servers
          * 
          */
-        ArrayList<HashMap<Integer, String>> nodeStores = new ArrayList<>();
+        ArrayList<HashMap<String, String>> nodeStores = new ArrayList<>();
         for (int i = 1; i <= SERVERS+JOINS; i++) {
             String ip = "192.168.0." + i;
             nodeStores.add(res.get(ip+"-values", HashMap.class));
         }
         
-        HashMap<Integer, String> reference = nodeStores.get(0);
-        for (HashMap<Integer, String> nodeStore : nodeStores) {
+        HashMap<String, String> reference = nodeStores.get(0);
+        for (HashMap<String, String> nodeStore : nodeStores) {
             Assert.assertTrue(reference.equals(nodeStore));
         }
     }
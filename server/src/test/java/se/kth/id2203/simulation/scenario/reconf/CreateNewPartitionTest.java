@@ -2,15 +2,19 @@ package se.kth.id2203.simulation.scenario.reconf;
 
 import org.junit.Assert;
 import org.junit.Test;
+import se.kth.id2203.networking.NetAddress;
+import se.kth.id2203.overlay.PID;
+import se.kth.id2203.overlay.TokenRing;
+import se.kth.id2203.overlay.lookuptable.LookupTable;
 import se.kth.id2203.simulation.result.SimulationResultMap;
 import se.kth.id2203.simulation.result.SimulationResultSingleton;
 import se.kth.id2203.simulation.scenario.common.ScenarioGen;
 import se.sics.kompics.simulator.SimulationScenario;
 import se.sics.kompics.simulator.run.LauncherComp;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
@@ -35,11 +39,11 @@ public class CreateNewPartitionTest {
 
         /**
          * Boot up SERVERS in a cluster and a single replication group, also boot up a client which will send 2 Put requests
-         * one with key 49(hash(1)) and one with key 1572 (hash(15)) then boot up JOINS servers which will request to join.
+         * with keys 1 and 15 then boot up JOINS servers which will request to join.
          * Since Servers=3 and quorum=2, there is not space to join the existing partition but since there are 2 join-requests
-         * they can form a new partition which satisfies the replication degree. Upon creation of the new partition with keyspace=50
-         * it means that the first partition is responsible for keys 0-49 and the second is responsible for 50-... so the key
-         * 1572 should be handed over to the new partition.
+         * they can form a new partition which satisfies the replication degree. Upon creation of the new partition with id 50
+         * its tokens take over part of the ring, key 1 stays at the first partition and key 15 should be handed over to the
+         * new partition.
          */
         reconfigureTest.simulate(LauncherComp.class);
 
@@ -55,9 +59,9 @@ public class CreateNewPartitionTest {
             Map gw2 = globalViews.get(1);
             Assert.assertEquals(2, gw2.keySet().size()); //2 partitions in second view
 
-            HashMap<Integer, String> store = res.get(ip + "-values", HashMap.class);
-            for (int key : store.keySet()) {
-                Assert.assertTrue(key < KEY_RANGE); //Higher keys should have been handed over
+            HashMap<String, String> store = res.get(ip + "-values", HashMap.class);
+            for (String key : store.keySet()) {
+                Assert.assertEquals(0, ring().lookupPartitionKey(key)); //Keys of the new partition should have been handed over
             }
         }
 
@@ -70,12 +74,89 @@ public class CreateNewPartitionTest {
             Map gw1 = globalViews.get(1);
             Assert.assertEquals(2, gw1.keySet().size()); //2 partitions
 
-            HashMap<Integer, String> store = res.get(ip + "-values", HashMap.class);
+            HashMap<String, String> store = res.get(ip + "-values", HashMap.class);
             Assert.assertEquals(1, store.keySet().size()); //One of the keys put by the client should have been handed over upon joining
-            for (int key : store.keySet()) {
-                Assert.assertTrue(key >= KEY_RANGE); //Lower keys should remain at first partition
+            for (String key : store.keySet()) {
+                Assert.assertEquals(KEY_RANGE, ring().lookupPartitionKey(key)); //Keys of the first partition should remain there
             }
         }
 
     }
+
+    /**
+     * Start with two partitions, the new partition takes over tokens of both of them and both leaders must hand
+     * over the keys they no longer own, not only the leader of the edge partition that creates the new partition.
+     */
+    @Test
+    public void createNewPartitionFromTwoPartitionsTest() {
+        long seed = 123;
+        int servers = 6;
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add(Integer.toString(i));
+        }
+        TokenRing before = new TokenRing(new TreeSet<>(Arrays.asList(0, KEY_RANGE)), LookupTable.DEFAULT_VNODES);
+        TokenRing after = new TokenRing(new TreeSet<>(Arrays.asList(0, KEY_RANGE, 2 * KEY_RANGE)), LookupTable.DEFAULT_VNODES);
+        Set<Integer> handedOverBy = new HashSet<>();
+        for (String key : keys) {
+            if (after.owner(key) == 2 * KEY_RANGE)
+                handedOverBy.add(before.owner(key));
+        }
+        Assert.assertEquals(2, handedOverBy.size()); //Keys move from both partitions
+
+        SimulationScenario.setSeed(seed);
+        SimulationScenario reconfigureTest = ScenarioGen.reconfTest(servers, REPLICATION_DEGREE, JOINS, KEY_RANGE, keys);
+        res.put("trace", new ConcurrentLinkedQueue<>());
+
+        /**
+         * Boot up 6 servers in two partitions (0 and 50) of 3 servers each, put the keys and then boot up JOINS
+         * servers which form the new partition 100.
+         */
+        reconfigureTest.simulate(LauncherComp.class);
+
+        /**
+         * Every server should have exactly the keys that its partition owns on the ring of the three partitions
+         */
+        for (int i = 1; i <= servers + JOINS; i++) {
+            String ip = "192.168.0." + i;
+            ArrayList<Map> globalViews = res.get(ip + "-globalviews", ArrayList.class);
+            Map<Integer, Set<PID>> globalView = globalViews.get(globalViews.size() - 1);
+            Assert.assertEquals(3, globalView.keySet().size());
+            int partition = partitionOf(ip, globalView);
+            Set<String> owned = new HashSet<>();
+            for (String key : keys) {
+                if (after.owner(key) == partition)
+                    owned.add(key);
+            }
+            HashMap<String, String> store = res.get(ip + "-values", HashMap.class);
+            Assert.assertEquals(owned, store.keySet());
+            for (String key : owned) {
+                Assert.assertEquals("value" + key, store.get(key));
+            }
+        }
+    }
+
+    private static int partitionOf(String ip, Map<Integer, Set<PID>> globalView) {
+        for (Map.Entry<Integer, Set<PID>> partition : globalView.entrySet()) {
+            for (PID member : partition.getValue()) {
+                if (member.netAddress.getIp().getHostAddress().equals(ip))
+                    return partition.getKey();
+            }
+        }
+        throw new AssertionError(ip + " is not in any partition");
+    }
+
+    /**
+     * @return lookup-table with the token ring of the two partitions
+     */
+    private static LookupTable ring() {
+        try {
+            LookupTable lut = new LookupTable();
+            lut.putNode(0, new PID(new NetAddress(InetAddress.getByName("192.168.0.1"), 45678), 0));
+            lut.putNode(KEY_RANGE, new PID(new NetAddress(InetAddress.getByName("192.168.0.4"), 45678), 3));
+            return lut;
+        } catch (UnknownHostException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
 }
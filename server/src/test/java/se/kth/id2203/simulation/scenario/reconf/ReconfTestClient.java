@@ -23,6 +23,7 @@
  */
 package se.kth.id2203.simulation.scenario.reconf;
 
+import com.google.common.base.Splitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.kth.id2203.kvstore.OpResponse;
@@ -41,7 +42,8 @@ import java.util.TreeMap;
 import java.util.UUID;
 
 /**
- * Test client that issues 2 PUT requests which is used for testing handover of keys in reconftest.
+ * Test client that issues a PUT request for each of the configured keys which is used for testing handover of keys
+ * in reconftest.
  *
  * @author Kim Hammar
  */
@@ -54,6 +56,7 @@ public class ReconfTestClient extends ComponentDefinition {
     //******* Fields ******
     private final NetAddress self = config().getValue("id2203.project.address", NetAddress.class);
     private final NetAddress server = config().getValue("id2203.project.bootstrap-address", NetAddress.class);
+    private final String keys = config().getValue("id2203.project.reconf.keys", String.class);
     private final SimulationResultMap res = SimulationResultSingleton.getInstance();
     private final Map<UUID, Operation> pending = new TreeMap<>();
     //******* Handlers ******
@@ -61,8 +64,9 @@ public class ReconfTestClient extends ComponentDefinition {
 
         @Override
         public void handle(Start event) {
-            sendOp(new Operation("1", "100", "", Operation.OperationCode.PUT));
-            sendOp(new Operation("15", "3000", "", Operation.OperationCode.PUT));
+            for (String key : Splitter.on(',').split(keys)) {
+                sendOp(new Operation(key, "value" + key, "", Operation.OperationCode.PUT));
+            }
 
         }
     };
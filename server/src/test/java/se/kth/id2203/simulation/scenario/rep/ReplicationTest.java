@@ -2,6 +2,8 @@ package se.kth.id2203.simulation.scenario.rep;
 
 import junit.framework.Assert;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import se.kth.id2203.kvstore.Operation;
 import se.kth.id2203.simulation.result.SimulationResultMap;
 import se.kth.id2203.simulation.result.SimulationResultSingleton;
@@ -20,13 +22,29 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  *
  * @author Kim Hammar
  */
+@RunWith(Parameterized.class)
 public class ReplicationTest {
 
     private static final int NUM_MESSAGES = 10;
     private static final int SERVERS = 5;
     private static final int CLIENTS = 3;
     private static final int REPLICATION_DEGREE = 3;
+    /* Node 1 gets the lowest PID and leads the group, node 5 is the tail of the chain */
+    private static final int CRASHED = 3;
     private final static SimulationResultMap res = SimulationResultSingleton.getInstance();
+    private final Map<String, Object> config;
+
+    public ReplicationTest(Map<String, Object> config) {
+        this.config = config;
+    }
+
+    /**
+     * Run the scenario with each replication protocol and dissemination mode
+     */
+    @Parameterized.Parameters
+    public static Collection<Object[]> configs() {
+        return ScenarioGen.replicationConfigs();
+    }
 
     @Test
     public void replicationTest() {
@@ -39,16 +57,41 @@ public class ReplicationTest {
          * and sequential CLIENTS that will send operations to the cluster. Then verify that all replicas are in a
          * consistent state and that the state is consistent with what operations where returned to clients and in what order.
          */
-        SimulationScenario simpleBootScenario = ScenarioGen.replicationTest(SERVERS, CLIENTS, REPLICATION_DEGREE);
+        SimulationScenario simpleBootScenario = ScenarioGen.replicationTest(SERVERS, CLIENTS, REPLICATION_DEGREE, config);
         res.put("messages", NUM_MESSAGES);
         res.put("trace", new ConcurrentLinkedQueue<>());
         simpleBootScenario.simulate(LauncherComp.class);
+        assertReplicated(0);
+    }
+
+    /**
+     * Crash a member in the middle of the group while clients run, with chain dissemination the updates that it had
+     * not passed on yet must reach the members after it. The surviving replicas must agree with each other and with
+     * the trace.
+     */
+    @Test
+    public void replicationCrashTest() {
+
+        long seed = 123;
+        SimulationScenario.setSeed(seed);
+        SimulationScenario crashScenario = ScenarioGen.replicationCrashTest(SERVERS, CLIENTS, REPLICATION_DEGREE, CRASHED, config);
+        res.put("messages", NUM_MESSAGES);
+        res.put("trace", new ConcurrentLinkedQueue<>());
+        crashScenario.simulate(LauncherComp.class);
+        assertReplicated(CRASHED);
+    }
 
+    /**
+     * @param crashed server that crashed during the scenario and is not checked, 0 if none did
+     */
+    private static void assertReplicated(int crashed) {
         /**
          * Get the latest keyvalue-stores for each replica
          */
-        ArrayList<HashMap<Integer, String>> nodeStores = new ArrayList<>();
+        ArrayList<HashMap<String, String>> nodeStores = new ArrayList<>();
         for (int i = 1; i <= SERVERS; i++) {
+            if (i == crashed)
+                continue;
             String ip = "192.168.0." + i;
             nodeStores.add(res.get(ip+"-values", HashMap.class));
         }
@@ -57,27 +100,31 @@ public class ReplicationTest {
          * Build up the keyvalue store from the trace of operations (i.e apply all updates in order)
          */
         ConcurrentLinkedQueue trace = res.get("trace", ConcurrentLinkedQueue.class);
-        HashMap<Integer, String> stateFromTrace = new HashMap<>();
+        HashMap<String, String> stateFromTrace = new HashMap<>();
         Iterator iterator = trace.iterator();
         while (iterator.hasNext()) {
             HashMap<String, Object> op = (HashMap<String, Object>) iterator.next();
             if (op.get("operationCode") != null && completed(trace, (String) op.get("id"))) {
                 if (op.get("operationCode").equals(Operation.OperationCode.PUT.toString())) {
-                    stateFromTrace.put(op.get("key").hashCode(), (String) op.get("value"));
+                    stateFromTrace.put((String) op.get("key"), (String) op.get("value"));
                 }
                 if (op.get("operationCode").equals(Operation.OperationCode.CAS.toString())) {
                     if (op.get("referenceValue").equals(stateFromTrace.get(op.get("key"))))
-                        stateFromTrace.put(op.get("key").hashCode(), (String) op.get("value"));
+                        stateFromTrace.put((String) op.get("key"), (String) op.get("value"));
                 }
             }
         }
         /**
          * Verify that all replicas are in the same state and that the state is equal to the one constructed from
-         * the trace.
+         * the trace. After a crash an update may be applied although its client timed out, so then the state only
+         * has to contain every key that a completed operation wrote.
          */
-        HashMap<Integer, String> reference = nodeStores.get(0);
-        Assert.assertEquals(stateFromTrace,reference);
-        for (HashMap<Integer, String> nodeStore : nodeStores) {
+        HashMap<String, String> reference = nodeStores.get(0);
+        if (crashed == 0)
+            Assert.assertEquals(stateFromTrace,reference);
+        else
+            Assert.assertTrue(reference.keySet().containsAll(stateFromTrace.keySet()));
+        for (HashMap<String, String> nodeStore : nodeStores) {
             Assert.assertTrue(reference.equals(nodeStore));
         }
     }
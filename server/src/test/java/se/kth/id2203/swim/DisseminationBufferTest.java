@@ -0,0 +1,47 @@
+package se.kth.id2203.swim;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for DisseminationBuffer
+ */
+public class DisseminationBufferTest {
+
+    /**
+     * An update is sent retransmitMultiplier * ceil(log10(n + 1)) times and then dropped
+     */
+    @Test
+    public void retransmitLimitTest() {
+        DisseminationBuffer<String, String> buffer = new DisseminationBuffer<>(3);
+        Assert.assertEquals(3, buffer.retransmitLimit(1));
+        Assert.assertEquals(3, buffer.retransmitLimit(9));
+        Assert.assertEquals(6, buffer.retransmitLimit(10));
+        buffer.add("a", "a1");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(Arrays.asList("a1"), buffer.piggyback(8, 5));
+        }
+        Assert.assertEquals(0, buffer.size());
+        Assert.assertTrue(buffer.piggyback(8, 5).isEmpty());
+    }
+
+    /**
+     * The least transmitted updates go first and a newer update replaces the one with the same key
+     */
+    @Test
+    public void orderTest() {
+        DisseminationBuffer<String, String> buffer = new DisseminationBuffer<>(3);
+        buffer.add("a", "a1");
+        buffer.add("b", "b1");
+        Assert.assertEquals(Arrays.asList("a1"), buffer.piggyback(1, 5));
+        buffer.add("c", "c1");
+        List<String> updates = buffer.piggyback(2, 5);
+        Assert.assertEquals(Arrays.asList("b1", "c1"), updates);
+        buffer.add("a", "a2");
+        Assert.assertEquals(Arrays.asList("a2", "b1", "c1"), buffer.piggyback(8, 5));
+        Assert.assertEquals(3, buffer.size());
+    }
+}